@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CAL Buffer Pool
+ * Reusable heap and direct byte buffers in power of two size classes, shared
+ * by the drivers so the steady state send and receive paths do not allocate.
+ * Every acquired buffer must be released exactly once. A buffer released
+ * again while it is still free in the pool is always refused. With leak
+ * detection on, buffers that are garbage collected without being released
+ * and buffers released twice are reported together with the place they
+ * were acquired.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class CalBufferPool {
+
+    public static final int MIN_SIZE = 64;
+    public static final int MAX_SIZE = 65536;
+
+    private static final CalBufferPool gDefault =
+            new CalBufferPool(64, Boolean.getBoolean("com.radicales.cal.leakDetection"));
+
+    private final List<ArrayDeque<ByteBuffer>> gHeap;
+    private final List<ArrayDeque<ByteBuffer>> gDirect;
+    private final int gMaxFree;
+    private volatile boolean gLeakDetection;
+    private final ReferenceQueue<ByteBuffer> gCollected = new ReferenceQueue<>();
+    private final Map<Integer, List<Tracker>> gOutstanding = new HashMap<>();
+    private final AtomicLong gAcquired = new AtomicLong();
+    private final AtomicLong gReleased = new AtomicLong();
+    private long gLeaks;
+
+    /**
+     * Outstanding buffer, weakly held so a lost buffer can be collected
+     */
+    private static class Tracker extends WeakReference<ByteBuffer> {
+        final int Id;
+        final Throwable Origin;
+
+        Tracker( ByteBuffer Buffer, ReferenceQueue<ByteBuffer> Queue ) {
+            super(Buffer, Queue);
+            Id = System.identityHashCode(Buffer);
+            Origin = new Throwable("Buffer acquired here");
+        }
+    }
+
+    /**
+     * Constructor of a buffer pool
+     * @param MaxFree Number of free buffers kept per size class and kind
+     * @param LeakDetection True to track every outstanding buffer
+     */
+    public CalBufferPool( int MaxFree, boolean LeakDetection ) {
+        int classes = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+        gHeap = new ArrayList<>(classes);
+        gDirect = new ArrayList<>(classes);
+        for(int i=0; i<classes; i++) {
+            gHeap.add(new ArrayDeque<ByteBuffer>());
+            gDirect.add(new ArrayDeque<ByteBuffer>());
+        }
+        gMaxFree = MaxFree;
+        gLeakDetection = LeakDetection;
+    }
+
+    /**
+     * Pool shared by all drivers.
+     * Leak detection is switched on with the system property
+     * com.radicales.cal.leakDetection=true
+     */
+    public static CalBufferPool getDefault() {
+        return gDefault;
+    }
+
+    public void setLeakDetection( boolean Value ) {
+        gLeakDetection = Value;
+    }
+
+    private static int sizeClass( int Size ) {
+        int size = Math.max(Size, MIN_SIZE);
+        int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return bits - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /**
+     * Take a buffer from the pool
+     * @param Size Minimum capacity, the limit is set to this size
+     * @param Direct True for a direct buffer
+     * @return Cleared buffer, capacity rounded up to the size class
+     */
+    public ByteBuffer acquire( int Size, boolean Direct ) {
+        ByteBuffer b = null;
+
+        if(Size > MAX_SIZE) {
+            // too large to pool, released buffers of this size are dropped
+            b = Direct ? ByteBuffer.allocateDirect(Size) : ByteBuffer.allocate(Size);
+        }
+        else {
+            int c = sizeClass(Size);
+            ArrayDeque<ByteBuffer> q = (Direct ? gDirect : gHeap).get(c);
+            synchronized(q) {
+                b = q.pollFirst();
+            }
+            if(b == null) {
+                int cap = MIN_SIZE << c;
+                b = Direct ? ByteBuffer.allocateDirect(cap) : ByteBuffer.allocate(cap);
+            }
+        }
+
+        b.clear();
+        b.limit(Size);
+        if(gLeakDetection) {
+            track(b);
+        }
+        gAcquired.incrementAndGet();
+        return b;
+    }
+
+    /**
+     * Take a heap buffer from the pool, its array is accessible
+     * @param Size Minimum capacity
+     * @return Cleared buffer
+     */
+    public ByteBuffer acquire( int Size ) {
+        return acquire(Size, false);
+    }
+
+    /**
+     * Return a buffer to the pool, it may not be used afterwards
+     * @param Buffer Buffer taken from this pool, null is ignored
+     */
+    public void release( ByteBuffer Buffer ) {
+        if(Buffer == null) {
+            return;
+        }
+        if(gLeakDetection && !untrack(Buffer)) {
+            return;
+        }
+
+        int cap = Buffer.capacity();
+        if((cap > MAX_SIZE) || (cap < MIN_SIZE) || (Integer.bitCount(cap) != 1)) {
+            gReleased.incrementAndGet();
+            return;
+        }
+        ArrayDeque<ByteBuffer> q = (Buffer.isDirect() ? gDirect : gHeap).get(sizeClass(cap));
+        synchronized(q) {
+            // a buffer released twice is normally still in the free list
+            for(ByteBuffer b : q) {
+                if(b == Buffer) {
+                    System.out.println("CalBufferPool: Buffer released twice");
+                    new Throwable("Buffer released here").printStackTrace(System.out);
+                    return;
+                }
+            }
+            if(q.size() < gMaxFree) {
+                q.addFirst(Buffer);
+            }
+        }
+        gReleased.incrementAndGet();
+    }
+
+    /**
+     * Number of buffers taken and not yet returned
+     */
+    public long getOutstanding() {
+        return gAcquired.get() - gReleased.get();
+    }
+
+    /**
+     * Number of buffers found collected without being released
+     */
+    public synchronized long getLeaks() {
+        reportLeaks();
+        return gLeaks;
+    }
+
+    private synchronized void track( ByteBuffer Buffer ) {
+        reportLeaks();
+        Tracker t = new Tracker(Buffer, gCollected);
+        List<Tracker> l = gOutstanding.get(t.Id);
+        if(l == null) {
+            l = new LinkedList<>();
+            gOutstanding.put(t.Id, l);
+        }
+        l.add(t);
+    }
+
+    private synchronized boolean untrack( ByteBuffer Buffer ) {
+        int id = System.identityHashCode(Buffer);
+        List<Tracker> l = gOutstanding.get(id);
+        if(l != null) {
+            Iterator<Tracker> it = l.iterator();
+            while(it.hasNext()) {
+                if(it.next().get() == Buffer) {
+                    it.remove();
+                    if(l.isEmpty()) {
+                        gOutstanding.remove(id);
+                    }
+                    return true;
+                }
+            }
+        }
+        System.out.println("CalBufferPool: Buffer released twice or not from this pool");
+        new Throwable("Buffer released here").printStackTrace(System.out);
+        return false;
+    }
+
+    private void reportLeaks() {
+        Tracker t;
+        while((t = (Tracker)gCollected.poll()) != null) {
+            List<Tracker> l = gOutstanding.get(t.Id);
+            if((l != null) && l.remove(t)) {
+                if(l.isEmpty()) {
+                    gOutstanding.remove(t.Id);
+                }
+                gLeaks++;
+                System.out.println("CalBufferPool: Buffer collected without release");
+                t.Origin.printStackTrace(System.out);
+            }
+        }
+    }
+
+}
@@ -20,6 +20,8 @@ package com.radicales.cal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 /**
  * CAL Driver
@@ -41,6 +43,9 @@ public abstract class CalDriver implements Runnable {
     public static final int DRIVER_TYPE_JSSC = 2;
     public static final int DRIVER_TYPE_RXTX = 3;
     public static final int DRIVER_TYPE_TCPIP = 4;
+    public static final int DRIVER_TYPE_MUX = 5;
+    public static final int DRIVER_TYPE_UDP = 6;
+    public static final int DRIVER_TYPE_MEMORY = 7;
 
     protected InputStream drvInputStream;    //wrap into filter input
     protected OutputStream drvOutputStream;      //wrap into filter output
@@ -121,11 +126,11 @@ public abstract class CalDriver implements Runnable {
         if(drvRunning) {
             throw new CalDriverException("Driver already running");
         }
+        // set before the thread starts, its loop checks the flag
+        drvRunning = true;
         if(drvThreading) {
             drvThread.start();
         }
-
-        drvRunning = true;
     }
 
     public void Stop() throws CalDriverException {
@@ -167,10 +172,38 @@ public abstract class CalDriver implements Runnable {
         return ret;
     }
 
+    /**
+     * Write several buffers as one block of data.
+     * Drivers that can gather buffers in a single write override this,
+     * by default the buffers are joined and written with one call.
+     *
+     * @param Buffers Buffers to write, from position to limit
+     * @return Number of bytes written
+     * @throws CalDriverException
+     */
+    public int Write( ByteBuffer[] Buffers ) throws CalDriverException {
+        int len = 0;
+        for(ByteBuffer b : Buffers) {
+            len += b.remaining();
+        }
+        CalBufferPool pool = CalBufferPool.getDefault();
+        ByteBuffer data = pool.acquire(len);
+        try {
+            for(ByteBuffer b : Buffers) {
+                data.put(b);
+            }
+            return Write(data.array(), len);
+        } finally {
+            pool.release(data);
+        }
+    }
+
     public int Read( byte[] Buffer, int Length ) throws CalDriverException {
         int ret = 0;
         try {
             ret = drvInputStream.read(Buffer, 0, Length);
+        } catch (SocketTimeoutException ex) {
+            throw new CalTimeoutException("Read timeout");
         } catch (IOException ex) {
             throw new CalDriverException("::Driver::Write:" + ex.getMessage());
         }
@@ -181,6 +214,8 @@ public abstract class CalDriver implements Runnable {
         int ret = 0;
         try {
             ret = drvInputStream.read(Buffer, 0, Buffer.length);
+        } catch (SocketTimeoutException ex) {
+            throw new CalTimeoutException("Read timeout");
         } catch (IOException ex) {
             throw new CalDriverException(ex.getMessage());
         }
@@ -191,6 +226,8 @@ public abstract class CalDriver implements Runnable {
         int ret = 0;
         try {
             ret = drvInputStream.read();
+        } catch (SocketTimeoutException ex) {
+            throw new CalTimeoutException("Read timeout");
         } catch (IOException ex) {
             throw new CalDriverException(ex.getMessage());
         }
@@ -226,8 +263,20 @@ public abstract class CalDriver implements Runnable {
                 drvOutputStream.flush();
             }
             if(drvInputStream != null) {
-                while(drvInputStream.available() > 0) {
-                    drvInputStream.read();
+                int n = drvInputStream.available();
+                if(n > 0) {
+                    CalBufferPool pool = CalBufferPool.getDefault();
+                    ByteBuffer b = pool.acquire(1024);
+                    try {
+                        while(n > 0) {
+                            if(drvInputStream.read(b.array(), 0, Math.min(n, b.capacity())) < 0) {
+                                break;
+                            }
+                            n = drvInputStream.available();
+                        }
+                    } finally {
+                        pool.release(b);
+                    }
                 }
             }
         } catch (IOException ex) {
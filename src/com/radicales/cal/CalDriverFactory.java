@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal;
+
+/**
+ * CAL Driver Factory
+ * Creates the driver a device is reached through, so device objects do not
+ * depend on a particular transport.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public interface CalDriverFactory {
+
+    /**
+     * Create a new, closed driver
+     * @param Address Address of the device, its meaning depends on the transport
+     * @param Port Port of the device, its meaning depends on the transport
+     * @return New driver
+     * @throws CalDriverException If no driver can be created for the address
+     */
+    CalDriver createDriver( String Address, int Port ) throws CalDriverException;
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CAL Frame Ring
+ * Lock free single producer, single consumer queue of frames in one byte
+ * array allocated up front. Every frame is stored as a length followed by
+ * the data, a frame never wraps around the end of the array. The producer
+ * copies frames in, the consumer handles them in place and in batches. A
+ * full ring drops the frame instead of blocking the producer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class CalFrameRing {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int WRAP = -1;
+
+    private final byte[] gBuffer;
+    private final int gMask;
+    private final AtomicLong gHead = new AtomicLong();
+    private final AtomicLong gTail = new AtomicLong();
+    private long gTailCache;
+    private long gHeadCache;
+    private volatile long gDropped;
+    private volatile long gOversize;
+
+    /**
+     * Constructor of a frame ring
+     * @param Size Size of the ring in bytes, rounded up to a power of two
+     */
+    public CalFrameRing( int Size ) {
+        int n = Integer.highestOneBit(Math.max(64, Size) - 1) << 1;
+        gBuffer = new byte[n];
+        gMask = n - 1;
+    }
+
+    public int getCapacity() {
+        return gBuffer.length;
+    }
+
+    /**
+     * Number of frames dropped because the ring was full
+     */
+    public long getDropped() {
+        return gDropped;
+    }
+
+    /**
+     * Number of frames dropped because they are larger than the ring
+     */
+    public long getOversize() {
+        return gOversize;
+    }
+
+    /**
+     * Number of bytes in use
+     */
+    public int size() {
+        return (int)(gHead.get() - gTail.get());
+    }
+
+    public boolean isEmpty() {
+        return gHead.get() == gTail.get();
+    }
+
+    /**
+     * Copy a frame into the ring, only called by the producer thread
+     * @param Buffer Frame data
+     * @param Offset Start of the frame
+     * @param Length Length of the frame
+     * @return True if the frame was queued, false if it was dropped
+     */
+    public boolean offer( byte[] Buffer, int Offset, int Length ) {
+        int need = (HEADER_SIZE + Length + 3) & ~3;
+        long head = gHead.get();
+        int index = (int)head & gMask;
+        int toEnd = gBuffer.length - index;
+        int total = (toEnd < need) ? toEnd + need : need;
+
+        if(need > gBuffer.length) {
+            gOversize++;
+            return false;
+        }
+        if(head + total - gTailCache > gBuffer.length) {
+            gTailCache = gTail.get();
+            if(head + total - gTailCache > gBuffer.length) {
+                gDropped++;
+                return false;
+            }
+        }
+        if(toEnd < need) {
+            // frames are contiguous, skip the rest of the array
+            putInt(index, WRAP);
+            head += toEnd;
+            index = 0;
+        }
+        putInt(index, Length);
+        System.arraycopy(Buffer, Offset, gBuffer, index + HEADER_SIZE, Length);
+        // publish the frame after its data
+        gHead.lazySet(head + need);
+        return true;
+    }
+
+    /**
+     * Hand queued frames to a handler, only called by the consumer thread.
+     * A frame is only valid during the handler call, the space of a batch
+     * is released when the batch is done. A frame whose handler throws a
+     * runtime exception is logged and skipped, the rest of the batch is
+     * still handled.
+     *
+     * @param Handler Frame handler
+     * @param Max Largest number of frames in the batch
+     * @return Number of frames handled
+     */
+    public int drain( CalFrameHandler Handler, int Max ) {
+        long tail = gTail.get();
+        int count = 0;
+
+        if(gHeadCache <= tail) {
+            gHeadCache = gHead.get();
+            if(gHeadCache <= tail) {
+                return 0;
+            }
+        }
+        while((tail < gHeadCache) && (count < Max)) {
+            int index = (int)tail & gMask;
+            int len = getInt(index);
+            if(len == WRAP) {
+                tail += gBuffer.length - index;
+                continue;
+            }
+            try {
+                Handler.frameReceived(gBuffer, index + HEADER_SIZE, len);
+            } catch (RuntimeException ex) {
+                System.out.println("CalFrameRing: Frame of " + len + " bytes skipped (" + ex + ")");
+            }
+            count++;
+            tail += (HEADER_SIZE + len + 3) & ~3;
+        }
+        gTail.lazySet(tail);
+        return count;
+    }
+
+    private void putInt( int Index, int Value ) {
+        gBuffer[Index] = (byte)(Value >> 24);
+        gBuffer[Index + 1] = (byte)(Value >> 16);
+        gBuffer[Index + 2] = (byte)(Value >> 8);
+        gBuffer[Index + 3] = (byte)Value;
+    }
+
+    private int getInt( int Index ) {
+        return ((gBuffer[Index] & 0xff) << 24) | ((gBuffer[Index + 1] & 0xff) << 16)
+                | ((gBuffer[Index + 2] & 0xff) << 8) | (gBuffer[Index + 3] & 0xff);
+    }
+
+}
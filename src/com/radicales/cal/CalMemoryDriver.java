@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal;
+
+/**
+ * CAL Memory Driver
+ * One end of an in-memory connection. Everything written to one end can
+ * be read from the other, without any network or serial port involved.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Added free space of the receive buffer.
+ */
+public class CalMemoryDriver extends CalDriver {
+
+    private final CalRingBuffer gRxBuffer;
+    private CalMemoryDriver gPeer;
+    private int gTimeout;
+
+    private CalMemoryDriver( int BufferSize ) {
+        super(CalDriver.DRIVER_TYPE_MEMORY, false);
+        gRxBuffer = new CalRingBuffer(BufferSize);
+        gTimeout = 3000;
+    }
+
+    /**
+     * Create the two ends of a connection
+     * @param BufferSize Receive buffer size of each end in bytes
+     * @return Both ends of the connection
+     */
+    public static CalMemoryDriver[] createPair( int BufferSize ) {
+        CalMemoryDriver a = new CalMemoryDriver(BufferSize);
+        CalMemoryDriver b = new CalMemoryDriver(BufferSize);
+        a.gPeer = b;
+        b.gPeer = a;
+        return new CalMemoryDriver[] { a, b };
+    }
+
+    public CalMemoryDriver getPeer() {
+        return gPeer;
+    }
+
+    /**
+     * Set the time a read waits for data
+     * @param Value Timeout in milliseconds
+     */
+    public void setTimeout( int Value ) {
+        gTimeout = Value;
+    }
+
+    /**
+     * Free space of the receive buffer of this end.
+     * Data written by the peer beyond it is lost, a writer that must not
+     * lose data waits for the space first.
+     *
+     * @return Number of bytes that can be received
+     */
+    public int getFree() {
+        return gRxBuffer.free();
+    }
+
+    /**
+     * Open this end, the peer reads a new stream after the previous one ended
+     */
+    @Override
+    public void Open() throws CalDriverException {
+        super.Open();
+        gPeer.gRxBuffer.reopen();
+    }
+
+    /**
+     * Close this end, the peer reads the bytes still buffered followed by
+     * end of stream
+     */
+    @Override
+    public void Close() throws CalDriverException {
+        super.Close();
+        endStream();
+    }
+
+    @Override
+    public void Start() throws CalDriverException {
+        super.Start();
+        gPeer.gRxBuffer.reopen();
+    }
+
+    @Override
+    public void Stop() throws CalDriverException {
+        super.Stop();
+        endStream();
+    }
+
+    private void endStream() {
+        gPeer.gRxBuffer.close();
+        // wake an event driven reader so it reads the end of stream
+        CalDriverEvent listener = gPeer.drvEventListener;
+        if(listener != null) {
+            listener.DriverEventData();
+        }
+    }
+
+    @Override
+    public int Write( byte[] Buffer, int Length ) throws CalDriverException {
+        if(!drvOpen) {
+            throw new CalDriverException("Port not open");
+        }
+        int n = gPeer.gRxBuffer.write(Buffer, 0, Length);
+        CalDriverEvent listener = gPeer.drvEventListener;
+        if((n > 0) && (listener != null)) {
+            listener.DriverEventData();
+        }
+        return n;
+    }
+
+    @Override
+    public int Write( byte[] Buffer ) throws CalDriverException {
+        return Write(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read( byte[] Buffer, int Length ) throws CalDriverException {
+        if(!drvOpen) {
+            throw new CalDriverException("Port not open");
+        }
+        try {
+            return gRxBuffer.read(Buffer, 0, Length, gTimeout);
+        } catch (InterruptedException ex) {
+            throw new CalDriverException("Read interrupted");
+        }
+    }
+
+    @Override
+    public int Read( byte[] Buffer ) throws CalDriverException {
+        return Read(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read() throws CalDriverException {
+        byte[] b = new byte[1];
+        if(Read(b, 1) < 1) {
+            return -1;
+        }
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer, int Length ) throws CalDriverException {
+        Write(Buffer, Length);
+        return Read(Buffer, Length);
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer ) throws CalDriverException {
+        return WriteRead(Buffer, Buffer.length);
+    }
+
+    @Override
+    public void Flush() throws CalDriverException {
+        gRxBuffer.clear();
+    }
+
+    @Override
+    public int IoControl( int Code, int Arg ) throws CalDriverException {
+        if(Code == 10) {
+            return gRxBuffer.available();
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CAL Memory Driver Factory
+ * Creates in-memory connections and keeps the far end of the latest
+ * connection to every address, for a simulated device to serve.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class CalMemoryDriverFactory implements CalDriverFactory {
+
+    private final int gBufferSize;
+    private final Map<String, CalMemoryDriver> gPeers = new HashMap<>();
+
+    public CalMemoryDriverFactory( int BufferSize ) {
+        gBufferSize = BufferSize;
+    }
+
+    @Override
+    public synchronized CalDriver createDriver( String Address, int Port ) {
+        CalMemoryDriver[] pair = CalMemoryDriver.createPair(gBufferSize);
+        gPeers.put(Address + ":" + Port, pair[1]);
+        notifyAll();
+        return pair[0];
+    }
+
+    /**
+     * Far end of the latest connection to an address
+     * @param Address Address the connection was created for
+     * @param Port Port the connection was created for
+     * @param Timeout Time in milliseconds to wait for the connection
+     * @return Far end driver, null if no connection was created in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized CalMemoryDriver getPeer( String Address, int Port, long Timeout ) throws InterruptedException {
+        String key = Address + ":" + Port;
+        long end = System.currentTimeMillis() + Timeout;
+        long left = Timeout;
+        while(!gPeers.containsKey(key) && (left > 0)) {
+            wait(left);
+            left = end - System.currentTimeMillis();
+        }
+        return gPeers.get(key);
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal;
+
+/**
+ * CAL Ring Buffer
+ * Fixed size byte FIFO between a producer that pushes received bytes and a
+ * reader that blocks until data is available or a timeout expires.
+ * The producer closes the buffer at the end of the stream, the reader then
+ * gets the remaining bytes followed by end of stream.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class CalRingBuffer {
+
+    private final byte[] gBuffer;
+    private int gHead;
+    private int gTail;
+    private int gCount;
+    private long gOverflows;
+    private boolean gClosed;
+
+    public CalRingBuffer( int Size ) {
+        gBuffer = new byte[Size];
+        gHead = 0;
+        gTail = 0;
+        gCount = 0;
+        gOverflows = 0;
+    }
+
+    /**
+     * Push bytes into the buffer.
+     * Bytes that do not fit are dropped and counted as overflow.
+     *
+     * @param Buffer Source buffer
+     * @param Offset Offset in source buffer
+     * @param Length Number of bytes to push
+     * @return Number of bytes stored
+     */
+    public synchronized int write( byte[] Buffer, int Offset, int Length ) {
+        int n = Math.min(Length, gBuffer.length - gCount);
+        int first = Math.min(n, gBuffer.length - gHead);
+        System.arraycopy(Buffer, Offset, gBuffer, gHead, first);
+        System.arraycopy(Buffer, Offset + first, gBuffer, 0, n - first);
+        gHead = (gHead + n) % gBuffer.length;
+        gCount += n;
+        if(n < Length) {
+            gOverflows += (Length - n);
+        }
+        if(n > 0) {
+            notifyAll();
+        }
+        return n;
+    }
+
+    /**
+     * Take bytes from the buffer, waiting for data if the buffer is empty
+     * @param Buffer Destination buffer
+     * @param Offset Offset in destination buffer
+     * @param Length Maximum number of bytes to take
+     * @param Timeout Maximum time to wait in milliseconds, 0 to not wait
+     * @return Number of bytes taken, 0 on timeout, -1 at the end of the stream
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized int read( byte[] Buffer, int Offset, int Length, long Timeout ) throws InterruptedException {
+        if((gCount == 0) && (Timeout > 0)) {
+            long end = System.currentTimeMillis() + Timeout;
+            long left = Timeout;
+            while((gCount == 0) && !gClosed && (left > 0)) {
+                wait(left);
+                left = end - System.currentTimeMillis();
+            }
+        }
+
+        if((gCount == 0) && gClosed) {
+            return -1;
+        }
+        int n = Math.min(Length, gCount);
+        int first = Math.min(n, gBuffer.length - gTail);
+        System.arraycopy(gBuffer, gTail, Buffer, Offset, first);
+        System.arraycopy(gBuffer, 0, Buffer, Offset + first, n - first);
+        gTail = (gTail + n) % gBuffer.length;
+        gCount -= n;
+        return n;
+    }
+
+    public synchronized int available() {
+        return gCount;
+    }
+
+    public synchronized int free() {
+        return gBuffer.length - gCount;
+    }
+
+    public int size() {
+        return gBuffer.length;
+    }
+
+    public synchronized long getOverflows() {
+        return gOverflows;
+    }
+
+    /**
+     * Mark the end of the stream and wake a waiting reader
+     */
+    public synchronized void close() {
+        gClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * Continue the stream after a close, bytes not read yet are kept
+     */
+    public synchronized void reopen() {
+        gClosed = false;
+    }
+
+    public synchronized boolean isClosed() {
+        return gClosed;
+    }
+
+    /**
+     * Empty the buffer and start a new stream
+     */
+    public synchronized void clear() {
+        gHead = 0;
+        gTail = 0;
+        gCount = 0;
+        gClosed = false;
+    }
+
+}
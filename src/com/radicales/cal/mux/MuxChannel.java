@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.mux;
+
+import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalRingBuffer;
+
+/**
+ * Multiplexer Channel Driver
+ * Driver for one remote device behind a site gateway.
+ * Starting the channel asks the gateway to connect to the device,
+ * stopping it asks the gateway to disconnect. When the device side closes
+ * reads return end of stream once the received data is taken.
+ * Writes wait for credit from the gateway and taken data is credited back,
+ * a gateway that sends beyond its credit gets the channel closed.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class MuxChannel extends CalDriver {
+
+    // longest a write waits for the gateway to take earlier data
+    private static final int WRITE_TIMEOUT = 30000;
+
+    private final MuxHub gHub;
+    private final String gSite;
+    private final int gChannel;
+    private final CalRingBuffer gRxBuffer;
+    private final Object gCreditLock = new Object();
+    private int gTxCredit;
+    private int gConsumed;
+    private int gTimeout;
+
+    MuxChannel( MuxHub Hub, String Site, int Channel ) {
+        super(CalDriver.DRIVER_TYPE_MUX, Channel, true, false);
+        gHub = Hub;
+        gSite = Site;
+        gChannel = Channel;
+        gRxBuffer = new CalRingBuffer(MuxLink.WINDOW);
+        gTimeout = 3000;
+    }
+
+    public String getSite() {
+        return gSite;
+    }
+
+    public int getChannel() {
+        return gChannel;
+    }
+
+    /**
+     * Set the time a read waits for data
+     * @param Value Timeout in milliseconds
+     */
+    public void setTimeout( int Value ) {
+        gTimeout = Value;
+    }
+
+    void receive( byte[] Buffer, int Offset, int Length ) {
+        if(drvRunning && !gRxBuffer.isClosed()) {
+            if(gRxBuffer.write(Buffer, Offset, Length) < Length) {
+                // the gateway ignores its credit, data would be lost
+                System.out.println("MuxChannel: Channel " + gSite + ":" + gChannel + " receive overflow, closing");
+                gRxBuffer.close();
+                try {
+                    gHub.send(gSite, gChannel, MuxLink.FRAME_CLOSE, null, 0, 0);
+                } catch (CalDriverException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     * The gateway closed the device connection or the gateway is gone
+     */
+    void remoteClosed() {
+        if(drvRunning) {
+            gRxBuffer.close();
+        }
+        synchronized(gCreditLock) {
+            gCreditLock.notifyAll();
+        }
+    }
+
+    /**
+     * The gateway took data, more may be written
+     */
+    void credit( int Bytes ) {
+        synchronized(gCreditLock) {
+            gTxCredit += Bytes;
+            gCreditLock.notifyAll();
+        }
+    }
+
+    /**
+     * The channel is opened on the gateway again, both sides start with a full window
+     */
+    void resetCredit() {
+        synchronized(gCreditLock) {
+            gTxCredit = MuxLink.WINDOW;
+            gConsumed = 0;
+            gCreditLock.notifyAll();
+        }
+    }
+
+    private int takeCredit( int Wanted ) throws CalDriverException {
+        synchronized(gCreditLock) {
+            long end = System.currentTimeMillis() + WRITE_TIMEOUT;
+            while(gTxCredit == 0) {
+                if(!drvRunning || gRxBuffer.isClosed()) {
+                    throw new CalDriverException("Channel closed");
+                }
+                long left = end - System.currentTimeMillis();
+                if(left <= 0) {
+                    throw new CalDriverException("Write timeout");
+                }
+                try {
+                    gCreditLock.wait(left);
+                } catch (InterruptedException ex) {
+                    throw new CalDriverException("Write interrupted");
+                }
+            }
+            int n = Math.min(Wanted, gTxCredit);
+            gTxCredit -= n;
+            return n;
+        }
+    }
+
+    /**
+     * Received data was taken, credit goes back in blocks of a quarter window
+     */
+    private void consumed( int Bytes ) {
+        int credit = 0;
+        synchronized(gCreditLock) {
+            gConsumed += Bytes;
+            if(gConsumed >= MuxLink.WINDOW / 4) {
+                credit = gConsumed;
+                gConsumed = 0;
+            }
+        }
+        if(credit > 0) {
+            try {
+                gHub.sendCredit(gSite, gChannel, credit);
+            } catch (CalDriverException ex) {
+            }
+        }
+    }
+
+    @Override
+    synchronized public void Start() throws CalDriverException {
+        super.Start();
+        gRxBuffer.clear();
+        resetCredit();
+        try {
+            gHub.send(gSite, gChannel, MuxLink.FRAME_OPEN, null, 0, 0);
+        } catch (CalDriverException ex) {
+            drvRunning = false;
+            throw ex;
+        }
+    }
+
+    @Override
+    synchronized public void Stop() throws CalDriverException {
+        super.Stop();
+        synchronized(gCreditLock) {
+            gCreditLock.notifyAll();
+        }
+        try {
+            gHub.send(gSite, gChannel, MuxLink.FRAME_CLOSE, null, 0, 0);
+        } catch (CalDriverException ex) {
+        }
+    }
+
+    @Override
+    public int Write( byte[] Buffer, int Length ) throws CalDriverException {
+        int off = 0;
+        while(off < Length) {
+            int n = takeCredit(Length - off);
+            gHub.send(gSite, gChannel, MuxLink.FRAME_DATA, Buffer, off, n);
+            off += n;
+        }
+        return Length;
+    }
+
+    @Override
+    public int Write( byte[] Buffer ) throws CalDriverException {
+        return Write(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read( byte[] Buffer, int Length ) throws CalDriverException {
+        int n;
+        try {
+            n = gRxBuffer.read(Buffer, 0, Length, gTimeout);
+        } catch (InterruptedException ex) {
+            throw new CalDriverException("Read interrupted");
+        }
+        if(n > 0) {
+            consumed(n);
+        }
+        return n;
+    }
+
+    @Override
+    public int Read( byte[] Buffer ) throws CalDriverException {
+        return Read(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read() throws CalDriverException {
+        byte[] b = new byte[1];
+        if(Read(b, 1) < 1) {
+            return -1;
+        }
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer, int Length ) throws CalDriverException {
+        Write(Buffer, Length);
+        return Read(Buffer, Length);
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer ) throws CalDriverException {
+        return WriteRead(Buffer, Buffer.length);
+    }
+
+    @Override
+    public void Flush() throws CalDriverException {
+        int n = gRxBuffer.available();
+        gRxBuffer.clear();
+        consumed(n);
+    }
+
+    @Override
+    public int IoControl( int Code, int Arg ) throws CalDriverException {
+        if(Code == 10) {
+            return gRxBuffer.available();
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.mux;
+
+import com.radicales.cal.CalDriver;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Multiplexer Gateway
+ * Site side of a gateway connection. Owns the local connections to all
+ * devices at a site and carries their traffic to a central {@link MuxHub}
+ * over a single connection. The site name it connects with tells the
+ * hub which site the channels belong to.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class MuxGateway implements Runnable, MuxLinkEvent {
+
+    private final String gSite;
+    private final String gServerAddress;
+    private final int gServerPort;
+    private final boolean gCompress;
+    private final int gBatchWindow;
+    private final Map<Integer, MuxGatewayPort> gPorts = new HashMap<>();
+    private Thread gThread;
+    private volatile boolean gRunning;
+    private volatile MuxLink gLink;
+
+    /**
+     * Constructor of a site gateway
+     * @param Site Name of the site, unique among the gateways of a hub
+     * @param ServerAddress Address of the central hub
+     * @param ServerPort Port of the central hub
+     * @param Compress Deflate batches sent to the hub
+     * @param BatchWindow Time in milliseconds frames are collected before a batch is sent
+     */
+    public MuxGateway( String Site, String ServerAddress, int ServerPort, boolean Compress, int BatchWindow ) {
+        gSite = Site;
+        gServerAddress = ServerAddress;
+        gServerPort = ServerPort;
+        gCompress = Compress;
+        gBatchWindow = BatchWindow;
+    }
+
+    /**
+     * Add a local device.
+     * The driver is opened when the hub starts the matching channel.
+     *
+     * @param Channel Channel number the hub knows the device under
+     * @param Driver Driver of the local device connection
+     */
+    public synchronized void addController( int Channel, CalDriver Driver ) {
+        gPorts.put(Channel, new MuxGatewayPort(Channel, Driver));
+    }
+
+    public boolean isConnected() {
+        MuxLink l = gLink;
+        return (l != null) && l.isOpen();
+    }
+
+    public synchronized void start() {
+        if(gRunning) {
+            return;
+        }
+        gRunning = true;
+        gThread = new Thread(this);
+        gThread.setName("MuxGateway::Connect");
+        gThread.start();
+    }
+
+    public synchronized void stop() {
+        if(!gRunning) {
+            return;
+        }
+        gRunning = false;
+        gThread.interrupt();
+        MuxLink l = gLink;
+        if(l != null) {
+            l.close();
+        }
+    }
+
+    private synchronized MuxGatewayPort getPort( int Channel ) {
+        return gPorts.get(Channel);
+    }
+
+    private synchronized void closePorts() {
+        for(MuxGatewayPort p : gPorts.values()) {
+            p.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        System.out.println("MuxGateway Starting");
+
+        while(gRunning) {
+            if(!isConnected()) {
+                Socket s = new Socket();
+                try {
+                    s.setTcpNoDelay(true);
+                    s.setKeepAlive(true);
+                    s.connect(new InetSocketAddress(gServerAddress, gServerPort), 10000);
+                    MuxLink l = new MuxLink(s, this, gCompress, gBatchWindow);
+                    l.start();
+                    byte[] site = gSite.getBytes(StandardCharsets.UTF_8);
+                    l.send(0, MuxLink.FRAME_HELLO, site, 0, site.length);
+                    gLink = l;
+                    System.out.println("MuxGateway: Connected to " + gServerAddress);
+                } catch (IOException ex) {
+                    try {
+                        s.close();
+                    } catch (IOException exx) {
+                    }
+                }
+            }
+
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException ex) {
+            }
+        }
+
+        closePorts();
+        System.out.println("MuxGateway Stopping");
+    }
+
+    @Override
+    public void muxFrame( MuxLink Link, int Channel, int Type, byte[] Buffer, int Offset, int Length ) {
+        MuxGatewayPort p = getPort(Channel);
+        if(p == null) {
+            return;
+        }
+
+        if(Type == MuxLink.FRAME_DATA) {
+            p.write(Buffer, Offset, Length);
+        }
+        else if(Type == MuxLink.FRAME_OPEN) {
+            p.open(Link);
+        }
+        else if(Type == MuxLink.FRAME_CLOSE) {
+            p.close();
+        }
+        else if(Type == MuxLink.FRAME_CREDIT) {
+            p.credit(MuxLink.getCredit(Buffer, Offset, Length));
+        }
+    }
+
+    @Override
+    public void muxClosed( MuxLink Link ) {
+        if(gLink == Link) {
+            gLink = null;
+            System.out.println("MuxGateway: Disconnected from " + gServerAddress);
+            closePorts();
+        }
+    }
+
+}
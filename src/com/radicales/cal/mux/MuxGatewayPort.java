@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.mux;
+
+import com.radicales.cal.CalBufferPool;
+import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalTimeoutException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multiplexer Gateway Port
+ * Local device connection of a site gateway. Forwards everything read
+ * from the device upstream on its channel. Opening, closing and writing
+ * the device is done on a worker thread of the port, so a slow or dead
+ * device never holds up the link or the other ports. Data in both
+ * directions is flow controlled with link credit, the hub sends no more
+ * than the device has taken and the device is not read while the hub
+ * has no room.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+class MuxGatewayPort implements Runnable {
+
+    // writes the device has not taken yet, beyond this the hub ignores
+    // its credit and the port is closed
+    private static final int MAX_QUEUED = 2 * MuxLink.WINDOW;
+
+    private final int gChannel;
+    private final CalDriver gDriver;
+    private final ExecutorService gWorker;
+    private final AtomicInteger gQueued = new AtomicInteger();
+    private final Object gCreditLock = new Object();
+    private int gTxCredit;
+    private int gConsumed;
+    private MuxLink gLink;
+    private Thread gThread;
+    private volatile boolean gRunning;
+    private volatile boolean gOverflow;
+
+    MuxGatewayPort( final int Channel, CalDriver Driver ) {
+        gChannel = Channel;
+        gDriver = Driver;
+        gWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable Task ) {
+                Thread t = new Thread(Task, "MuxGateway::Port" + Channel);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Connect the device, on the worker of the port
+     */
+    void open( final MuxLink Link ) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                connectPort(Link);
+            }
+        });
+    }
+
+    /**
+     * Disconnect the device, on the worker of the port
+     */
+    void close() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                disconnect();
+            }
+        });
+    }
+
+    /**
+     * Queue data for the device, it is written on the worker of the port
+     */
+    void write( byte[] Buffer, int Offset, final int Length ) {
+        if(gOverflow) {
+            return;
+        }
+        if(gQueued.addAndGet(Length) > MAX_QUEUED) {
+            gQueued.addAndGet(-Length);
+            gOverflow = true;
+            System.out.println("MuxGateway: Channel " + gChannel + " hub exceeds its credit, closing");
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    MuxLink l = gLink;
+                    disconnect();
+                    if(l != null) {
+                        try {
+                            l.send(gChannel, MuxLink.FRAME_CLOSE, null, 0, 0);
+                        } catch (IOException ex) {
+                        }
+                    }
+                }
+            });
+            return;
+        }
+
+        final CalBufferPool pool = CalBufferPool.getDefault();
+        final ByteBuffer b = pool.acquire(Length);
+        b.put(Buffer, Offset, Length);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if(gRunning && gDriver.isRunning()) {
+                        gDriver.Write(b.array(), Length);
+                    }
+                } catch (CalDriverException ex) {
+                    System.out.println("MuxGateway: Channel " + gChannel + " write failed (" + ex.getMessage() + ")");
+                } finally {
+                    pool.release(b);
+                    gQueued.addAndGet(-Length);
+                    consumed(Length);
+                }
+            }
+        };
+        if(!execute(task)) {
+            pool.release(b);
+            gQueued.addAndGet(-Length);
+        }
+    }
+
+    /**
+     * The hub took data of the device, more may be sent upstream
+     */
+    void credit( int Bytes ) {
+        synchronized(gCreditLock) {
+            gTxCredit += Bytes;
+            gCreditLock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for credit to send device data upstream
+     * @param Wanted Number of bytes to send
+     * @return Number of bytes that may be sent
+     */
+    private int takeCredit( int Wanted ) throws InterruptedException {
+        synchronized(gCreditLock) {
+            while(gTxCredit == 0) {
+                if(!gRunning) {
+                    throw new InterruptedException();
+                }
+                gCreditLock.wait();
+            }
+            int n = Math.min(Wanted, gTxCredit);
+            gTxCredit -= n;
+            return n;
+        }
+    }
+
+    /**
+     * Data for the device was handled, on the worker of the port.
+     * Credit is handed back to the hub in blocks of a quarter window.
+     */
+    private void consumed( int Bytes ) {
+        gConsumed += Bytes;
+        MuxLink l = gLink;
+        if((gConsumed >= MuxLink.WINDOW / 4) && (l != null)) {
+            try {
+                l.sendCredit(gChannel, gConsumed);
+            } catch (IOException ex) {
+            }
+            gConsumed = 0;
+        }
+    }
+
+    private boolean execute( Runnable Task ) {
+        try {
+            gWorker.execute(Task);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    private void connectPort( MuxLink Link ) {
+        Thread old;
+        synchronized(this) {
+            disconnect();
+            old = gThread;
+        }
+
+        // the old reader must be gone before a new one shares the driver,
+        // it takes the lock itself on the way out
+        if(old != null) {
+            try {
+                old.join(5000);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if(old.isAlive()) {
+                System.out.println("MuxGateway: Channel " + gChannel + " reader did not stop, open refused");
+                return;
+            }
+        }
+
+        gLink = Link;
+        gOverflow = false;
+        gConsumed = 0;
+        synchronized(gCreditLock) {
+            gTxCredit = MuxLink.WINDOW;
+        }
+        if(!connect()) {
+            return;
+        }
+        synchronized(this) {
+            gRunning = true;
+            gThread = new Thread(this);
+            gThread.setName("MuxGateway::Channel" + gChannel);
+            gThread.start();
+        }
+    }
+
+    private boolean connect() {
+        try {
+            gDriver.Open();
+            gDriver.Start();
+        } catch (CalDriverException ex) {
+            System.out.println("MuxGateway: Channel " + gChannel + " connect failed (" + ex.getMessage() + ")");
+            if(gDriver.isOpen()) {
+                try {
+                    gDriver.Close();
+                } catch (CalDriverException exx) {
+                }
+            }
+            try {
+                gLink.send(gChannel, MuxLink.FRAME_CLOSE, null, 0, 0);
+            } catch (IOException exx) {
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void disconnect() {
+        if(!gRunning) {
+            return;
+        }
+        gRunning = false;
+        try {
+            if(gDriver.isRunning()) {
+                gDriver.Stop();
+            }
+            if(gDriver.isOpen()) {
+                gDriver.Close();
+            }
+        } catch (CalDriverException ex) {
+        }
+        gThread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[1024];
+
+        while(gRunning) {
+            int len;
+            try {
+                len = gDriver.Read(buffer);
+            } catch (CalTimeoutException ex) {
+                continue;
+            } catch (CalDriverException ex) {
+                // the connection is broken, unless the port is closing anyway
+                // the hub is told the device is gone
+                if(gRunning) {
+                    System.out.println("MuxGateway: Channel " + gChannel + " read failed (" + ex.getMessage() + ")");
+                    try {
+                        gLink.send(gChannel, MuxLink.FRAME_CLOSE, null, 0, 0);
+                    } catch (IOException exx) {
+                    }
+                }
+                break;
+            }
+
+            try {
+                if(len < 0) {
+                    gLink.send(gChannel, MuxLink.FRAME_CLOSE, null, 0, 0);
+                    break;
+                }
+                else if(len == 0) {
+                    Thread.sleep(10);
+                }
+                // the device is not read again until the hub has room
+                int off = 0;
+                while(off < len) {
+                    int n = takeCredit(len - off);
+                    gLink.send(gChannel, MuxLink.FRAME_DATA, buffer, off, n);
+                    off += n;
+                }
+            } catch (IOException | InterruptedException ex) {
+                break;
+            }
+        }
+
+        disconnect();
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.mux;
+
+import com.radicales.cal.CalDriverException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Multiplexer Hub
+ * Central side of site gateway connections. Accepts the upstream connections
+ * of {@link MuxGateway}s and exposes every device behind them as a
+ * {@link MuxChannel} driver. A gateway names its site when it connects,
+ * channels are known by site and channel number so one hub fronts many
+ * sites. A second gateway for a site that is connected already is refused.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class MuxHub implements Runnable, MuxLinkEvent {
+
+    private final int gPort;
+    private final boolean gCompress;
+    private final int gBatchWindow;
+    private final Map<String, Map<Integer, MuxChannel>> gChannels = new HashMap<>();
+    private final Map<String, MuxLink> gLinks = new HashMap<>();
+    private final Map<MuxLink, String> gSites = new HashMap<>();
+    private ServerSocket gServer;
+    private Thread gThread;
+    private volatile boolean gRunning;
+
+    /**
+     * Constructor of a multiplexer hub
+     * @param Port Port the gateways connect to
+     * @param Compress Deflate batches sent to the gateways
+     * @param BatchWindow Time in milliseconds frames are collected before a batch is sent
+     */
+    public MuxHub( int Port, boolean Compress, int BatchWindow ) {
+        gPort = Port;
+        gCompress = Compress;
+        gBatchWindow = BatchWindow;
+    }
+
+    /**
+     * Get the driver of a remote device
+     * @param Site Site name the gateway of the device connects with
+     * @param Channel Channel number the device is configured under on the gateway
+     * @return Channel driver
+     */
+    public synchronized MuxChannel getChannel( String Site, int Channel ) {
+        Map<Integer, MuxChannel> site = gChannels.get(Site);
+        if(site == null) {
+            site = new HashMap<>();
+            gChannels.put(Site, site);
+        }
+        MuxChannel c = site.get(Channel);
+        if(c == null) {
+            c = new MuxChannel(this, Site, Channel);
+            site.put(Channel, c);
+        }
+        return c;
+    }
+
+    /**
+     * Check if the gateway of a site is connected
+     * @param Site Site name
+     * @return True if connected
+     */
+    public synchronized boolean isConnected( String Site ) {
+        MuxLink l = gLinks.get(Site);
+        return (l != null) && l.isOpen();
+    }
+
+    public synchronized void start() throws CalDriverException {
+        if(gRunning) {
+            return;
+        }
+        try {
+            gServer = new ServerSocket(gPort);
+        } catch (IOException ex) {
+            throw new CalDriverException("Server socket failed");
+        }
+        gRunning = true;
+        gThread = new Thread(this);
+        gThread.setName("MuxHub::Accept");
+        gThread.start();
+    }
+
+    public void stop() {
+        MuxLink[] links;
+        synchronized(this) {
+            if(!gRunning) {
+                return;
+            }
+            gRunning = false;
+            try {
+                gServer.close();
+            } catch (IOException ex) {
+            }
+            links = gSites.keySet().toArray(new MuxLink[gSites.size()]);
+        }
+        for(MuxLink l : links) {
+            l.close();
+        }
+    }
+
+    private synchronized MuxLink getLink( String Site ) throws CalDriverException {
+        MuxLink l = gLinks.get(Site);
+        if(l == null) {
+            throw new CalDriverException("Gateway not connected");
+        }
+        return l;
+    }
+
+    void send( String Site, int Channel, int Type, byte[] Buffer, int Offset, int Length ) throws CalDriverException {
+        MuxLink l = getLink(Site);
+        try {
+            l.send(Channel, Type, Buffer, Offset, Length);
+        } catch (IOException ex) {
+            throw new CalDriverException("Gateway " + ex.getMessage());
+        }
+    }
+
+    void sendCredit( String Site, int Channel, int Bytes ) throws CalDriverException {
+        MuxLink l = getLink(Site);
+        try {
+            l.sendCredit(Channel, Bytes);
+        } catch (IOException ex) {
+            throw new CalDriverException("Gateway " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        System.out.println("MuxHub Starting");
+
+        while(gRunning) {
+            Socket s;
+            try {
+                s = gServer.accept();
+                s.setTcpNoDelay(true);
+                s.setKeepAlive(true);
+            } catch (IOException ex) {
+                continue;
+            }
+
+            // the link serves no channel before the gateway names its site
+            MuxLink l = new MuxLink(s, this, gCompress, gBatchWindow);
+            synchronized(this) {
+                gSites.put(l, null);
+            }
+            try {
+                l.start();
+            } catch (IOException ex) {
+                l.close();
+            }
+        }
+
+        System.out.println("MuxHub Stopping");
+    }
+
+    /**
+     * A gateway named its site
+     */
+    private void hello( MuxLink Link, String Site ) {
+        boolean accepted = false;
+        synchronized(this) {
+            if(!gSites.containsKey(Link) || (gSites.get(Link) != null)) {
+                return;
+            }
+            MuxLink old = gLinks.get(Site);
+            if((old == null) || !old.isOpen()) {
+                gSites.put(Link, Site);
+                gLinks.put(Site, Link);
+                accepted = true;
+            }
+            else {
+                gSites.remove(Link);
+            }
+        }
+
+        if(!accepted) {
+            System.out.println("MuxHub: Refused gateway for site " + Site + ", already connected");
+            Link.close();
+            return;
+        }
+        System.out.println("MuxHub: Gateway connected for site " + Site);
+
+        // ask the new gateway to connect devices that are already in use
+        for(MuxChannel c : getChannels(Site)) {
+            if(c.isRunning()) {
+                c.resetCredit();
+                try {
+                    Link.send(c.getChannel(), MuxLink.FRAME_OPEN, null, 0, 0);
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    private synchronized MuxChannel[] getChannels( String Site ) {
+        Map<Integer, MuxChannel> site = gChannels.get(Site);
+        if(site == null) {
+            return new MuxChannel[0];
+        }
+        return site.values().toArray(new MuxChannel[site.size()]);
+    }
+
+    @Override
+    public void muxFrame( MuxLink Link, int Channel, int Type, byte[] Buffer, int Offset, int Length ) {
+        String site;
+        MuxChannel c = null;
+        synchronized(this) {
+            site = gSites.get(Link);
+            if((site != null) && (gLinks.get(site) == Link) && gChannels.containsKey(site)) {
+                c = gChannels.get(site).get(Channel);
+            }
+        }
+
+        if(Type == MuxLink.FRAME_HELLO) {
+            hello(Link, new String(Buffer, Offset, Length, StandardCharsets.UTF_8));
+            return;
+        }
+        if(c == null) {
+            return;
+        }
+        if(Type == MuxLink.FRAME_DATA) {
+            c.receive(Buffer, Offset, Length);
+        }
+        else if(Type == MuxLink.FRAME_CLOSE) {
+            c.remoteClosed();
+        }
+        else if(Type == MuxLink.FRAME_CREDIT) {
+            c.credit(MuxLink.getCredit(Buffer, Offset, Length));
+        }
+    }
+
+    @Override
+    public void muxClosed( MuxLink Link ) {
+        String site;
+        synchronized(this) {
+            site = gSites.remove(Link);
+            if((site == null) || (gLinks.get(site) != Link)) {
+                return;
+            }
+            gLinks.remove(site);
+        }
+        System.out.println("MuxHub: Gateway disconnected for site " + site);
+        // the devices behind the gateway are gone with it
+        for(MuxChannel c : getChannels(site)) {
+            c.remoteClosed();
+        }
+    }
+
+}
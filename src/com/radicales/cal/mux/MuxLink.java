@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.mux;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Multiplexer Link
+ * Carries the traffic of many channels over one TCP connection.
+ * Part of Communication Abstraction Layer.
+ *
+ * Frames queued within the batch window are written upstream as one batch.
+ * A batch never holds more than MAX_BATCH bytes, senders wait while the
+ * queue is full and batches announcing more are refused:
+ * <pre>
+ * batch: [flags u8][length i32]([raw length i32] if deflated)[body]
+ * body:  { [channel u16][type u8][length u16][payload] }
+ * </pre>
+ * Data of a channel is flow controlled per direction. A sender has WINDOW
+ * bytes of credit after the channel opens and the receiver hands credit
+ * back in CREDIT frames as it passes data on, so a slow device only holds
+ * up its own channel. A gateway starts its link with a HELLO frame that
+ * carries its site name.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class MuxLink implements Runnable {
+
+    public static final int FRAME_DATA = 0;
+    public static final int FRAME_OPEN = 1;
+    public static final int FRAME_CLOSE = 2;
+    public static final int FRAME_CREDIT = 3;
+    public static final int FRAME_HELLO = 4;
+
+    // credit of a channel direction when it opens
+    static final int WINDOW = 64 * 1024;
+
+    private static final int BATCH_DEFLATED = 0x01;
+    private static final int FRAME_HEADER = 5;
+    private static final int MAX_PAYLOAD = 0xffff;
+    private static final int FLUSH_BATCH = 64 * 1024;
+    private static final int MAX_BATCH = 256 * 1024;
+    private static final int MIN_COMPRESS = 128;
+
+    private final Socket gSocket;
+    private final MuxLinkEvent gListener;
+    private final boolean gCompress;
+    private final int gBatchWindow;
+    private final Object gLock = new Object();
+    private byte[] gPending;
+    private int gPendingLength;
+    private byte[] gSpare;
+    private byte[] gPacked;
+    private DataInputStream gIn;
+    private DataOutputStream gOut;
+    private Thread gWriter;
+    private Thread gReader;
+    private volatile boolean gRunning;
+    private long gBatches;
+    private long gFrames;
+
+    /**
+     * Constructor of a multiplexer link
+     * @param Connection Connected socket
+     * @param Listener Receiver of incoming frames
+     * @param Compress Deflate batches when it makes them smaller
+     * @param BatchWindow Time in milliseconds frames are collected before a batch is sent
+     */
+    public MuxLink( Socket Connection, MuxLinkEvent Listener, boolean Compress, int BatchWindow ) {
+        gSocket = Connection;
+        gListener = Listener;
+        gCompress = Compress;
+        gBatchWindow = BatchWindow;
+        gPending = new byte[MAX_BATCH];
+        gSpare = new byte[MAX_BATCH];
+        gPacked = new byte[MAX_BATCH];
+        gPendingLength = 0;
+    }
+
+    public void start() throws IOException {
+        gIn = new DataInputStream(new BufferedInputStream(gSocket.getInputStream()));
+        gOut = new DataOutputStream(new BufferedOutputStream(gSocket.getOutputStream()));
+        gRunning = true;
+
+        gReader = new Thread(this);
+        gReader.setName("MuxLink::Read");
+        gReader.start();
+
+        gWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writer();
+            }
+        });
+        gWriter.setName("MuxLink::Write");
+        gWriter.start();
+    }
+
+    public void close() {
+        boolean notify;
+        synchronized(gLock) {
+            notify = gRunning;
+            gRunning = false;
+            gLock.notifyAll();
+        }
+        try {
+            gSocket.close();
+        } catch (IOException ex) {
+        }
+        if(notify) {
+            gListener.muxClosed(this);
+        }
+    }
+
+    public boolean isOpen() {
+        return gRunning;
+    }
+
+    public long getBatchCount() {
+        return gBatches;
+    }
+
+    public long getFrameCount() {
+        return gFrames;
+    }
+
+    /**
+     * Queue a frame for the next batch.
+     * Payloads larger than a frame are split over several frames.
+     *
+     * @param Channel Channel number
+     * @param Type Frame type
+     * @param Buffer Payload buffer, may be null for an empty payload
+     * @param Offset Offset of payload in buffer
+     * @param Length Payload length
+     * @throws IOException If the link is closed
+     */
+    public void send( int Channel, int Type, byte[] Buffer, int Offset, int Length ) throws IOException {
+        synchronized(gLock) {
+            do {
+                if(!gRunning) {
+                    throw new IOException("Link closed");
+                }
+                int n = Math.min(Length, MAX_PAYLOAD);
+                while(gPendingLength + FRAME_HEADER + n > MAX_BATCH) {
+                    // queue full, wait for the writer to take the batch
+                    gLock.notifyAll();
+                    try {
+                        gLock.wait();
+                    } catch (InterruptedException ex) {
+                        throw new InterruptedIOException("Send interrupted");
+                    }
+                    if(!gRunning) {
+                        throw new IOException("Link closed");
+                    }
+                }
+                int p = gPendingLength;
+                gPending[p++] = (byte)(Channel >> 8);
+                gPending[p++] = (byte)Channel;
+                gPending[p++] = (byte)Type;
+                gPending[p++] = (byte)(n >> 8);
+                gPending[p++] = (byte)n;
+                if(n > 0) {
+                    System.arraycopy(Buffer, Offset, gPending, p, n);
+                }
+                gPendingLength = p + n;
+                gFrames++;
+                Offset += n;
+                Length -= n;
+            } while(Length > 0);
+
+            gLock.notifyAll();
+        }
+    }
+
+    /**
+     * Hand flow control credit back to the sender of a channel
+     * @param Channel Channel number
+     * @param Bytes Number of bytes passed on since the last credit
+     * @throws IOException If the link is closed
+     */
+    public void sendCredit( int Channel, int Bytes ) throws IOException {
+        byte[] b = { (byte)(Bytes >> 24), (byte)(Bytes >> 16), (byte)(Bytes >> 8), (byte)Bytes };
+        send(Channel, FRAME_CREDIT, b, 0, b.length);
+    }
+
+    /**
+     * Get the credit carried by a CREDIT frame
+     * @param Buffer Frame buffer
+     * @param Offset Offset of the payload
+     * @param Length Payload length
+     * @return Number of bytes credited, 0 for a bad frame
+     */
+    public static int getCredit( byte[] Buffer, int Offset, int Length ) {
+        if(Length != 4) {
+            return 0;
+        }
+        int n = ((Buffer[Offset] & 0xff) << 24) | ((Buffer[Offset + 1] & 0xff) << 16)
+                | ((Buffer[Offset + 2] & 0xff) << 8) | (Buffer[Offset + 3] & 0xff);
+        return Math.max(n, 0);
+    }
+
+    private void writer() {
+        Deflater deflater = gCompress ? new Deflater(Deflater.BEST_SPEED) : null;
+
+        while(gRunning) {
+            byte[] batch;
+            int len;
+
+            synchronized(gLock) {
+                try {
+                    while(gRunning && (gPendingLength == 0)) {
+                        gLock.wait();
+                    }
+                    if(gBatchWindow > 0) {
+                        long end = System.currentTimeMillis() + gBatchWindow;
+                        long left = gBatchWindow;
+                        while(gRunning && (left > 0) && (gPendingLength < FLUSH_BATCH)) {
+                            gLock.wait(left);
+                            left = end - System.currentTimeMillis();
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                if(!gRunning) {
+                    break;
+                }
+                batch = gPending;
+                len = gPendingLength;
+                gPending = gSpare;
+                gPendingLength = 0;
+                gSpare = batch;
+                // wake senders waiting for room
+                gLock.notifyAll();
+            }
+
+            try {
+                writeBatch(deflater, batch, len);
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        if(deflater != null) {
+            deflater.end();
+        }
+    }
+
+    private void writeBatch( Deflater Compressor, byte[] Batch, int Length ) throws IOException {
+        if((Compressor != null) && (Length >= MIN_COMPRESS)) {
+            Compressor.reset();
+            Compressor.setInput(Batch, 0, Length);
+            Compressor.finish();
+            int packed = Compressor.deflate(gPacked, 0, gPacked.length);
+            if(Compressor.finished() && (packed < Length)) {
+                gOut.writeByte(BATCH_DEFLATED);
+                gOut.writeInt(packed);
+                gOut.writeInt(Length);
+                gOut.write(gPacked, 0, packed);
+                gOut.flush();
+                gBatches++;
+                return;
+            }
+        }
+
+        gOut.writeByte(0);
+        gOut.writeInt(Length);
+        gOut.write(Batch, 0, Length);
+        gOut.flush();
+        gBatches++;
+    }
+
+    @Override
+    public void run() {
+        Inflater inflater = new Inflater();
+        byte[] body = new byte[MAX_BATCH];
+        byte[] raw = new byte[MAX_BATCH];
+
+        try {
+            while(gRunning) {
+                int flags = gIn.readUnsignedByte();
+                int len = gIn.readInt();
+                int rawlen = ((flags & BATCH_DEFLATED) != 0) ? gIn.readInt() : len;
+                if((len < 0) || (rawlen < 0) || (len > MAX_BATCH) || (rawlen > MAX_BATCH)) {
+                    throw new IOException("Bad batch length");
+                }
+                gIn.readFully(body, 0, len);
+
+                byte[] data = body;
+                if((flags & BATCH_DEFLATED) != 0) {
+                    inflater.reset();
+                    inflater.setInput(body, 0, len);
+                    try {
+                        if(inflater.inflate(raw, 0, rawlen) != rawlen) {
+                            throw new IOException("Bad batch");
+                        }
+                    } catch (DataFormatException ex) {
+                        throw new IOException("Bad batch");
+                    }
+                    data = raw;
+                }
+
+                int p = 0;
+                while(p + FRAME_HEADER <= rawlen) {
+                    int ch = ((data[p] & 0xff) << 8) | (data[p + 1] & 0xff);
+                    int type = data[p + 2] & 0xff;
+                    int n = ((data[p + 3] & 0xff) << 8) | (data[p + 4] & 0xff);
+                    p += FRAME_HEADER;
+                    if(p + n > rawlen) {
+                        throw new IOException("Bad frame");
+                    }
+                    gListener.muxFrame(this, ch, type, data, p, n);
+                    p += n;
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("MuxLink: " + ex.getMessage());
+        }
+
+        inflater.end();
+        close();
+    }
+
+}
@@ -19,6 +19,7 @@ package com.radicales.cal.net;
 
 import com.radicales.cal.CalDriver;
 import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalDriverFactory;
 import java.io.IOException;
 import java.net.*;
 
@@ -37,6 +38,16 @@ import java.net.*;
  */
 public class TCPClient extends CalDriver {
 
+    /**
+     * Creates a client connecting to the given address and port
+     */
+    public static final CalDriverFactory FACTORY = new CalDriverFactory() {
+        @Override
+        public CalDriver createDriver( String Address, int Port ) {
+            return new TCPClient(Address, Port);
+        }
+    };
+
     private String gIpAddress;
     private int gPort;
     private int gTTL;
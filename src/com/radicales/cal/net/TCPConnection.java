@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.net;
+
+import com.radicales.cal.CalBufferPool;
+import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalRingBuffer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP/IP Server Connection Driver
+ * Driver for one inbound connection accepted by a {@link TCPServer}.
+ * The connection is already established, so opening and starting the driver
+ * only succeed while the remote side is still connected. The server stops
+ * reading the socket while the receive buffer is full, so the sender waits
+ * instead of data being dropped.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class TCPConnection extends CalDriver {
+
+    private static final int IDENT_SIZE = 4096;
+
+    private final TCPServer gServer;
+    private final SocketChannel gChannel;
+    private final SelectionKey gKey;
+    private final CalRingBuffer gRxBuffer;
+    private final long gAccepted;
+    private final Object gTxLock = new Object();
+    private ByteBuffer gTxPending;
+    private byte[] gIdent;
+    private int gIdentLength;
+    private String gId;
+    private volatile boolean gConnected;
+    private boolean gPaused;
+    private int gTimeout;
+
+    TCPConnection( TCPServer Server, SocketChannel Channel, SelectionKey Key ) {
+        super(CalDriver.DRIVER_TYPE_TCPIP, false);
+        gServer = Server;
+        gChannel = Channel;
+        gKey = Key;
+        gRxBuffer = new CalRingBuffer(8192);
+        gAccepted = System.currentTimeMillis();
+        gIdent = new byte[256];
+        gIdentLength = 0;
+        gId = null;
+        gConnected = true;
+        gTimeout = 3000;
+    }
+
+    public String getId() {
+        return gId;
+    }
+
+    public boolean isConnected() {
+        return gConnected;
+    }
+
+    public String getRemoteAddress() {
+        try {
+            return ((InetSocketAddress)gChannel.getRemoteAddress()).getAddress().getHostAddress();
+        } catch (IOException | NullPointerException ex) {
+            return "";
+        }
+    }
+
+    /**
+     * Set the time a read waits for data
+     * @param Value Timeout in milliseconds
+     */
+    public void setTimeout( int Value ) {
+        gTimeout = Value;
+    }
+
+    /**
+     * Bytes dropped because the receive buffer was full
+     */
+    public long getOverflows() {
+        return gRxBuffer.getOverflows();
+    }
+
+    /**
+     * Close the connection without going through the driver life cycle
+     */
+    public void drop() {
+        gServer.closeConnection(this);
+    }
+
+    long getAcceptTime() {
+        return gAccepted;
+    }
+
+    void setId( String Id ) {
+        gId = Id;
+        gIdent = null;
+    }
+
+    byte[] getIdentBuffer() {
+        return gIdent;
+    }
+
+    int getIdentLength() {
+        return gIdentLength;
+    }
+
+    int getFree() {
+        return gRxBuffer.free();
+    }
+
+    /**
+     * Data arrived on the server thread
+     * @return False if the identification buffer overflowed
+     */
+    boolean receive( byte[] Buffer, int Length ) {
+        if(gRxBuffer.write(Buffer, 0, Length) < Length) {
+            System.out.println("TCP Connection: Receive buffer overflow " + this);
+        }
+        if(gRxBuffer.free() == 0) {
+            pauseRead();
+        }
+        if(gId == null) {
+            if(gIdentLength + Length > gIdent.length) {
+                if(gIdentLength + Length > IDENT_SIZE) {
+                    return false;
+                }
+                byte[] b = new byte[IDENT_SIZE];
+                System.arraycopy(gIdent, 0, b, 0, gIdentLength);
+                gIdent = b;
+            }
+            System.arraycopy(Buffer, 0, gIdent, gIdentLength, Length);
+            gIdentLength += Length;
+        }
+        return true;
+    }
+
+    /**
+     * Socket is writable on the server thread
+     */
+    void writeReady() throws IOException {
+        synchronized(gTxLock) {
+            if(gTxPending != null) {
+                gChannel.write(gTxPending);
+                if(!gTxPending.hasRemaining()) {
+                    CalBufferPool.getDefault().release(gTxPending);
+                    gTxPending = null;
+                    updateInterest();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the socket to become readable unless the receive buffer is
+     * full, and writable while data is pending, on the server thread
+     */
+    void updateInterest() {
+        synchronized(gTxLock) {
+            if(gKey.isValid()) {
+                gKey.interestOps((gPaused ? 0 : SelectionKey.OP_READ) |
+                        ((gTxPending != null) ? SelectionKey.OP_WRITE : 0));
+            }
+        }
+    }
+
+    /**
+     * Stop reading the socket, the receive buffer is full, on the server thread
+     */
+    void pauseRead() {
+        synchronized(gTxLock) {
+            if(!gPaused && (gRxBuffer.free() == 0)) {
+                gPaused = true;
+                updateInterest();
+            }
+        }
+    }
+
+    /**
+     * Read the socket again once half the receive buffer is free
+     */
+    private void resumeRead() {
+        synchronized(gTxLock) {
+            if(!gPaused || (gRxBuffer.free() < gRxBuffer.size() / 2)) {
+                return;
+            }
+            gPaused = false;
+        }
+        gServer.requestInterest(this);
+    }
+
+    void disconnect() {
+        if(!gConnected) {
+            return;
+        }
+        gConnected = false;
+        gKey.cancel();
+        try {
+            gChannel.close();
+        } catch (IOException ex) {
+        }
+        gRxBuffer.close();
+        synchronized(gTxLock) {
+            CalBufferPool.getDefault().release(gTxPending);
+            gTxPending = null;
+        }
+    }
+
+    @Override
+    synchronized public void Open() throws CalDriverException {
+        if(!gConnected) {
+            throw new CalDriverException("Connection closed");
+        }
+        super.Open();
+    }
+
+    @Override
+    synchronized public void Start() throws CalDriverException {
+        if(!gConnected) {
+            throw new CalDriverException("Connection closed");
+        }
+        super.Start();
+    }
+
+    @Override
+    synchronized public void Stop() throws CalDriverException {
+        super.Stop();
+        gServer.closeConnection(this);
+    }
+
+    @Override
+    public int Write( byte[] Buffer, int Length ) throws CalDriverException {
+        return Write(new ByteBuffer[] { ByteBuffer.wrap(Buffer, 0, Length) });
+    }
+
+    /**
+     * Gathering write, whatever the socket does not take right away is
+     * sent from the server thread.
+     */
+    @Override
+    public int Write( ByteBuffer[] Buffers ) throws CalDriverException {
+        if(!gConnected) {
+            throw new CalDriverException("Connection closed");
+        }
+        int len = 0;
+        for(ByteBuffer b : Buffers) {
+            len += b.remaining();
+        }
+        try {
+            synchronized(gTxLock) {
+                int left = len;
+                if(gTxPending == null) {
+                    left -= (int)gChannel.write(Buffers);
+                    if(left == 0) {
+                        return len;
+                    }
+                }
+                CalBufferPool pool = CalBufferPool.getDefault();
+                ByteBuffer nb = pool.acquire(((gTxPending != null) ? gTxPending.remaining() : 0) + left);
+                if(gTxPending != null) {
+                    nb.put(gTxPending);
+                    pool.release(gTxPending);
+                }
+                for(ByteBuffer b : Buffers) {
+                    nb.put(b);
+                }
+                nb.flip();
+                gTxPending = nb;
+            }
+        } catch (IOException ex) {
+            gServer.closeConnection(this);
+            throw new CalDriverException("TCP Connection write failed");
+        }
+        gServer.requestInterest(this);
+        return len;
+    }
+
+    @Override
+    public int Write( byte[] Buffer ) throws CalDriverException {
+        return Write(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read( byte[] Buffer, int Length ) throws CalDriverException {
+        try {
+            int n = gRxBuffer.read(Buffer, 0, Length, gTimeout);
+            if(n > 0) {
+                resumeRead();
+            }
+            return n;
+        } catch (InterruptedException ex) {
+            throw new CalDriverException("Read interrupted");
+        }
+    }
+
+    @Override
+    public int Read( byte[] Buffer ) throws CalDriverException {
+        return Read(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read() throws CalDriverException {
+        byte[] b = new byte[1];
+        if(Read(b, 1) < 1) {
+            return -1;
+        }
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer, int Length ) throws CalDriverException {
+        Write(Buffer, Length);
+        return Read(Buffer, Length);
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer ) throws CalDriverException {
+        return WriteRead(Buffer, Buffer.length);
+    }
+
+    @Override
+    public void Flush() throws CalDriverException {
+        gRxBuffer.clear();
+        if(!gConnected) {
+            gRxBuffer.close();
+        }
+        resumeRead();
+    }
+
+    @Override
+    public int IoControl( int Code, int Arg ) throws CalDriverException {
+        if(Code == 10) {
+            return gRxBuffer.available();
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return (gId != null) ? gId : getRemoteAddress();
+    }
+
+}
@@ -17,16 +17,30 @@
 
 package com.radicales.cal.net;
 
+import com.radicales.cal.CalBufferPool;
 import com.radicales.cal.CalDriver;
 import com.radicales.cal.CalDriverException;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * TCP/IP Server Driver
+ * Non-blocking acceptor for devices that connect to us. Every accepted
+ * connection becomes a {@link TCPConnection} driver that is handed to the
+ * event listener once the device identified itself.
  * Part of Communication Abstraction Layer.
  *
  * @author
@@ -37,28 +51,53 @@ import java.util.logging.Logger;
  * @version
  * <b>1.0 14/12/2013</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Rebuilt on a selector, serves many connections.
  */
 public class TCPServer extends CalDriver {
 
-    private ServerSocket gServer;
-    private boolean gConnected;
+    private ServerSocketChannel gServer;
+    private Selector gSelector;
     private int gPort;
     private long gTTL;
+    private TCPServerEvent gListener;
+    private final Set<TCPConnection> gPending = new LinkedHashSet<>();
+    private final Queue<TCPConnection> gInterestRequests = new ConcurrentLinkedQueue<>();
+    private ExecutorService gHandOff;
+    private int gConnections;
 
+    /**
+     * Constructor of a TCP server
+     * @param Port Port to listen on
+     * @param TTL Time in milliseconds a new connection has to identify itself
+     */
     public TCPServer( int Port, long TTL ) {
         super(CalDriver.DRIVER_TYPE_TCPIP, true);
-        gConnected = false;
         gPort = Port;
         gTTL = TTL;
     }
 
+    public void setServerListener( TCPServerEvent Listener ) {
+        gListener = Listener;
+    }
+
+    public int getConnectionCount() {
+        return gConnections;
+    }
+
      // exported functions
     @Override
     synchronized public void Open() throws CalDriverException {
         super.Open();
         try {
-            gServer = new ServerSocket(gPort);
+            gSelector = Selector.open();
+            gServer = ServerSocketChannel.open();
+            gServer.configureBlocking(false);
+            gServer.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            gServer.bind(new InetSocketAddress(gPort), 1024);
+            gServer.register(gSelector, SelectionKey.OP_ACCEPT);
         } catch (IOException ex) {
+            super.Close();
             throw new CalDriverException("Server socket failed");
         }
     }
@@ -66,68 +105,190 @@ public class TCPServer extends CalDriver {
     @Override
     synchronized public void Close() throws CalDriverException {
         super.Close();
+        try {
+            gServer.close();
+            gSelector.close();
+        } catch (IOException ex) {
+        }
     }
 
     @Override
     synchronized public void Start() throws CalDriverException {
+        gHandOff = Executors.newSingleThreadExecutor();
         super.Start();
     }
 
     @Override
     synchronized public void Stop() throws CalDriverException {
+        gSelector.wakeup();
         super.Stop();
+        gHandOff.shutdown();
     }
 
-   @Override
-   synchronized public int WriteRead( byte[] Buffer, int Length ) throws CalDriverException {
-       int ret;
-       ret = super.WriteRead(Buffer, Length);
-       return ret;
-   }
+    /**
+     * Have the server thread update what the selector waits for on a connection
+     */
+    void requestInterest( TCPConnection Connection ) {
+        gInterestRequests.add(Connection);
+        gSelector.wakeup();
+    }
+
+    void closeConnection( final TCPConnection Connection ) {
+        if(!Connection.isConnected()) {
+            return;
+        }
+        Connection.disconnect();
+        gSelector.wakeup();
+        if((gListener != null) && (Connection.getId() != null) && !gHandOff.isShutdown()) {
+            gHandOff.execute(new Runnable() {
+                @Override
+                public void run() {
+                    gListener.connectionClosed(Connection);
+                }
+            });
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel sc;
+        while((sc = gServer.accept()) != null) {
+            sc.configureBlocking(false);
+            sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            sc.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            SelectionKey key = sc.register(gSelector, SelectionKey.OP_READ);
+            TCPConnection c = new TCPConnection(this, sc, key);
+            key.attach(c);
+            gPending.add(c);
+        }
+    }
+
+    private void read( SelectionKey Key, ByteBuffer Buffer, byte[] Scratch ) {
+        TCPConnection c = (TCPConnection)Key.attachment();
+        int n;
+
+        // read no more than the connection can hold, the rest waits in the socket
+        int free = c.getFree();
+        if(free == 0) {
+            c.pauseRead();
+            return;
+        }
+
+        try {
+            Buffer.clear();
+            Buffer.limit(Math.min(Buffer.capacity(), free));
+            n = ((SocketChannel)Key.channel()).read(Buffer);
+        } catch (IOException ex) {
+            n = -1;
+        }
+        if(n < 0) {
+            gPending.remove(c);
+            closeConnection(c);
+            return;
+        }
+
+        Buffer.flip();
+        Buffer.get(Scratch, 0, n);
+        if(!c.receive(Scratch, n)) {
+            System.out.println("TCP Server: No identification from " + c.getRemoteAddress());
+            gPending.remove(c);
+            closeConnection(c);
+            return;
+        }
+
+        if((c.getId() == null) && (gListener != null)) {
+            final String id = gListener.identifyConnection(c.getIdentBuffer(), c.getIdentLength());
+            if(id != null) {
+                final TCPConnection con = c;
+                c.setId(id);
+                gPending.remove(c);
+                gHandOff.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        gListener.connectionIdentified(id, con);
+                    }
+                });
+            }
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<TCPConnection> it = gPending.iterator();
+        while(it.hasNext()) {
+            TCPConnection c = it.next();
+            if(!c.isConnected()) {
+                it.remove();
+            }
+            else if((gTTL > 0) && (now - c.getAcceptTime() > gTTL)) {
+                System.out.println("TCP Server: Identification timeout " + c.getRemoteAddress());
+                it.remove();
+                closeConnection(c);
+            }
+        }
+    }
 
     @Override
     public void run() {
-        Socket client;
-        byte[] buffer = new byte[1000];
-        int ret;
+        CalBufferPool pool = CalBufferPool.getDefault();
+        ByteBuffer buffer = pool.acquire(16384, true);
+        ByteBuffer scratch = pool.acquire(16384);
 
         System.out.println("TCP Server Starting");
 
         while(super.drvRunning) {
             try {
-                this.gConnected = false;
-                client = this.gServer.accept();
-                drvInputStream = client.getInputStream();
-                drvOutputStream = client.getOutputStream();
-                this.gConnected = true;
+                gSelector.select(1000);
             } catch (IOException ex) {
-                continue;
+                break;
+            }
+
+            TCPConnection w;
+            while((w = gInterestRequests.poll()) != null) {
+                if(w.isConnected()) {
+                    w.updateInterest();
+                }
             }
 
-            while((this.gConnected) && (client != null)) {
+            Iterator<SelectionKey> it = gSelector.selectedKeys().iterator();
+            while(it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if(!key.isValid()) {
+                    continue;
+                }
                 try {
-                    ret = Read(buffer);
-                    if(ret > 0) {
-                        byte[] b = new byte[ret];
-                        System.arraycopy(buffer, 0, b, 0, ret);
-                        System.out.print("TCP DATA: " + new String(b));
-                        this.gConnected = false;
+                    if(key.isAcceptable()) {
+                        accept();
+                    }
+                    else {
+                        if(key.isReadable()) {
+                            read(key, buffer, scratch.array());
+                        }
+                        if(key.isValid() && key.isWritable()) {
+                            ((TCPConnection)key.attachment()).writeReady();
+                        }
+                    }
+                } catch (IOException ex) {
+                    if(key.attachment() != null) {
+                        closeConnection((TCPConnection)key.attachment());
                     }
-                } catch (CalDriverException ex) {
-                    client = null;
-                    this.gConnected = false;
                 }
             }
-            try {
-                drvInputStream.close();
-                drvOutputStream.close();
-                client.close();
-            } catch (IOException ex) {
+
+            expire();
+            gConnections = gSelector.keys().size() - 1;
+        }
+
+        for(SelectionKey key : gSelector.keys()) {
+            if(key.attachment() != null) {
+                closeConnection((TCPConnection)key.attachment());
             }
         }
 
-        System.out.println("TCP Server Stopping");
+        pool.release(buffer);
+        pool.release(scratch);
 
+        System.out.println("TCP Server Stopping");
     }
 
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.net;
+
+/**
+ * TCP/IP Server Event Interface
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public interface TCPServerEvent {
+
+    /**
+     * Identify a new connection from the data it sent so far.
+     * Called on the server thread every time more data arrived until an
+     * identity is returned.
+     *
+     * @param Buffer Data received on the connection so far
+     * @param Length Number of bytes received
+     * @return Identity of the remote device, null if more data is needed
+     */
+    String identifyConnection( byte[] Buffer, int Length );
+
+    /**
+     * A connection was identified.
+     * Called on the server hand-off thread, so it may block.
+     *
+     * @param Id Identity returned by identifyConnection
+     * @param Connection Driver of the connection
+     */
+    void connectionIdentified( String Id, TCPConnection Connection );
+
+    void connectionClosed( TCPConnection Connection );
+}
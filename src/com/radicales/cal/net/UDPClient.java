@@ -17,8 +17,24 @@
 
 package com.radicales.cal.net;
 
+import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * TCP UDP Client Driver
+ * Sends datagrams to a single address, which may be a broadcast or
+ * multicast address, and receives the replies from any source.
  * Part of Communication Abstraction Layer.
  *
  * @author
@@ -29,7 +45,246 @@ package com.radicales.cal.net;
  * @version
  * <b>1.0 14/12/2013</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Implemented on a datagram channel, added probing.
  */
-public class UDPClient {
+public class UDPClient extends CalDriver {
+
+    private static final int DATAGRAM_SIZE = 2048;
+
+    private String gAddress;
+    private int gPort;
+    private int gTimeout;
+    private int gMulticastTTL;
+    private InetSocketAddress gTarget;
+    private InetSocketAddress gSource;
+    private DatagramChannel gChannel;
+    private Selector gSelector;
+    private final ByteBuffer gRxBuffer = ByteBuffer.allocate(DATAGRAM_SIZE);
+
+    public UDPClient( String Address, int Port ) {
+        super(CalDriver.DRIVER_TYPE_UDP, false);
+        gAddress = Address;
+        gPort = Port;
+        gTimeout = 3000;
+        gMulticastTTL = 1;
+    }
+
+    public void setAddress( String Value ) {
+        gAddress = Value;
+    }
+
+    public void setPort( int Value ) {
+        gPort = Value;
+    }
+
+    /**
+     * Set the time a read waits for a datagram
+     * @param Value Timeout in milliseconds
+     */
+    public void setTimeout( int Value ) {
+        gTimeout = Value;
+    }
+
+    /**
+     * Set the number of router hops multicast probes may take
+     * @param Value Time to live, 1 keeps probes on the local network
+     */
+    public void setMulticastTTL( int Value ) {
+        gMulticastTTL = Value;
+    }
+
+    /**
+     * Source of the last datagram read
+     * @return Address and port, null if nothing was read yet
+     */
+    public InetSocketAddress getSource() {
+        return gSource;
+    }
+
+    // exported functions
+    @Override
+    synchronized public void Open() throws CalDriverException {
+        super.Open();
+        try {
+            gTarget = new InetSocketAddress(InetAddress.getByName(gAddress), gPort);
+            gChannel = DatagramChannel.open();
+            gChannel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            gChannel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, gMulticastTTL);
+            gChannel.bind(null);
+            gChannel.configureBlocking(false);
+            gSelector = Selector.open();
+            gChannel.register(gSelector, SelectionKey.OP_READ);
+        } catch (UnknownHostException ex) {
+            super.Close();
+            throw new CalDriverException("UDP Client Unknown host");
+        } catch (IOException ex) {
+            super.Close();
+            if(gChannel != null) {
+                try {
+                    gChannel.close();
+                } catch (IOException exx) {
+                }
+            }
+            throw new CalDriverException("UDP Client socket failed");
+        }
+    }
+
+    @Override
+    synchronized public void Close() throws CalDriverException {
+        super.Close();
+        try {
+            gSelector.close();
+            gChannel.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    @Override
+    public int Write( byte[] Buffer, int Length ) throws CalDriverException {
+        if(!drvOpen) {
+            throw new CalDriverException("Port not open");
+        }
+        try {
+            return gChannel.send(ByteBuffer.wrap(Buffer, 0, Length), gTarget);
+        } catch (IOException ex) {
+            throw new CalDriverException("UDP Client send failed");
+        }
+    }
+
+    @Override
+    public int Write( byte[] Buffer ) throws CalDriverException {
+        return Write(Buffer, Buffer.length);
+    }
+
+    /**
+     * Read one datagram, waiting up to the timeout for it.
+     * Data that does not fit in the buffer is discarded.
+     *
+     * @return Number of bytes read, 0 on timeout
+     */
+    @Override
+    public synchronized int Read( byte[] Buffer, int Length ) throws CalDriverException {
+        if(!drvOpen) {
+            throw new CalDriverException("Port not open");
+        }
+        try {
+            InetSocketAddress src = receive(gTimeout);
+            if(src == null) {
+                return 0;
+            }
+            gSource = src;
+            int n = Math.min(Length, gRxBuffer.remaining());
+            gRxBuffer.get(Buffer, 0, n);
+            return n;
+        } catch (IOException ex) {
+            throw new CalDriverException("UDP Client receive failed");
+        }
+    }
+
+    @Override
+    public int Read( byte[] Buffer ) throws CalDriverException {
+        return Read(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read() throws CalDriverException {
+        byte[] b = new byte[1];
+        if(Read(b, 1) < 1) {
+            return -1;
+        }
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer, int Length ) throws CalDriverException {
+        Write(Buffer, Length);
+        return Read(Buffer, Length);
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer ) throws CalDriverException {
+        return WriteRead(Buffer, Buffer.length);
+    }
+
+    @Override
+    public synchronized void Flush() throws CalDriverException {
+        try {
+            while(receive(0) != null) {
+            }
+        } catch (IOException ex) {
+            throw new CalDriverException("UDP Client receive failed");
+        }
+    }
+
+    @Override
+    public int IoControl( int Code, int Arg ) throws CalDriverException {
+        return 0;
+    }
+
+    /**
+     * Send a probe and collect every reply that arrives within a time window.
+     * The probe is repeated halfway through the window in case it got lost,
+     * only the first reply from every source is kept.
+     *
+     * @param Probe Probe datagram
+     * @param Window Time in milliseconds to collect replies
+     * @return Replies by source address, in order of arrival
+     * @throws CalDriverException
+     */
+    public synchronized Map<InetSocketAddress, byte[]> probe( byte[] Probe, long Window ) throws CalDriverException {
+        Map<InetSocketAddress, byte[]> replies = new LinkedHashMap<>();
+        long start = System.currentTimeMillis();
+        long end = start + Window;
+        boolean repeated = false;
+
+        Flush();
+        Write(Probe, Probe.length);
+
+        try {
+            long now = start;
+            while(now < end) {
+                long wait = end - now;
+                if(!repeated) {
+                    wait = Math.min(wait, Math.max(1, start + (Window / 2) - now));
+                }
+                InetSocketAddress src = receive(wait);
+                if(src != null) {
+                    if(!replies.containsKey(src)) {
+                        byte[] b = new byte[gRxBuffer.remaining()];
+                        gRxBuffer.get(b);
+                        replies.put(src, b);
+                    }
+                }
+                now = System.currentTimeMillis();
+                if(!repeated && (now >= start + (Window / 2))) {
+                    Write(Probe, Probe.length);
+                    repeated = true;
+                }
+            }
+        } catch (IOException ex) {
+            throw new CalDriverException("UDP Client receive failed");
+        }
+
+        return replies;
+    }
+
+    /**
+     * Receive one datagram into the receive buffer
+     * @param Timeout Time in milliseconds to wait, 0 to poll
+     * @return Source of the datagram, null if none arrived
+     */
+    private InetSocketAddress receive( long Timeout ) throws IOException {
+        gRxBuffer.clear();
+        InetSocketAddress src = (InetSocketAddress)gChannel.receive(gRxBuffer);
+        if((src == null) && (Timeout > 0)) {
+            if(gSelector.select(Timeout) > 0) {
+                gSelector.selectedKeys().clear();
+                src = (InetSocketAddress)gChannel.receive(gRxBuffer);
+            }
+        }
+        gRxBuffer.flip();
+        return src;
+    }
 
 }
@@ -17,8 +17,27 @@
 
 package com.radicales.cal.net;
 
+import com.radicales.cal.CalBufferPool;
+import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * TCP UDP Server Driver
+ * Receives fire-and-forget datagrams from many sources on one port.
+ * Every datagram starts with a 32 bit big endian sequence number, counted
+ * per source, followed by the payload. Duplicates and datagrams older than
+ * the sequence window are dropped, gaps are reported to the listener.
+ * Sources that stay silent are forgotten after a while, and only the most
+ * recently seen sources are tracked.
  * Part of Communication Abstraction Layer.
  *
  * @author
@@ -29,7 +48,229 @@ package com.radicales.cal.net;
  * @version
  * <b>1.0 14/12/2013</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Implemented as sequenced datagram receiver.
  */
-public class UDPServer {
+public class UDPServer extends CalDriver {
+
+    public static final int HEADER_SIZE = 4;
+
+    private static final int DATAGRAM_SIZE = 65536;
+    private static final int WINDOW_SIZE = 64;
+    // a sequence this far behind means the source restarted its count
+    private static final int RESTART_DISTANCE = 1024;
+    private static final int MAX_SOURCES = 4096;
+    private static final long SOURCE_TIMEOUT = TimeUnit.MINUTES.toNanos(10);
+
+    private int gPort;
+    private int gReceiveBufferSize;
+    private DatagramChannel gChannel;
+    private UDPServerEvent gListener;
+    // in access order, the least recently seen source first
+    private final Map<InetSocketAddress, Source> gSources = new LinkedHashMap<InetSocketAddress, Source>(16, 0.75f, true) {
+        private static final long serialVersionUID = -3094521683356212407L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<InetSocketAddress, Source> Eldest ) {
+            return size() > MAX_SOURCES;
+        }
+    };
+    private volatile long gReceived;
+    private volatile long gDuplicates;
+    private volatile long gLost;
+    private volatile long gErrors;
+
+    /**
+     * Sequence state of one source
+     */
+    private static class Source {
+        long Last;
+        long Window;
+        /* sequences in the window counted as lost */
+        long Missing;
+        long Seen;
+    }
+
+    public UDPServer( int Port ) {
+        super(CalDriver.DRIVER_TYPE_UDP, true);
+        gPort = Port;
+        gReceiveBufferSize = 4 * 1024 * 1024;
+    }
+
+    public void setServerListener( UDPServerEvent Listener ) {
+        gListener = Listener;
+    }
+
+    /**
+     * Set the socket receive buffer, it absorbs bursts while the listener is busy
+     * @param Value Size in bytes
+     */
+    public void setReceiveBufferSize( int Value ) {
+        gReceiveBufferSize = Value;
+    }
+
+    public long getReceived() {
+        return gReceived;
+    }
+
+    public long getDuplicates() {
+        return gDuplicates;
+    }
+
+    public long getLost() {
+        return gLost;
+    }
+
+    public long getErrors() {
+        return gErrors;
+    }
+
+    // exported functions
+    @Override
+    synchronized public void Open() throws CalDriverException {
+        super.Open();
+        try {
+            gChannel = DatagramChannel.open();
+            gChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            gChannel.setOption(StandardSocketOptions.SO_RCVBUF, gReceiveBufferSize);
+            gChannel.bind(new InetSocketAddress(gPort));
+        } catch (IOException ex) {
+            super.Close();
+            if(gChannel != null) {
+                try {
+                    gChannel.close();
+                } catch (IOException exx) {
+                }
+            }
+            throw new CalDriverException("UDP Server socket failed");
+        }
+    }
+
+    @Override
+    synchronized public void Close() throws CalDriverException {
+        super.Close();
+        try {
+            gChannel.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Check the sequence number of a datagram
+     * @return True if the datagram was not seen before
+     */
+    private boolean track( InetSocketAddress Address, long Sequence ) {
+        long now = System.nanoTime();
+        Source s = gSources.get(Address);
+        if(s == null) {
+            expire(now);
+            s = new Source();
+            s.Last = Sequence;
+            s.Window = 1;
+            s.Seen = now;
+            gSources.put(Address, s);
+            return true;
+        }
+        s.Seen = now;
+
+        // serial number arithmetic, the sequence wraps at 32 bits
+        int diff = (int)(Sequence - s.Last);
+        if(diff > 0) {
+            if(diff > 1) {
+                gLost += diff - 1;
+                if(gListener != null) {
+                    gListener.datagramsLost(Address, (s.Last + 1) & 0xffffffffL, diff - 1);
+                }
+            }
+            if(diff >= WINDOW_SIZE) {
+                s.Window = 1;
+                s.Missing = ~1L;
+            }
+            else {
+                s.Window = (s.Window << diff) | 1;
+                s.Missing = (s.Missing << diff) | ((1L << diff) - 2);
+            }
+            s.Last = Sequence;
+            return true;
+        }
+
+        int back = -diff;
+        if(back >= RESTART_DISTANCE) {
+            s.Last = Sequence;
+            s.Window = 1;
+            s.Missing = 0;
+            return true;
+        }
+        if(back >= WINDOW_SIZE) {
+            gDuplicates++;
+            return false;
+        }
+        long bit = 1L << back;
+        if((s.Window & bit) != 0) {
+            gDuplicates++;
+            return false;
+        }
+        s.Window |= bit;
+        if((s.Missing & bit) != 0) {
+            // late arrival of a datagram counted as lost
+            s.Missing &= ~bit;
+            gLost--;
+        }
+        return true;
+    }
+
+    /**
+     * Forget the sources not seen for a while
+     */
+    private void expire( long Now ) {
+        Iterator<Source> it = gSources.values().iterator();
+        while(it.hasNext() && (Now - it.next().Seen > SOURCE_TIMEOUT)) {
+            it.remove();
+        }
+    }
+
+    @Override
+    public void run() {
+        CalBufferPool pool = CalBufferPool.getDefault();
+        // a direct buffer, the channel receives into a heap buffer through
+        // a temporary direct one and would copy every datagram twice
+        ByteBuffer buffer = pool.acquire(DATAGRAM_SIZE, true);
+
+        System.out.println("UDP Server Starting");
+
+        while(super.drvRunning) {
+            InetSocketAddress src;
+            buffer.clear();
+            try {
+                src = (InetSocketAddress)gChannel.receive(buffer);
+            } catch (IOException ex) {
+                break;
+            }
+            if(src == null) {
+                continue;
+            }
+
+            buffer.flip();
+            if(buffer.remaining() < HEADER_SIZE) {
+                gErrors++;
+                continue;
+            }
+            long seq = buffer.getInt() & 0xffffffffL;
+            gReceived++;
+            if(!track(src, seq) || (gListener == null)) {
+                continue;
+            }
+            try {
+                gListener.datagramReceived(src, seq, buffer);
+            } catch (RuntimeException ex) {
+                gErrors++;
+                System.out.println("UDP Server: Listener failed (" + ex.getMessage() + ")");
+            }
+        }
+
+        pool.release(buffer);
+
+        System.out.println("UDP Server Stopping");
+    }
 
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.net;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * UDP Server Event Interface
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public interface UDPServerEvent {
+
+    /**
+     * A new datagram arrived, duplicates are not reported.
+     * Called on the server thread, the buffer is reused once this returns.
+     *
+     * @param Source Sender of the datagram
+     * @param Sequence Sequence number of the datagram
+     * @param Data Payload, positioned after the sequence header
+     */
+    void datagramReceived( InetSocketAddress Source, long Sequence, ByteBuffer Data );
+
+    /**
+     * Datagrams from a source were skipped
+     * @param Source Sender of the datagrams
+     * @param Expected First missing sequence number
+     * @param Missing Number of datagrams missing
+     */
+    void datagramsLost( InetSocketAddress Source, long Expected, int Missing );
+}
@@ -32,5 +32,6 @@ package com.radicales.cal.serial;
 public class Serial {
 
     public static final int SERIAL_SET_RTS = 20;
+    public static final int SERIAL_GET_TX_PENDING = 21;
 
 }
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.serial;
+
+import com.radicales.cal.CalBufferPool;
+import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalDriverFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serial Bus Master
+ * Shares one half duplex RS-485 port among several devices on the same line.
+ * Every device is reached through its own {@link SerialBusDrop} driver. The bus
+ * serves the drops round robin, one frame per turn: it switches RTS to transmit,
+ * sends the frame, switches back after the turnaround delay and passes the reply
+ * to the drop. A reply ends after a quiet time of a few characters, or when the
+ * response timeout expires without an answer, so one turn never takes longer
+ * than the frame time plus the response timeout.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class SerialBus implements CalDriverFactory, Runnable {
+
+    private final CalDriver gPort;
+    private final List<SerialBusDrop> gDrops = new CopyOnWriteArrayList<>();
+    private final Object gSignal = new Object();
+    private long gCharTime;
+    private long gTxDelay;
+    private long gTurnaround;
+    private int gResponseTimeout;
+    private int gQuietChars;
+    private boolean gEcho;
+    private Thread gThread;
+    private volatile boolean gRunning;
+
+    /**
+     * Constructor of a bus master on a serial port
+     * @param Parameters Parameters of the serial port
+     */
+    public SerialBus( SerialParameters Parameters ) {
+        this(new SerialJSSC(Parameters), Parameters.getBaudRate());
+        gEcho = Parameters.isEcho();
+    }
+
+    /**
+     * Constructor of a bus master on any driver
+     * @param Port Driver of the bus, opened and started by the bus
+     * @param BaudRate Baud rate of the bus, used to time characters
+     */
+    public SerialBus( CalDriver Port, int BaudRate ) {
+        gPort = Port;
+        // start, 8 data and stop bit
+        gCharTime = 10 * 1000000000L / Math.max(1, BaudRate);
+        gTxDelay = 0;
+        gTurnaround = gCharTime;
+        gResponseTimeout = 500;
+        gQuietChars = 4;
+        gEcho = false;
+    }
+
+    /**
+     * Set the bus timing
+     * @param TxDelay Time in microseconds between raising RTS and sending
+     * @param Turnaround Time in microseconds between the last character and releasing RTS
+     * @param ResponseTimeout Time in milliseconds a device has to start its reply
+     */
+    public void setTiming( int TxDelay, int Turnaround, int ResponseTimeout ) {
+        gTxDelay = TxDelay * 1000L;
+        gTurnaround = Turnaround * 1000L;
+        gResponseTimeout = ResponseTimeout;
+    }
+
+    /**
+     * Set the silence that ends a reply
+     * @param Characters Quiet time in character times
+     */
+    public void setQuietTime( int Characters ) {
+        gQuietChars = Characters;
+    }
+
+    /**
+     * Set if the transceiver echoes what is sent
+     * @param Value True to drop the echo of every frame
+     */
+    public void setEcho( boolean Value ) {
+        gEcho = Value;
+    }
+
+    /**
+     * Create the driver of a device on the bus
+     * @param Address Address of the device
+     * @param Prefix Bytes sent in front of every frame to select the device, may be null
+     * @return Driver of the device
+     */
+    public synchronized SerialBusDrop createDrop( int Address, byte[] Prefix ) {
+        SerialBusDrop drop = getDrop(Address);
+        if(drop == null) {
+            drop = new SerialBusDrop(this, Address, Prefix);
+            gDrops.add(drop);
+        }
+        return drop;
+    }
+
+    public synchronized void removeDrop( SerialBusDrop Drop ) {
+        gDrops.remove(Drop);
+    }
+
+    public SerialBusDrop getDrop( int Address ) {
+        for(SerialBusDrop d : gDrops) {
+            if(d.getAddress() == Address) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drop driver for a device, the port is the device address and a
+     * non empty address string is sent in front of every frame.
+     */
+    @Override
+    public CalDriver createDriver( String Address, int Port ) {
+        byte[] prefix = null;
+        if((Address != null) && !Address.isEmpty()) {
+            prefix = Address.getBytes();
+        }
+        return createDrop(Port, prefix);
+    }
+
+    public synchronized void start() throws CalDriverException {
+        if(gRunning) {
+            return;
+        }
+        gPort.Open();
+        try {
+            gPort.Start();
+        } catch (CalDriverException ex) {
+            if(gPort.isOpen()) {
+                gPort.Close();
+            }
+            throw ex;
+        }
+        gRunning = true;
+        gThread = new Thread(this);
+        gThread.setName("SerialBus");
+        gThread.start();
+    }
+
+    public synchronized void stop() throws CalDriverException {
+        if(!gRunning) {
+            return;
+        }
+        gRunning = false;
+        gThread.interrupt();
+        try {
+            gThread.join(2000);
+        } catch (InterruptedException ex) {
+        }
+        gPort.Stop();
+        gPort.Close();
+    }
+
+    /**
+     * A drop queued a frame
+     */
+    void signal() {
+        synchronized(gSignal) {
+            gSignal.notifyAll();
+        }
+    }
+
+    private static void pause( long Nanos ) {
+        if(Nanos > 0) {
+            LockSupport.parkNanos(Nanos);
+        }
+    }
+
+    /**
+     * Send one frame and collect the reply
+     */
+    private void transact( SerialBusDrop Drop, ByteBuffer Frame, byte[] Buffer ) throws CalDriverException {
+        int echo = gEcho ? Frame.remaining() : 0;
+
+        // late replies of an earlier turn belong to nobody
+        int stale = gPort.IoControl(10, 0);
+        while(stale > 0) {
+            gPort.Read(Buffer, Math.min(stale, Buffer.length));
+            stale = gPort.IoControl(10, 0);
+        }
+
+        gPort.IoControl(Serial.SERIAL_SET_RTS, 1);
+        pause(gTxDelay);
+        gPort.Write(Frame.array(), Frame.remaining());
+        while(gPort.IoControl(Serial.SERIAL_GET_TX_PENDING, 0) > 0) {
+            pause(gCharTime);
+        }
+        // last character still in the shift register
+        pause(gCharTime + gTurnaround);
+        gPort.IoControl(Serial.SERIAL_SET_RTS, 0);
+
+        long now = System.nanoTime();
+        long end = now + (gResponseTimeout * 1000000L);
+        long last = 0;
+        boolean reply = false;
+
+        while(gRunning) {
+            int avail = gPort.IoControl(10, 0);
+            if(avail > 0) {
+                int n = gPort.Read(Buffer, Math.min(avail, Buffer.length));
+                int skip = Math.min(echo, n);
+                echo -= skip;
+                if(n > skip) {
+                    Drop.receive(Buffer, skip, n - skip);
+                    reply = true;
+                }
+                last = System.nanoTime();
+                continue;
+            }
+
+            now = System.nanoTime();
+            if(reply && (now - last >= gQuietChars * gCharTime)) {
+                break;
+            }
+            if(now >= end) {
+                break;
+            }
+            pause(gCharTime);
+        }
+
+        Drop.transactionDone(reply);
+    }
+
+    @Override
+    public void run() {
+        CalBufferPool pool = CalBufferPool.getDefault();
+        ByteBuffer rx = pool.acquire(512);
+        int next = 0;
+
+        System.out.println("SerialBus Starting");
+
+        while(gRunning) {
+            boolean served = false;
+            int count = gDrops.size();
+
+            for(int i=0; i<count; i++) {
+                int idx = (next + i) % count;
+                SerialBusDrop drop;
+                try {
+                    drop = gDrops.get(idx);
+                } catch (IndexOutOfBoundsException ex) {
+                    // drop removed while scanning
+                    break;
+                }
+                ByteBuffer frame = drop.pollFrame();
+                if(frame == null) {
+                    continue;
+                }
+                try {
+                    transact(drop, frame, rx.array());
+                } catch (CalDriverException ex) {
+                    System.out.println("SerialBus: Transaction failed (" + ex.getMessage() + ")");
+                    try {
+                        gPort.IoControl(Serial.SERIAL_SET_RTS, 0);
+                    } catch (CalDriverException exx) {
+                    }
+                }
+                pool.release(frame);
+                next = (idx + 1) % count;
+                served = true;
+                break;
+            }
+
+            if(!served) {
+                synchronized(gSignal) {
+                    boolean pending = false;
+                    for(SerialBusDrop d : gDrops) {
+                        pending |= d.hasFrame();
+                    }
+                    if(!pending) {
+                        try {
+                            gSignal.wait(100);
+                        } catch (InterruptedException ex) {
+                        }
+                    }
+                }
+            }
+        }
+
+        pool.release(rx);
+
+        System.out.println("SerialBus Stopping");
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.serial;
+
+import com.radicales.cal.CalBufferPool;
+import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalRingBuffer;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Serial Bus Drop Driver
+ * Driver of one device on a shared serial bus. Written frames are queued until
+ * the {@link SerialBus} gives the device its turn, replies are buffered until read.
+ * Part of Communication Abstraction Layer.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class SerialBusDrop extends CalDriver {
+
+    private final SerialBus gBus;
+    private final int gAddress;
+    private final byte[] gPrefix;
+    private final Queue<ByteBuffer> gTxQueue = new ConcurrentLinkedQueue<>();
+    private final CalRingBuffer gRxBuffer;
+    private int gTimeout;
+    private volatile long gTransactions;
+    private volatile long gTimeouts;
+
+    SerialBusDrop( SerialBus Bus, int Address, byte[] Prefix ) {
+        super(CalDriver.DRIVER_TYPE_SERIAL, false);
+        gBus = Bus;
+        gAddress = Address;
+        gPrefix = (Prefix != null) ? Prefix : new byte[0];
+        gRxBuffer = new CalRingBuffer(4096);
+        gTimeout = 3000;
+    }
+
+    public int getAddress() {
+        return gAddress;
+    }
+
+    /**
+     * Set the time a read waits for data
+     * @param Value Timeout in milliseconds
+     */
+    public void setTimeout( int Value ) {
+        gTimeout = Value;
+    }
+
+    public long getTransactions() {
+        return gTransactions;
+    }
+
+    /**
+     * Number of frames the device did not answer
+     */
+    public long getTimeouts() {
+        return gTimeouts;
+    }
+
+    /**
+     * Next frame to send, the caller releases it to the buffer pool
+     */
+    ByteBuffer pollFrame() {
+        if(!drvRunning) {
+            return null;
+        }
+        return gTxQueue.poll();
+    }
+
+    boolean hasFrame() {
+        return drvRunning && !gTxQueue.isEmpty();
+    }
+
+    void receive( byte[] Buffer, int Offset, int Length ) {
+        gRxBuffer.write(Buffer, Offset, Length);
+        if(drvEventListener != null) {
+            drvEventListener.DriverEventData();
+        }
+    }
+
+    void transactionDone( boolean Reply ) {
+        gTransactions++;
+        if(!Reply) {
+            gTimeouts++;
+        }
+    }
+
+    private void clearFrames() {
+        ByteBuffer b;
+        while((b = gTxQueue.poll()) != null) {
+            CalBufferPool.getDefault().release(b);
+        }
+    }
+
+    @Override
+    synchronized public void Stop() throws CalDriverException {
+        super.Stop();
+        clearFrames();
+    }
+
+    @Override
+    public int Write( byte[] Buffer, int Length ) throws CalDriverException {
+        if(!drvRunning) {
+            throw new CalDriverException("Driver not running");
+        }
+        ByteBuffer frame = CalBufferPool.getDefault().acquire(gPrefix.length + Length);
+        frame.put(gPrefix);
+        frame.put(Buffer, 0, Length);
+        frame.flip();
+        gTxQueue.add(frame);
+        gBus.signal();
+        return Length;
+    }
+
+    @Override
+    public int Write( byte[] Buffer ) throws CalDriverException {
+        return Write(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read( byte[] Buffer, int Length ) throws CalDriverException {
+        if(!drvOpen) {
+            throw new CalDriverException("Port not open");
+        }
+        try {
+            return gRxBuffer.read(Buffer, 0, Length, gTimeout);
+        } catch (InterruptedException ex) {
+            throw new CalDriverException("Read interrupted");
+        }
+    }
+
+    @Override
+    public int Read( byte[] Buffer ) throws CalDriverException {
+        return Read(Buffer, Buffer.length);
+    }
+
+    @Override
+    public int Read() throws CalDriverException {
+        byte[] b = new byte[1];
+        if(Read(b, 1) < 1) {
+            return -1;
+        }
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer, int Length ) throws CalDriverException {
+        Write(Buffer, Length);
+        return Read(Buffer, Length);
+    }
+
+    @Override
+    public int WriteRead( byte[] Buffer ) throws CalDriverException {
+        return WriteRead(Buffer, Buffer.length);
+    }
+
+    @Override
+    public void Flush() throws CalDriverException {
+        clearFrames();
+        gRxBuffer.clear();
+    }
+
+    @Override
+    public int IoControl( int Code, int Arg ) throws CalDriverException {
+        switch(Code) {
+            case Serial.SERIAL_GET_TX_PENDING:
+                return gTxQueue.size();
+            case 10:
+                return gRxBuffer.available();
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Drop " + gAddress;
+    }
+
+}
@@ -17,7 +17,11 @@
 package com.radicales.cal.serial;
 
 import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverEvent;
+import com.radicales.cal.CalDriverFactory;
 import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalMemoryDriver;
+import com.radicales.cal.CalRingBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jssc.*;
@@ -34,11 +38,31 @@ import jssc.*;
  * @version
  * <b>1.0 14/12/2013</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Event driven receive into a ring buffer.
  */
 public class SerialJSSC extends CalDriver implements SerialPortEventListener {
 
+    /**
+     * Creates a driver for the serial port named by the address,
+     * a port above 0 is used as baud rate.
+     */
+    public static final CalDriverFactory FACTORY = new CalDriverFactory() {
+        @Override
+        public CalDriver createDriver( String Address, int Port ) {
+            SerialParameters p = new SerialParameters(Address);
+            p.setPortName(Address);
+            if(Port > 0) {
+                p.setBaudRate(Port);
+            }
+            return new SerialJSSC(p);
+        }
+    };
+
     private SerialParameters gParameters;
     private SerialPort gSerialPort;
+    private CalMemoryDriver gLoopback;
+    private final CalRingBuffer gRxBuffer = new CalRingBuffer(8192);
    // private CommPortIdentifier gPortIdentifyer;
     private static final boolean debug = true;
 
@@ -62,6 +86,22 @@ public class SerialJSSC extends CalDriver implements SerialPortEventListener {
         super(CalDriver.DRIVER_TYPE_JSSC, Id,Start,false);
         gParameters = Parameters;
     }
+
+    /**
+     * Creates a driver on one end of a memory driver pair instead of a
+     * serial port, so the event driven receive path can run without
+     * hardware. Whatever the other end writes is received as RXCHAR events.
+     *
+     * @param Name Port name
+     * @param Line Memory driver end used as the port
+     * @return Serial driver
+     */
+    public static SerialJSSC createLoopback( String Name, CalMemoryDriver Line ) {
+        SerialJSSC d = new SerialJSSC(Name, Name);
+        d.gLoopback = Line;
+        return d;
+    }
+
     public String getPortName() {
         return gParameters.getPortName();
     }
@@ -77,7 +117,7 @@ public class SerialJSSC extends CalDriver implements SerialPortEventListener {
 
         super.Open();
         //1. obtain a CommPortIdentifier instance
-        String[] portNames = SerialPortList.getPortNames();
+        String[] portNames = (gLoopback != null) ? new String[0] : SerialPortList.getPortNames();
         for(String s : portNames) {
             if(s.matches(gParameters.getPortName())) {
                 match = true;
@@ -95,7 +135,12 @@ public class SerialJSSC extends CalDriver implements SerialPortEventListener {
 
 
         //2. open the port, wait for given timeout
-        gSerialPort = new SerialPort(gParameters.getPortName());
+        if(gLoopback != null) {
+            gSerialPort = new SerialLoopbackPort(gParameters.getPortName(), gLoopback);
+        }
+        else {
+            gSerialPort = new SerialPort(gParameters.getPortName());
+        }
         try {
             gSerialPort.openPort();
         } catch (SerialPortException e) {
@@ -140,7 +185,7 @@ public class SerialJSSC extends CalDriver implements SerialPortEventListener {
 
         // Set notifyOnBreakInterrup to allow event driven break handling.
         try {
-            int mask = SerialPort.MASK_CTS;// | SerialPort.MASK_RXCHAR | SerialPort.MASK_TXEMPTY | SerialPort.MASK_CTS;
+            int mask = SerialPort.MASK_RXCHAR | SerialPort.MASK_CTS | SerialPort.MASK_DSR;
             gSerialPort.setEventsMask(mask);
         }
         catch(SerialPortException e) {
@@ -152,6 +197,7 @@ public class SerialJSSC extends CalDriver implements SerialPortEventListener {
     public void Flush() throws CalDriverException {
         try {
             gSerialPort.purgePort(SerialPort.PURGE_RXCLEAR | SerialPort.PURGE_TXCLEAR);
+            gRxBuffer.clear();
         }
         catch(SerialPortException e) {
             throw new CalDriverException(e.getMessage());
@@ -217,8 +263,12 @@ public class SerialJSSC extends CalDriver implements SerialPortEventListener {
 
     @Override
     public int Write( byte[] Buffer, int Length ) throws CalDriverException {
-        byte[] b = new byte[Length];
-        System.arraycopy(Buffer, 0, b, 0, Length);
+        byte[] b = Buffer;
+        // JSSC only writes whole arrays
+        if(Length != Buffer.length) {
+            b = new byte[Length];
+            System.arraycopy(Buffer, 0, b, 0, Length);
+        }
         try {
             gSerialPort.writeBytes(b);
         } catch (SerialPortException ex) {
@@ -237,107 +287,74 @@ public class SerialJSSC extends CalDriver implements SerialPortEventListener {
         return Buffer.length;
     }
 
+    /**
+     * Read received data, waiting up to the receive timeout for it
+     * @return Number of bytes read, 0 on timeout
+     */
     @Override
     public int Read( byte[] Buffer, int Length ) throws CalDriverException {
-        int ret = 0;
-        byte[] b;
+        if(!drvOpen) {
+            throw new CalDriverException("Port not open");
+        }
         try {
-            if(gParameters.getReceiveTimeout() > 0) {
-                b = gSerialPort.readBytes(Length, gParameters.getReceiveTimeout());
-            }
-            else {
-                int ab = gSerialPort.getInputBufferBytesCount();
-                if(ab > Length) {
-                    b = gSerialPort.readBytes(Length);
-                }
-                else {
-                    b = gSerialPort.readBytes();
-                }
-            }
-            if(b != null) {
-                try {
-                    System.arraycopy(b, 0, Buffer, 0, b.length);
-                    ret = b.length;
-                }
-                catch(ArrayIndexOutOfBoundsException ex) {
-                    ret = 0;
-                }
-            }
-        } catch (SerialPortException ex) {
-            throw new CalDriverException(ex.getMessage());
-        } catch( SerialPortTimeoutException ext ) {
-            ret = -1;
+            return gRxBuffer.read(Buffer, 0, Length, gParameters.getReceiveTimeout());
+        } catch (InterruptedException ex) {
+            throw new CalDriverException("Read interrupted");
         }
-
-        return ret;
     }
 
     @Override
     public int Read( byte[] Buffer ) throws CalDriverException {
-        int ret = 0;
-        try {
-            byte[] b;
-            if(gParameters.getReceiveTimeout() > 0) {
-                b = gSerialPort.readBytes(Buffer.length, gParameters.getReceiveTimeout());
-            }
-            else {
-                int ab = gSerialPort.getInputBufferBytesCount();
-                if(ab > Buffer.length) {
-                    b = gSerialPort.readBytes(Buffer.length);
-                }
-                else {
-                    b = gSerialPort.readBytes();
-                }
-            }
-            if(b != null) {
-                try {
-                    System.arraycopy(b, 0, Buffer, 0, b.length);
-                    ret = b.length;
-                }
-                catch(ArrayIndexOutOfBoundsException ex) {
-                    ret = 0;
-                }
-            }
-        } catch (SerialPortException ex) {
-            throw new CalDriverException(ex.getMessage());
-        } catch(SerialPortTimeoutException ext) {
-            ret = -1;
-        }
-        return ret;
+        return Read(Buffer, Buffer.length);
     }
 
     @Override
     public int Read() throws CalDriverException {
-        int ret = 0;
-        try {
-            byte[] b;
-            if(gParameters.getReceiveTimeout() > 0) {
-                b = gSerialPort.readBytes(1, gParameters.getReceiveTimeout());
-            }
-            else {
-                b = gSerialPort.readBytes(1);
-            }
-            if(b.length > 0) {
-                ret = b[0];
-            }
-        } catch (SerialPortException ex ) {
-            throw new CalDriverException(ex.getMessage());
-        } catch(SerialPortTimeoutException ext) {
-            ret = -1;
+        byte[] b = new byte[1];
+        if(Read(b, 1) < 1) {
+            return -1;
         }
+        return b[0] & 0xff;
+    }
 
-        return ret;
+    /**
+     * Number of received bytes dropped because the receive buffer was full
+     */
+    public long getOverflows() {
+        return gRxBuffer.getOverflows();
     }
 
     @Override
     public void serialEvent(SerialPortEvent spe) {
+        CalDriverEvent listener = drvEventListener;
+
         if(spe.isRXCHAR()){
+            if(spe.getEventValue() <= 0) {
+                return;
+            }
+            try {
+                byte[] b = gSerialPort.readBytes(spe.getEventValue());
+                if(b != null) {
+                    gRxBuffer.write(b, 0, b.length);
+                    if(listener != null) {
+                        listener.DriverEventData();
+                    }
+                }
+            } catch (SerialPortException ex) {
+                if(debug) {
+                    System.out.println("Serial: Receive failed (" + ex.getMessage() + ")");
+                }
+            }
         }
         else if(spe.isCTS()){
-            drvEventListener.DriverEventNotify(SerialPort.MASK_CTS, spe.getEventValue());
+            if(listener != null) {
+                listener.DriverEventNotify(SerialPort.MASK_CTS, spe.getEventValue());
+            }
         }
         else if(spe.isDSR()){
-            drvEventListener.DriverEventNotify(SerialPort.MASK_DSR, spe.getEventValue());
+            if(listener != null) {
+                listener.DriverEventNotify(SerialPort.MASK_DSR, spe.getEventValue());
+            }
         }
     }
 
@@ -355,6 +372,12 @@ public class SerialJSSC extends CalDriver implements SerialPortEventListener {
                     }
                     ret = 0;
                     break;
+                case Serial.SERIAL_GET_TX_PENDING:
+                    ret = gSerialPort.getOutputBufferBytesCount();
+                    break;
+                case 10:
+                    ret = gRxBuffer.available();
+                    break;
             }
         } catch (SerialPortException ex) {
             throw new CalDriverException(ex.getMessage());
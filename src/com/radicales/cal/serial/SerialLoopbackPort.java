@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radicales.cal.serial;
+
+import com.radicales.cal.CalDriverEvent;
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalMemoryDriver;
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import jssc.SerialPortException;
+
+/**
+ * Serial Loopback Port
+ * Stand-in for a JSSC port on one end of a memory driver pair. Data the
+ * other end writes is announced to the port listener with an RXCHAR event
+ * and taken with readBytes, like JSSC does for a real port, and written
+ * bytes arrive at the other end. Line settings and control lines are
+ * accepted and ignored.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+class SerialLoopbackPort extends SerialPort implements CalDriverEvent {
+
+    private final String gName;
+    private final CalMemoryDriver gLine;
+    private volatile SerialPortEventListener gListener;
+    private volatile int gMask;
+
+    SerialLoopbackPort( String Name, CalMemoryDriver Line ) {
+        super(Name);
+        gName = Name;
+        gLine = Line;
+    }
+
+    @Override
+    public boolean openPort() throws SerialPortException {
+        try {
+            gLine.Open();
+            gLine.addEventListener(this);
+        } catch (CalDriverException ex) {
+            throw new SerialPortException(gName, "openPort()", ex.getMessage());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean closePort() throws SerialPortException {
+        gListener = null;
+        try {
+            gLine.removeEventListener(this);
+            gLine.Close();
+        } catch (CalDriverException ex) {
+            throw new SerialPortException(gName, "closePort()", ex.getMessage());
+        }
+        return true;
+    }
+
+    @Override
+    public void addEventListener( SerialPortEventListener Listener ) throws SerialPortException {
+        gListener = Listener;
+    }
+
+    @Override
+    public boolean setEventsMask( int Mask ) throws SerialPortException {
+        gMask = Mask;
+        return true;
+    }
+
+    @Override
+    public boolean setParams( int BaudRate, int DataBits, int StopBits, int Parity ) throws SerialPortException {
+        return true;
+    }
+
+    @Override
+    public boolean setFlowControlMode( int Mask ) throws SerialPortException {
+        return true;
+    }
+
+    @Override
+    public boolean setRTS( boolean Value ) throws SerialPortException {
+        return true;
+    }
+
+    @Override
+    public boolean purgePort( int Flags ) throws SerialPortException {
+        if((Flags & SerialPort.PURGE_RXCLEAR) != 0) {
+            try {
+                gLine.Flush();
+            } catch (CalDriverException ex) {
+                throw new SerialPortException(gName, "purgePort()", ex.getMessage());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean writeBytes( byte[] Buffer ) throws SerialPortException {
+        try {
+            gLine.Write(Buffer, Buffer.length);
+        } catch (CalDriverException ex) {
+            throw new SerialPortException(gName, "writeBytes()", ex.getMessage());
+        }
+        return true;
+    }
+
+    @Override
+    public byte[] readBytes( int Count ) throws SerialPortException {
+        byte[] b = new byte[Count];
+        byte[] part = null;
+        int n = 0;
+        try {
+            // like JSSC, wait until all requested bytes arrived
+            while(n < Count) {
+                if(part == null) {
+                    part = b;
+                }
+                else if(part == b) {
+                    part = new byte[Count];
+                }
+                int r = gLine.Read(part, Count - n);
+                if(r < 0) {
+                    throw new SerialPortException(gName, "readBytes()", "Port closed");
+                }
+                if(part != b) {
+                    System.arraycopy(part, 0, b, n, r);
+                }
+                n += r;
+            }
+        } catch (CalDriverException ex) {
+            throw new SerialPortException(gName, "readBytes()", ex.getMessage());
+        }
+        return b;
+    }
+
+    @Override
+    public int getInputBufferBytesCount() throws SerialPortException {
+        try {
+            return gLine.IoControl(10, 0);
+        } catch (CalDriverException ex) {
+            throw new SerialPortException(gName, "getInputBufferBytesCount()", ex.getMessage());
+        }
+    }
+
+    @Override
+    public int getOutputBufferBytesCount() throws SerialPortException {
+        return 0;
+    }
+
+    /**
+     * The other end wrote, announce what is waiting like the port event thread does
+     */
+    @Override
+    public void DriverEventData() {
+        SerialPortEventListener listener = gListener;
+        int n;
+        try {
+            n = gLine.IoControl(10, 0);
+        } catch (CalDriverException ex) {
+            return;
+        }
+        if((listener != null) && ((gMask & SerialPort.MASK_RXCHAR) != 0) && (n > 0)) {
+            listener.serialEvent(new SerialPortEvent(gName, SerialPort.MASK_RXCHAR, n));
+        }
+    }
+
+    @Override
+    public void DriverEventRead( byte[] Buffer, int Length ) {
+    }
+
+    @Override
+    public void DriverEventWrite( byte[] Buffer, int Lenght ) {
+    }
+
+    @Override
+    public void DriverEventRun() {
+    }
+
+    @Override
+    public void DriverEventNotify( int Id, int Value ) {
+    }
+
+}
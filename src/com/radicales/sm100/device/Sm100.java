@@ -16,9 +16,13 @@
  */
 package com.radicales.sm100.device;
 
+import com.radicales.cal.CalDriver;
 import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalDriverFactory;
 import com.radicales.sm100.protocol.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Smart Mist 100 Device Object
@@ -32,7 +36,7 @@ import java.util.*;
  * <b>1.0 01/11/2014</b><br>
  * Original release.
  */
-public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
+public class Sm100 implements Runnable, X4smEvent, X4smZonesStatusEvent, Sm100ProgramEvent {
 
     private static final int STATE_INIT = 0;
     private static final int STATE_CONNECTING = 1;
@@ -53,6 +57,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     private static final int STATE_GET_ZONELIST = 29;
     private static final int STATE_MONITOR_WAIT = 30;
     private static final int STATE_MONITOR_IDLE = 31;
+    private static final int STATE_CONFIG_CHECK = 32;
     private static final int STATE_REMOVE_SETUP_WAIT = 40;
     private static final int STATE_ADDZONE = 41;
     private static final int STATE_ADDZONE_WAIT = 42;
@@ -70,13 +75,16 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     private static final int CMD_START_MONITOR = 13;
     private static final int CMD_STOP_MONITOR = 14;
 
+    // a time request without reply after this long is given up
+    private static final int TIME_REPLY_TIMEOUT = 5000;
+
     private String gName;
     private String gDescription;
     private String gLocation;
     private String gMode;
     private boolean gEnabled;
     private final X4smComm gComm;
-    private boolean gOnline;
+    private volatile boolean gOnline;
     private int gState;
     private int gIndex;
     private Thread gThread;
@@ -85,9 +93,30 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     private int gChannels;
     private Queue<X4smMessage> gTxQueue = new LinkedList<>();
     private Queue<Integer> gCmdQueue = new LinkedList<>();
-    private List<Sm100Event> gEventListeners = new ArrayList<>();
+    private List<Sm100Event> gEventListeners = new CopyOnWriteArrayList<>();
     private List<Sm100Program> gPrograms = new ArrayList<>();
     private List<Sm100Zone> gZones = new ArrayList<>();
+    private final AtomicReference<Sm100Snapshot> gSnapshot = new AtomicReference<>(Sm100Snapshot.EMPTY);
+    private final X4smSymbolTable gZoneSymbols = new X4smSymbolTable();
+    private volatile Sm100Zone[] gZoneSlots;
+    private volatile Sm100TimeSync gTimeSync;
+    // GetDateTime requests written and not answered yet, in send order
+    private final Queue<X4smGetDateTimeMessage> gTimeRequests = new ArrayDeque<>();
+    private final X4smAttributeView gZoneNames = new X4smAttributeView();
+    // time handed to the state machine when it runs on a replay clock
+    private final Object gClockLock = new Object();
+    private volatile boolean gManualClock;
+    private long gClockPending;
+    private Sm100ConfigCache gCache;
+    private Sm100Configuration gDeviceConfig;
+    private boolean gCacheRestored;
+    private String gConfigFile;
+    private int gConfigZones;
+    private int gConfigPrograms;
+    private boolean gIncrementalUpload;
+    private boolean gReplaceSupported;
+    private List<Sm100Zone> gUploadZones = new ArrayList<>();
+    private List<Sm100Program> gUploadPrograms = new ArrayList<>();
 
     /**
      * Constructor of a SM100 device object
@@ -99,12 +128,44 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
      */
 
     public Sm100( String Name, String IpAddress, int Port, boolean Enabled ) {
+        this(Name, new X4smComm(IpAddress, Port), Enabled);
+    }
+
+    /**
+     * Constructor of a SM100 device object reached through a given driver
+     *
+     * @param Name Text name of the device
+     * @param Driver Driver the device is reached through, for example a gateway channel
+     * @param Enabled If the device is enabled
+     */
+    public Sm100( String Name, CalDriver Driver, boolean Enabled ) {
+        this(Name, new X4smComm(Driver), Enabled);
+    }
+
+    /**
+     * Constructor of a SM100 device object reached through any transport
+     *
+     * @param Name Text name of the device
+     * @param Address Address of the device, for example an IP address or serial port name
+     * @param Port Port of the device, its meaning depends on the factory
+     * @param Factory Factory creating the driver on every connect
+     * @param Enabled If the device is enabled
+     */
+    public Sm100( String Name, String Address, int Port, CalDriverFactory Factory, boolean Enabled ) {
+        this(Name, new X4smComm(Address, Port, Factory), Enabled);
+    }
+
+    private Sm100( String Name, X4smComm Comm, boolean Enabled ) {
         gName = Name;
         gEnabled = Enabled;
-        gComm = new X4smComm(IpAddress, Port);
+        gComm = Comm;
         gState = STATE_INIT;
         gOnline = false;
         gChannels = -1;
+        gConfigZones = -1;
+        gConfigPrograms = -1;
+        gIncrementalUpload = true;
+        gReplaceSupported = false;
         gDescription = "Unknown";
         gLocation = "Unknown";
     }
@@ -161,7 +222,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
         return gComm.getPort();
     }
 
-    public Sm100Program findProgram( String Name ) {
+    public synchronized Sm100Program findProgram( String Name ) {
 
         for(Sm100Program p : gPrograms) {
             if(p.getName().matches(Name)) {
@@ -172,7 +233,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
         return null;
     }
 
-    public Sm100Zone findZone( String Name ) {
+    public synchronized Sm100Zone findZone( String Name ) {
 
         for(Sm100Zone z : gZones) {
             if(z.getName().matches(Name)) {
@@ -185,10 +246,15 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
 
     public void removeZone( Sm100Zone zone ) {
 
-        if(gZones.remove(zone)) {
-            for(Sm100Event ev : gEventListeners) {
-                ev.eventZonesUpdate(gZones);
+        synchronized(this) {
+            if(!gZones.remove(zone)) {
+                return;
             }
+            gZoneSlots = null;
+            publish();
+        }
+        for(Sm100Event ev : gEventListeners) {
+            ev.eventZonesUpdate(gZones);
         }
     }
 
@@ -203,31 +269,35 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
             chlst.add(c + 1);
         }
 
-        for(Sm100Zone z : gZones) {
-            int c = z.getChannel();
+        synchronized(this) {
+            for(Sm100Zone z : gZones) {
+                int c = z.getChannel();
 
-            for(Integer i : chlst) {
-                if(c == i.intValue()) {
-                    chlst.remove(i);
-                    break;
+                for(Integer i : chlst) {
+                    if(c == i.intValue()) {
+                        chlst.remove(i);
+                        break;
+                    }
                 }
             }
-        }
 
-        if(chlst.isEmpty()) {
-            throw new Sm100Exception("No open channels");
-        }
+            if(chlst.isEmpty()) {
+                throw new Sm100Exception("No open channels");
+            }
 
-        Integer c = chlst.get(0);
-        Sm100Zone z = new Sm100Zone("Zone " + Integer.toString(c));
-        z.setChannel(c);
-        gZones.add(z);
+            Integer c = chlst.get(0);
+            Sm100Zone z = new Sm100Zone("Zone " + Integer.toString(c));
+            z.setChannel(c);
+            gZones.add(z);
+            gZoneSlots = null;
+            publish();
+        }
         for(Sm100Event ev : gEventListeners) {
             ev.eventZonesUpdate(gZones);
         }
     }
 
-    public Sm100Zone findZoneByChannel( int Channel ) {
+    public synchronized Sm100Zone findZoneByChannel( int Channel ) {
 
         for(Sm100Zone z : gZones) {
             if(z.getIndex() == Channel) {
@@ -238,18 +308,166 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
         return null;
     }
 
-    public void addZone(String Name, int Channel, long ControlWord, boolean InitValue, int OffDelay, boolean Enabled) {
+    public synchronized void addZone(String Name, int Channel, long ControlWord, boolean InitValue, int OffDelay, boolean Enabled) {
         Sm100Zone z = new Sm100Zone(Name, Channel, ControlWord, InitValue, OffDelay, Enabled);
         gZones.add(z);
+        gZoneSlots = null;
+        publish();
     }
 
-    public void addProgram(String Name, long ControlWord, int[] WaterBudget, StartTime[] StartTimes ) {
+    public synchronized void addProgram(String Name, long ControlWord, int[] WaterBudget, StartTime[] StartTimes ) {
         Sm100Program p = new Sm100Program(Name, ControlWord, WaterBudget, StartTimes, this);
         gPrograms.add(p);
+        publish();
     }
 
-    public void addProgramObject( Sm100Program Program ) {
+    public synchronized void addProgramObject( Sm100Program Program ) {
         gPrograms.add(Program);
+        publish();
+    }
+
+    /**
+     * Set the cache that keeps the downloaded configuration between restarts.
+     * With a cache set a download first requests the device configuration header
+     * and only downloads zones and programs if it differs from the cached one.
+     *
+     * @param Cache Configuration cache, null to always download
+     */
+    public synchronized void setConfigCache( Sm100ConfigCache Cache ) {
+        gCache = Cache;
+    }
+
+    public Sm100ConfigCache getConfigCache() {
+        return gCache;
+    }
+
+    /**
+     * Enable uploading only the differences with the last known device configuration.
+     * Without a known configuration, or when zones or programs were removed,
+     * the upload falls back to removing the device setup and adding everything.
+     *
+     * @param Enabled Upload differences only when possible
+     * @param ReplaceSupported Device firmware replaces an existing zone or program
+     * that is added again under the same name, so changed entries can be re-sent
+     */
+    public synchronized void setIncrementalUpload( boolean Enabled, boolean ReplaceSupported ) {
+        gIncrementalUpload = Enabled;
+        gReplaceSupported = ReplaceSupported;
+    }
+
+    public boolean isIncrementalUpload() {
+        return gIncrementalUpload;
+    }
+
+    /**
+     * Get the configuration last downloaded from or restored for the device
+     * @return Last known device configuration, null if not known
+     */
+    public Sm100Configuration getDeviceConfiguration() {
+        return gDeviceConfig;
+    }
+
+    /**
+     * Replace the zones and programs with those of a configuration,
+     * for example one imported from a file. The device itself is only
+     * changed by a following program upload.
+     *
+     * @param Config Configuration to load
+     */
+    public synchronized void loadConfiguration( Sm100Configuration Config ) {
+        gZones.clear();
+        gZones.addAll(Config.createZones());
+        gZoneSlots = null;
+        gPrograms.clear();
+        gPrograms.addAll(Config.createPrograms(this, gZones));
+        publish();
+        for(Sm100Event ev : gEventListeners) {
+            ev.eventZonesUpdate(gZones);
+            ev.eventProgramsUpdate(gPrograms);
+        }
+    }
+
+    /**
+     * Hand a new connection to the device, for example one the device made
+     * to a server. The current connection is dropped and the device goes
+     * through its connect sequence on the new one.
+     *
+     * @param Driver Driver of the new connection
+     */
+    public synchronized void attachDriver( CalDriver Driver ) {
+        gComm.setDriver(Driver);
+        if(this.gOnline) {
+            this.gOnline = false;
+            for(Sm100Event ev : gEventListeners) {
+                ev.eventStatus("Offline");
+            }
+        }
+        setState(STATE_INIT + 100);
+    }
+
+    public CalDriver getDriver() {
+        return gComm.getDriver();
+    }
+
+    /**
+     * Enable recycling of the messages received from the device.
+     * Meant for monitoring many devices, status polls then do not allocate.
+     * Arrays passed to Sm100Event listeners, such as the input status, are
+     * only valid during the event call and must be copied to be kept.
+     *
+     * @param Value True to recycle messages
+     */
+    public void setRecycling( boolean Value ) {
+        gComm.setRecycling(Value);
+    }
+
+    /**
+     * Record all traffic of this device in a journal
+     * @param Journal Journal of this device, null to stop recording
+     */
+    public void setJournal( X4smJournal Journal ) {
+        gComm.setJournal(Journal);
+    }
+
+    public X4smJournal getJournal() {
+        return gComm.getJournal();
+    }
+
+    /**
+     * Parse the messages of the device on a shared receive pipeline.
+     * Device events are then raised on a worker thread of the pipeline.
+     * Set the pipeline before the device is started.
+     *
+     * @param Pipeline Pipeline, null to parse on the connection thread
+     */
+    public void setPipeline( X4smPipeline Pipeline ) {
+        gComm.setPipeline(Pipeline);
+    }
+
+    /**
+     * Process a status message that arrived outside the device connection,
+     * for example as a telemetry datagram.
+     *
+     * @param Message Decoded message, only zone status, active program and inputs are used
+     */
+    public void telemetryReceived( X4smMessage Message ) {
+        switch(Message.getType()) {
+            case X4smMessage.MSG_TYPE_ZONES:
+                X4smZonesMessage m = (X4smZonesMessage)Message;
+                if(m.getMessageType() != X4smZonesMessage.ZONE_MSG_TYPE_STATUS) {
+                    break;
+                }
+                // only a reply on the connection completes a status poll
+                applyZonesStatus(m);
+                for(Sm100Event ev : gEventListeners) {
+                    ev.eventZoneStatusUpdate(gZones);
+                }
+                break;
+            case X4smMessage.MSG_TYPE_ACTIVEPROGRAM:
+            case X4smMessage.MSG_TYPE_INPUTS:
+                Message.fireEvent(Collections.<X4smEvent>singletonList(this));
+                break;
+        }
     }
 
     public synchronized boolean start() {
@@ -288,12 +506,66 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
         return gTxQueue.add(msg);
     }
 
+    public boolean isOnline() {
+        return gOnline;
+    }
+
+    void setTimeSync( Sm100TimeSync Sync ) {
+        gTimeSync = Sync;
+    }
+
+    /**
+     * Request the device time for a clock sample. The request is written
+     * straight away and only while the device is connected and idle, not
+     * while it is monitored or a configuration is transferred. The reply
+     * goes to the time synchronisation with the time its request was sent.
+     */
+    synchronized boolean requestDateTime( X4smGetDateTimeMessage Request ) {
+        return sendNow(Request);
+    }
+
+    /**
+     * Set the device time, written straight away like a time request
+     */
+    synchronized boolean sendDateTime( X4smSetDateTimeMessage Message ) {
+        return sendNow(Message);
+    }
+
+    private boolean sendNow( X4smMessage Message ) {
+        if(getState() != STATE_CONNECTED) {
+            return false;
+        }
+        expectReply(Message);
+        try {
+            gComm.sendMessage(Message);
+        } catch (CalDriverException ex) {
+            synchronized(gTimeRequests) {
+                gTimeRequests.remove(Message);
+            }
+            return false;
+        }
+        this.gTimer = 0;
+        return true;
+    }
+
+    /**
+     * Note a request before it is written, replies are matched to the
+     * requests in the order they were sent
+     */
+    private void expectReply( X4smMessage Message ) {
+        if(Message instanceof X4smGetDateTimeMessage) {
+            synchronized(gTimeRequests) {
+                gTimeRequests.add((X4smGetDateTimeMessage)Message);
+            }
+        }
+    }
+
     public boolean getProgramNames() {
         X4smGetProgramsMessage msg = new X4smGetProgramsMessage();
         return gTxQueue.add(msg);
     }
 
-    public Sm100Program getProgram( String Name ) {
+    public synchronized Sm100Program getProgram( String Name ) {
         for(Sm100Program p : gPrograms) {
             if(p.getName().matches(Name)) {
                 return p;
@@ -302,14 +574,46 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
         return null;
     }
 
+    /**
+     * Get the live program list, changed by the device thread while it
+     * downloads. Use getSnapshot to read programs from other threads.
+     */
     public List<Sm100Program> getProgramsList() {
         return gPrograms;
     }
 
+    /**
+     * Get the live zone list, changed by the device thread while it
+     * downloads. Use getSnapshot to read zones from other threads.
+     */
     public List<Sm100Zone> getZoneList() {
         return gZones;
     }
 
+    /**
+     * Get the last complete configuration of the device.
+     * Snapshots never change, a new one is published with a higher
+     * version after every completed change.
+     *
+     * @return Current snapshot
+     */
+    public Sm100Snapshot getSnapshot() {
+        return gSnapshot.get();
+    }
+
+    /**
+     * Publish a snapshot of the zones and programs if they changed. It is
+     * built holding the device lock, which every change of the zone and
+     * program lists holds, the device thread and the connection included.
+     */
+    private synchronized void publish() {
+        Sm100Snapshot prev = gSnapshot.get();
+        Sm100Snapshot next = prev.update(gZones, gPrograms);
+        if(next != prev) {
+            gSnapshot.set(next);
+        }
+    }
+
     public boolean startMonitor() {
         return gCmdQueue.add(CMD_START_MONITOR);
     }
@@ -348,6 +652,8 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     }
 
     public boolean syncUploadPrograms() {
+        // edits made through the zone and program setters are complete now
+        publish();
         return gCmdQueue.add(CMD_UPLOAD);
     }
 
@@ -373,7 +679,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
 
         boolean ret = false;
 
-        if(NewState > 100) {
+        if(NewState >= 100) {
             System.out.println("Sm100 SM: Old State = " + Integer.toString(this.gState) + " New event state = " + Integer.toString(NewState));
             NewState -= 100;
             ret = true;
@@ -388,6 +694,72 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
         return ret;
     }
 
+    /**
+     * Forget the known device configuration while an upload changes it.
+     * An interrupted upload leaves the device in an unknown state, the
+     * next upload is then a full one. The configuration is known again
+     * when the upload completes.
+     */
+    private void invalidateDeviceConfig() {
+        this.gDeviceConfig = null;
+        if(this.gCache != null) {
+            this.gCache.clear();
+        }
+    }
+
+    /**
+     * Run the timers of the state machine on a clock that is advanced by
+     * hand instead of the wall clock, so a replay can run faster than the
+     * recording and still see polls and pings where they were recorded.
+     *
+     * @param Value True to only advance time on advanceClock
+     */
+    void setManualClock( boolean Value ) {
+        synchronized(gClockLock) {
+            gManualClock = Value;
+            gClockPending = 0;
+            gClockLock.notifyAll();
+        }
+    }
+
+    /**
+     * Advance the manual clock
+     * @param Millis Time passed in milliseconds
+     */
+    void advanceClock( long Millis ) {
+        synchronized(gClockLock) {
+            gClockPending += Math.max(0, Millis);
+            gClockLock.notifyAll();
+        }
+    }
+
+    /**
+     * Number of messages from the device handled so far
+     */
+    long getParsedFrames() {
+        return gComm.getParsedFrames();
+    }
+
+    /**
+     * Wait for the next step of the state machine
+     * @return Time passed in milliseconds
+     */
+    private int tick() throws InterruptedException {
+        if(!gManualClock) {
+            Thread.sleep(100);
+            return 100;
+        }
+        synchronized(gClockLock) {
+            if(gClockPending == 0) {
+                // keep handling events while the clock stands still
+                gClockLock.wait(10);
+            }
+            int n = (int)Math.min(gClockPending, 100);
+            gClockPending -= n;
+            return n;
+        }
+    }
+
     private synchronized int getState() {
         return this.gState;
     }
@@ -395,12 +767,40 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     private int processCommand( int State, int Cmd ) {
         try {
             if(Cmd == CMD_UPLOAD) {
+                this.gIndex = 0;
+                if(this.gIncrementalUpload && (this.gDeviceConfig != null)) {
+                    Sm100ConfigDiff diff = Sm100ConfigDiff.compare(this.gDeviceConfig, gZones, gPrograms);
+                    System.out.println("Sm100 " + gName + ": Upload difference " + diff.toString());
+                    if(diff.isEmpty()) {
+                        for(Sm100Event ev : gEventListeners) {
+                            ev.eventUploadComplete();
+                        }
+                        return STATE_CONNECTED;
+                    }
+                    if(diff.isIncremental(this.gReplaceSupported)) {
+                        this.gUploadZones = diff.getUploadZones();
+                        this.gUploadPrograms = diff.getUploadPrograms();
+                        invalidateDeviceConfig();
+                        return STATE_ADDZONE;
+                    }
+                }
+                invalidateDeviceConfig();
+                this.gUploadZones = new ArrayList<>(gZones);
+                this.gUploadPrograms = new ArrayList<>(gPrograms);
                 X4smRemoveSetupMessage msg = new X4smRemoveSetupMessage();
                 this.gComm.sendMessage(msg);
-                this.gIndex = 0;
                 return STATE_REMOVE_SETUP_WAIT;
             }
             else if(Cmd == CMD_DOWNLOAD) {
+                this.gCacheRestored = false;
+                if(this.gCache != null) {
+                    this.gConfigFile = null;
+                    this.gConfigZones = -1;
+                    this.gConfigPrograms = -1;
+                    X4smGetConfigMessage msg = new X4smGetConfigMessage();
+                    this.gComm.sendMessage(msg);
+                    return STATE_GETCONFIG;
+                }
                 X4smGetZonesMessage msg = new X4smGetZonesMessage();
                 this.gComm.sendMessage(msg);
                 return STATE_GET_ZONELIST;
@@ -428,8 +828,12 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
         System.out.println("SM100 SM Starting...");
         while(this.gRunning) {
 
-            int state = getState();
+            int state;
+            boolean changed;
             synchronized(this) {
+                // read and commit the state under the lock, events that
+                // arrive in between must not be overwritten
+                state = getState();
 
                 try {
                     if(state == STATE_INIT) {
@@ -467,6 +871,9 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                         gComm.Stop();
                         state = STATE_INIT;
                         this.gOnline = false;
+                        synchronized(gTimeRequests) {
+                            gTimeRequests.clear();
+                        }
                         this.gTimer = 0;
                         for(Sm100Event ev : gEventListeners) {
                             ev.eventStatus("Offline");
@@ -478,8 +885,21 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                             state = processCommand(state, this.gCmdQueue.remove());
                             this.gTimer = 0;
                         }
+                        else if(this.gTxQueue.size() > 1) {
+                            // everything queued since the last tick goes out in one write
+                            List<X4smMessage> batch = new ArrayList<>();
+                            X4smMessage m;
+                            while((m = this.gTxQueue.poll()) != null) {
+                                expectReply(m);
+                                batch.add(m);
+                            }
+                            this.gComm.sendMessages(batch);
+                            this.gTimer = 0;
+                        }
                         else if(!this.gTxQueue.isEmpty()) {
-                            this.gComm.sendMessage(this.gTxQueue.remove());
+                            X4smMessage m = this.gTxQueue.remove();
+                            expectReply(m);
+                            this.gComm.sendMessage(m);
                             this.gTimer = 0;
                         }
                         else if(this.gTimer > 5000) {
@@ -502,6 +922,35 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                             state = STATE_MONITOR_WAIT;
                         }
                     }
+                    else if(state == STATE_GETCONFIG) {
+                        if(this.gTimer > 2000) {
+                            state = STATE_CONFIG_CHECK;
+                        }
+                    }
+                    else if(state == STATE_CONFIG_CHECK) {
+                        Sm100Configuration cfg = this.gCache.load();
+                        if((cfg != null) && cfg.matches(this.gConfigFile, this.gConfigZones, this.gConfigPrograms)) {
+                            System.out.println("Sm100 " + gName + ": Configuration unchanged, using cache");
+                            gZones.clear();
+                            gZones.addAll(cfg.createZones());
+                            gZoneSlots = null;
+                            gPrograms.clear();
+                            gPrograms.addAll(cfg.createPrograms(this, gZones));
+                            publish();
+                            this.gDeviceConfig = cfg;
+                            this.gCacheRestored = true;
+                            for(Sm100Event ev : gEventListeners) {
+                                ev.eventZonesUpdate(gZones);
+                            }
+                            state = STATE_GET_PROGRAM_DONE;
+                        }
+                        else {
+                            X4smGetZonesMessage msg = new X4smGetZonesMessage();
+                            this.gComm.sendMessage(msg);
+                            state = STATE_GET_ZONELIST;
+                        }
+                        this.gTimer = 0;
+                    }
                     else if(state == STATE_GET_ZONELIST) {
                         if(this.gTimer > 2000) {
                             state = STATE_PING;
@@ -514,6 +963,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                             state = STATE_ZONE_WAIT;
                         }
                         else {
+                            publish();
                             for(Sm100Event ev : gEventListeners) {
                                 ev.eventZonesUpdate(gZones);
                             }
@@ -550,6 +1000,13 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                         }
                     }
                     else if(state == STATE_GET_PROGRAM_DONE) {
+                        if(!this.gCacheRestored) {
+                            this.gDeviceConfig = Sm100Configuration.of(this.gConfigFile, this.gConfigZones, this.gConfigPrograms, gZones, gPrograms);
+                            if((this.gCache != null) && (this.gConfigZones >= 0)) {
+                                this.gCache.save(this.gDeviceConfig);
+                            }
+                        }
+                        publish();
                         for(Sm100Event ev : gEventListeners) {
                              ev.eventProgramsUpdate(gPrograms);
                         }
@@ -561,8 +1018,8 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                         }
                     }
                     else if(state == STATE_ADDZONE) {
-                        if(gIndex < gZones.size()) {
-                            Sm100Zone z = gZones.get(gIndex++);
+                        if(gIndex < gUploadZones.size()) {
+                            Sm100Zone z = gUploadZones.get(gIndex++);
                             X4smAddZoneMessage msg = new X4smAddZoneMessage(z.getName(), z.getChannel(), z.getControlWord(), z.isInitValue(), z.getOffDelay());
                             this.gComm.sendMessage(msg);
                             state = STATE_ADDZONE_WAIT;
@@ -579,8 +1036,8 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                         }
                     }
                     else if(state == STATE_ADDPROG) {
-                        if(gIndex < gPrograms.size()) {
-                            Sm100Program p = gPrograms.get(gIndex++);
+                        if(gIndex < gUploadPrograms.size()) {
+                            Sm100Program p = gUploadPrograms.get(gIndex++);
                             X4smAddProgramMessage msg = new X4smAddProgramMessage(p.getName(), p.getControlWord(), p.getWaterBudget(), p.getStartTimes());
                             this.gComm.sendMessage(msg);
                             state = STATE_ADDPROG_WAIT;
@@ -597,8 +1054,8 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                         }
                     }
                     else if(state == STATE_ADDSEQ) {
-                        if(gIndex < gPrograms.size()) {
-                            Sm100Program p = gPrograms.get(gIndex++);
+                        if(gIndex < gUploadPrograms.size()) {
+                            Sm100Program p = gUploadPrograms.get(gIndex++);
                             //X4smAddProgramMessage msg = new X4smAddProgramMessage(p.getName(), p.getControlWord(), p.getWaterBudget(), p.getStartTimes());
                             //this.gComm.sendMessage(msg);
                             state = STATE_ADDSEQ_WAIT;
@@ -623,12 +1080,12 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
                     state = STATE_CLOSE;
                 }
 
+                changed = setState(state);
             } // synchronized
 
-            if(!setState(state)) {
+            if(!changed) {
                 try {
-                    Thread.sleep(100);
-                    this.gTimer += 100;
+                    this.gTimer += tick();
                 } catch (InterruptedException ex) {
                     this.gRunning = false;
                 }
@@ -660,7 +1117,13 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
 
     @Override
     public void eventConfig(String FileName, int Zones, int Programs) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        this.gConfigFile = FileName;
+        this.gConfigZones = Zones;
+        this.gConfigPrograms = Programs;
+
+        if(getState() == STATE_GETCONFIG) {
+            setState(STATE_CONFIG_CHECK + 100);
+        }
     }
 
     @Override
@@ -677,6 +1140,18 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
 
     @Override
     public void eventDateTime(Date Time) {
+        long received = System.currentTimeMillis();
+        X4smGetDateTimeMessage request;
+        synchronized(gTimeRequests) {
+            // requests that were never answered do not take this reply
+            do {
+                request = gTimeRequests.poll();
+            } while((request != null) && ((received - request.getSentTime()) > TIME_REPLY_TIMEOUT));
+        }
+        Sm100TimeSync sync = gTimeSync;
+        if((request != null) && (sync != null)) {
+            sync.sampleReceived(this, request.getSentTime(), received, Time);
+        }
         Calendar cal = Calendar.getInstance();
         cal.setTime(Time);
         for(Sm100Event ev : gEventListeners) {
@@ -685,7 +1160,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     }
 
     @Override
-    public void eventPrograms(String[] Names) {
+    public synchronized void eventPrograms(String[] Names) {
        gPrograms.clear();
        for(String n : Names) {
            Sm100Program p = new Sm100Program(n, this);
@@ -699,7 +1174,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     }
 
     @Override
-    public void eventProgram(String Name, long ControlWord, int[] WaterBudget, X4smStartTime[] StartTimes, X4smSequence[] Sequences) {
+    public synchronized void eventProgram(String Name, long ControlWord, int[] WaterBudget, X4smStartTime[] StartTimes, X4smSequence[] Sequences) {
         Sm100Program p = findProgram(Name);
         if(p != null) {
             p.setControlWord(ControlWord);
@@ -723,12 +1198,13 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     }
 
     @Override
-    public void eventZones(String[] Names) {
+    public synchronized void eventZones(String[] Names) {
        gZones.clear();
        for(String n : Names) {
            Sm100Zone z = new Sm100Zone(n);
            gZones.add(z);
        }
+       buildZoneSymbols();
 
        if(getState() == STATE_GET_ZONELIST) {
            setState(STATE_GETZONE + 100);
@@ -739,7 +1215,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     }
 
     @Override
-    public void eventZone(String Name, int Channel, long ControlWord, int InitValue, int OffDelay) {
+    public synchronized void eventZone(String Name, int Channel, long ControlWord, int InitValue, int OffDelay) {
         Sm100Zone z = findZone(Name);
 
         if(z != null) {
@@ -786,6 +1262,43 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
             }
         }
 
+        zonesStatusApplied();
+    }
+
+    /**
+     * Apply zone status straight from the message.
+     * The names are resolved through the zone symbol table, the layout of
+     * an unchanged name list is reused without looking at the names again.
+     */
+    @Override
+    public void eventZonesStatus( X4smZonesMessage Message ) {
+        applyZonesStatus(Message);
+        zonesStatusApplied();
+    }
+
+    private void applyZonesStatus( X4smZonesMessage Message ) {
+        boolean[] status = Message.getStatus();
+
+        // status arrives on the connection and the telemetry thread,
+        // the shared name view is only filled while holding the lock
+        synchronized(gZoneSymbols) {
+            X4smAttributeView names = Message.getNames(gZoneNames);
+            if((status != null) && (names != null)) {
+                Sm100Zone[] slots = gZoneSlots;
+                if(slots == null) {
+                    slots = buildZoneSymbols();
+                }
+                int[] layout = gZoneSymbols.getLayout(names, ',');
+                for(int i=0; (i<layout.length) && (i<status.length); i++) {
+                    if(layout[i] >= 0) {
+                        slots[layout[i]].setStatus(status[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void zonesStatusApplied() {
         if(getState() == STATE_MONITOR_WAIT) {
 
             for(Sm100Event ev : gEventListeners) {
@@ -796,6 +1309,22 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
         }
     }
 
+    /**
+     * Build the symbol table mapping zone names to zones
+     * @return Zones by slot number
+     */
+    private Sm100Zone[] buildZoneSymbols() {
+        synchronized(gZoneSymbols) {
+            Sm100Zone[] slots = gZones.toArray(new Sm100Zone[gZones.size()]);
+            gZoneSymbols.clear();
+            for(int i=0; i<slots.length; i++) {
+                gZoneSymbols.add(slots[i].getName(), i);
+            }
+            gZoneSlots = slots;
+            return slots;
+        }
+    }
+
     @Override
     public void eventActiveProgram(boolean Active, String Name, String Zone, String Status, int RunTime, int TimeToRun) {
         Sm100Program prog = null;
@@ -833,6 +1362,10 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
             setState(STATE_ADDSEQ + 100);
         }
         else if(getState() == STATE_DOWNLOAD_WAIT) {
+            this.gDeviceConfig = Sm100Configuration.of(this.gConfigFile, gZones.size(), gPrograms.size(), gZones, gPrograms);
+            if(this.gCache != null) {
+                this.gCache.save(this.gDeviceConfig);
+            }
             for(Sm100Event ev : gEventListeners) {
                 ev.eventUploadComplete();
             }
@@ -844,6 +1377,7 @@ public class Sm100 implements Runnable, X4smEvent, Sm100ProgramEvent {
     public void eventStartListChanged(Sm100Program Program, List<StartTime> StartTimeList) {
 
          System.out.println("eventStartListChanged");
+        publish();
 
         for(Sm100Event ev : gEventListeners) {
                 ev.eventProgramStartTimesUpdate(Program, StartTimeList);
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Smart Mist 100 Configuration Cache
+ * Keeps the last downloaded configuration of a device in a compact binary file
+ * so a restart only has to download zones and programs when the device
+ * reports a different configuration.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100ConfigCache {
+
+    private static final int CACHE_MAGIC = 0x534d4343;     // "SMCC"
+    private static final int CACHE_VERSION = 1;
+
+    private final File gFile;
+
+    /**
+     * Constructor of a configuration cache
+     * @param CacheFile File the configuration is kept in
+     */
+    public Sm100ConfigCache( File CacheFile ) {
+        gFile = CacheFile;
+    }
+
+    /**
+     * Constructor of a configuration cache for a named device
+     * @param Directory Directory holding the cache files
+     * @param DeviceName Name of the device
+     */
+    public Sm100ConfigCache( File Directory, String DeviceName ) {
+        gFile = new File(Directory, DeviceName.replaceAll("[^A-Za-z0-9_.-]", "_") + ".smc");
+    }
+
+    public File getFile() {
+        return gFile;
+    }
+
+    /**
+     * Load the cached configuration
+     * @return Cached configuration or null if there is no usable cache
+     */
+    public synchronized Sm100Configuration load() {
+        if(!gFile.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(gFile)))) {
+            if(in.readInt() != CACHE_MAGIC) {
+                System.out.println("Sm100 cache: Bad file " + gFile.getName());
+                return null;
+            }
+            if(in.readUnsignedShort() != CACHE_VERSION) {
+                System.out.println("Sm100 cache: Unsupported version " + gFile.getName());
+                return null;
+            }
+
+            String fn = in.readUTF();
+            int zc = in.readInt();
+            int pc = in.readInt();
+
+            int n = in.readInt();
+            List<Sm100ZoneRecord> zl = new ArrayList<>(n);
+            Set<Integer> channels = new HashSet<>();
+            for(int i=0; i<n; i++) {
+                Sm100ZoneRecord z = new Sm100ZoneRecord(in.readUTF(), in.readShort(), in.readLong(), in.readInt(), in.readInt());
+                channels.add(z.getChannel());
+                zl.add(z);
+            }
+
+            n = in.readInt();
+            List<Sm100ProgramRecord> pl = new ArrayList<>(n);
+            for(int i=0; i<n; i++) {
+                String name = in.readUTF();
+                long cw = in.readLong();
+                int[] wb = new int[in.readUnsignedByte()];
+                for(int j=0; j<wb.length; j++) {
+                    wb[j] = in.readShort();
+                }
+                int[] st = new int[in.readUnsignedShort()];
+                for(int j=0; j<st.length; j++) {
+                    st[j] = in.readShort();
+                }
+                int sc = in.readUnsignedShort();
+                int[] ch = new int[sc];
+                int[] rt = new int[sc];
+                for(int j=0; j<sc; j++) {
+                    ch[j] = in.readShort();
+                    rt[j] = in.readInt();
+                    if(!channels.contains(ch[j])) {
+                        // the program would be restored with a sequence without a zone
+                        System.out.println("Sm100 cache: Program " + name + " uses unknown channel " + ch[j] + " in " + gFile.getName());
+                        return null;
+                    }
+                }
+                pl.add(new Sm100ProgramRecord(name, cw, wb, st, ch, rt));
+            }
+
+            return new Sm100Configuration(fn, zc, pc, zl, pl);
+        } catch (IOException ex) {
+            System.out.println("Sm100 cache: Failed to read " + gFile.getName() + " (" + ex.getMessage() + ")");
+        }
+
+        return null;
+    }
+
+    /**
+     * Store a configuration, replacing the previous one
+     * @param Config Configuration to store
+     * @return True if the configuration was written
+     */
+    public synchronized boolean save( Sm100Configuration Config ) {
+        File tmp = new File(gFile.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeShort(CACHE_VERSION);
+            out.writeUTF(Config.getFileName());
+            out.writeInt(Config.getZoneCount());
+            out.writeInt(Config.getProgramCount());
+
+            out.writeInt(Config.getZones().size());
+            for(Sm100ZoneRecord z : Config.getZones()) {
+                out.writeUTF(z.getName());
+                out.writeShort(z.getChannel());
+                out.writeLong(z.getControlWord());
+                out.writeInt(z.getInitValue());
+                out.writeInt(z.getOffDelay());
+            }
+
+            out.writeInt(Config.getPrograms().size());
+            for(Sm100ProgramRecord p : Config.getPrograms()) {
+                out.writeUTF(p.getName());
+                out.writeLong(p.getControlWord());
+                int[] wb = p.getWaterBudget();
+                out.writeByte(wb.length);
+                for(int b : wb) {
+                    out.writeShort(b);
+                }
+                out.writeShort(p.getStartTimeCount());
+                for(int j=0; j<p.getStartTimeCount(); j++) {
+                    out.writeShort(p.getStartTime(j));
+                }
+                out.writeShort(p.getSequenceCount());
+                for(int j=0; j<p.getSequenceCount(); j++) {
+                    out.writeShort(p.getSequenceChannel(j));
+                    out.writeInt(p.getSequenceRunTime(j));
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Sm100 cache: Failed to write " + gFile.getName() + " (" + ex.getMessage() + ")");
+            tmp.delete();
+            return false;
+        }
+
+        try {
+            try {
+                Files.move(tmp.toPath(), gFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), gFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            System.out.println("Sm100 cache: Failed to replace " + gFile.getName() + " (" + ex.getMessage() + ")");
+            tmp.delete();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the cached configuration
+     */
+    public synchronized void clear() {
+        gFile.delete();
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Smart Mist 100 Configuration Difference
+ * Zones and programs that differ between the last known device configuration
+ * and the live configuration that is about to be uploaded.
+ * Entries are matched by name.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100ConfigDiff {
+
+    private final List<Sm100Zone> gAddedZones = new ArrayList<>();
+    private final List<Sm100Zone> gChangedZones = new ArrayList<>();
+    private final List<String> gRemovedZones = new ArrayList<>();
+    private final List<Sm100Program> gAddedPrograms = new ArrayList<>();
+    private final List<Sm100Program> gChangedPrograms = new ArrayList<>();
+    private final List<String> gRemovedPrograms = new ArrayList<>();
+
+    private Sm100ConfigDiff() {
+    }
+
+    /**
+     * Compare live zones and programs with a known device configuration
+     * @param Device Configuration currently on the device
+     * @param Zones Live zone list
+     * @param Programs Live program list
+     * @return Difference between the two
+     */
+    public static Sm100ConfigDiff compare( Sm100Configuration Device, List<Sm100Zone> Zones, List<Sm100Program> Programs ) {
+        Sm100ConfigDiff diff = new Sm100ConfigDiff();
+
+        Map<String, Sm100ZoneRecord> zm = new HashMap<>();
+        for(Sm100ZoneRecord r : Device.getZones()) {
+            zm.put(r.getName(), r);
+        }
+        Set<String> zs = new HashSet<>();
+        for(Sm100Zone z : Zones) {
+            zs.add(z.getName());
+            Sm100ZoneRecord r = zm.get(z.getName());
+            if(r == null) {
+                diff.gAddedZones.add(z);
+            }
+            else if(!r.equals(Sm100ZoneRecord.of(z))) {
+                diff.gChangedZones.add(z);
+            }
+        }
+        for(String n : zm.keySet()) {
+            if(!zs.contains(n)) {
+                diff.gRemovedZones.add(n);
+            }
+        }
+
+        Map<String, Sm100ProgramRecord> pm = new HashMap<>();
+        for(Sm100ProgramRecord r : Device.getPrograms()) {
+            pm.put(r.getName(), r);
+        }
+        Set<String> ps = new HashSet<>();
+        for(Sm100Program p : Programs) {
+            ps.add(p.getName());
+            Sm100ProgramRecord r = pm.get(p.getName());
+            if(r == null) {
+                diff.gAddedPrograms.add(p);
+            }
+            else if(!r.equals(Sm100ProgramRecord.of(p))) {
+                diff.gChangedPrograms.add(p);
+            }
+        }
+        for(String n : pm.keySet()) {
+            if(!ps.contains(n)) {
+                diff.gRemovedPrograms.add(n);
+            }
+        }
+
+        return diff;
+    }
+
+    public boolean isEmpty() {
+        return gAddedZones.isEmpty() && gChangedZones.isEmpty() && gRemovedZones.isEmpty() &&
+                gAddedPrograms.isEmpty() && gChangedPrograms.isEmpty() && gRemovedPrograms.isEmpty();
+    }
+
+    /**
+     * Check if the difference can be uploaded without removing the device setup.
+     * Removed entries always need a full rewrite, changed entries can only be
+     * uploaded in place if the firmware replaces an entry added under an existing name.
+     *
+     * @param ReplaceSupported Firmware replaces existing entries on add
+     * @return True if only the changed entries have to be uploaded
+     */
+    public boolean isIncremental( boolean ReplaceSupported ) {
+        if(!gRemovedZones.isEmpty() || !gRemovedPrograms.isEmpty()) {
+            return false;
+        }
+        if(!ReplaceSupported && (!gChangedZones.isEmpty() || !gChangedPrograms.isEmpty())) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the zones that must be sent for an incremental upload
+     * @return Added and changed zones
+     */
+    public List<Sm100Zone> getUploadZones() {
+        List<Sm100Zone> zl = new ArrayList<>(gAddedZones);
+        zl.addAll(gChangedZones);
+        return zl;
+    }
+
+    /**
+     * Get the programs that must be sent for an incremental upload
+     * @return Added and changed programs
+     */
+    public List<Sm100Program> getUploadPrograms() {
+        List<Sm100Program> pl = new ArrayList<>(gAddedPrograms);
+        pl.addAll(gChangedPrograms);
+        return pl;
+    }
+
+    public List<Sm100Zone> getAddedZones() {
+        return gAddedZones;
+    }
+
+    public List<Sm100Zone> getChangedZones() {
+        return gChangedZones;
+    }
+
+    public List<String> getRemovedZones() {
+        return gRemovedZones;
+    }
+
+    public List<Sm100Program> getAddedPrograms() {
+        return gAddedPrograms;
+    }
+
+    public List<Sm100Program> getChangedPrograms() {
+        return gChangedPrograms;
+    }
+
+    public List<String> getRemovedPrograms() {
+        return gRemovedPrograms;
+    }
+
+    @Override
+    public String toString() {
+        return "Zones +" + gAddedZones.size() + " ~" + gChangedZones.size() + " -" + gRemovedZones.size() +
+                ", Programs +" + gAddedPrograms.size() + " ~" + gChangedPrograms.size() + " -" + gRemovedPrograms.size();
+    }
+
+}
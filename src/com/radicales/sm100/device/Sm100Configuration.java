@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Smart Mist 100 Device Configuration
+ * Immutable set of zone and program records together with the configuration
+ * header (file name, zone and program count) that the device reported for it.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public final class Sm100Configuration {
+
+    private final String gFileName;
+    private final int gZoneCount;
+    private final int gProgramCount;
+    private final List<Sm100ZoneRecord> gZones;
+    private final List<Sm100ProgramRecord> gPrograms;
+
+    public Sm100Configuration( String FileName, int ZoneCount, int ProgramCount, List<Sm100ZoneRecord> Zones, List<Sm100ProgramRecord> Programs ) {
+        gFileName = (FileName != null) ? FileName : "";
+        gZoneCount = ZoneCount;
+        gProgramCount = ProgramCount;
+        gZones = Collections.unmodifiableList(new ArrayList<>(Zones));
+        gPrograms = Collections.unmodifiableList(new ArrayList<>(Programs));
+    }
+
+    /**
+     * Take a record of the live zones and programs of a device
+     * @param FileName Configuration file name as reported by the device
+     * @param ZoneCount Zone count as reported by the device
+     * @param ProgramCount Program count as reported by the device
+     * @param Zones Live zone list
+     * @param Programs Live program list
+     * @return New configuration
+     */
+    public static Sm100Configuration of( String FileName, int ZoneCount, int ProgramCount, List<Sm100Zone> Zones, List<Sm100Program> Programs ) {
+        List<Sm100ZoneRecord> zl = new ArrayList<>(Zones.size());
+        for(Sm100Zone z : Zones) {
+            zl.add(Sm100ZoneRecord.of(z));
+        }
+
+        List<Sm100ProgramRecord> pl = new ArrayList<>(Programs.size());
+        for(Sm100Program p : Programs) {
+            pl.add(Sm100ProgramRecord.of(p));
+        }
+
+        return new Sm100Configuration(FileName, ZoneCount, ProgramCount, zl, pl);
+    }
+
+    /**
+     * Check if this configuration belongs to the configuration header a device reports
+     * @param FileName Reported configuration file name
+     * @param ZoneCount Reported zone count
+     * @param ProgramCount Reported program count
+     * @return True if the device still has this configuration
+     */
+    public boolean matches( String FileName, int ZoneCount, int ProgramCount ) {
+        if((FileName == null) || (ZoneCount < 0) || (ProgramCount < 0)) {
+            return false;
+        }
+
+        return gFileName.equals(FileName) &&
+                (gZoneCount == ZoneCount) &&
+                (gProgramCount == ProgramCount) &&
+                (gZones.size() == ZoneCount) &&
+                (gPrograms.size() == ProgramCount);
+    }
+
+    public String getFileName() {
+        return gFileName;
+    }
+
+    public int getZoneCount() {
+        return gZoneCount;
+    }
+
+    public int getProgramCount() {
+        return gProgramCount;
+    }
+
+    public List<Sm100ZoneRecord> getZones() {
+        return gZones;
+    }
+
+    public List<Sm100ProgramRecord> getPrograms() {
+        return gPrograms;
+    }
+
+    /**
+     * Create new live zone objects from this configuration
+     * @return New zone list
+     */
+    public List<Sm100Zone> createZones() {
+        List<Sm100Zone> zl = new ArrayList<>(gZones.size());
+        for(Sm100ZoneRecord r : gZones) {
+            zl.add(r.toZone());
+        }
+        return zl;
+    }
+
+    /**
+     * Create new live program objects from this configuration
+     * @param Listener Program event listener, normally the owning device
+     * @param Zones Zones the program sequences must be resolved against
+     * @return New program list
+     */
+    public List<Sm100Program> createPrograms( Sm100ProgramEvent Listener, List<Sm100Zone> Zones ) {
+        List<Sm100Program> pl = new ArrayList<>(gPrograms.size());
+        for(Sm100ProgramRecord r : gPrograms) {
+            pl.add(r.toProgram(Listener, Zones));
+        }
+        return pl;
+    }
+
+}
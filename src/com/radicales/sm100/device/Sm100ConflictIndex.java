@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Smart Mist 100 Program Conflict Index
+ * Indexes the run windows of programs in interval trees, one per device
+ * and one per shared pump, to find programs that would run at the same
+ * time. A device that has a pump zone uses the pump for all its programs,
+ * pump zones with the same name on different devices are the same pump.
+ * <p>
+ * Windows are placed on a week of minutes, starting Sunday midnight. A
+ * program selecting week days has a window on each selected day. Day
+ * cycles and odd or even days fall on any week day over time, so these
+ * programs have a window on every day. Only even days can not meet odd
+ * days, such windows are never reported as a conflict. A run that goes
+ * past midnight is on the next day from then on: the day after an even
+ * day is always odd, the day after an odd day can be odd at the end of a
+ * month, so that part of the run can meet any day. The length of a
+ * window is the program run time at the highest monthly water budget.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100ConflictIndex {
+
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    private static final int DAYS_ANY = 0;
+    private static final int DAYS_EVEN = 1;
+    private static final int DAYS_ODD = 2;
+
+    private final Map<Sm100, Sm100IntervalTree<Window>> gDeviceTrees = new HashMap<>();
+    private final Map<String, Sm100IntervalTree<Window>> gPumpTrees = new HashMap<>();
+    private final Map<Sm100, List<Window>> gWindows = new HashMap<>();
+    private final Map<Sm100, List<String>> gPumps = new HashMap<>();
+
+    /**
+     * Two programs that run at the same time
+     */
+    public static class Conflict {
+
+        private final Sm100 gDevice;
+        private final Sm100Program gProgram;
+        private final Sm100 gOtherDevice;
+        private final Sm100Program gOtherProgram;
+        private final String gPump;
+        private final int gTime;
+
+        Conflict( Window Window, Window Other, String Pump, int Time ) {
+            gDevice = Window.gDevice;
+            gProgram = Window.gProgram;
+            gOtherDevice = Other.gDevice;
+            gOtherProgram = Other.gProgram;
+            gPump = Pump;
+            gTime = Time;
+        }
+
+        public Sm100 getDevice() {
+            return gDevice;
+        }
+
+        public Sm100Program getProgram() {
+            return gProgram;
+        }
+
+        public Sm100 getOtherDevice() {
+            return gOtherDevice;
+        }
+
+        public Sm100Program getOtherProgram() {
+            return gOtherProgram;
+        }
+
+        /**
+         * Pump both programs use
+         * @return Pump name, null if the programs are on the same device
+         */
+        public String getPump() {
+            return gPump;
+        }
+
+        /**
+         * Start of the overlap
+         * @return Minutes after Sunday midnight
+         */
+        public int getTime() {
+            return gTime;
+        }
+
+        @Override
+        public String toString() {
+            String s = gDevice.getName() + "/" + gProgram.getName() + " overlaps " +
+                    gOtherDevice.getName() + "/" + gOtherProgram.getName();
+            if(gPump != null) {
+                s = s + " on pump " + gPump;
+            }
+            return s + String.format(" at day %d %02d:%02d", gTime / MINUTES_PER_DAY,
+                    (gTime % MINUTES_PER_DAY) / 60, gTime % 60);
+        }
+
+    }
+
+    /**
+     * Run window of a program in the week
+     */
+    private static class Window {
+
+        private final Sm100 gDevice;
+        private final Sm100Program gProgram;
+        private final int gStart;
+        private final int gEnd;
+        private final int gDays;
+        private long gDeviceId;
+        private long[] gPumpIds;
+
+        Window( Sm100 Device, Sm100Program Program, int Start, int End, int Days ) {
+            gDevice = Device;
+            gProgram = Program;
+            gStart = Start;
+            gEnd = End;
+            gDays = Days;
+        }
+
+        boolean meets( Window Other ) {
+            return (gDays == DAYS_ANY) || (Other.gDays == DAYS_ANY) || (gDays == Other.gDays);
+        }
+
+    }
+
+    /**
+     * Index the programs of a device
+     * @param Device Device to add
+     */
+    public synchronized void addDevice( Sm100 Device ) {
+        update(Device);
+    }
+
+    public synchronized void removeDevice( Sm100 Device ) {
+        unindex(Device);
+        gDeviceTrees.remove(Device);
+        gPumps.remove(Device);
+    }
+
+    /**
+     * Index the programs and pumps of a device again
+     * @param Device Device of which the programs or zones changed
+     */
+    public synchronized void update( Sm100 Device ) {
+        unindex(Device);
+
+        gPumps.put(Device, findPumps(Device));
+
+        List<Window> windows = new ArrayList<>();
+        for(Sm100Program p : Device.getProgramsList()) {
+            addWindows(Device, p, null, windows);
+        }
+        index(Device, windows);
+    }
+
+    /**
+     * Programs that run at the same time as a program, on the same device
+     * or on a shared pump
+     * @param Device Device of the program
+     * @param Program Program with its current settings
+     * @return Conflicts, one per other program
+     */
+    public synchronized List<Conflict> getConflicts( Sm100 Device, Sm100Program Program ) {
+        List<Window> windows = new ArrayList<>();
+        addWindows(Device, Program, null, windows);
+        return check(Device, windows, false);
+    }
+
+    /**
+     * Find a conflict for a new start time of a program
+     * @param Device Device of the program
+     * @param Program Program the start time is added to
+     * @param Time New start time
+     * @return First conflict found, null if the start time is free
+     */
+    public synchronized Conflict findConflict( Sm100 Device, Sm100Program Program, StartTime Time ) {
+        List<Window> windows = new ArrayList<>();
+        addWindows(Device, Program, Time, windows);
+        List<Conflict> c = check(Device, windows, true);
+        return c.isEmpty() ? null : c.get(0);
+    }
+
+    /**
+     * Validate edits of the programs of many devices before they are made.
+     * The edited programs are checked against each other and against the
+     * programs of all other indexed devices, the index is left unchanged.
+     *
+     * @param Edits New program lists by device
+     * @return Conflicts found, one per pair of programs
+     */
+    public synchronized List<Conflict> validate( Map<Sm100, List<Sm100Program>> Edits ) {
+        List<Conflict> conflicts = new ArrayList<>();
+        Map<Sm100, List<Window>> saved = new LinkedHashMap<>();
+
+        for(Sm100 dev : Edits.keySet()) {
+            saved.put(dev, gWindows.get(dev));
+            unindex(dev);
+        }
+
+        try {
+            for(Map.Entry<Sm100, List<Sm100Program>> e : Edits.entrySet()) {
+                if(!gPumps.containsKey(e.getKey())) {
+                    gPumps.put(e.getKey(), findPumps(e.getKey()));
+                }
+                for(Sm100Program p : e.getValue()) {
+                    List<Window> windows = new ArrayList<>();
+                    addWindows(e.getKey(), p, null, windows);
+                    conflicts.addAll(check(e.getKey(), windows, false));
+                    index(e.getKey(), windows);
+                }
+            }
+        } finally {
+            for(Map.Entry<Sm100, List<Window>> e : saved.entrySet()) {
+                unindex(e.getKey());
+                if(e.getValue() != null) {
+                    index(e.getKey(), e.getValue());
+                }
+                else {
+                    // was not indexed before the validation
+                    gDeviceTrees.remove(e.getKey());
+                    gPumps.remove(e.getKey());
+                }
+            }
+        }
+
+        return conflicts;
+    }
+
+    /**
+     * Check windows against the index
+     * @param First Stop at the first conflict
+     * @return Conflicts, one per other program
+     */
+    private List<Conflict> check( Sm100 Device, List<Window> Windows, boolean First ) {
+        List<Conflict> conflicts = new ArrayList<>();
+        List<Sm100Program> seen = new ArrayList<>();
+        List<Window> found = new ArrayList<>();
+        List<String> pumps = gPumps.get(Device);
+        if(pumps == null) {
+            pumps = findPumps(Device);
+        }
+
+        for(Window w : Windows) {
+            Sm100IntervalTree<Window> t = gDeviceTrees.get(Device);
+            if(t != null) {
+                found.clear();
+                t.find(w.gStart, w.gEnd, found);
+                addConflicts(w, found, null, seen, conflicts);
+            }
+            for(String pump : pumps) {
+                Sm100IntervalTree<Window> pt = gPumpTrees.get(pump);
+                if(pt == null) {
+                    continue;
+                }
+                found.clear();
+                pt.find(w.gStart, w.gEnd, found);
+                addConflicts(w, found, pump, seen, conflicts);
+            }
+            if(First && !conflicts.isEmpty()) {
+                break;
+            }
+        }
+
+        return conflicts;
+    }
+
+    private static void addConflicts( Window Window, List<Window> Found, String Pump, List<Sm100Program> Seen, List<Conflict> Into ) {
+        for(Window o : Found) {
+            if((o.gProgram == Window.gProgram) || !Window.meets(o) || Seen.contains(o.gProgram)) {
+                continue;
+            }
+            Seen.add(o.gProgram);
+            Into.add(new Conflict(Window, o, (o.gDevice == Window.gDevice) ? null : Pump,
+                    Math.max(Window.gStart, o.gStart)));
+        }
+    }
+
+    /**
+     * Add windows to the trees of a device and its pumps
+     */
+    private void index( Sm100 Device, List<Window> Windows ) {
+        Sm100IntervalTree<Window> t = gDeviceTrees.get(Device);
+        if(t == null) {
+            t = new Sm100IntervalTree<>();
+            gDeviceTrees.put(Device, t);
+        }
+        List<String> pumps = gPumps.get(Device);
+        for(Window w : Windows) {
+            w.gDeviceId = t.add(w.gStart, w.gEnd, w);
+            w.gPumpIds = new long[pumps.size()];
+            for(int i=0; i<w.gPumpIds.length; i++) {
+                Sm100IntervalTree<Window> pt = gPumpTrees.get(pumps.get(i));
+                if(pt == null) {
+                    pt = new Sm100IntervalTree<>();
+                    gPumpTrees.put(pumps.get(i), pt);
+                }
+                w.gPumpIds[i] = pt.add(w.gStart, w.gEnd, w);
+            }
+        }
+        List<Window> all = gWindows.get(Device);
+        if(all == null) {
+            all = new ArrayList<>();
+            gWindows.put(Device, all);
+        }
+        all.addAll(Windows);
+    }
+
+    /**
+     * Remove all windows of a device from the trees
+     */
+    private void unindex( Sm100 Device ) {
+        List<Window> windows = gWindows.remove(Device);
+        if(windows == null) {
+            return;
+        }
+        Sm100IntervalTree<Window> t = gDeviceTrees.get(Device);
+        List<String> pumps = gPumps.get(Device);
+        for(Window w : windows) {
+            t.remove(w.gStart, w.gDeviceId);
+            for(int i=0; i<w.gPumpIds.length; i++) {
+                Sm100IntervalTree<Window> pt = gPumpTrees.get(pumps.get(i));
+                pt.remove(w.gStart, w.gPumpIds[i]);
+                if(pt.isEmpty()) {
+                    gPumpTrees.remove(pumps.get(i));
+                }
+            }
+        }
+    }
+
+    private static List<String> findPumps( Sm100 Device ) {
+        List<String> pumps = new ArrayList<>();
+        for(Sm100Zone z : Device.getZoneList()) {
+            if(z.isPump() && !pumps.contains(z.getName())) {
+                pumps.add(z.getName());
+            }
+        }
+        return pumps;
+    }
+
+    /**
+     * Create the week windows of a program
+     * @param Time Only this start time, null for all start times
+     */
+    private static void addWindows( Sm100 Device, Sm100Program Program, StartTime Time, List<Window> Into ) {
+        if(!Program.isAuto()) {
+            return;
+        }
+
+        Sm100ProgramDays d = Program.getProgramDays();
+        int days = DAYS_ANY;
+        boolean[] week = new boolean[7];
+        if(d.DayCycle) {
+            Arrays.fill(week, true);
+        }
+        else if(d.EvenDays) {
+            days = DAYS_EVEN;
+            Arrays.fill(week, true);
+        }
+        else if(d.OddDays || d.Odd31Days) {
+            days = DAYS_ODD;
+            Arrays.fill(week, true);
+        }
+        else if(d.AllDays) {
+            Arrays.fill(week, true);
+        }
+        else {
+            week = new boolean[] { d.Sundays, d.Mondays, d.Tuesdays, d.Wednesdays, d.Thursdays, d.Fridays, d.Saturdays };
+        }
+
+        int len = getLength(Program);
+        if(len <= 0) {
+            return;
+        }
+        len = Math.min(len, MINUTES_PER_WEEK);
+
+        List<StartTime> starts = new ArrayList<>();
+        if(Time != null) {
+            starts.add(Time);
+        }
+        else {
+            starts.addAll(Program.getStartTimesList());
+        }
+
+        for(int day=0; day<7; day++) {
+            if(!week[day]) {
+                continue;
+            }
+            for(StartTime st : starts) {
+                int start = (day * MINUTES_PER_DAY) + (st.Hour * 60) + st.Minute;
+                int end = start + len;
+                if(days == DAYS_ANY) {
+                    addWindow(Device, Program, start, end, days, Into);
+                    continue;
+                }
+                // split odd and even day runs at midnight
+                int midnight = (day + 1) * MINUTES_PER_DAY;
+                addWindow(Device, Program, start, Math.min(end, midnight), days, Into);
+                if(end > midnight) {
+                    int next = (days == DAYS_EVEN) ? DAYS_ODD : DAYS_ANY;
+                    int after = midnight + MINUTES_PER_DAY;
+                    addWindow(Device, Program, midnight, Math.min(end, after), next, Into);
+                    if(end > after) {
+                        addWindow(Device, Program, after, end, DAYS_ANY, Into);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addWindow( Sm100 Device, Sm100Program Program, int Start, int End, int Days, List<Window> Into ) {
+        if(Start >= MINUTES_PER_WEEK) {
+            Start -= MINUTES_PER_WEEK;
+            End -= MINUTES_PER_WEEK;
+        }
+        if(End > MINUTES_PER_WEEK) {
+            // wraps into the next week
+            Into.add(new Window(Device, Program, Start, MINUTES_PER_WEEK, Days));
+            Into.add(new Window(Device, Program, 0, End - MINUTES_PER_WEEK, Days));
+        }
+        else {
+            Into.add(new Window(Device, Program, Start, End, Days));
+        }
+    }
+
+    /**
+     * Run time of a program at its highest monthly water budget
+     * @return Run time in minutes
+     */
+    private static int getLength( Sm100Program Program ) {
+        int budget = 100;
+        int[] wb = Program.getWaterBudget();
+        if((wb != null) && (wb.length == 12)) {
+            budget = 0;
+            for(int b : wb) {
+                budget = Math.max(budget, b);
+            }
+        }
+
+        int len = 0;
+        for(Sequence s : Program.getSequenceList()) {
+            len += ((s.RunTime * budget) + 50) / 100;
+            if(s.Zone != null) {
+                len += s.Zone.getOffDelay();
+            }
+        }
+        return len;
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.net.UDPClient;
+import com.radicales.sm100.protocol.X4smGetInfoMessage;
+import com.radicales.sm100.protocol.X4smInfoMessage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Smart Mist 100 Device Discovery
+ * Finds devices on a network and creates a device object for each of them.
+ * Devices answer a GetInfo probe sent as a broadcast or multicast datagram
+ * on the discovery port. Where datagrams do not reach the devices a subnet
+ * can be swept by sending GetInfo over TCP to many addresses in parallel.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100Discovery {
+
+    private static final int MAX_SWEEP_HOSTS = 65536;
+
+    private int gDiscoveryPort;
+    private int gDevicePort;
+    private boolean gEnabled;
+
+    /**
+     * Constructor of a discovery
+     * @param DiscoveryPort UDP port devices listen for probes on
+     * @param DevicePort TCP port devices accept connections on
+     */
+    public Sm100Discovery( int DiscoveryPort, int DevicePort ) {
+        gDiscoveryPort = DiscoveryPort;
+        gDevicePort = DevicePort;
+        gEnabled = true;
+    }
+
+    /**
+     * Set if discovered devices are created enabled
+     * @param Value Enabled flag passed to every new device
+     */
+    public void setEnabled( boolean Value ) {
+        gEnabled = Value;
+    }
+
+    /**
+     * Discover the devices on a network.
+     * Probes the broadcast address of the network first and falls back
+     * to a TCP sweep if no device answered.
+     *
+     * @param Network Network in CIDR notation, for example 192.168.1.0/24
+     * @param Window Time in milliseconds to wait for probe replies
+     * @param Concurrency Number of addresses swept at the same time
+     * @param Timeout Connect and reply timeout of the sweep in milliseconds
+     * @return Discovered devices
+     * @throws Sm100Exception
+     */
+    public List<Sm100> discover( String Network, long Window, int Concurrency, int Timeout ) throws Sm100Exception {
+        int[] net = parseNetwork(Network);
+        List<Sm100> devices;
+
+        try {
+            devices = probe(toAddress(net[0] | ~net[1]).getHostAddress(), Window);
+        } catch (Sm100Exception ex) {
+            System.out.println("Sm100 Discovery: Probe failed (" + ex.getMessage() + ")");
+            devices = new ArrayList<>();
+        }
+        if(devices.isEmpty()) {
+            devices = sweep(Network, Concurrency, Timeout);
+        }
+
+        return devices;
+    }
+
+    /**
+     * Probe for devices with a single datagram
+     * @param Address Broadcast or multicast address to send the probe to
+     * @param Window Time in milliseconds to wait for replies
+     * @return Devices that replied, one per device name
+     * @throws Sm100Exception
+     */
+    public List<Sm100> probe( String Address, long Window ) throws Sm100Exception {
+        Map<String, Sm100> devices = new LinkedHashMap<>();
+        UDPClient udp = new UDPClient(Address, gDiscoveryPort);
+        Map<InetSocketAddress, byte[]> replies;
+
+        try {
+            udp.Open();
+            try {
+                replies = udp.probe(new X4smGetInfoMessage().getData().getBytes(StandardCharsets.UTF_8), Window);
+            } finally {
+                udp.Close();
+            }
+        } catch (CalDriverException ex) {
+            throw new Sm100Exception(ex.getMessage());
+        }
+
+        for(Map.Entry<InetSocketAddress, byte[]> e : replies.entrySet()) {
+            byte[] b = e.getValue();
+            X4smInfoMessage info = findInfo(b, b.length);
+            if((info != null) && !devices.containsKey(info.getName())) {
+                devices.put(info.getName(), createDevice(info, e.getKey().getAddress()));
+            }
+        }
+
+        System.out.println("Sm100 Discovery: " + devices.size() + " devices answered probe on " + Address);
+        return new ArrayList<>(devices.values());
+    }
+
+    /**
+     * Sweep a subnet for devices over TCP
+     * @param Network Network in CIDR notation, for example 192.168.1.0/24
+     * @param Concurrency Number of addresses swept at the same time
+     * @param Timeout Connect and reply timeout in milliseconds
+     * @return Devices found, one per device name, in address order
+     * @throws Sm100Exception
+     */
+    public List<Sm100> sweep( String Network, int Concurrency, int Timeout ) throws Sm100Exception {
+        int[] net = parseNetwork(Network);
+        int first = net[0];
+        int last = net[0] | ~net[1];
+        if(last - first > 1) {
+            // skip the network and broadcast addresses
+            first++;
+            last--;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Concurrency));
+        List<Future<Sm100>> results = new ArrayList<>();
+        Map<String, Sm100> devices = new LinkedHashMap<>();
+
+        try {
+            for(long a = first & 0xffffffffL; a <= (last & 0xffffffffL); a++) {
+                final InetAddress addr = toAddress((int)a);
+                final int timeout = Timeout;
+                results.add(pool.submit(new Callable<Sm100>() {
+                    @Override
+                    public Sm100 call() {
+                        return query(addr, timeout);
+                    }
+                }));
+            }
+            for(Future<Sm100> f : results) {
+                Sm100 dev = f.get();
+                // a device with several addresses answers on each of them
+                if((dev != null) && !devices.containsKey(dev.getName())) {
+                    devices.put(dev.getName(), dev);
+                }
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new Sm100Exception("Sweep interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.println("Sm100 Discovery: " + devices.size() + " devices found on " + Network);
+        return new ArrayList<>(devices.values());
+    }
+
+    private Sm100 query( InetAddress Address, int Timeout ) {
+        byte[] buffer = new byte[2048];
+        int len = 0;
+
+        try (Socket s = new Socket()) {
+            s.setTcpNoDelay(true);
+            s.connect(new InetSocketAddress(Address, gDevicePort), Timeout);
+            s.setSoTimeout(Timeout);
+            s.getOutputStream().write(new X4smGetInfoMessage().getData().getBytes(StandardCharsets.UTF_8));
+            InputStream in = s.getInputStream();
+            while(len < buffer.length) {
+                int n = in.read(buffer, len, buffer.length - len);
+                if(n < 0) {
+                    break;
+                }
+                len += n;
+                X4smInfoMessage info = findInfo(buffer, len);
+                if(info != null) {
+                    return createDevice(info, Address);
+                }
+            }
+        } catch (IOException ex) {
+            // nothing listening or no reply in time
+        }
+
+        return null;
+    }
+
+    private Sm100 createDevice( X4smInfoMessage Info, InetAddress Address ) {
+        return new Sm100(Info.getName(), Address.getHostAddress(), gDevicePort, gEnabled);
+    }
+
+    private static X4smInfoMessage findInfo( byte[] Buffer, int Length ) {
+        String s = new String(Buffer, 0, Length, StandardCharsets.UTF_8);
+        for(String line : s.split("\r\n")) {
+            X4smInfoMessage info = X4smInfoMessage.decode(line);
+            if(info != null) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse a network in CIDR notation
+     * @return Network address and mask
+     */
+    private static int[] parseNetwork( String Network ) throws Sm100Exception {
+        String[] parts = Network.split("/");
+        int prefix = 32;
+        byte[] b;
+
+        try {
+            if(parts.length > 1) {
+                prefix = Integer.parseInt(parts[1].trim());
+            }
+            b = InetAddress.getByName(parts[0].trim()).getAddress();
+        } catch (NumberFormatException | UnknownHostException ex) {
+            throw new Sm100Exception("Invalid network " + Network);
+        }
+        if((b.length != 4) || (prefix < 0) || (prefix > 32)) {
+            throw new Sm100Exception("Invalid network " + Network);
+        }
+
+        int mask = (prefix == 0) ? 0 : (0xffffffff << (32 - prefix));
+        if((~mask & 0xffffffffL) + 1 > MAX_SWEEP_HOSTS) {
+            throw new Sm100Exception("Network too large " + Network);
+        }
+        int addr = ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+
+        return new int[] { addr & mask, mask };
+    }
+
+    private static InetAddress toAddress( int Address ) {
+        byte[] b = { (byte)(Address >> 24), (byte)(Address >> 16), (byte)(Address >> 8), (byte)Address };
+        try {
+            return InetAddress.getByAddress(b);
+        } catch (UnknownHostException ex) {
+            // only thrown for a wrong address length
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+}
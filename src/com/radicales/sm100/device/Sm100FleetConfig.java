@@ -0,0 +1,802 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Smart Mist 100 Fleet Configuration
+ * Imports and exports the zones and programs of many devices as CSV or XML.
+ * Files are streamed one device at a time, a device is converted and
+ * validated on a worker pool while the next ones are read, and only a
+ * fixed number of devices is held in memory at any time.
+ * <p>
+ * CSV files have one record per line, the records of a device follow each other:
+ * <pre>
+ * device,SITE1,site1.csv
+ * zone,SITE1,Front,0,0x1,0,5
+ * program,SITE1,Morning,0x7f01,100;100;100;100;100;100;100;100;100;100;100;100,06:00;18:30,0=10;1=15
+ * </pre>
+ * Zone records hold name, channel, control word, initial value and off delay.
+ * Program records hold name, control word, twelve monthly water budgets,
+ * start times and sequences of channel and run time. The device record is
+ * optional and only gives the configuration file name. Lines starting with
+ * # are comments.
+ * <p>
+ * XML files carry the same fields as attributes:
+ * <pre>
+ * &lt;Fleet&gt;
+ *   &lt;Device name="SITE1" file="site1.csv"&gt;
+ *     &lt;Zone name="Front" channel="0" control="0x1" init="0" offDelay="5" /&gt;
+ *     &lt;Program name="Morning" control="0x7f01" budget="100;..." starts="06:00;18:30" sequence="0=10;1=15" /&gt;
+ *   &lt;/Device&gt;
+ * &lt;/Fleet&gt;
+ * </pre>
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100FleetConfig {
+
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_XML = 1;
+
+    private static final int MONTHS = 12;
+    private static final int MAX_CHANNEL = Short.MAX_VALUE;
+    private static final int MAX_BUDGET = Short.MAX_VALUE;
+    private static final int DEVICES_PER_WORKER = 4;
+
+    /**
+     * Receiver of imported configurations
+     */
+    public interface Handler {
+
+        /**
+         * Called for every valid device, in file order, on the importing thread
+         * @param Device Device name
+         * @param Config Configuration of the device
+         * @throws Sm100Exception to stop the import
+         */
+        void configuration( String Device, Sm100Configuration Config ) throws Sm100Exception;
+
+    }
+
+    /**
+     * Outcome of an import
+     */
+    public static class Result {
+
+        private final int gDevices;
+        private final int gRejected;
+        private final List<String> gErrors;
+
+        Result( int Devices, int Rejected, List<String> Errors ) {
+            gDevices = Devices;
+            gRejected = Rejected;
+            gErrors = Collections.unmodifiableList(Errors);
+        }
+
+        /**
+         * Number of devices handed to the handler
+         */
+        public int getDevices() {
+            return gDevices;
+        }
+
+        /**
+         * Number of devices skipped because of errors
+         */
+        public int getRejected() {
+            return gRejected;
+        }
+
+        /**
+         * Errors found, up to the maximum set on the import
+         */
+        public List<String> getErrors() {
+            return gErrors;
+        }
+
+    }
+
+    /**
+     * Streaming writer of a fleet configuration
+     */
+    public static class Exporter implements AutoCloseable {
+
+        private final int gFormat;
+        private final Writer gOut;
+        private final XMLStreamWriter gXml;
+
+        /**
+         * Constructor of an exporter
+         * @param Out Stream to write to, closed with the exporter
+         * @param Format FORMAT_CSV or FORMAT_XML
+         * @throws Sm100Exception
+         */
+        public Exporter( OutputStream Out, int Format ) throws Sm100Exception {
+            gFormat = Format;
+            gOut = new BufferedWriter(new OutputStreamWriter(Out, StandardCharsets.UTF_8), 65536);
+            try {
+                if(Format == FORMAT_XML) {
+                    gXml = XMLOutputFactory.newInstance().createXMLStreamWriter(gOut);
+                    gXml.writeStartDocument("UTF-8", "1.0");
+                    gXml.writeCharacters("\n");
+                    gXml.writeStartElement("Fleet");
+                    gXml.writeCharacters("\n");
+                }
+                else {
+                    gXml = null;
+                    gOut.write("# device,name,file\n");
+                    gOut.write("# zone,device,name,channel,control,init,offDelay\n");
+                    gOut.write("# program,device,name,control,budget,starts,sequence\n");
+                }
+            } catch (IOException | XMLStreamException ex) {
+                throw new Sm100Exception("Export failed (" + ex.getMessage() + ")");
+            }
+        }
+
+        /**
+         * Write the last complete zones and programs of a device
+         * @param Device Device to write
+         * @throws Sm100Exception
+         */
+        public void write( Sm100 Device ) throws Sm100Exception {
+            Sm100Configuration dc = Device.getDeviceConfiguration();
+            write(Device.getName(), Device.getSnapshot().toConfiguration((dc != null) ? dc.getFileName() : ""));
+        }
+
+        /**
+         * Write the configuration of a device
+         * @param Device Device name
+         * @param Config Configuration to write
+         * @throws Sm100Exception
+         */
+        public void write( String Device, Sm100Configuration Config ) throws Sm100Exception {
+            try {
+                if(gXml != null) {
+                    writeXml(Device, Config);
+                }
+                else {
+                    writeCsv(Device, Config);
+                }
+            } catch (IOException | XMLStreamException ex) {
+                throw new Sm100Exception("Export failed (" + ex.getMessage() + ")");
+            }
+        }
+
+        @Override
+        public void close() throws Sm100Exception {
+            try {
+                if(gXml != null) {
+                    gXml.writeEndElement();
+                    gXml.writeCharacters("\n");
+                    gXml.writeEndDocument();
+                    gXml.close();
+                }
+                gOut.close();
+            } catch (IOException | XMLStreamException ex) {
+                throw new Sm100Exception("Export failed (" + ex.getMessage() + ")");
+            }
+        }
+
+        private void writeCsv( String Device, Sm100Configuration Config ) throws IOException {
+            String dev = quote(Device);
+            gOut.write("device," + dev + "," + quote(Config.getFileName()) + "\n");
+            for(Sm100ZoneRecord z : Config.getZones()) {
+                gOut.write("zone," + dev + "," + quote(z.getName()) + "," + z.getChannel() + ","
+                        + formatControl(z.getControlWord()) + "," + z.getInitValue() + "," + z.getOffDelay() + "\n");
+            }
+            for(Sm100ProgramRecord p : Config.getPrograms()) {
+                gOut.write("program," + dev + "," + quote(p.getName()) + "," + formatControl(p.getControlWord()) + ","
+                        + formatBudget(p) + "," + formatStarts(p) + "," + formatSequence(p) + "\n");
+            }
+        }
+
+        private void writeXml( String Device, Sm100Configuration Config ) throws XMLStreamException {
+            gXml.writeCharacters("  ");
+            gXml.writeStartElement("Device");
+            gXml.writeAttribute("name", Device);
+            gXml.writeAttribute("file", Config.getFileName());
+            gXml.writeCharacters("\n");
+            for(Sm100ZoneRecord z : Config.getZones()) {
+                gXml.writeCharacters("    ");
+                gXml.writeEmptyElement("Zone");
+                gXml.writeAttribute("name", z.getName());
+                gXml.writeAttribute("channel", Integer.toString(z.getChannel()));
+                gXml.writeAttribute("control", formatControl(z.getControlWord()));
+                gXml.writeAttribute("init", Integer.toString(z.getInitValue()));
+                gXml.writeAttribute("offDelay", Integer.toString(z.getOffDelay()));
+                gXml.writeCharacters("\n");
+            }
+            for(Sm100ProgramRecord p : Config.getPrograms()) {
+                gXml.writeCharacters("    ");
+                gXml.writeEmptyElement("Program");
+                gXml.writeAttribute("name", p.getName());
+                gXml.writeAttribute("control", formatControl(p.getControlWord()));
+                gXml.writeAttribute("budget", formatBudget(p));
+                gXml.writeAttribute("starts", formatStarts(p));
+                gXml.writeAttribute("sequence", formatSequence(p));
+                gXml.writeCharacters("\n");
+            }
+            gXml.writeCharacters("  ");
+            gXml.writeEndElement();
+            gXml.writeCharacters("\n");
+        }
+
+    }
+
+    /**
+     * Fields of one device as read from a file, converted by a worker
+     */
+    private static class Block {
+
+        String Device;
+        String File = "";
+        int Line;
+        final List<String[]> Zones = new ArrayList<>();
+        final List<String[]> Programs = new ArrayList<>();
+
+    }
+
+    /**
+     * Converted configuration of one device with its errors
+     */
+    private static class Checked {
+
+        String Device;
+        Sm100Configuration Config;
+        final List<String> Errors = new ArrayList<>();
+
+    }
+
+    private final int gParallelism;
+    private int gMaxErrors;
+
+    /**
+     * Constructor of a fleet configuration importer
+     * @param Parallelism Number of worker threads validating devices
+     */
+    public Sm100FleetConfig( int Parallelism ) {
+        gParallelism = Math.max(1, Parallelism);
+        gMaxErrors = 100;
+    }
+
+    /**
+     * Set the number of errors kept in the import result
+     * @param Value Maximum number of errors
+     */
+    public void setMaxErrors( int Value ) {
+        gMaxErrors = Math.max(0, Value);
+    }
+
+    /**
+     * Import a file, the format follows the extension
+     * @param Source CSV file or XML file ending in .xml
+     * @param Handler Receiver of the valid configurations
+     * @return Import result
+     * @throws Sm100Exception
+     */
+    public Result importFile( File Source, Handler Handler ) throws Sm100Exception {
+        int format = Source.getName().toLowerCase().endsWith(".xml") ? FORMAT_XML : FORMAT_CSV;
+        try (InputStream in = new FileInputStream(Source)) {
+            return importStream(in, format, Handler);
+        } catch (IOException ex) {
+            throw new Sm100Exception("Import of " + Source.getName() + " failed (" + ex.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Import a stream
+     * @param In Stream to read, not closed
+     * @param Format FORMAT_CSV or FORMAT_XML
+     * @param Handler Receiver of the valid configurations
+     * @return Import result
+     * @throws Sm100Exception
+     */
+    public Result importStream( InputStream In, int Format, Handler Handler ) throws Sm100Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(gParallelism);
+        Importer imp = new Importer(pool, Handler);
+
+        try {
+            if(Format == FORMAT_XML) {
+                readXml(In, imp);
+            }
+            else {
+                readCsv(new BufferedReader(new InputStreamReader(In, StandardCharsets.UTF_8), 65536), imp);
+            }
+            imp.drain(0);
+        } catch (IOException | XMLStreamException ex) {
+            throw new Sm100Exception("Import failed (" + ex.getMessage() + ")");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.println("Sm100 Fleet: Imported " + imp.gDevices + " devices, " + imp.gRejected + " rejected");
+        return new Result(imp.gDevices, imp.gRejected, imp.gErrors);
+    }
+
+    /**
+     * Export devices to a file, the format follows the extension
+     * @param Target CSV file or XML file ending in .xml
+     * @param Devices Devices to export
+     * @throws Sm100Exception
+     */
+    public static void exportFile( File Target, Iterable<Sm100> Devices ) throws Sm100Exception {
+        int format = Target.getName().toLowerCase().endsWith(".xml") ? FORMAT_XML : FORMAT_CSV;
+        try (Exporter ex = new Exporter(new FileOutputStream(Target), format)) {
+            for(Sm100 d : Devices) {
+                ex.write(d);
+            }
+        } catch (IOException ex) {
+            throw new Sm100Exception("Export of " + Target.getName() + " failed (" + ex.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Hands blocks to the workers and their results to the handler in order,
+     * with a bounded number of blocks in flight
+     */
+    private class Importer {
+
+        private final ExecutorService gPool;
+        private final Handler gHandler;
+        private final ArrayDeque<Future<Checked>> gPending = new ArrayDeque<>();
+        private final List<String> gErrors = new ArrayList<>();
+        private int gDevices;
+        private int gRejected;
+
+        Importer( ExecutorService Pool, Handler Handler ) {
+            gPool = Pool;
+            gHandler = Handler;
+        }
+
+        void submit( final Block Block ) throws Sm100Exception {
+            gPending.add(gPool.submit(new Callable<Checked>() {
+                @Override
+                public Checked call() {
+                    return check(Block);
+                }
+            }));
+            drain(gParallelism * DEVICES_PER_WORKER);
+        }
+
+        void drain( int Limit ) throws Sm100Exception {
+            while(gPending.size() > Limit) {
+                Checked c;
+                try {
+                    c = gPending.poll().get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    throw new Sm100Exception("Import interrupted");
+                }
+                if(c.Errors.isEmpty()) {
+                    gHandler.configuration(c.Device, c.Config);
+                    gDevices++;
+                }
+                else {
+                    gRejected++;
+                    for(String e : c.Errors) {
+                        if(gErrors.size() < gMaxErrors) {
+                            gErrors.add(e);
+                        }
+                    }
+                }
+            }
+        }
+
+    }
+
+    private void readCsv( Reader In, Importer Importer ) throws IOException, Sm100Exception {
+        CsvReader csv = new CsvReader(In);
+        Block b = null;
+        String[] f;
+
+        while((f = csv.next()) != null) {
+            if((f.length == 0) || f[0].startsWith("#") || ((f.length == 1) && f[0].isEmpty())) {
+                continue;
+            }
+            String dev = (f.length > 1) ? f[1] : "";
+            if((b == null) || !b.Device.equals(dev)) {
+                if(b != null) {
+                    Importer.submit(b);
+                }
+                b = new Block();
+                b.Device = dev;
+                b.Line = csv.getLine();
+            }
+            switch(f[0]) {
+            case "device":
+                b.File = (f.length > 2) ? f[2] : "";
+                break;
+            case "zone":
+                b.Zones.add(fields(f, 2, 5, csv.getLine()));
+                break;
+            case "program":
+                b.Programs.add(fields(f, 2, 5, csv.getLine()));
+                break;
+            default:
+                b.Zones.add(new String[] { null, Integer.toString(csv.getLine()), "Unknown record " + f[0] });
+                break;
+            }
+        }
+        if(b != null) {
+            Importer.submit(b);
+        }
+    }
+
+    private void readXml( InputStream In, Importer Importer ) throws XMLStreamException, Sm100Exception {
+        XMLInputFactory xf = XMLInputFactory.newInstance();
+        xf.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xf.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader xr = xf.createXMLStreamReader(In);
+        Block b = null;
+
+        try {
+            while(xr.hasNext()) {
+                int ev = xr.next();
+                if(ev == XMLStreamConstants.START_ELEMENT) {
+                    int line = xr.getLocation().getLineNumber();
+                    switch(xr.getLocalName()) {
+                    case "Device":
+                        b = new Block();
+                        b.Device = attribute(xr, "name");
+                        b.File = attribute(xr, "file");
+                        b.Line = line;
+                        break;
+                    case "Zone":
+                        if(b != null) {
+                            b.Zones.add(new String[] { attribute(xr, "name"), Integer.toString(line),
+                                attribute(xr, "channel"), attribute(xr, "control"), attribute(xr, "init"), attribute(xr, "offDelay") });
+                        }
+                        break;
+                    case "Program":
+                        if(b != null) {
+                            b.Programs.add(new String[] { attribute(xr, "name"), Integer.toString(line),
+                                attribute(xr, "control"), attribute(xr, "budget"), attribute(xr, "starts"), attribute(xr, "sequence") });
+                        }
+                        break;
+                    }
+                }
+                else if((ev == XMLStreamConstants.END_ELEMENT) && (b != null) && xr.getLocalName().equals("Device")) {
+                    Importer.submit(b);
+                    b = null;
+                }
+            }
+        } finally {
+            xr.close();
+        }
+    }
+
+    private static String attribute( XMLStreamReader Reader, String Name ) {
+        String s = Reader.getAttributeValue(null, Name);
+        return (s != null) ? s : "";
+    }
+
+    /**
+     * Arrange record fields as name, line, then the remaining fields
+     */
+    private static String[] fields( String[] Record, int First, int Count, int Line ) {
+        String[] r = new String[Count + 1];
+        r[0] = (Record.length > First) ? Record[First] : "";
+        r[1] = Integer.toString(Line);
+        for(int i=1; i<Count; i++) {
+            r[i + 1] = (Record.length > First + i) ? Record[First + i] : "";
+        }
+        return r;
+    }
+
+    /**
+     * Convert and validate the fields of a device
+     */
+    private static Checked check( Block Block ) {
+        Checked c = new Checked();
+        c.Device = Block.Device;
+        String at = "Device " + Block.Device + " (line " + Block.Line + "): ";
+
+        if(Block.Device.isEmpty()) {
+            c.Errors.add("Line " + Block.Line + ": Missing device name");
+        }
+
+        List<Sm100ZoneRecord> zl = new ArrayList<>(Block.Zones.size());
+        Set<String> names = new HashSet<>();
+        Set<Integer> channels = new HashSet<>();
+        for(String[] f : Block.Zones) {
+            if(f[0] == null) {
+                c.Errors.add("Line " + f[1] + ": " + f[2]);
+                continue;
+            }
+            String zat = at + "zone " + f[0] + " line " + f[1] + ": ";
+            try {
+                int ch = Integer.parseInt(f[2].trim());
+                long cw = Long.decode(f[3].trim());
+                int init = Integer.parseInt(f[4].trim());
+                int od = Integer.parseInt(f[5].trim());
+                if(f[0].isEmpty()) {
+                    c.Errors.add(zat + "Missing name");
+                }
+                else if(!names.add(f[0])) {
+                    c.Errors.add(zat + "Duplicate name");
+                }
+                if((ch < 0) || (ch > MAX_CHANNEL)) {
+                    c.Errors.add(zat + "Invalid channel " + ch);
+                }
+                else if(!channels.add(ch)) {
+                    c.Errors.add(zat + "Duplicate channel " + ch);
+                }
+                if((init != 0) && (init != 1)) {
+                    c.Errors.add(zat + "Invalid initial value " + init);
+                }
+                if(od < 0) {
+                    c.Errors.add(zat + "Invalid off delay " + od);
+                }
+                zl.add(new Sm100ZoneRecord(f[0], ch, cw, init, od));
+            } catch (NumberFormatException ex) {
+                c.Errors.add(zat + "Invalid number (" + ex.getMessage() + ")");
+            }
+        }
+
+        List<Sm100ProgramRecord> pl = new ArrayList<>(Block.Programs.size());
+        names.clear();
+        for(String[] f : Block.Programs) {
+            String pat = at + "program " + f[0] + " line " + f[1] + ": ";
+            try {
+                long cw = Long.decode(f[2].trim());
+                int[] wb = parseList(f[3]);
+                int[] st = parseStarts(f[4]);
+                String[] sq = split(f[5]);
+                int[] ch = new int[sq.length];
+                int[] rt = new int[sq.length];
+                for(int i=0; i<sq.length; i++) {
+                    int eq = sq[i].indexOf('=');
+                    if(eq < 0) {
+                        throw new NumberFormatException("sequence " + sq[i]);
+                    }
+                    ch[i] = Integer.parseInt(sq[i].substring(0, eq).trim());
+                    rt[i] = Integer.parseInt(sq[i].substring(eq + 1).trim());
+                }
+
+                if(f[0].isEmpty()) {
+                    c.Errors.add(pat + "Missing name");
+                }
+                else if(!names.add(f[0])) {
+                    c.Errors.add(pat + "Duplicate name");
+                }
+                Sm100ProgramDays days = new Sm100ProgramDays(cw, 1);
+                if((days.EvenDays ? 1 : 0) + (days.OddDays ? 1 : 0) + (days.Odd31Days ? 1 : 0) + (days.DayCycle ? 1 : 0) > 1) {
+                    c.Errors.add(pat + "More than one day interval");
+                }
+                if(wb.length != MONTHS) {
+                    c.Errors.add(pat + "Expected " + MONTHS + " water budgets, found " + wb.length);
+                }
+                for(int v : wb) {
+                    if((v < 0) || (v > MAX_BUDGET)) {
+                        c.Errors.add(pat + "Invalid water budget " + v);
+                        break;
+                    }
+                }
+                Set<Integer> starts = new HashSet<>();
+                for(int v : st) {
+                    if(!starts.add(v)) {
+                        c.Errors.add(pat + "Duplicate start time " + formatTime(v));
+                    }
+                }
+                for(int i=0; i<ch.length; i++) {
+                    if(!channels.contains(ch[i])) {
+                        c.Errors.add(pat + "Sequence channel " + ch[i] + " has no zone");
+                    }
+                    if(rt[i] < 0) {
+                        c.Errors.add(pat + "Invalid run time " + rt[i]);
+                    }
+                }
+                pl.add(new Sm100ProgramRecord(f[0], cw, wb, st, ch, rt));
+            } catch (NumberFormatException ex) {
+                c.Errors.add(pat + "Invalid value (" + ex.getMessage() + ")");
+            }
+        }
+
+        if(c.Errors.isEmpty()) {
+            c.Config = new Sm100Configuration(Block.File, zl.size(), pl.size(), zl, pl);
+        }
+        return c;
+    }
+
+    private static String[] split( String Value ) {
+        String s = Value.trim();
+        if(s.isEmpty()) {
+            return new String[0];
+        }
+        return s.split(";");
+    }
+
+    private static int[] parseList( String Value ) {
+        String[] p = split(Value);
+        int[] r = new int[p.length];
+        for(int i=0; i<p.length; i++) {
+            r[i] = Integer.parseInt(p[i].trim());
+        }
+        return r;
+    }
+
+    private static int[] parseStarts( String Value ) {
+        String[] p = split(Value);
+        int[] r = new int[p.length];
+        for(int i=0; i<p.length; i++) {
+            String t = p[i].trim();
+            int c = t.indexOf(':');
+            int h = (c < 0) ? -1 : Integer.parseInt(t.substring(0, c));
+            int m = (c < 0) ? -1 : Integer.parseInt(t.substring(c + 1));
+            if((h < 0) || (h > 23) || (m < 0) || (m > 59)) {
+                throw new NumberFormatException("start time " + t);
+            }
+            r[i] = (h * 60) + m;
+        }
+        return r;
+    }
+
+    private static String formatControl( long ControlWord ) {
+        return "0x" + Long.toHexString(ControlWord);
+    }
+
+    private static String formatTime( int Minutes ) {
+        return String.format("%02d:%02d", Minutes / 60, Minutes % 60);
+    }
+
+    private static String formatBudget( Sm100ProgramRecord Program ) {
+        StringBuilder sb = new StringBuilder();
+        for(int v : Program.getWaterBudget()) {
+            if(sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(v);
+        }
+        return sb.toString();
+    }
+
+    private static String formatStarts( Sm100ProgramRecord Program ) {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<Program.getStartTimeCount(); i++) {
+            if(i > 0) {
+                sb.append(';');
+            }
+            sb.append(formatTime(Program.getStartTime(i)));
+        }
+        return sb.toString();
+    }
+
+    private static String formatSequence( Sm100ProgramRecord Program ) {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<Program.getSequenceCount(); i++) {
+            if(i > 0) {
+                sb.append(';');
+            }
+            sb.append(Program.getSequenceChannel(i)).append('=').append(Program.getSequenceRunTime(i));
+        }
+        return sb.toString();
+    }
+
+    private static String quote( String Value ) {
+        if((Value.indexOf(',') < 0) && (Value.indexOf('"') < 0) && (Value.indexOf('\n') < 0) && (Value.indexOf('\r') < 0)) {
+            return Value;
+        }
+        return "\"" + Value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Reader of CSV records, quoted fields may hold separators, quotes and line breaks
+     */
+    private static class CsvReader {
+
+        private final Reader gIn;
+        private final List<String> gFields = new ArrayList<>();
+        private final StringBuilder gField = new StringBuilder();
+        private int gLine;
+        private int gNextLine = 1;
+
+        CsvReader( Reader In ) {
+            gIn = In;
+        }
+
+        /**
+         * Line the last record started on
+         */
+        int getLine() {
+            return gLine;
+        }
+
+        String[] next() throws IOException {
+            gFields.clear();
+            gField.setLength(0);
+            gLine = gNextLine;
+            boolean quoted = false;
+            int c = gIn.read();
+            if(c < 0) {
+                return null;
+            }
+
+            while(c >= 0) {
+                if(quoted) {
+                    if(c == '"') {
+                        c = gIn.read();
+                        if(c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    else if(c == '\n') {
+                        gNextLine++;
+                    }
+                    gField.append((char)c);
+                }
+                else if(c == '"') {
+                    quoted = true;
+                }
+                else if(c == ',') {
+                    gFields.add(gField.toString());
+                    gField.setLength(0);
+                }
+                else if(c == '\n') {
+                    gNextLine++;
+                    break;
+                }
+                else if(c != '\r') {
+                    gField.append((char)c);
+                }
+                c = gIn.read();
+            }
+
+            gFields.add(gField.toString());
+            return gFields.toArray(new String[gFields.size()]);
+        }
+
+    }
+
+}
@@ -0,0 +1,612 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Smart Mist 100 Flow Optimiser
+ * Staggers the start times of automatic programs so the zones running at
+ * the same time on a mainline stay under its flow capacity and every
+ * program finishes inside the watering window.
+ * <p>
+ * Each device is fed by one mainline. A program keeps the spacing of its
+ * start times and is shifted as a whole, so repeated misting cycles stay
+ * the same distance apart. A device runs one program at a time. Programs
+ * are placed one by one, the largest water use first, at the earliest
+ * offset in the window where they fit on every week day they run. Day
+ * cycles and odd or even days may fall on any week day and are placed on
+ * all of them. Run times use the highest monthly water budget. Programs
+ * that do not fit keep their start times, they are placed there first and
+ * the others are placed again around them.
+ * <p>
+ * Mainlines are solved in parallel, and the offsets of a program are
+ * searched in parallel, on a fork join pool.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100FlowOptimiser {
+
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int SEARCH_GRAIN = 8;
+    private static final float FLOW_MARGIN = 1e-4f;
+
+    private final ForkJoinPool gPool;
+    private final Map<Sm100, String> gDevices = new LinkedHashMap<>();
+    private final Map<String, Double> gCapacity = new HashMap<>();
+    private final Map<Sm100Zone, Double> gFlow = new HashMap<>();
+    private double gDefaultFlow;
+    private int gWindowStart;
+    private int gWindowEnd;
+    private int gStep;
+
+    /**
+     * Proposed start times of an optimisation
+     */
+    public static class Result {
+
+        private final Map<Sm100, List<Sm100Program>> gPrograms;
+        private final Map<Sm100Program, int[]> gStarts;
+        private final List<Sm100Program> gUnplaced;
+        private final Map<String, Double> gPeaks;
+
+        Result( Map<Sm100, List<Sm100Program>> Programs, Map<Sm100Program, int[]> Starts, List<Sm100Program> Unplaced, Map<String, Double> Peaks ) {
+            gPrograms = Programs;
+            gStarts = Starts;
+            gUnplaced = Unplaced;
+            gPeaks = Peaks;
+        }
+
+        /**
+         * Programs that did not fit in the window, their start times are kept
+         */
+        public List<Sm100Program> getUnplaced() {
+            return Collections.unmodifiableList(gUnplaced);
+        }
+
+        /**
+         * Highest flow of a mainline with the proposed start times
+         */
+        public double getPeakFlow( String Mainline ) {
+            Double d = gPeaks.get(Mainline);
+            return (d == null) ? 0 : d;
+        }
+
+        /**
+         * Proposed start times of a program
+         * @return Start times, the current ones if the program was not moved
+         */
+        public StartTime[] getStartTimes( Sm100Program Program ) {
+            int[] st = gStarts.get(Program);
+            if(st == null) {
+                return Program.getStartTimes();
+            }
+            StartTime[] times = new StartTime[st.length];
+            for(int i=0; i<st.length; i++) {
+                times[i] = new StartTime(st[i] / 60, st[i] % 60);
+            }
+            return times;
+        }
+
+        /**
+         * Programs of a device with the proposed start times, ready to upload
+         * @param Device Optimised device
+         * @return Program records
+         */
+        public List<Sm100ProgramRecord> getRecords( Sm100 Device ) {
+            List<Sm100ProgramRecord> records = new ArrayList<>();
+            List<Sm100Program> programs = gPrograms.get(Device);
+            if(programs == null) {
+                return records;
+            }
+            for(Sm100Program p : programs) {
+                Sm100ProgramRecord r = Sm100ProgramRecord.of(p);
+                int[] st = gStarts.get(p);
+                if(st != null) {
+                    int[] ch = new int[r.getSequenceCount()];
+                    int[] rt = new int[ch.length];
+                    for(int i=0; i<ch.length; i++) {
+                        ch[i] = r.getSequenceChannel(i);
+                        rt[i] = r.getSequenceRunTime(i);
+                    }
+                    r = new Sm100ProgramRecord(r.getName(), r.getControlWord(), r.getWaterBudget(), st, ch, rt);
+                }
+                records.add(r);
+            }
+            return records;
+        }
+
+        /**
+         * Set the proposed start times on the programs and queue an upload
+         * on every device that changed
+         * @return Number of devices uploading
+         */
+        public int apply() {
+            int n = 0;
+            for(Map.Entry<Sm100, List<Sm100Program>> e : gPrograms.entrySet()) {
+                boolean changed = false;
+                for(Sm100Program p : e.getValue()) {
+                    if(gStarts.containsKey(p)) {
+                        p.setStartTimesList(new ArrayList<>(Arrays.asList(getStartTimes(p))));
+                        changed = true;
+                    }
+                }
+                if(changed && e.getKey().syncUploadPrograms()) {
+                    n++;
+                }
+            }
+            return n;
+        }
+
+    }
+
+    /**
+     * Program to place
+     */
+    private static class Job {
+
+        private final Sm100Program gProgram;
+        private final int gDevice;
+        private final int gDays;
+        /* offset of the first run at the current start times */
+        private final int gStart;
+        /* run start offsets relative to the first run */
+        private final int[] gRuns;
+        private final int gLength;
+        private final int gSpan;
+        /* zone intervals relative to the run start */
+        private final int[] gOn;
+        private final int[] gOff;
+        private final float[] gFlow;
+        private final double gWeight;
+
+        Job( Sm100Program Program, int Device, int Days, int Start, int[] Runs, int Length, int[] On, int[] Off, float[] Flow ) {
+            gProgram = Program;
+            gDevice = Device;
+            gDays = Days;
+            gStart = Start;
+            gRuns = Runs;
+            gLength = Length;
+            gSpan = Runs[Runs.length - 1] + Length;
+            gOn = On;
+            gOff = Off;
+            gFlow = Flow;
+            double w = 0;
+            for(int i=0; i<On.length; i++) {
+                w += (Off[i] - On[i]) * (double)Flow[i];
+            }
+            gWeight = w * Runs.length * Integer.bitCount(Days);
+        }
+
+    }
+
+    /**
+     * Constructor of an optimiser
+     * @param Parallelism Number of threads searching, 0 for the number of processors
+     */
+    public Sm100FlowOptimiser( int Parallelism ) {
+        gPool = (Parallelism > 0) ? new ForkJoinPool(Parallelism) : new ForkJoinPool();
+        gDefaultFlow = 1;
+        gWindowStart = 20 * 60;
+        gWindowEnd = 6 * 60;
+        gStep = 5;
+    }
+
+    /**
+     * Add a device to optimise
+     * @param Device Device
+     * @param Mainline Name of the mainline feeding the device
+     */
+    public void addDevice( Sm100 Device, String Mainline ) {
+        gDevices.put(Device, Mainline);
+    }
+
+    public void removeDevice( Sm100 Device ) {
+        gDevices.remove(Device);
+    }
+
+    /**
+     * Set the flow capacity of a mainline, mainlines without one are not limited
+     * @param Mainline Name of the mainline
+     * @param Flow Highest flow, in the unit of the zone flows
+     */
+    public void setCapacity( String Mainline, double Flow ) {
+        gCapacity.put(Mainline, Flow);
+    }
+
+    /**
+     * Set the flow of a zone
+     * @param Zone Zone
+     * @param Flow Flow while the zone is on
+     */
+    public void setFlow( Sm100Zone Zone, double Flow ) {
+        gFlow.put(Zone, Flow);
+    }
+
+    /**
+     * Set the flow of zones without a flow of their own. It is 1 by
+     * default, which makes the capacity a number of zones.
+     * @param Flow Flow while a zone is on
+     */
+    public void setDefaultFlow( double Flow ) {
+        gDefaultFlow = Flow;
+    }
+
+    /**
+     * Set the watering window, it may span midnight
+     * @param Start Start of the window
+     * @param End End of the window
+     */
+    public void setWindow( StartTime Start, StartTime End ) {
+        gWindowStart = (Start.Hour * 60) + Start.Minute;
+        gWindowEnd = (End.Hour * 60) + End.Minute;
+    }
+
+    /**
+     * Set the spacing of the start times tried
+     * @param Minutes Spacing in minutes
+     */
+    public void setStep( int Minutes ) {
+        gStep = Math.max(1, Minutes);
+    }
+
+    /**
+     * Propose start times for the programs of all devices
+     * @return Result with the proposed start times
+     */
+    public Result optimise() {
+        final int window = getWindowLength();
+        Map<Sm100, List<Sm100Program>> programs = new LinkedHashMap<>();
+        Map<String, List<Sm100>> mainlines = new LinkedHashMap<>();
+
+        for(Map.Entry<Sm100, String> e : gDevices.entrySet()) {
+            programs.put(e.getKey(), new ArrayList<>(e.getKey().getProgramsList()));
+            List<Sm100> devs = mainlines.get(e.getValue());
+            if(devs == null) {
+                devs = new ArrayList<>();
+                mainlines.put(e.getValue(), devs);
+            }
+            devs.add(e.getKey());
+        }
+
+        final Map<Sm100Program, int[]> starts = Collections.synchronizedMap(new HashMap<Sm100Program, int[]>());
+        final List<Sm100Program> unplaced = Collections.synchronizedList(new ArrayList<Sm100Program>());
+        final Map<String, Double> peaks = Collections.synchronizedMap(new HashMap<String, Double>());
+        List<RecursiveAction> tasks = new ArrayList<>();
+
+        for(final Map.Entry<String, List<Sm100>> e : mainlines.entrySet()) {
+            final List<Job> jobs = new ArrayList<>();
+            for(int d=0; d<e.getValue().size(); d++) {
+                for(Sm100Program p : programs.get(e.getValue().get(d))) {
+                    Job j = createJob(p, d);
+                    if(j != null) {
+                        jobs.add(j);
+                    }
+                }
+            }
+            Double cap = gCapacity.get(e.getKey());
+            final float capacity = (cap == null) ? Float.MAX_VALUE : cap.floatValue();
+            final int devices = e.getValue().size();
+            tasks.add(new RecursiveAction() {
+                private static final long serialVersionUID = -3852521228285354116L;
+
+                @Override
+                protected void compute() {
+                    peaks.put(e.getKey(), solve(jobs, devices, capacity, window, starts, unplaced));
+                }
+            });
+        }
+
+        final List<RecursiveAction> all = tasks;
+        gPool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = -755203672928291808L;
+
+            @Override
+            protected void compute() {
+                invokeAll(all);
+            }
+        });
+
+        System.out.println("Sm100 FlowOptimiser: " + starts.size() + " programs placed, " + unplaced.size() + " did not fit");
+        return new Result(programs, new HashMap<>(starts), new ArrayList<>(unplaced), new HashMap<>(peaks));
+    }
+
+    /**
+     * Place the programs of one mainline
+     * @return Highest flow of the mainline
+     */
+    private double solve( List<Job> Jobs, int Devices, float Capacity, int Window, Map<Sm100Program, int[]> Starts, List<Sm100Program> Unplaced ) {
+        Collections.sort(Jobs, new Comparator<Job>() {
+            @Override
+            public int compare( Job A, Job B ) {
+                return Double.compare(B.gWeight, A.gWeight);
+            }
+        });
+
+        // programs that keep their start times may run up to a day past the window start
+        int minutes = Window;
+        for(Job j : Jobs) {
+            minutes = Math.max(minutes, MINUTES_PER_DAY + j.gLength);
+        }
+
+        // flow and device use per week day of the window start, minute of the window
+        float[][] flow;
+        boolean[][][] busy;
+        Map<Sm100Program, int[]> placed = new HashMap<>();
+        Set<Job> kept = new LinkedHashSet<>();
+        for(Job j : Jobs) {
+            if(j.gSpan > Window) {
+                kept.add(j);
+            }
+        }
+
+        while(true) {
+            flow = new float[7][minutes];
+            busy = new boolean[Devices][][];
+            placed.clear();
+            for(Job j : kept) {
+                place(j, j.gStart, flow, getBusy(busy, j.gDevice, minutes));
+            }
+
+            Job failed = null;
+            for(Job j : Jobs) {
+                if(kept.contains(j)) {
+                    continue;
+                }
+                boolean[][] b = getBusy(busy, j.gDevice, minutes);
+                int candidates = ((Window - j.gSpan) / gStep) + 1;
+                int offset = new Search(j, flow, b, Capacity, 0, candidates).invoke();
+                if(offset < 0) {
+                    failed = j;
+                    break;
+                }
+
+                place(j, offset, flow, b);
+                int[] st = new int[j.gRuns.length];
+                for(int r=0; r<st.length; r++) {
+                    st[r] = (gWindowStart + offset + j.gRuns[r]) % MINUTES_PER_DAY;
+                }
+                placed.put(j.gProgram, st);
+            }
+            if(failed == null) {
+                break;
+            }
+            // keep its start times and place the others again
+            kept.add(failed);
+        }
+
+        for(Job j : kept) {
+            Unplaced.add(j.gProgram);
+        }
+        Starts.putAll(placed);
+
+        double peak = 0;
+        for(float[] f : flow) {
+            for(float v : f) {
+                peak = Math.max(peak, v);
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Search for the earliest offset a program fits at
+     */
+    private class Search extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 199161779613809918L;
+
+        private final Job gJob;
+        private final float[][] gFlowUse;
+        private final boolean[][] gBusy;
+        private final float gCapacity;
+        private final int gFrom;
+        private final int gTo;
+
+        Search( Job Job, float[][] Flow, boolean[][] Busy, float Capacity, int From, int To ) {
+            gJob = Job;
+            gFlowUse = Flow;
+            gBusy = Busy;
+            gCapacity = Capacity;
+            gFrom = From;
+            gTo = To;
+        }
+
+        @Override
+        protected Integer compute() {
+            if(gTo - gFrom <= SEARCH_GRAIN) {
+                for(int c=gFrom; c<gTo; c++) {
+                    if(fits(gJob, c * gStep, gFlowUse, gBusy, gCapacity)) {
+                        return c * gStep;
+                    }
+                }
+                return -1;
+            }
+
+            int mid = (gFrom + gTo) >>> 1;
+            Search right = new Search(gJob, gFlowUse, gBusy, gCapacity, mid, gTo);
+            right.fork();
+            int offset = new Search(gJob, gFlowUse, gBusy, gCapacity, gFrom, mid).compute();
+            if(offset >= 0) {
+                right.cancel(false);
+                return offset;
+            }
+            return right.join();
+        }
+
+    }
+
+    private boolean fits( Job Job, int Offset, float[][] Flow, boolean[][] Busy, float Capacity ) {
+        for(int r : Job.gRuns) {
+            int start = Offset + r;
+            int days = getWindowDays(Job.gDays, start);
+            for(int d=0; d<7; d++) {
+                if((days & (1 << d)) == 0) {
+                    continue;
+                }
+                boolean[] b = Busy[d];
+                for(int m=start; m<start + Job.gLength; m++) {
+                    if(b[m]) {
+                        return false;
+                    }
+                }
+                float[] f = Flow[d];
+                for(int i=0; i<Job.gOn.length; i++) {
+                    float limit = Capacity - Job.gFlow[i] + FLOW_MARGIN;
+                    for(int m=start + Job.gOn[i]; m<start + Job.gOff[i]; m++) {
+                        if(f[m] > limit) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean[][] getBusy( boolean[][][] Busy, int Device, int Minutes ) {
+        if(Busy[Device] == null) {
+            Busy[Device] = new boolean[7][Minutes];
+        }
+        return Busy[Device];
+    }
+
+    private void place( Job Job, int Offset, float[][] Flow, boolean[][] Busy ) {
+        for(int r : Job.gRuns) {
+            int start = (Offset + r) % MINUTES_PER_DAY;
+            int days = getWindowDays(Job.gDays, start);
+            for(int d=0; d<7; d++) {
+                if((days & (1 << d)) == 0) {
+                    continue;
+                }
+                Arrays.fill(Busy[d], start, start + Job.gLength, true);
+                for(int i=0; i<Job.gOn.length; i++) {
+                    for(int m=start + Job.gOn[i]; m<start + Job.gOff[i]; m++) {
+                        Flow[d][m] += Job.gFlow[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Week days of the window a run belongs to
+     * @param Days Week days the program runs, bit 0 is Sunday
+     * @param Start Start of the run in the window
+     */
+    private int getWindowDays( int Days, int Start ) {
+        if(gWindowStart + Start < MINUTES_PER_DAY) {
+            return Days;
+        }
+        // starts after midnight, in the window that opened the day before
+        return ((Days >> 1) | (Days << 6)) & 0x7f;
+    }
+
+    private int getWindowLength() {
+        int len = (gWindowEnd - gWindowStart + MINUTES_PER_DAY) % MINUTES_PER_DAY;
+        return (len == 0) ? MINUTES_PER_DAY : len;
+    }
+
+    /**
+     * Create the job of a program
+     * @return Job, null if the program is not scheduled
+     */
+    private Job createJob( Sm100Program Program, int Device ) {
+        List<StartTime> stl = Program.getStartTimesList();
+        List<Sequence> sql = Program.getSequenceList();
+        if(!Program.isAuto() || stl.isEmpty() || sql.isEmpty()) {
+            return null;
+        }
+
+        Sm100ProgramDays d = Program.getProgramDays();
+        int days = 0x7f;
+        if(!d.DayCycle && !d.EvenDays && !d.OddDays && !d.Odd31Days && !d.AllDays) {
+            boolean[] week = { d.Sundays, d.Mondays, d.Tuesdays, d.Wednesdays, d.Thursdays, d.Fridays, d.Saturdays };
+            days = 0;
+            for(int i=0; i<7; i++) {
+                if(week[i]) {
+                    days |= 1 << i;
+                }
+            }
+            if(days == 0) {
+                return null;
+            }
+        }
+
+        int budget = 100;
+        int[] wb = Program.getWaterBudget();
+        if((wb != null) && (wb.length == 12)) {
+            budget = 0;
+            for(int b : wb) {
+                budget = Math.max(budget, b);
+            }
+        }
+
+        int[] on = new int[sql.size()];
+        int[] off = new int[on.length];
+        float[] flow = new float[on.length];
+        int t = 0;
+        for(int i=0; i<on.length; i++) {
+            Sequence s = sql.get(i);
+            on[i] = t;
+            off[i] = t + (((s.RunTime * budget) + 50) / 100);
+            flow[i] = 0;
+            if(s.Zone != null) {
+                Double f = gFlow.get(s.Zone);
+                flow[i] = (float)((f == null) ? gDefaultFlow : f);
+                t = off[i] + s.Zone.getOffDelay();
+            }
+            else {
+                t = off[i];
+            }
+        }
+
+        // start times in window order, relative to the first
+        int[] runs = new int[stl.size()];
+        for(int i=0; i<runs.length; i++) {
+            StartTime st = stl.get(i);
+            runs[i] = ((st.Hour * 60) + st.Minute - gWindowStart + MINUTES_PER_DAY) % MINUTES_PER_DAY;
+        }
+        Arrays.sort(runs);
+        int first = runs[0];
+        for(int i=runs.length - 1; i>=0; i--) {
+            runs[i] -= runs[0];
+        }
+
+        return new Job(Program, Device, days, first, runs, Math.max(t, 1), on, off, flow);
+    }
+
+}
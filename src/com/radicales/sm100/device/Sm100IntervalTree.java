@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.List;
+
+/**
+ * Smart Mist 100 Interval Tree
+ * Balanced (AVL) tree of half open intervals ordered on their start. Every
+ * node keeps the largest end of its subtree, so a query only descends
+ * into subtrees that can hold an overlapping interval. Adding, removing
+ * and testing for an overlap take O(log n), collecting all overlapping
+ * intervals O(log n + k).
+ *
+ * @param <T> Value stored with an interval
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100IntervalTree<T> {
+
+    private Node<T> gRoot;
+    private int gSize;
+    private long gNextId;
+
+    private static class Node<T> {
+
+        private final int gStart;
+        private final int gEnd;
+        private final long gId;
+        private final T gValue;
+        private int gMax;
+        private int gHeight;
+        private Node<T> gLeft;
+        private Node<T> gRight;
+
+        Node( int Start, int End, long Id, T Value ) {
+            gStart = Start;
+            gEnd = End;
+            gId = Id;
+            gValue = Value;
+            gMax = End;
+            gHeight = 1;
+        }
+
+    }
+
+    public int size() {
+        return gSize;
+    }
+
+    public boolean isEmpty() {
+        return gSize == 0;
+    }
+
+    public void clear() {
+        gRoot = null;
+        gSize = 0;
+    }
+
+    /**
+     * Add an interval
+     * @param Start Start of the interval
+     * @param End End of the interval, not included
+     * @param Value Value of the interval
+     * @return Identifier needed to remove the interval
+     */
+    public long add( int Start, int End, T Value ) {
+        long id = gNextId++;
+        gRoot = insert(gRoot, new Node<>(Start, End, id, Value));
+        gSize++;
+        return id;
+    }
+
+    /**
+     * Remove an interval
+     * @param Start Start the interval was added with
+     * @param Id Identifier returned when the interval was added
+     * @return True if the interval was found
+     */
+    public boolean remove( int Start, long Id ) {
+        int n = gSize;
+        gRoot = delete(gRoot, Start, Id);
+        return gSize != n;
+    }
+
+    /**
+     * Test if any interval overlaps a range
+     * @param Start Start of the range
+     * @param End End of the range, not included
+     */
+    public boolean overlaps( int Start, int End ) {
+        Node<T> n = gRoot;
+        while(n != null) {
+            if((n.gStart < End) && (Start < n.gEnd)) {
+                return true;
+            }
+            // an overlap on the left is certain to exist if the left can reach the range
+            if((n.gLeft != null) && (n.gLeft.gMax > Start)) {
+                n = n.gLeft;
+            }
+            else {
+                n = n.gRight;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collect the values of all intervals that overlap a range
+     * @param Start Start of the range
+     * @param End End of the range, not included
+     * @param Into List the values are added to
+     */
+    public void find( int Start, int End, List<T> Into ) {
+        find(gRoot, Start, End, Into);
+    }
+
+    private static <T> void find( Node<T> Root, int Start, int End, List<T> Into ) {
+        if((Root == null) || (Root.gMax <= Start)) {
+            return;
+        }
+        find(Root.gLeft, Start, End, Into);
+        if(Root.gStart >= End) {
+            return;
+        }
+        if(Start < Root.gEnd) {
+            Into.add(Root.gValue);
+        }
+        find(Root.gRight, Start, End, Into);
+    }
+
+    private static int compare( int Start, long Id, Node<?> Root ) {
+        if(Start != Root.gStart) {
+            return (Start < Root.gStart) ? -1 : 1;
+        }
+        return Long.compare(Id, Root.gId);
+    }
+
+    private static <T> Node<T> insert( Node<T> Root, Node<T> Item ) {
+        if(Root == null) {
+            return Item;
+        }
+        if(compare(Item.gStart, Item.gId, Root) < 0) {
+            Root.gLeft = insert(Root.gLeft, Item);
+        }
+        else {
+            Root.gRight = insert(Root.gRight, Item);
+        }
+        return balance(Root);
+    }
+
+    private Node<T> delete( Node<T> Root, int Start, long Id ) {
+        if(Root == null) {
+            return null;
+        }
+        int c = compare(Start, Id, Root);
+        if(c < 0) {
+            Root.gLeft = delete(Root.gLeft, Start, Id);
+        }
+        else if(c > 0) {
+            Root.gRight = delete(Root.gRight, Start, Id);
+        }
+        else {
+            gSize--;
+            if(Root.gLeft == null) {
+                return Root.gRight;
+            }
+            if(Root.gRight == null) {
+                return Root.gLeft;
+            }
+            // replace by the smallest node of the right subtree
+            Node<T> m = Root.gRight;
+            while(m.gLeft != null) {
+                m = m.gLeft;
+            }
+            m.gRight = deleteMin(Root.gRight);
+            m.gLeft = Root.gLeft;
+            return balance(m);
+        }
+        return balance(Root);
+    }
+
+    private static <T> Node<T> deleteMin( Node<T> Root ) {
+        if(Root.gLeft == null) {
+            return Root.gRight;
+        }
+        Root.gLeft = deleteMin(Root.gLeft);
+        return balance(Root);
+    }
+
+    private static int height( Node<?> Root ) {
+        return (Root == null) ? 0 : Root.gHeight;
+    }
+
+    private static void update( Node<?> Root ) {
+        Root.gHeight = Math.max(height(Root.gLeft), height(Root.gRight)) + 1;
+        int max = Root.gEnd;
+        if((Root.gLeft != null) && (Root.gLeft.gMax > max)) {
+            max = Root.gLeft.gMax;
+        }
+        if((Root.gRight != null) && (Root.gRight.gMax > max)) {
+            max = Root.gRight.gMax;
+        }
+        Root.gMax = max;
+    }
+
+    private static <T> Node<T> balance( Node<T> Root ) {
+        update(Root);
+        int b = height(Root.gLeft) - height(Root.gRight);
+        if(b > 1) {
+            if(height(Root.gLeft.gLeft) < height(Root.gLeft.gRight)) {
+                Root.gLeft = rotateLeft(Root.gLeft);
+            }
+            return rotateRight(Root);
+        }
+        if(b < -1) {
+            if(height(Root.gRight.gRight) < height(Root.gRight.gLeft)) {
+                Root.gRight = rotateRight(Root.gRight);
+            }
+            return rotateLeft(Root);
+        }
+        return Root;
+    }
+
+    private static <T> Node<T> rotateLeft( Node<T> Root ) {
+        Node<T> r = Root.gRight;
+        Root.gRight = r.gLeft;
+        r.gLeft = Root;
+        update(Root);
+        update(r);
+        return r;
+    }
+
+    private static <T> Node<T> rotateRight( Node<T> Root ) {
+        Node<T> l = Root.gLeft;
+        Root.gLeft = l.gRight;
+        l.gRight = Root;
+        update(Root);
+        update(l);
+        return l;
+    }
+
+}
@@ -33,6 +33,8 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Water budget defaults to 100 percent.
  */
 public class Sm100Program {
 
@@ -55,18 +57,14 @@ public class Sm100Program {
         gName = Name;
         gListener = Listener;
         gControlWord = 0;
-        for(int b : gBudget) {
-            b = 100;
-        }
+        Arrays.fill(gBudget, 100);
     }
 
     public Sm100Program( String Name, long ControlWord, Sm100ProgramEvent Listener ) {
         gName = Name;
         gControlWord = ControlWord;
         gListener = Listener;
-         for(int b : gBudget) {
-            b = 100;
-        }
+        Arrays.fill(gBudget, 100);
     }
 
     public Sm100Program( String Name, long ControlWord, int[] WaterBudget, StartTime[] StartTimes, Sm100ProgramEvent Listener ) {
@@ -87,7 +85,11 @@ public class Sm100Program {
         Sm100Zone z;
         for(Sequence s : gSequences) {
             z = s.Zone;
-            rt += (s.RunTime + z.getOffDelay());
+            rt += s.RunTime;
+            // a sequence whose zone is not resolved yet has no off delay
+            if(z != null) {
+                rt += z.getOffDelay();
+            }
         }
 
         return rt;
@@ -123,13 +125,17 @@ public class Sm100Program {
     }
 
     public void addStartTime( StartTime Time ) throws Sm100ProgramException {
+        int rt = -1;
         // check if start time already exist
         for(StartTime t : gStartTimes) {
+            if(rt < 0) {
+                rt = getRunTime();
+            }
             if(t.matches(Time)) {
                 throw new Sm100ProgramException("Start time already exists");
             }
-            if(t.overlaps(Time, getRunTime())) {
-                throw new Sm100ProgramException("Start overlaps with " + t.toString() + " and total program runtime of " + Integer.toString(getRunTime()) + " minutes");
+            if(t.overlaps(Time, rt)) {
+                throw new Sm100ProgramException("Start overlaps with " + t.toString() + " and total program runtime of " + Integer.toString(rt) + " minutes");
             }
         }
         gStartTimes.add(Time);
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Smart Mist 100 Watering Program Configuration Record
+ * Immutable copy of the configuration of a single program as known on the device.
+ * Start times are kept as minutes from midnight and sequences by zone channel.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public final class Sm100ProgramRecord {
+
+    private final String gName;
+    private final long gControlWord;
+    private final int[] gWaterBudget;
+    private final int[] gStartTimes;
+    private final int[] gSeqChannels;
+    private final int[] gSeqRunTimes;
+
+    public Sm100ProgramRecord( String Name, long ControlWord, int[] WaterBudget, int[] StartTimes, int[] SeqChannels, int[] SeqRunTimes ) {
+        gName = Name;
+        gControlWord = ControlWord;
+        gWaterBudget = WaterBudget.clone();
+        gStartTimes = StartTimes.clone();
+        gSeqChannels = SeqChannels.clone();
+        gSeqRunTimes = SeqRunTimes.clone();
+    }
+
+    /**
+     * Take a record of the current settings of a program
+     * @param Program Program to record
+     * @return New program record
+     */
+    public static Sm100ProgramRecord of( Sm100Program Program ) {
+        List<StartTime> stl = Program.getStartTimesList();
+        int[] st = new int[stl.size()];
+        for(int i=0; i<st.length; i++) {
+            StartTime t = stl.get(i);
+            st[i] = (t.Hour * 60) + t.Minute;
+        }
+
+        List<Sequence> sql = Program.getSequenceList();
+        int[] ch = new int[sql.size()];
+        int[] rt = new int[sql.size()];
+        for(int i=0; i<ch.length; i++) {
+            Sequence s = sql.get(i);
+            ch[i] = (s.Zone != null) ? s.Zone.getChannel() : -1;
+            rt[i] = s.RunTime;
+        }
+
+        return new Sm100ProgramRecord(Program.getName(), Program.getControlWord(), Program.getWaterBudget(), st, ch, rt);
+    }
+
+    /**
+     * Create a new live program object from this record
+     * @param Listener Program event listener, normally the owning device
+     * @param Zones Zones the sequences must be resolved against, sequences
+     * on a channel without a zone are left out
+     * @return New program object
+     */
+    public Sm100Program toProgram( Sm100ProgramEvent Listener, List<Sm100Zone> Zones ) {
+        StartTime[] st = new StartTime[gStartTimes.length];
+        for(int i=0; i<st.length; i++) {
+            st[i] = new StartTime(gStartTimes[i] / 60, gStartTimes[i] % 60);
+        }
+
+        Sm100Program p = new Sm100Program(gName, gControlWord, gWaterBudget.clone(), st, Listener);
+        for(int i=0; i<gSeqChannels.length; i++) {
+            Sm100Zone zone = null;
+            for(Sm100Zone z : Zones) {
+                if(z.getChannel() == gSeqChannels[i]) {
+                    zone = z;
+                    break;
+                }
+            }
+            if(zone != null) {
+                p.addSequence(zone, gSeqRunTimes[i]);
+            }
+        }
+
+        return p;
+    }
+
+    public String getName() {
+        return gName;
+    }
+
+    public long getControlWord() {
+        return gControlWord;
+    }
+
+    public int[] getWaterBudget() {
+        return gWaterBudget.clone();
+    }
+
+    public int getStartTimeCount() {
+        return gStartTimes.length;
+    }
+
+    /**
+     * Get a start time
+     * @param Index Start time index
+     * @return Start time in minutes from midnight
+     */
+    public int getStartTime( int Index ) {
+        return gStartTimes[Index];
+    }
+
+    public int getSequenceCount() {
+        return gSeqChannels.length;
+    }
+
+    public int getSequenceChannel( int Index ) {
+        return gSeqChannels[Index];
+    }
+
+    public int getSequenceRunTime( int Index ) {
+        return gSeqRunTimes[Index];
+    }
+
+    @Override
+    public boolean equals( Object Other ) {
+        if(this == Other) {
+            return true;
+        }
+        if(!(Other instanceof Sm100ProgramRecord)) {
+            return false;
+        }
+        Sm100ProgramRecord r = (Sm100ProgramRecord)Other;
+        return gName.equals(r.gName) &&
+                (gControlWord == r.gControlWord) &&
+                Arrays.equals(gWaterBudget, r.gWaterBudget) &&
+                Arrays.equals(gStartTimes, r.gStartTimes) &&
+                Arrays.equals(gSeqChannels, r.gSeqChannels) &&
+                Arrays.equals(gSeqRunTimes, r.gSeqRunTimes);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = gName.hashCode();
+        h = 31 * h + (int)(gControlWord ^ (gControlWord >>> 32));
+        h = 31 * h + Arrays.hashCode(gWaterBudget);
+        h = 31 * h + Arrays.hashCode(gStartTimes);
+        h = 31 * h + Arrays.hashCode(gSeqChannels);
+        h = 31 * h + Arrays.hashCode(gSeqRunTimes);
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return gName;
+    }
+
+}
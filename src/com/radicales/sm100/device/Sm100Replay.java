@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import com.radicales.cal.CalDriver;
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalMemoryDriver;
+import com.radicales.sm100.protocol.X4smException;
+import com.radicales.sm100.protocol.X4smJournal;
+import com.radicales.sm100.protocol.X4smJournalReader;
+import com.radicales.sm100.protocol.X4smMessage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Smart Mist 100 Traffic Replay
+ * Plays the frames a device sent, recorded in a journal, back into a
+ * connection over a memory driver. The connection frames, parses and
+ * dispatches them as if the device was there, and a device object on it
+ * runs its state machine on them. Telemetry frames are given to the
+ * device directly.
+ * <p>
+ * Frames are played as fast as the connection takes them, or at the
+ * recorded pace scaled by a speed. Before a received frame is played the
+ * replay waits until the connection sent the frames the device was sent
+ * before it in the recording, so replies never overtake their requests.
+ * Sent frames are compared with the recorded ones by element name, the
+ * attributes can differ (a SetDateTime carries the time it was sent). A
+ * different, unexpected or missing frame is counted as a divergence.
+ * <p>
+ * The timers of the device run on the recorded time during a replay, its
+ * polls and pings are due when the recording reaches the time they were
+ * sent, not after the same wall clock time. Without a device the
+ * connection has no timers of its own. A received frame played before the
+ * connection sent its request, because the sync timeout ran out or is 0,
+ * is counted as played ahead.
+ * <p>
+ * Create the device or connection on the driver of the replay and start
+ * it before calling replay:
+ * <pre>
+ * Sm100Replay r = new Sm100Replay(new File("journal/SITE1"), 65536);
+ * Sm100 d = new Sm100("SITE1", r.getDriver(), true);
+ * r.setDevice(d);
+ * d.start();
+ * r.replay();
+ * </pre>
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100Replay {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final long POLL_NANOS = 50000;
+    private static final long DRAIN_TIMEOUT = 10000;
+    private static final long SYNC_TIMEOUT = 5000;
+    private static final int MAX_LOGGED = 10;
+
+    private final File gJournal;
+    private final CalMemoryDriver gStack;
+    private final CalMemoryDriver gPlayer;
+    private final byte[] gSink = new byte[4096];
+    private final StringBuilder gOutput = new StringBuilder();
+    private final ArrayDeque<String> gExpected = new ArrayDeque<>();
+    private Sm100 gDevice;
+    private double gSpeed;
+    private long gFrom;
+    private long gTo;
+    private long gSyncTimeout;
+
+    private long gFrames;
+    private long gPlayed;
+    private long gBytes;
+    private long gRecordedSent;
+    private long gSentBytes;
+    private long gSentFrames;
+    private long gDivergences;
+    private long gAhead;
+    private long gElapsed;
+
+    /**
+     * Constructor of a replay
+     * @param Journal Journal directory of the device
+     * @param BufferSize Receive buffer of the connection in bytes, must hold the largest frame
+     */
+    public Sm100Replay( File Journal, int BufferSize ) {
+        gJournal = Journal;
+        CalMemoryDriver[] pair = CalMemoryDriver.createPair(BufferSize);
+        gStack = pair[0];
+        gPlayer = pair[1];
+        gSpeed = 0;
+        gFrom = Long.MIN_VALUE;
+        gTo = Long.MAX_VALUE;
+        gSyncTimeout = SYNC_TIMEOUT;
+    }
+
+    /**
+     * Driver to create the device or connection on
+     */
+    public CalDriver getDriver() {
+        return gStack;
+    }
+
+    /**
+     * Set the device telemetry frames are given to
+     * @param Device Device, null to skip telemetry
+     */
+    public void setDevice( Sm100 Device ) {
+        gDevice = Device;
+    }
+
+    /**
+     * Set the pace of the replay
+     * @param Value 0 for as fast as possible, 1 for the recorded pace, 2 for twice as fast
+     */
+    public void setSpeed( double Value ) {
+        gSpeed = Math.max(0, Value);
+    }
+
+    /**
+     * Set the part of the journal replayed
+     * @param From First time in milliseconds
+     * @param To Last time in milliseconds
+     */
+    public void setRange( long From, long To ) {
+        gFrom = From;
+        gTo = To;
+    }
+
+    /**
+     * Set how long to wait for the connection to send a recorded frame,
+     * and for the device to handle the played frames before its clock moves
+     * @param Value Time in milliseconds, 0 to never wait
+     */
+    public void setSyncTimeout( long Value ) {
+        gSyncTimeout = Math.max(0, Value);
+    }
+
+    /**
+     * Play the journal, returns when all frames were taken by the connection
+     * @return Number of frames played
+     * @throws Sm100Exception
+     */
+    public long replay() throws Sm100Exception {
+        gFrames = 0;
+        gPlayed = 0;
+        gBytes = 0;
+        gRecordedSent = 0;
+        gSentBytes = 0;
+        gSentFrames = 0;
+        gDivergences = 0;
+        gAhead = 0;
+        gOutput.setLength(0);
+        gExpected.clear();
+
+        long start = System.nanoTime();
+        long first = Long.MIN_VALUE;
+        long last = Long.MIN_VALUE;
+        Sm100 dev = gDevice;
+        long parsed = 0;
+        if(dev != null) {
+            dev.setManualClock(true);
+            parsed = dev.getParsedFrames();
+        }
+
+        try (X4smJournalReader r = new X4smJournalReader(gJournal)) {
+            if(!gPlayer.isOpen()) {
+                gPlayer.Open();
+            }
+            if(gFrom != Long.MIN_VALUE) {
+                r.seek(gFrom);
+            }
+            while(r.next()) {
+                if(r.getTime() > gTo) {
+                    break;
+                }
+                if(first == Long.MIN_VALUE) {
+                    first = r.getTime();
+                }
+                if(gSpeed > 0) {
+                    pace(start, (long)((r.getTime() - first) * 1000000L / gSpeed));
+                }
+                if((dev != null) && (last != Long.MIN_VALUE) && (r.getTime() > last)) {
+                    // time only moves on once the device handled what was played
+                    settle(dev, parsed);
+                    dev.advanceClock(r.getTime() - last);
+                }
+                last = r.getTime();
+
+                switch(r.getDirection()) {
+                case X4smJournal.DIRECTION_IN:
+                    if(!sync()) {
+                        gAhead++;
+                    }
+                    play(r.getData(), r.getLength());
+                    break;
+                case X4smJournal.DIRECTION_TELEMETRY:
+                    telemetry(r);
+                    break;
+                default:
+                    gRecordedSent++;
+                    gExpected.add(element(new String(r.getData(), 0, r.getLength(), StandardCharsets.ISO_8859_1)));
+                    break;
+                }
+                drain();
+            }
+            // wait until the connection read everything
+            long end = System.currentTimeMillis() + DRAIN_TIMEOUT;
+            while((gStack.IoControl(10, 0) > 0) && (System.currentTimeMillis() < end)) {
+                drain();
+                LockSupport.parkNanos(POLL_NANOS);
+            }
+            sync();
+        } catch (IOException | CalDriverException ex) {
+            throw new Sm100Exception("Replay failed (" + ex.getMessage() + ")");
+        } finally {
+            if(dev != null) {
+                dev.setManualClock(false);
+            }
+        }
+
+        gElapsed = System.nanoTime() - start;
+        System.out.println("Sm100 Replay: " + gFrames + " frames, " + gBytes + " bytes in "
+                + TimeUnit.NANOSECONDS.toMillis(gElapsed) + " ms, " + gDivergences + " divergences, "
+                + gAhead + " played ahead");
+        return gFrames;
+    }
+
+    /**
+     * Frames played by the last replay, received and telemetry
+     */
+    public long getFrames() {
+        return gFrames;
+    }
+
+    /**
+     * Bytes played by the last replay
+     */
+    public long getBytes() {
+        return gBytes;
+    }
+
+    /**
+     * Frames the device sent in the recording
+     */
+    public long getRecordedSent() {
+        return gRecordedSent;
+    }
+
+    /**
+     * Bytes the connection sent during the last replay
+     */
+    public long getSentBytes() {
+        return gSentBytes;
+    }
+
+    /**
+     * Frames the connection sent during the last replay
+     */
+    public long getSentFrames() {
+        return gSentFrames;
+    }
+
+    /**
+     * Sent frames of the last replay that did not match the recording,
+     * including recorded frames the connection never sent
+     */
+    public long getDivergences() {
+        return gDivergences;
+    }
+
+    /**
+     * Received frames of the last replay played before the connection
+     * sent the requests recorded ahead of them
+     */
+    public long getPlayedAhead() {
+        return gAhead;
+    }
+
+    /**
+     * Duration of the last replay
+     * @return Time in nanoseconds
+     */
+    public long getElapsed() {
+        return gElapsed;
+    }
+
+    /**
+     * Write a frame to the connection, waiting for room in its buffer
+     */
+    private void play( byte[] Data, int Length ) throws CalDriverException {
+        int size = Length + CRLF.length;
+        if(size > gStack.getFree() + gStack.IoControl(10, 0)) {
+            // would never fit, the buffer is too small for this frame
+            System.out.println("Sm100 Replay: Frame of " + Length + " bytes skipped");
+            return;
+        }
+        long end = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        while(gStack.getFree() < size) {
+            if(System.currentTimeMillis() > end) {
+                throw new CalDriverException("Connection does not read");
+            }
+            drain();
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+        gPlayer.Write(Data, Length);
+        gPlayer.Write(CRLF, CRLF.length);
+        gPlayed++;
+        gFrames++;
+        gBytes += Length;
+    }
+
+    private void telemetry( X4smJournalReader Reader ) {
+        Sm100 dev = gDevice;
+        if(dev == null) {
+            return;
+        }
+        try {
+            X4smMessage m = Reader.getMessage().parseData();
+            if(m != null) {
+                dev.telemetryReceived(m);
+            }
+            gFrames++;
+            gBytes += Reader.getLength();
+        } catch (X4smException ex) {
+            System.out.println("Sm100 Replay: Telemetry parse error");
+        }
+    }
+
+    /**
+     * Wait until the connection sent the recorded frames not yet sent
+     * @return False if they were not all sent
+     */
+    private boolean sync() throws CalDriverException {
+        drain();
+        if(gExpected.isEmpty()) {
+            return true;
+        }
+        if(gSyncTimeout == 0) {
+            return false;
+        }
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(gSyncTimeout);
+        while(!gExpected.isEmpty()) {
+            if(System.nanoTime() - end >= 0) {
+                diverged("Timeout waiting for " + gExpected.peek() + ", " + gExpected.size() + " frames not sent");
+                gDivergences += gExpected.size() - 1;
+                gExpected.clear();
+                return false;
+            }
+            LockSupport.parkNanos(POLL_NANOS);
+            drain();
+        }
+        return true;
+    }
+
+    /**
+     * Wait until the device parsed the frames played so far
+     * @param Device Device of the replay
+     * @param Base Frames the device parsed before the replay
+     */
+    private void settle( Sm100 Device, long Base ) throws CalDriverException {
+        if(gSyncTimeout == 0) {
+            return;
+        }
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(gSyncTimeout);
+        while((Device.getParsedFrames() - Base < gPlayed) && (System.nanoTime() - end < 0)) {
+            drain();
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+    }
+
+    /**
+     * Read what the connection sent, so its writes never fail, and compare
+     * the complete frames with the recording
+     */
+    private void drain() throws CalDriverException {
+        while(gPlayer.IoControl(10, 0) > 0) {
+            int len = gPlayer.Read(gSink, gSink.length);
+            if(len <= 0) {
+                break;
+            }
+            gSentBytes += len;
+            for(int i = 0; i < len; i++) {
+                gOutput.append((char)(gSink[i] & 0xFF));
+            }
+        }
+
+        int end;
+        while((end = gOutput.indexOf(">")) >= 0) {
+            String name = element(gOutput.substring(0, end + 1));
+            gOutput.delete(0, end + 1);
+            gSentFrames++;
+            String expected = gExpected.poll();
+            if(expected == null) {
+                diverged("Unexpected " + name + " sent");
+            }
+            else if(!expected.equals(name)) {
+                diverged("Expected " + expected + ", sent " + name);
+            }
+        }
+    }
+
+    private void diverged( String Reason ) {
+        if(gDivergences++ < MAX_LOGGED) {
+            System.out.println("Sm100 Replay: Divergence after " + gFrames + " frames, " + Reason);
+        }
+    }
+
+    /**
+     * Element name of a frame
+     */
+    private static String element( String Frame ) {
+        int start = Frame.indexOf('<') + 1;
+        int end = start;
+        while((end < Frame.length()) && (" \t\r\n/>".indexOf(Frame.charAt(end)) < 0)) {
+            end++;
+        }
+        return Frame.substring(start, end);
+    }
+
+    /**
+     * Wait until a time after the start of the replay
+     */
+    private void pace( long Start, long Offset ) throws CalDriverException {
+        long wait;
+        while((wait = Start + Offset - System.nanoTime()) > 0) {
+            drain();
+            LockSupport.parkNanos(Math.min(wait, 1000000L));
+        }
+    }
+
+}
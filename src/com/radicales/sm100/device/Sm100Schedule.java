@@ -0,0 +1,479 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Smart Mist 100 Watering Schedule
+ * Compiles the programs of devices into run day bitmaps and zone intervals
+ * so the zones running at an instant and the next runs of a program can be
+ * found without decoding control words and walking sequences every time.
+ * <p>
+ * A program runs on the days selected by its control word: every day of a
+ * day cycle counted from the first of January, even days, odd days, odd
+ * days without the 31st, or the selected week days. Only automatic
+ * programs are scheduled. The run times of the sequences are scaled by the
+ * water budget of the month the run starts in, zones run one after the
+ * other with their off delay in between. Runs may continue past midnight.
+ * <p>
+ * Programs are compiled when a device is added, call update after the
+ * programs of a device changed.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100Schedule {
+
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int MAX_SEARCH_DAYS = 800;
+
+    private final ConcurrentMap<Sm100, Plan[]> gDevices = new ConcurrentHashMap<>();
+
+    /**
+     * Scheduled run of a program or of one zone of a program
+     */
+    public static class Run {
+
+        private final Sm100 gDevice;
+        private final Sm100Program gProgram;
+        private final Sm100Zone gZone;
+        private final long gStart;
+        private final long gEnd;
+
+        Run( Sm100 Device, Sm100Program Program, Sm100Zone Zone, long Start, long End ) {
+            gDevice = Device;
+            gProgram = Program;
+            gZone = Zone;
+            gStart = Start;
+            gEnd = End;
+        }
+
+        public Sm100 getDevice() {
+            return gDevice;
+        }
+
+        public Sm100Program getProgram() {
+            return gProgram;
+        }
+
+        /**
+         * Zone of the run
+         * @return Zone, null for the run of a whole program
+         */
+        public Sm100Zone getZone() {
+            return gZone;
+        }
+
+        /**
+         * Start of the run in milliseconds
+         */
+        public long getStart() {
+            return gStart;
+        }
+
+        /**
+         * End of the run in milliseconds
+         */
+        public long getEnd() {
+            return gEnd;
+        }
+
+        @Override
+        public String toString() {
+            String name = gProgram.getName();
+            if(gZone != null) {
+                name = name + "/" + gZone.getName();
+            }
+            return name + " " + new Date(gStart) + " - " + new Date(gEnd);
+        }
+
+    }
+
+    /**
+     * Compiled program
+     */
+    private static class Plan {
+
+        private final Sm100 gDevice;
+        private final Sm100Program gProgram;
+        private final Sm100ProgramDays gDays;
+        private final int[] gStarts;
+        private final Sm100Zone[] gZones;
+        /* per month, zone intervals of all starts sorted on the on minute */
+        private final int[][] gOn = new int[12][];
+        private final int[][] gOff = new int[12][];
+        private final int[][] gMaxOff = new int[12][];
+        private final int[][] gZone = new int[12][];
+        /* per month, length of one run in minutes */
+        private final int[] gLength = new int[12];
+        private final ConcurrentMap<Integer, long[]> gYears = new ConcurrentHashMap<>();
+
+        Plan( Sm100 Device, Sm100Program Program ) {
+            gDevice = Device;
+            gProgram = Program;
+            gDays = Program.getProgramDays();
+
+            List<StartTime> stl = Program.getStartTimesList();
+            gStarts = new int[stl.size()];
+            for(int i=0; i<gStarts.length; i++) {
+                StartTime t = stl.get(i);
+                gStarts[i] = (t.Hour * 60) + t.Minute;
+            }
+            Arrays.sort(gStarts);
+
+            List<Sequence> sql = Program.getSequenceList();
+            gZones = new Sm100Zone[sql.size()];
+            int[] rt = new int[gZones.length];
+            int[] delay = new int[gZones.length];
+            for(int i=0; i<gZones.length; i++) {
+                Sequence s = sql.get(i);
+                gZones[i] = s.Zone;
+                rt[i] = s.RunTime;
+                delay[i] = (s.Zone != null) ? s.Zone.getOffDelay() : 0;
+            }
+
+            int[] budget = Program.getWaterBudget();
+            for(int m=0; m<12; m++) {
+                int pct = ((budget != null) && (budget.length == 12)) ? budget[m] : 100;
+                compileMonth(m, pct, rt, delay);
+            }
+        }
+
+        private void compileMonth( int Month, int Budget, int[] RunTimes, int[] Delays ) {
+            int n = gStarts.length * gZones.length;
+            final int[] on = new int[n];
+            int[] off = new int[n];
+            int[] zone = new int[n];
+            int k = 0;
+            int len = 0;
+
+            for(int s : gStarts) {
+                int t = s;
+                for(int i=0; i<gZones.length; i++) {
+                    int rt = ((RunTimes[i] * Budget) + 50) / 100;
+                    on[k] = t;
+                    off[k] = t + rt;
+                    zone[k] = i;
+                    k++;
+                    t += rt + Delays[i];
+                }
+                len = t - s;
+            }
+
+            // sort the intervals on their on minute
+            Integer[] order = new Integer[n];
+            for(int i=0; i<n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare( Integer A, Integer B ) {
+                    return Integer.compare(on[A], on[B]);
+                }
+            });
+
+            gOn[Month] = new int[n];
+            gOff[Month] = new int[n];
+            gMaxOff[Month] = new int[n];
+            gZone[Month] = new int[n];
+            int max = Integer.MIN_VALUE;
+            for(int i=0; i<n; i++) {
+                int j = order[i];
+                gOn[Month][i] = on[j];
+                gOff[Month][i] = off[j];
+                gZone[Month][i] = zone[j];
+                max = Math.max(max, off[j]);
+                gMaxOff[Month][i] = max;
+            }
+            gLength[Month] = len;
+        }
+
+        /**
+         * Test if the program runs on a day
+         * @param Year Year
+         * @param DayOfYear Day of the year, starting at 0
+         */
+        boolean runs( int Year, int DayOfYear ) {
+            long[] days = gYears.get(Year);
+            if(days == null) {
+                days = compileYear(Year);
+                gYears.putIfAbsent(Year, days);
+            }
+            return (days[DayOfYear >> 6] & (1L << DayOfYear)) != 0;
+        }
+
+        private long[] compileYear( int Year ) {
+            long[] days = new long[6];
+            if(!gProgram.isAuto()) {
+                return days;
+            }
+
+            Calendar cal = Calendar.getInstance();
+            cal.clear();
+            cal.set(Year, Calendar.JANUARY, 1);
+            int cycle = Math.max(1, gDays.CycleDays);
+            int n = cal.getActualMaximum(Calendar.DAY_OF_YEAR);
+            for(int d=0; d<n; d++) {
+                int dom = cal.get(Calendar.DAY_OF_MONTH);
+                boolean run;
+                if(gDays.DayCycle) {
+                    run = (d % cycle) == 0;
+                }
+                else if(gDays.EvenDays) {
+                    run = (dom % 2) == 0;
+                }
+                else if(gDays.OddDays) {
+                    run = (dom % 2) == 1;
+                }
+                else if(gDays.Odd31Days) {
+                    run = ((dom % 2) == 1) && (dom != 31);
+                }
+                else {
+                    run = gDays.AllDays || runsOnWeekDay(cal.get(Calendar.DAY_OF_WEEK));
+                }
+                if(run) {
+                    days[d >> 6] |= 1L << d;
+                }
+                cal.add(Calendar.DAY_OF_YEAR, 1);
+            }
+
+            return days;
+        }
+
+        private boolean runsOnWeekDay( int Day ) {
+            switch(Day) {
+            case Calendar.SUNDAY:
+                return gDays.Sundays;
+            case Calendar.MONDAY:
+                return gDays.Mondays;
+            case Calendar.TUESDAY:
+                return gDays.Tuesdays;
+            case Calendar.WEDNESDAY:
+                return gDays.Wednesdays;
+            case Calendar.THURSDAY:
+                return gDays.Thursdays;
+            case Calendar.FRIDAY:
+                return gDays.Fridays;
+            case Calendar.SATURDAY:
+                return gDays.Saturdays;
+            }
+            return false;
+        }
+
+        /**
+         * Add the zones on at a minute of a run day
+         * @param Minute Minutes after midnight of the run day, may be past the day
+         * @param Midnight Midnight of the run day in milliseconds
+         */
+        void addActive( int Month, int Minute, long Midnight, List<Run> Into ) {
+            int[] on = gOn[Month];
+            int[] off = gOff[Month];
+            int[] max = gMaxOff[Month];
+
+            // last interval switched on at or before the minute
+            int i = Arrays.binarySearch(on, Minute + 1);
+            i = (i < 0) ? (-i - 2) : (i - 1);
+            while((i >= 0) && (on[i] > Minute)) {
+                i--;
+            }
+            for(; (i >= 0) && (max[i] > Minute); i--) {
+                if((off[i] > Minute) && (gZones[gZone[Month][i]] != null)) {
+                    Into.add(new Run(gDevice, gProgram, gZones[gZone[Month][i]],
+                            Midnight + (on[i] * 60000L), Midnight + (off[i] * 60000L)));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Compile the programs of a device and add it to the schedule
+     * @param Device Device to add
+     */
+    public void addDevice( Sm100 Device ) {
+        update(Device);
+    }
+
+    public void removeDevice( Sm100 Device ) {
+        gDevices.remove(Device);
+    }
+
+    /**
+     * Compile the programs of a device again
+     * @param Device Device of which the programs changed
+     */
+    public void update( Sm100 Device ) {
+        List<Sm100Program> programs = new ArrayList<>(Device.getProgramsList());
+        Plan[] plans = new Plan[programs.size()];
+        for(int i=0; i<plans.length; i++) {
+            plans[i] = new Plan(Device, programs.get(i));
+        }
+        gDevices.put(Device, plans);
+    }
+
+    /**
+     * Zones of all devices that are on at an instant
+     * @param Time Instant in milliseconds
+     * @return Zone runs
+     */
+    public List<Run> getActiveZones( long Time ) {
+        Day today = new Day(Time);
+        Day yesterday = today.previous();
+        List<Run> runs = new ArrayList<>();
+
+        for(Plan[] plans : gDevices.values()) {
+            addActive(plans, today, yesterday, runs);
+        }
+
+        return runs;
+    }
+
+    /**
+     * Zones of a device that are on at an instant
+     * @param Device Device
+     * @param Time Instant in milliseconds
+     * @return Zone runs
+     */
+    public List<Run> getActiveZones( Sm100 Device, long Time ) {
+        Plan[] plans = gDevices.get(Device);
+        if(plans == null) {
+            return Collections.emptyList();
+        }
+
+        Day today = new Day(Time);
+        List<Run> runs = new ArrayList<>();
+        addActive(plans, today, today.previous(), runs);
+        return runs;
+    }
+
+    /**
+     * Next runs of a program
+     * @param Device Device of the program
+     * @param Program Program
+     * @param Time Runs starting at or after this instant in milliseconds
+     * @param Count Maximum number of runs
+     * @return Program runs in order of start
+     */
+    public List<Run> getNextRuns( Sm100 Device, Sm100Program Program, long Time, int Count ) {
+        List<Run> runs = new ArrayList<>();
+        Plan plan = null;
+
+        Plan[] plans = gDevices.get(Device);
+        if(plans != null) {
+            for(Plan p : plans) {
+                if(p.gProgram == Program) {
+                    plan = p;
+                    break;
+                }
+            }
+        }
+        if((plan == null) || (plan.gStarts.length == 0)) {
+            return runs;
+        }
+
+        Day day = new Day(Time);
+        for(int n=0; (n < MAX_SEARCH_DAYS) && (runs.size() < Count); n++) {
+            if(plan.runs(day.gYear, day.gDay)) {
+                for(int s : plan.gStarts) {
+                    long start = day.gMidnight + (s * 60000L);
+                    if((start >= Time) && (runs.size() < Count)) {
+                        runs.add(new Run(Device, Program, null, start, start + (plan.gLength[day.gMonth] * 60000L)));
+                    }
+                }
+            }
+            day = day.next();
+        }
+
+        return runs;
+    }
+
+    private static void addActive( Plan[] Plans, Day Today, Day Yesterday, List<Run> Into ) {
+        for(Plan p : Plans) {
+            if(p.runs(Today.gYear, Today.gDay)) {
+                p.addActive(Today.gMonth, Today.gMinute, Today.gMidnight, Into);
+            }
+            // runs of yesterday that continue past midnight
+            if(p.runs(Yesterday.gYear, Yesterday.gDay)) {
+                p.addActive(Yesterday.gMonth, Today.gMinute + MINUTES_PER_DAY, Yesterday.gMidnight, Into);
+            }
+        }
+    }
+
+    /**
+     * Calendar day of an instant
+     */
+    private static class Day {
+
+        private final int gYear;
+        private final int gMonth;
+        private final int gDay;
+        private final int gMinute;
+        private final long gMidnight;
+
+        Day( long Time ) {
+            this(toCalendar(Time));
+        }
+
+        private Day( Calendar Cal ) {
+            gYear = Cal.get(Calendar.YEAR);
+            gMonth = Cal.get(Calendar.MONTH);
+            gDay = Cal.get(Calendar.DAY_OF_YEAR) - 1;
+            gMinute = (Cal.get(Calendar.HOUR_OF_DAY) * 60) + Cal.get(Calendar.MINUTE);
+            Cal.set(Calendar.HOUR_OF_DAY, 0);
+            Cal.set(Calendar.MINUTE, 0);
+            Cal.set(Calendar.SECOND, 0);
+            Cal.set(Calendar.MILLISECOND, 0);
+            gMidnight = Cal.getTimeInMillis();
+        }
+
+        Day previous() {
+            Calendar cal = toCalendar(gMidnight);
+            cal.add(Calendar.DAY_OF_YEAR, -1);
+            return new Day(cal);
+        }
+
+        Day next() {
+            Calendar cal = toCalendar(gMidnight);
+            cal.add(Calendar.DAY_OF_YEAR, 1);
+            return new Day(cal);
+        }
+
+        private static Calendar toCalendar( long Time ) {
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(Time);
+            return cal;
+        }
+
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.net.TCPConnection;
+import com.radicales.cal.net.TCPServer;
+import com.radicales.cal.net.TCPServerEvent;
+import com.radicales.sm100.protocol.X4smInfoMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Smart Mist 100 Device Server
+ * Accepts connections from devices that dial in, identifies each device by
+ * the name in its first DeviceInfo message and hands the connection to the
+ * registered device object with that name.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100Server implements TCPServerEvent {
+
+    private final TCPServer gServer;
+    private final Map<String, Sm100> gDevices = new HashMap<>();
+
+    /**
+     * Constructor of a device server
+     * @param Port Port devices connect to
+     * @param IdentifyTimeout Time in milliseconds a device has to send its DeviceInfo
+     */
+    public Sm100Server( int Port, long IdentifyTimeout ) {
+        gServer = new TCPServer(Port, IdentifyTimeout);
+        gServer.setServerListener(this);
+    }
+
+    /**
+     * Register a device that connects to this server.
+     * The device can be created without a driver and started up front,
+     * it stays offline until it connects.
+     *
+     * @param Device Device object, matched on its name
+     */
+    public synchronized void addDevice( Sm100 Device ) {
+        gDevices.put(Device.getName(), Device);
+    }
+
+    public synchronized void removeDevice( Sm100 Device ) {
+        gDevices.remove(Device.getName());
+    }
+
+    public synchronized Sm100 getDevice( String Name ) {
+        return gDevices.get(Name);
+    }
+
+    public int getConnectionCount() {
+        return gServer.getConnectionCount();
+    }
+
+    public void start() throws CalDriverException {
+        gServer.Open();
+        gServer.Start();
+    }
+
+    public void stop() throws CalDriverException {
+        gServer.Stop();
+        gServer.Close();
+    }
+
+    @Override
+    public String identifyConnection( byte[] Buffer, int Length ) {
+        int start = 0;
+
+        for(int i=0; i<Length - 1; i++) {
+            if((Buffer[i] == '\r') && (Buffer[i + 1] == '\n')) {
+                String line = new String(Buffer, start, i - start, StandardCharsets.UTF_8);
+                start = i + 2;
+                X4smInfoMessage info = X4smInfoMessage.decode(line);
+                if(info != null) {
+                    return info.getName();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void connectionIdentified( String Id, TCPConnection Connection ) {
+        Sm100 dev = getDevice(Id);
+        if(dev == null) {
+            System.out.println("Sm100 Server: Unknown device " + Id + " from " + Connection.getRemoteAddress());
+            Connection.drop();
+            return;
+        }
+
+        System.out.println("Sm100 Server: Device " + Id + " connected from " + Connection.getRemoteAddress());
+        dev.attachDriver(Connection);
+    }
+
+    @Override
+    public void connectionClosed( TCPConnection Connection ) {
+        System.out.println("Sm100 Server: Device " + Connection.getId() + " disconnected");
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Smart Mist 100 Configuration Snapshot
+ * Immutable view of the zones and programs of a device at one version.
+ * A device publishes a new snapshot whenever its configuration is complete
+ * after a change, readers take the current one without locking and keep
+ * using it for as long as they like.
+ * <p>
+ * Records that did not change are shared with the previous snapshot, as
+ * are the lists if none of their records changed. Comparing versions, or
+ * the identity of a list or record, tells a reader what changed since a
+ * snapshot it saw before.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public final class Sm100Snapshot {
+
+    /** Snapshot of a device without zones or programs */
+    public static final Sm100Snapshot EMPTY = new Sm100Snapshot(0,
+            Collections.<Sm100ZoneRecord>emptyList(), Collections.<Sm100ProgramRecord>emptyList());
+
+    private final long gVersion;
+    private final List<Sm100ZoneRecord> gZones;
+    private final List<Sm100ProgramRecord> gPrograms;
+
+    private Sm100Snapshot( long Version, List<Sm100ZoneRecord> Zones, List<Sm100ProgramRecord> Programs ) {
+        gVersion = Version;
+        gZones = Zones;
+        gPrograms = Programs;
+    }
+
+    /**
+     * Create the snapshot following this one
+     * @param Zones Live zone list
+     * @param Programs Live program list
+     * @return New snapshot, or this snapshot if nothing changed
+     */
+    Sm100Snapshot update( List<Sm100Zone> Zones, List<Sm100Program> Programs ) {
+        List<Sm100ZoneRecord> zl = new ArrayList<>(Zones.size());
+        boolean zc = (Zones.size() != gZones.size());
+        for(int i=0; i<Zones.size(); i++) {
+            Sm100ZoneRecord r = Sm100ZoneRecord.of(Zones.get(i));
+            if((i < gZones.size()) && r.equals(gZones.get(i))) {
+                r = gZones.get(i);
+            }
+            else {
+                zc = true;
+            }
+            zl.add(r);
+        }
+
+        List<Sm100ProgramRecord> pl = new ArrayList<>(Programs.size());
+        boolean pc = (Programs.size() != gPrograms.size());
+        for(int i=0; i<Programs.size(); i++) {
+            Sm100ProgramRecord r = Sm100ProgramRecord.of(Programs.get(i));
+            if((i < gPrograms.size()) && r.equals(gPrograms.get(i))) {
+                r = gPrograms.get(i);
+            }
+            else {
+                pc = true;
+            }
+            pl.add(r);
+        }
+
+        if(!zc && !pc) {
+            return this;
+        }
+        return new Sm100Snapshot(gVersion + 1,
+                zc ? Collections.unmodifiableList(zl) : gZones,
+                pc ? Collections.unmodifiableList(pl) : gPrograms);
+    }
+
+    /**
+     * Version of the snapshot, increases with every change
+     */
+    public long getVersion() {
+        return gVersion;
+    }
+
+    /**
+     * Check if this snapshot is newer than a version seen before
+     * @param Version Version seen before
+     * @return True if the configuration changed since
+     */
+    public boolean isNewer( long Version ) {
+        return gVersion > Version;
+    }
+
+    public List<Sm100ZoneRecord> getZones() {
+        return gZones;
+    }
+
+    public List<Sm100ProgramRecord> getPrograms() {
+        return gPrograms;
+    }
+
+    public Sm100ZoneRecord getZone( String Name ) {
+        for(Sm100ZoneRecord r : gZones) {
+            if(r.getName().equals(Name)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    public Sm100ZoneRecord getZoneByChannel( int Channel ) {
+        for(Sm100ZoneRecord r : gZones) {
+            if(r.getChannel() == Channel) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    public Sm100ProgramRecord getProgram( String Name ) {
+        for(Sm100ProgramRecord r : gPrograms) {
+            if(r.getName().equals(Name)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create a configuration holding the zones and programs of this snapshot
+     * @param FileName Configuration file name
+     * @return New configuration
+     */
+    public Sm100Configuration toConfiguration( String FileName ) {
+        return new Sm100Configuration(FileName, gZones.size(), gPrograms.size(), gZones, gPrograms);
+    }
+
+    @Override
+    public String toString() {
+        return "v" + gVersion + " " + gZones.size() + " zones " + gPrograms.size() + " programs";
+    }
+
+}
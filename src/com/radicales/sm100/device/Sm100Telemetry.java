@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import com.radicales.cal.CalDriverException;
+import com.radicales.cal.net.UDPServer;
+import com.radicales.cal.net.UDPServerEvent;
+import com.radicales.sm100.protocol.X4smException;
+import com.radicales.sm100.protocol.X4smJournal;
+import com.radicales.sm100.protocol.X4smMessage;
+import com.radicales.sm100.protocol.X4smMessageRecycler;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Smart Mist 100 Telemetry Receiver
+ * Receives zone status, active program and input messages that devices or
+ * gateways send as datagrams and routes them to the device registered for
+ * the source address. A datagram holds one or more messages separated by
+ * \r\n after the sequence header of the {@link UDPServer}.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Frames are recorded in the journal of the device.
+ */
+public class Sm100Telemetry implements UDPServerEvent {
+
+    private final UDPServer gServer;
+    private final Map<InetAddress, Sm100> gDevices = new ConcurrentHashMap<>();
+    private volatile long gUnknown;
+    private volatile X4smMessageRecycler gRecycler;
+    private byte[] gLine = new byte[512];
+
+    /**
+     * Constructor of a telemetry receiver
+     * @param Port Port devices send telemetry to
+     */
+    public Sm100Telemetry( int Port ) {
+        gServer = new UDPServer(Port);
+        gServer.setServerListener(this);
+    }
+
+    /**
+     * Register a device on the address it is connected to
+     * @param Device Device object
+     * @throws Sm100Exception If the address of the device can not be resolved
+     */
+    public void addDevice( Sm100 Device ) throws Sm100Exception {
+        addDevice(Device.getIpAddress(), Device);
+    }
+
+    /**
+     * Register a device on the address its telemetry comes from
+     * @param Address Source address of the telemetry
+     * @param Device Device object
+     * @throws Sm100Exception If the address can not be resolved
+     */
+    public void addDevice( String Address, Sm100 Device ) throws Sm100Exception {
+        if(Address == null) {
+            throw new Sm100Exception("No address for " + Device.getName());
+        }
+        try {
+            gDevices.put(InetAddress.getByName(Address), Device);
+        } catch (UnknownHostException ex) {
+            throw new Sm100Exception("Unknown host " + Address);
+        }
+    }
+
+    public void removeDevice( Sm100 Device ) {
+        gDevices.values().remove(Device);
+    }
+
+    /**
+     * Enable recycling of the received messages.
+     * Messages are then parsed in place and only valid during the
+     * telemetryReceived call of the device, see X4smMessageRecycler.
+     *
+     * @param Value True to recycle messages
+     */
+    public void setRecycling( boolean Value ) {
+        gRecycler = Value ? new X4smMessageRecycler() : null;
+    }
+
+    public UDPServer getServer() {
+        return gServer;
+    }
+
+    /**
+     * Number of datagrams from addresses without a registered device
+     */
+    public long getUnknown() {
+        return gUnknown;
+    }
+
+    public void start() throws CalDriverException {
+        gServer.Open();
+        gServer.Start();
+    }
+
+    public void stop() throws CalDriverException {
+        gServer.Stop();
+        gServer.Close();
+    }
+
+    @Override
+    public void datagramReceived( InetSocketAddress Source, long Sequence, ByteBuffer Data ) {
+        Sm100 dev = gDevices.get(Source.getAddress());
+        if(dev == null) {
+            gUnknown++;
+            return;
+        }
+
+        int start = Data.position();
+        int limit = Data.limit();
+        for(int i=start; i<limit; i++) {
+            if((Data.get(i) == '\n') && (i > start) && (Data.get(i - 1) == '\r')) {
+                process(dev, Data, start, i - 1);
+                start = i + 1;
+            }
+        }
+        if(start < limit) {
+            process(dev, Data, start, limit);
+        }
+    }
+
+    @Override
+    public void datagramsLost( InetSocketAddress Source, long Expected, int Missing ) {
+        System.out.println("Sm100 Telemetry: " + Missing + " datagrams lost from " + Source + " at " + Expected);
+    }
+
+    private void process( Sm100 Device, ByteBuffer Data, int Start, int End ) {
+        int len = End - Start;
+        if((len <= 0) || (Data.get(Start) != '<')) {
+            return;
+        }
+        X4smMessageRecycler recycler = gRecycler;
+        X4smMessage frame;
+        if(recycler == null) {
+            // the message keeps the line, the datagram buffer is reused
+            byte[] line = new byte[len];
+            Data.position(Start);
+            Data.get(line, 0, len);
+            frame = new X4smMessage(line, 0, len);
+        }
+        else if(Data.hasArray()) {
+            frame = recycler.getFrame(Data.array(), Data.arrayOffset() + Start, len);
+        }
+        else {
+            if(len > gLine.length) {
+                gLine = new byte[len];
+            }
+            Data.position(Start);
+            Data.get(gLine, 0, len);
+            frame = recycler.getFrame(gLine, 0, len);
+        }
+
+        X4smJournal journal = Device.getJournal();
+        if(journal != null) {
+            journal.append(X4smJournal.DIRECTION_TELEMETRY, frame);
+        }
+
+        try {
+            X4smMessage m = frame.parseData(recycler);
+            if(m != null) {
+                Device.telemetryReceived(m);
+            }
+        } catch (X4smException ex) {
+            System.out.println("Sm100 Telemetry: Message parse error from " + Device.getName());
+        }
+    }
+
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import com.radicales.sm100.protocol.X4smGetDateTimeMessage;
+import com.radicales.sm100.protocol.X4smSetDateTimeMessage;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smart Mist 100 Time Synchronisation
+ * Estimates the clock offset and drift of every device from GetDateTime
+ * round trips and only corrects devices whose offset is past a threshold.
+ * <p>
+ * A sample is the local time the request was sent, the local time the
+ * reply arrived and the device time in whole seconds. The device read its
+ * clock somewhere between sending and arrival, and its true time lies in
+ * the second it reported, so every sample bounds the offset. The bounds
+ * of all samples are intersected, samples spread over a second narrow the
+ * interval down. If the bounds do not agree the sample with the shortest
+ * round trip is used, like NTP does.
+ * Requests are written straight to the device and only while it is
+ * connected and idle, a device that is monitored or busy with a
+ * configuration transfer is skipped for the round.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100TimeSync {
+
+    private static final int HISTORY = 8;
+
+    private final Map<Sm100, Clock> gClocks = new ConcurrentHashMap<>();
+    private int gConcurrency;
+    private long gThreshold;
+    private int gSamples;
+    private long gTimeout;
+    private ScheduledExecutorService gScheduler;
+
+    /**
+     * Clock estimate of a device
+     */
+    public static class Estimate {
+
+        private final long gOffset;
+        private final long gError;
+        private final long gRoundTrip;
+        private final double gDrift;
+        private final long gTime;
+
+        Estimate( long Offset, long Error, long RoundTrip, double Drift, long Time ) {
+            gOffset = Offset;
+            gError = Error;
+            gRoundTrip = RoundTrip;
+            gDrift = Drift;
+            gTime = Time;
+        }
+
+        /**
+         * Device clock minus local clock in milliseconds
+         */
+        public long getOffset() {
+            return gOffset;
+        }
+
+        /**
+         * Largest error of the offset in milliseconds
+         */
+        public long getError() {
+            return gError;
+        }
+
+        /**
+         * Shortest round trip of the samples in milliseconds
+         */
+        public long getRoundTrip() {
+            return gRoundTrip;
+        }
+
+        /**
+         * Drift of the device clock in parts per million, NaN until there
+         * are estimates at least a minute apart
+         */
+        public double getDrift() {
+            return gDrift;
+        }
+
+        /**
+         * Local time of the estimate
+         */
+        public long getTime() {
+            return gTime;
+        }
+
+    }
+
+    /**
+     * Clock state of one device
+     */
+    private static class Clock {
+
+        private final Sm100 gDevice;
+        private final BlockingQueue<long[]> gReplies = new LinkedBlockingQueue<>();
+        private final long[] gHistoryTime = new long[HISTORY];
+        private final long[] gHistoryOffset = new long[HISTORY];
+        private int gHistoryCount;
+        private long gSteps;
+        private volatile Estimate gEstimate;
+
+        Clock( Sm100 Device ) {
+            gDevice = Device;
+        }
+
+    }
+
+    /**
+     * Constructor of a time synchronisation
+     * @param Concurrency Number of devices synchronised at the same time
+     */
+    public Sm100TimeSync( int Concurrency ) {
+        gConcurrency = Math.max(1, Concurrency);
+        gThreshold = 2000;
+        gSamples = 4;
+        gTimeout = 3000;
+    }
+
+    /**
+     * Set the offset a device may have before it is corrected
+     * @param Value Threshold in milliseconds
+     */
+    public void setThreshold( long Value ) {
+        gThreshold = Value;
+    }
+
+    /**
+     * Set the number of round trips per estimate
+     * @param Value Number of samples
+     */
+    public void setSamples( int Value ) {
+        gSamples = Math.max(1, Value);
+    }
+
+    /**
+     * Set the time to wait for a reply
+     * @param Value Timeout in milliseconds
+     */
+    public void setTimeout( long Value ) {
+        gTimeout = Value;
+    }
+
+    public void addDevice( Sm100 Device ) {
+        gClocks.put(Device, new Clock(Device));
+        Device.setTimeSync(this);
+    }
+
+    public void removeDevice( Sm100 Device ) {
+        if(gClocks.remove(Device) != null) {
+            Device.setTimeSync(null);
+        }
+    }
+
+    /**
+     * Last clock estimate of a device
+     * @return Estimate, null if the device was not measured yet
+     */
+    public Estimate getEstimate( Sm100 Device ) {
+        Clock c = gClocks.get(Device);
+        return (c == null) ? null : c.gEstimate;
+    }
+
+    /**
+     * Synchronise all online devices periodically
+     * @param Period Time between passes in milliseconds
+     */
+    public synchronized void start( long Period ) {
+        if(gScheduler != null) {
+            return;
+        }
+        gScheduler = Executors.newSingleThreadScheduledExecutor();
+        gScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronize();
+                } catch (Sm100Exception ex) {
+                    System.out.println("Sm100 TimeSync: " + ex.getMessage());
+                }
+            }
+        }, 0, Period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if(gScheduler != null) {
+            gScheduler.shutdownNow();
+            gScheduler = null;
+        }
+    }
+
+    /**
+     * Measure every online device and correct the ones past the threshold
+     * @return Number of devices corrected
+     * @throws Sm100Exception
+     */
+    public int synchronize() throws Sm100Exception {
+        List<Future<Boolean>> results = new ArrayList<>();
+        int corrected = 0;
+
+        List<Clock> clocks = new ArrayList<>();
+        for(Clock c : gClocks.values()) {
+            if(c.gDevice.isOnline()) {
+                clocks.add(c);
+            }
+        }
+        if(clocks.isEmpty()) {
+            return 0;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(gConcurrency, clocks.size()));
+        try {
+            for(final Clock c : clocks) {
+                results.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws InterruptedException {
+                        return synchronize(c);
+                    }
+                }));
+            }
+            for(Future<Boolean> f : results) {
+                if(f.get()) {
+                    corrected++;
+                }
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new Sm100Exception("Time synchronisation interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.println("Sm100 TimeSync: " + corrected + " of " + clocks.size() + " devices corrected");
+        return corrected;
+    }
+
+    /**
+     * Reply of a time request, called by the device
+     */
+    void sampleReceived( Sm100 Device, long Sent, long Received, Date Time ) {
+        Clock c = gClocks.get(Device);
+        if(c != null) {
+            // the device reports whole seconds
+            long t = (Time.getTime() / 1000) * 1000;
+            c.gReplies.offer(new long[] { Sent, Received, t });
+        }
+    }
+
+    private boolean synchronize( Clock Clock ) throws InterruptedException {
+        Estimate e = measure(Clock);
+        if(e == null) {
+            System.out.println("Sm100 TimeSync: No time from " + Clock.gDevice.getName());
+            return false;
+        }
+        if(Math.abs(e.getOffset()) <= gThreshold) {
+            return false;
+        }
+
+        // the time is taken when the message is sent, plus the one way delay
+        if(!Clock.gDevice.sendDateTime(new X4smSetDateTimeMessage(e.getRoundTrip() / 2))) {
+            System.out.println("Sm100 TimeSync: " + Clock.gDevice.getName() + " busy, not corrected");
+            return false;
+        }
+        synchronized(Clock) {
+            Clock.gSteps -= e.getOffset();
+        }
+
+        Estimate check = measure(Clock);
+        System.out.println("Sm100 TimeSync: " + Clock.gDevice.getName() + " corrected by " + (-e.getOffset())
+                + " ms, offset now " + ((check == null) ? "unknown" : (check.getOffset() + " ms")));
+        return true;
+    }
+
+    /**
+     * Take the samples of one estimate
+     * @return Estimate, null if the device did not answer
+     */
+    private Estimate measure( Clock Clock ) throws InterruptedException {
+        List<long[]> samples = new ArrayList<>();
+
+        Clock.gReplies.clear();
+        for(int i=0; i<gSamples; i++) {
+            if(i > 0) {
+                // spread the samples over a second to narrow the bounds
+                Thread.sleep(1000 / gSamples);
+            }
+            if(!Clock.gDevice.requestDateTime(new X4smGetDateTimeMessage())) {
+                break;
+            }
+            long[] s = Clock.gReplies.poll(gTimeout, TimeUnit.MILLISECONDS);
+            if(s == null) {
+                break;
+            }
+            samples.add(s);
+        }
+        if(samples.isEmpty()) {
+            return null;
+        }
+
+        long lo = Long.MIN_VALUE;
+        long hi = Long.MAX_VALUE;
+        long[] best = null;
+        for(long[] s : samples) {
+            lo = Math.max(lo, s[2] - s[1]);
+            hi = Math.min(hi, s[2] + 1000 - s[0]);
+            if((best == null) || ((s[1] - s[0]) < (best[1] - best[0]))) {
+                best = s;
+            }
+        }
+        long rtt = best[1] - best[0];
+        long offset;
+        long error;
+        if(lo <= hi) {
+            offset = (lo + hi) / 2;
+            error = (hi - lo) / 2;
+        }
+        else {
+            offset = best[2] + 500 - ((best[0] + best[1]) / 2);
+            error = (rtt / 2) + 500;
+        }
+
+        long now = (best[0] + best[1]) / 2;
+        Estimate e = new Estimate(offset, error, rtt, drift(Clock, now, offset), now);
+        Clock.gEstimate = e;
+        return e;
+    }
+
+    /**
+     * Add an offset to the history of a device and fit the drift
+     * @return Drift in parts per million, NaN if the history is too short
+     */
+    private static double drift( Clock Clock, long Time, long Offset ) {
+        synchronized(Clock) {
+            // remove the corrections so the history follows the free running clock
+            int n = Math.min(Clock.gHistoryCount, HISTORY - 1);
+            System.arraycopy(Clock.gHistoryTime, 0, Clock.gHistoryTime, 1, n);
+            System.arraycopy(Clock.gHistoryOffset, 0, Clock.gHistoryOffset, 1, n);
+            Clock.gHistoryTime[0] = Time;
+            Clock.gHistoryOffset[0] = Offset - Clock.gSteps;
+            Clock.gHistoryCount = n + 1;
+
+            n = Clock.gHistoryCount;
+            if(Clock.gHistoryTime[0] - Clock.gHistoryTime[n - 1] < 60000) {
+                return Double.NaN;
+            }
+            double mt = 0;
+            double mo = 0;
+            for(int i=0; i<n; i++) {
+                mt += Clock.gHistoryTime[i] - Clock.gHistoryTime[n - 1];
+                mo += Clock.gHistoryOffset[i];
+            }
+            mt /= n;
+            mo /= n;
+            double sxy = 0;
+            double sxx = 0;
+            for(int i=0; i<n; i++) {
+                double dt = (Clock.gHistoryTime[i] - Clock.gHistoryTime[n - 1]) - mt;
+                sxy += dt * (Clock.gHistoryOffset[i] - mo);
+                sxx += dt * dt;
+            }
+            return (sxy / sxx) * 1e6;
+        }
+    }
+
+}
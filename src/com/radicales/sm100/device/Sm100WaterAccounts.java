@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Smart Mist 100 Water Accounts
+ * Counts the run time and estimated volume of every zone per day. Zone
+ * status updates and active program reports of the devices are folded
+ * into counters as they arrive, the totals per device and site and per
+ * month are updated with the same amounts, so reports read counters and
+ * never go over the events again.
+ * <p>
+ * A run is counted when its zone switches off, runs over midnight are
+ * split over the days. An active program report tells how long its zone
+ * has been running, a run seen late by the status poll is dated back to
+ * the start the device reports. Runs that arrive late, from a journal or
+ * another source, are added with record and wrong ones taken out with
+ * retract, both correct all totals of the day and month.
+ * <p>
+ * Days are kept for a fixed number of days and months for two years in
+ * rings of primitive arrays indexed by zone, device or site.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class Sm100WaterAccounts {
+
+    private static final int MONTHS = 24;
+    private static final long CORRECTION_MIN = 60000;
+
+    private final int gDays;
+    private final long[] gDayOwner;
+    private final int[] gMonthOwner;
+    private final Map<Sm100, Account> gAccounts = new HashMap<>();
+    private final Map<String, Integer> gSites = new HashMap<>();
+    private final Calendar gCalendar = Calendar.getInstance();
+    private int gZoneCount;
+    private int gDeviceCount;
+    private long gDropped;
+    private long gLastDay = Long.MIN_VALUE;
+    private int gLastMonth = Integer.MIN_VALUE;
+
+    /* per zone */
+    private long[] gOnSince = new long[0];
+    private double[] gFlow = new double[0];
+    private int[] gZoneDevice = new int[0];
+    private int[] gDeviceSite = new int[0];
+
+    /* run time in milliseconds and volume, per entity and day or month slot */
+    private long[] gZoneDayTime = new long[0];
+    private double[] gZoneDayVolume = new double[0];
+    private long[] gDeviceDayTime = new long[0];
+    private double[] gDeviceDayVolume = new double[0];
+    private long[] gSiteDayTime = new long[0];
+    private double[] gSiteDayVolume = new double[0];
+    private long[] gZoneMonthTime = new long[0];
+    private double[] gZoneMonthVolume = new double[0];
+    private long[] gDeviceMonthTime = new long[0];
+    private double[] gDeviceMonthVolume = new double[0];
+    private long[] gSiteMonthTime = new long[0];
+    private double[] gSiteMonthVolume = new double[0];
+
+    /**
+     * Run time and volume of a period
+     */
+    public static class Total {
+
+        private final long gTime;
+        private final double gVolume;
+
+        Total( long Time, double Volume ) {
+            gTime = Time;
+            gVolume = Volume;
+        }
+
+        /**
+         * Run time in minutes
+         */
+        public double getMinutes() {
+            return gTime / 60000.0;
+        }
+
+        /**
+         * Estimated volume, in the unit of the zone flows times minutes
+         */
+        public double getVolume() {
+            return gVolume;
+        }
+
+    }
+
+    /**
+     * Zones and listener of a device
+     */
+    private class Account implements Sm100Event {
+
+        private final Sm100 gDevice;
+        private final int gIndex;
+        private final Map<String, Integer> gZones = new HashMap<>();
+
+        Account( Sm100 Device, int Index ) {
+            gDevice = Device;
+            gIndex = Index;
+        }
+
+        @Override
+        public void eventZoneStatusUpdate( List<Sm100Zone> Zones ) {
+            statusUpdate(this, Zones, System.currentTimeMillis());
+        }
+
+        @Override
+        public void eventActiveProgram( boolean Active, Sm100Program Program, Sm100Zone Zone, String Status, int RunTime, int TimeToRun ) {
+            if(Active && (Zone != null) && (RunTime >= TimeToRun)) {
+                zoneRunning(this, Zone.getName(), System.currentTimeMillis() - ((RunTime - TimeToRun) * 60000L));
+            }
+        }
+
+        @Override
+        public void eventStatus( String Message ) {
+        }
+
+        @Override
+        public void eventProgramList( String[] Names ) {
+        }
+
+        @Override
+        public void eventProgramConfig( Sm100Program Program ) {
+        }
+
+        @Override
+        public void eventProgramsUpdate( List<Sm100Program> Programs ) {
+        }
+
+        @Override
+        public void eventProgramStartTimesUpdate( Sm100Program Program, List<StartTime> StartTimesList ) {
+        }
+
+        @Override
+        public void eventZonesUpdate( List<Sm100Zone> Zones ) {
+        }
+
+        @Override
+        public void eventInformation( String Name, String Family, String Revision, int Channels ) {
+        }
+
+        @Override
+        public void eventDataTime( Date Time ) {
+        }
+
+        @Override
+        public void eventInputs( boolean[] Status ) {
+        }
+
+        @Override
+        public void eventUploadComplete() {
+        }
+
+    }
+
+    /**
+     * Constructor of water accounts
+     * @param Days Number of days kept per zone
+     */
+    public Sm100WaterAccounts( int Days ) {
+        gDays = Math.max(1, Days);
+        gDayOwner = new long[gDays];
+        Arrays.fill(gDayOwner, Long.MIN_VALUE);
+        gMonthOwner = new int[MONTHS];
+        Arrays.fill(gMonthOwner, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Start counting the zones of a device
+     * @param Device Device
+     * @param Site Site the device belongs to
+     */
+    public synchronized void attach( Sm100 Device, String Site ) {
+        if(gAccounts.containsKey(Device)) {
+            return;
+        }
+        Integer site = gSites.get(Site);
+        if(site == null) {
+            site = gSites.size();
+            gSites.put(Site, site);
+            gSiteDayTime = Arrays.copyOf(gSiteDayTime, gSites.size() * gDays);
+            gSiteDayVolume = Arrays.copyOf(gSiteDayVolume, gSites.size() * gDays);
+            gSiteMonthTime = Arrays.copyOf(gSiteMonthTime, gSites.size() * MONTHS);
+            gSiteMonthVolume = Arrays.copyOf(gSiteMonthVolume, gSites.size() * MONTHS);
+        }
+
+        Account a = new Account(Device, gDeviceCount++);
+        gDeviceSite = Arrays.copyOf(gDeviceSite, gDeviceCount);
+        gDeviceSite[a.gIndex] = site;
+        gDeviceDayTime = Arrays.copyOf(gDeviceDayTime, gDeviceCount * gDays);
+        gDeviceDayVolume = Arrays.copyOf(gDeviceDayVolume, gDeviceCount * gDays);
+        gDeviceMonthTime = Arrays.copyOf(gDeviceMonthTime, gDeviceCount * MONTHS);
+        gDeviceMonthVolume = Arrays.copyOf(gDeviceMonthVolume, gDeviceCount * MONTHS);
+        gAccounts.put(Device, a);
+        Device.registerEventListener(a);
+    }
+
+    /**
+     * Stop counting a device, its totals are kept
+     * @param Device Device
+     */
+    public synchronized void detach( Sm100 Device ) {
+        Account a = gAccounts.get(Device);
+        if(a != null) {
+            Device.removeEventListener(a);
+        }
+    }
+
+    /**
+     * Set the flow of a zone, used for the runs that follow
+     * @param Device Device of the zone
+     * @param Zone Zone name
+     * @param Flow Flow per minute
+     */
+    public synchronized void setFlow( Sm100 Device, String Zone, double Flow ) {
+        Account a = gAccounts.get(Device);
+        if(a != null) {
+            int z = getZone(a, Zone);
+            gFlow[z] = Flow;
+        }
+    }
+
+    /**
+     * Count a run that was not seen as status updates, or arrived late
+     * @param Device Device of the zone
+     * @param Zone Zone name
+     * @param Start Start of the run in milliseconds
+     * @param End End of the run in milliseconds
+     */
+    public synchronized void record( Sm100 Device, String Zone, long Start, long End ) {
+        Account a = gAccounts.get(Device);
+        if(a != null) {
+            fold(getZone(a, Zone), Start, End, 1);
+        }
+    }
+
+    /**
+     * Take out a run that was counted wrongly
+     * @param Device Device of the zone
+     * @param Zone Zone name
+     * @param Start Start of the run in milliseconds
+     * @param End End of the run in milliseconds
+     */
+    public synchronized void retract( Sm100 Device, String Zone, long Start, long End ) {
+        Account a = gAccounts.get(Device);
+        if(a != null) {
+            fold(getZone(a, Zone), Start, End, -1);
+        }
+    }
+
+    /**
+     * Number of run parts older than the kept days that were not counted
+     */
+    public synchronized long getDropped() {
+        return gDropped;
+    }
+
+    public synchronized Total getZoneDay( Sm100 Device, String Zone, long Time ) {
+        Account a = gAccounts.get(Device);
+        Integer z = (a == null) ? null : a.gZones.get(Zone);
+        int s = findDay(Time);
+        if((z == null) || (s < 0)) {
+            return new Total(0, 0);
+        }
+        return new Total(gZoneDayTime[(z * gDays) + s], gZoneDayVolume[(z * gDays) + s]);
+    }
+
+    public synchronized Total getDeviceDay( Sm100 Device, long Time ) {
+        Account a = gAccounts.get(Device);
+        int s = findDay(Time);
+        if((a == null) || (s < 0)) {
+            return new Total(0, 0);
+        }
+        return new Total(gDeviceDayTime[(a.gIndex * gDays) + s], gDeviceDayVolume[(a.gIndex * gDays) + s]);
+    }
+
+    public synchronized Total getSiteDay( String Site, long Time ) {
+        Integer i = gSites.get(Site);
+        int s = findDay(Time);
+        if((i == null) || (s < 0)) {
+            return new Total(0, 0);
+        }
+        return new Total(gSiteDayTime[(i * gDays) + s], gSiteDayVolume[(i * gDays) + s]);
+    }
+
+    public synchronized Total getZoneMonth( Sm100 Device, String Zone, long Time ) {
+        Account a = gAccounts.get(Device);
+        Integer z = (a == null) ? null : a.gZones.get(Zone);
+        int s = findMonth(Time);
+        if((z == null) || (s < 0)) {
+            return new Total(0, 0);
+        }
+        return new Total(gZoneMonthTime[(z * MONTHS) + s], gZoneMonthVolume[(z * MONTHS) + s]);
+    }
+
+    public synchronized Total getDeviceMonth( Sm100 Device, long Time ) {
+        Account a = gAccounts.get(Device);
+        int s = findMonth(Time);
+        if((a == null) || (s < 0)) {
+            return new Total(0, 0);
+        }
+        return new Total(gDeviceMonthTime[(a.gIndex * MONTHS) + s], gDeviceMonthVolume[(a.gIndex * MONTHS) + s]);
+    }
+
+    public synchronized Total getSiteMonth( String Site, long Time ) {
+        Integer i = gSites.get(Site);
+        int s = findMonth(Time);
+        if((i == null) || (s < 0)) {
+            return new Total(0, 0);
+        }
+        return new Total(gSiteMonthTime[(i * MONTHS) + s], gSiteMonthVolume[(i * MONTHS) + s]);
+    }
+
+    private synchronized void statusUpdate( Account Account, List<Sm100Zone> Zones, long Now ) {
+        for(Sm100Zone zone : Zones) {
+            int z = getZone(Account, zone.getName());
+            if(zone.isOn()) {
+                if(gOnSince[z] == 0) {
+                    gOnSince[z] = Now;
+                }
+            }
+            else if(gOnSince[z] != 0) {
+                fold(z, gOnSince[z], Now, 1);
+                gOnSince[z] = 0;
+            }
+        }
+    }
+
+    private synchronized void zoneRunning( Account Account, String Zone, long Start ) {
+        int z = getZone(Account, Zone);
+        // the status poll saw the zone late or not at all
+        if((gOnSince[z] == 0) || (Start + CORRECTION_MIN < gOnSince[z])) {
+            gOnSince[z] = Start;
+        }
+    }
+
+    /**
+     * Index of a zone, added when seen the first time
+     */
+    private int getZone( Account Account, String Zone ) {
+        Integer z = Account.gZones.get(Zone);
+        if(z != null) {
+            return z;
+        }
+
+        z = gZoneCount++;
+        Account.gZones.put(Zone, z);
+        gOnSince = Arrays.copyOf(gOnSince, gZoneCount);
+        gFlow = Arrays.copyOf(gFlow, gZoneCount);
+        gZoneDevice = Arrays.copyOf(gZoneDevice, gZoneCount);
+        gZoneDevice[z] = Account.gIndex;
+        gZoneDayTime = Arrays.copyOf(gZoneDayTime, gZoneCount * gDays);
+        gZoneDayVolume = Arrays.copyOf(gZoneDayVolume, gZoneCount * gDays);
+        gZoneMonthTime = Arrays.copyOf(gZoneMonthTime, gZoneCount * MONTHS);
+        gZoneMonthVolume = Arrays.copyOf(gZoneMonthVolume, gZoneCount * MONTHS);
+        return z;
+    }
+
+    /**
+     * Add a run to the counters of its days and months
+     * @param Sign 1 to add, -1 to take out
+     */
+    private void fold( int Zone, long Start, long End, int Sign ) {
+        int dev = gZoneDevice[Zone];
+        int site = gDeviceSite[dev];
+
+        while(Start < End) {
+            gCalendar.setTimeInMillis(Start);
+            int month = (gCalendar.get(Calendar.YEAR) * 12) + gCalendar.get(Calendar.MONTH);
+            gCalendar.set(Calendar.HOUR_OF_DAY, 0);
+            gCalendar.set(Calendar.MINUTE, 0);
+            gCalendar.set(Calendar.SECOND, 0);
+            gCalendar.set(Calendar.MILLISECOND, 0);
+            long day = toDay(gCalendar);
+            gCalendar.add(Calendar.DAY_OF_MONTH, 1);
+            long end = Math.min(End, gCalendar.getTimeInMillis());
+
+            long t = Sign * (end - Start);
+            double v = (t / 60000.0) * gFlow[Zone];
+            int d = claimDay(day);
+            if(d >= 0) {
+                gZoneDayTime[(Zone * gDays) + d] += t;
+                gZoneDayVolume[(Zone * gDays) + d] += v;
+                gDeviceDayTime[(dev * gDays) + d] += t;
+                gDeviceDayVolume[(dev * gDays) + d] += v;
+                gSiteDayTime[(site * gDays) + d] += t;
+                gSiteDayVolume[(site * gDays) + d] += v;
+            }
+            else {
+                gDropped++;
+            }
+            int m = claimMonth(month);
+            if(m >= 0) {
+                gZoneMonthTime[(Zone * MONTHS) + m] += t;
+                gZoneMonthVolume[(Zone * MONTHS) + m] += v;
+                gDeviceMonthTime[(dev * MONTHS) + m] += t;
+                gDeviceMonthVolume[(dev * MONTHS) + m] += v;
+                gSiteMonthTime[(site * MONTHS) + m] += t;
+                gSiteMonthVolume[(site * MONTHS) + m] += v;
+            }
+
+            Start = end;
+        }
+    }
+
+    /**
+     * Slot of a day, cleared for the day if it held an older one
+     * @return Slot, -1 if the day is older than the kept days
+     */
+    private int claimDay( long Day ) {
+        if((gLastDay != Long.MIN_VALUE) && (Day <= gLastDay - gDays)) {
+            return -1;
+        }
+        int s = (int)(Day % gDays);
+        if(gDayOwner[s] == Day) {
+            return s;
+        }
+        gDayOwner[s] = Day;
+        gLastDay = Math.max(gLastDay, Day);
+        clear(gZoneDayTime, gZoneDayVolume, gZoneCount, gDays, s);
+        clear(gDeviceDayTime, gDeviceDayVolume, gDeviceCount, gDays, s);
+        clear(gSiteDayTime, gSiteDayVolume, gSites.size(), gDays, s);
+        return s;
+    }
+
+    private int claimMonth( int Month ) {
+        if((gLastMonth != Integer.MIN_VALUE) && (Month <= gLastMonth - MONTHS)) {
+            return -1;
+        }
+        int s = Month % MONTHS;
+        if(gMonthOwner[s] == Month) {
+            return s;
+        }
+        gMonthOwner[s] = Month;
+        gLastMonth = Math.max(gLastMonth, Month);
+        clear(gZoneMonthTime, gZoneMonthVolume, gZoneCount, MONTHS, s);
+        clear(gDeviceMonthTime, gDeviceMonthVolume, gDeviceCount, MONTHS, s);
+        clear(gSiteMonthTime, gSiteMonthVolume, gSites.size(), MONTHS, s);
+        return s;
+    }
+
+    private static void clear( long[] Time, double[] Volume, int Count, int Slots, int Slot ) {
+        for(int i=0; i<Count; i++) {
+            Time[(i * Slots) + Slot] = 0;
+            Volume[(i * Slots) + Slot] = 0;
+        }
+    }
+
+    private int findDay( long Time ) {
+        gCalendar.setTimeInMillis(Time);
+        long day = toDay(gCalendar);
+        int s = (int)(day % gDays);
+        return (gDayOwner[s] == day) ? s : -1;
+    }
+
+    private int findMonth( long Time ) {
+        gCalendar.setTimeInMillis(Time);
+        int month = (gCalendar.get(Calendar.YEAR) * 12) + gCalendar.get(Calendar.MONTH);
+        int s = month % MONTHS;
+        return (gMonthOwner[s] == month) ? s : -1;
+    }
+
+    /**
+     * Local day number of a calendar
+     */
+    private static long toDay( Calendar Cal ) {
+        long t = Cal.getTimeInMillis() + Cal.get(Calendar.ZONE_OFFSET) + Cal.get(Calendar.DST_OFFSET);
+        return t / 86400000L;
+    }
+
+}
@@ -27,6 +27,8 @@ package com.radicales.sm100.device;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Added pump flag test.
  */
 public class Sm100Zone {
 
@@ -135,6 +137,18 @@ public class Sm100Zone {
         return gControlWord;
     }
 
+    /**
+     * Test if this zone switches a pump
+     * @return True if the pump flag of the control word is set
+     */
+    public boolean isPump() {
+        if((gControlWord & CW_PUMP) == CW_PUMP) {
+            return true;
+        }
+
+        return false;
+    }
+
     public boolean getInitState() {
         if(gInitValue > 0) {
             return true;
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.device;
+
+/**
+ * Smart Mist 100 Zone Configuration Record
+ * Immutable copy of the configuration of a single zone as known on the device.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public final class Sm100ZoneRecord {
+
+    private final String gName;
+    private final int gChannel;
+    private final long gControlWord;
+    private final int gInitValue;
+    private final int gOffDelay;
+
+    public Sm100ZoneRecord( String Name, int Channel, long ControlWord, int InitValue, int OffDelay ) {
+        gName = Name;
+        gChannel = Channel;
+        gControlWord = ControlWord;
+        gInitValue = InitValue;
+        gOffDelay = OffDelay;
+    }
+
+    /**
+     * Take a record of the current settings of a zone
+     * @param Zone Zone to record
+     * @return New zone record
+     */
+    public static Sm100ZoneRecord of( Sm100Zone Zone ) {
+        return new Sm100ZoneRecord(Zone.getName(), Zone.getChannel(), Zone.getControlWord(), Zone.getInitValue(), Zone.getOffDelay());
+    }
+
+    /**
+     * Create a new live zone object from this record
+     * @return New zone object
+     */
+    public Sm100Zone toZone() {
+        Sm100Zone z = new Sm100Zone(gName);
+        z.setChannel(gChannel);
+        z.setControlWord(gControlWord);
+        z.setInitValue(gInitValue);
+        z.setOffDelay(gOffDelay);
+        return z;
+    }
+
+    public String getName() {
+        return gName;
+    }
+
+    public int getChannel() {
+        return gChannel;
+    }
+
+    public long getControlWord() {
+        return gControlWord;
+    }
+
+    public int getInitValue() {
+        return gInitValue;
+    }
+
+    public int getOffDelay() {
+        return gOffDelay;
+    }
+
+    @Override
+    public boolean equals( Object Other ) {
+        if(this == Other) {
+            return true;
+        }
+        if(!(Other instanceof Sm100ZoneRecord)) {
+            return false;
+        }
+        Sm100ZoneRecord r = (Sm100ZoneRecord)Other;
+        return gName.equals(r.gName) &&
+                (gChannel == r.gChannel) &&
+                (gControlWord == r.gControlWord) &&
+                (gInitValue == r.gInitValue) &&
+                (gOffDelay == r.gOffDelay);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = gName.hashCode();
+        h = 31 * h + gChannel;
+        h = 31 * h + (int)(gControlWord ^ (gControlWord >>> 32));
+        h = 31 * h + gInitValue;
+        h = 31 * h + gOffDelay;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return gName;
+    }
+
+}
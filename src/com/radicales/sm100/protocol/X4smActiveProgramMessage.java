@@ -29,69 +29,128 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
+ * <b>1.3 19/10/2026</b><br>
+ * Instances can be recycled for the next frame.
  */
 public class X4smActiveProgramMessage extends X4smMessage {
 
-    private List<X4smAttribute> gAttributes;
+    private int gStatusIndex;
     private String gProgramName;
     private String gZoneName;
     private String gStatus;
     private int gRunTime;
     private int gTimeToRun;
     private boolean gActive;
+    private boolean gRecycled;
+    private byte[] gStatusKey;
+    private int gStatusKeyLength = -1;
+    private final X4smAttributeView gView = new X4smAttributeView();
+    private final X4smAttributeView gField = new X4smAttributeView();
 
     //"empty:none:off:0:0"
     public X4smActiveProgramMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_ACTIVEPROGRAM);
-        gAttributes = Attributes;
-        gProgramName = "Unknown";
-        gZoneName = "Unknown";
-        gStatus = "Unknown";
+        this(X4smTokenizer.fromAttributes("ActiveProgram", Attributes));
+    }
+
+    public X4smActiveProgramMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_ACTIVEPROGRAM, Tokens);
+        gStatusIndex = -1;
         gRunTime = 0;
         gTimeToRun = 0;
         gActive = false;
     }
 
-     public void parse() throws X4smException  {
+    @Override
+    protected void recycle( X4smTokenizer Tokens ) {
+        super.recycle(Tokens);
+        gRecycled = true;
+        gStatusIndex = -1;
+        gRunTime = 0;
+        gTimeToRun = 0;
+        gActive = false;
+    }
 
-        for(X4smAttribute attr : gAttributes) {
+    public void parse() throws X4smException  {
+        decode();
+    }
 
-            if(attr.Name.matches("status")) {
-                String[] sa = attr.Value.split(":");
-                gProgramName = sa[0];
-                gZoneName = sa[1];
-                gStatus = sa[2];
-                gRunTime = Integer.parseInt(sa[3]);
-                gTimeToRun = Integer.parseInt(sa[4]);
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = gView;
+        X4smAttributeView f = gField;
+
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
+
+            if(tokens.getName(a, v).is("status")) {
+                tokens.getValue(a, v);
+                gStatusIndex = a;
+                // a recycled message keeps the names while the status text does not change
+                if(!v.contentEquals(gStatusKey, gStatusKeyLength)) {
+                    gProgramName = null;
+                    gZoneName = null;
+                    gStatus = null;
+                    if(gRecycled) {
+                        gStatusKey = v.copyTo(gStatusKey);
+                        gStatusKeyLength = v.length();
+                    }
+                }
+                gRunTime = v.field(3, ':', f).parseInt();
+                gTimeToRun = v.field(4, ':', f).parseInt();
 
-                if(!gProgramName.matches("empty")) {
+                if(!v.field(0, ':', f).is("empty")) {
                     gActive = true;
                 }
             }
         }
+        if(gStatusIndex < 0) {
+            gProgramName = null;
+            gZoneName = null;
+            gStatus = null;
+            gStatusKeyLength = -1;
+        }
     }
 
     public String getProgramName() {
+        ensureDecoded();
+        if(gProgramName == null) {
+            gProgramName = getString(gStatusIndex, 0, ':', "Unknown");
+        }
         return gProgramName;
     }
 
     public String getZoneName() {
+        ensureDecoded();
+        if(gZoneName == null) {
+            gZoneName = getString(gStatusIndex, 1, ':', "Unknown");
+        }
         return gZoneName;
     }
 
     public String getStatus() {
+        ensureDecoded();
+        if(gStatus == null) {
+            gStatus = getString(gStatusIndex, 2, ':', "Unknown");
+        }
         return gStatus;
     }
 
     public int getRunTime() {
+        ensureDecoded();
         return gRunTime;
     }
 
     public int getTimeToRun() {
+        ensureDecoded();
         return gTimeToRun;
     }
 
     public boolean isActive() {
+        ensureDecoded();
         return gActive;
     }
 
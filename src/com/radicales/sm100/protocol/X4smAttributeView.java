@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * XML For Smart Mist Attribute View
+ * Flyweight view of a name or value inside a received frame. Decoders compare
+ * and convert the bytes in place, a String is only created by toString().
+ * Characters are the raw bytes of the frame, which is exact for the ASCII
+ * names, numbers and keywords the protocol uses. A view is only valid while
+ * the frame buffer it points into is not reused.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class X4smAttributeView implements CharSequence {
+
+    private byte[] gBuffer;
+    private int gOffset;
+    private int gLength;
+
+    public X4smAttributeView() {
+        gBuffer = null;
+        gOffset = 0;
+        gLength = 0;
+    }
+
+    public X4smAttributeView( byte[] Buffer, int Offset, int Length ) {
+        set(Buffer, Offset, Length);
+    }
+
+    /**
+     * Point the view at another byte range
+     * @return This view
+     */
+    public X4smAttributeView set( byte[] Buffer, int Offset, int Length ) {
+        gBuffer = Buffer;
+        gOffset = Offset;
+        gLength = Length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return gLength;
+    }
+
+    @Override
+    public char charAt( int Index ) {
+        if((Index < 0) || (Index >= gLength)) {
+            throw new IndexOutOfBoundsException("Index " + Index);
+        }
+        return (char)(gBuffer[gOffset + Index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence( int Start, int End ) {
+        if((Start < 0) || (End > gLength) || (Start > End)) {
+            throw new IndexOutOfBoundsException("Range " + Start + "-" + End);
+        }
+        return new X4smAttributeView(gBuffer, gOffset + Start, End - Start);
+    }
+
+    /**
+     * Compare with a text
+     * @param Value ASCII text
+     * @return True if the view holds exactly the text
+     */
+    public boolean is( String Value ) {
+        if(Value.length() != gLength) {
+            return false;
+        }
+        for(int i=0; i<gLength; i++) {
+            if((gBuffer[gOffset + i] & 0xff) != Value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare with bytes kept from an earlier view
+     * @param Value Bytes to compare with
+     * @param Length Number of bytes, -1 never matches
+     * @return True if the view holds exactly the bytes
+     */
+    public boolean contentEquals( byte[] Value, int Length ) {
+        if((Value == null) || (Length != gLength)) {
+            return false;
+        }
+        for(int i=0; i<gLength; i++) {
+            if(gBuffer[gOffset + i] != Value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash of the bytes of the view, equal to hash() over the same bytes
+     */
+    public int hash() {
+        return hash(gBuffer, gOffset, gLength);
+    }
+
+    /**
+     * FNV-1a hash of a byte range
+     */
+    public static int hash( byte[] Buffer, int Offset, int Length ) {
+        int h = 0x811c9dc5;
+        for(int i=0; i<Length; i++) {
+            h = (h ^ (Buffer[Offset + i] & 0xff)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Copy the bytes of the view
+     * @param Into Array to copy into, replaced if it is too small or null
+     * @return Array holding the bytes from index 0
+     */
+    public byte[] copyTo( byte[] Into ) {
+        byte[] b = Into;
+        if((b == null) || (b.length < gLength)) {
+            b = new byte[Math.max(gLength, 32)];
+        }
+        System.arraycopy(gBuffer, gOffset, b, 0, gLength);
+        return b;
+    }
+
+    /**
+     * Parse a decimal number
+     * @throws NumberFormatException If the view is not a number
+     */
+    public int parseInt() {
+        long v = parseLong(10, 0, gLength);
+        if((v < Integer.MIN_VALUE) || (v > Integer.MAX_VALUE)) {
+            throw new NumberFormatException("Out of range " + toString());
+        }
+        return (int)v;
+    }
+
+    /**
+     * Parse a number the way Long.decode does, 0x and # prefix hex,
+     * a leading 0 octal
+     * @throws NumberFormatException If the view is not a number
+     */
+    public long decodeLong() {
+        int i = 0;
+        boolean neg = false;
+        if((gLength > 0) && ((gBuffer[gOffset] == '-') || (gBuffer[gOffset] == '+'))) {
+            neg = (gBuffer[gOffset] == '-');
+            i++;
+        }
+        int radix = 10;
+        if((gLength - i > 2) && (gBuffer[gOffset + i] == '0') && ((gBuffer[gOffset + i + 1] | 0x20) == 'x')) {
+            radix = 16;
+            i += 2;
+        }
+        else if((gLength - i > 1) && (gBuffer[gOffset + i] == '#')) {
+            radix = 16;
+            i++;
+        }
+        else if((gLength - i > 1) && (gBuffer[gOffset + i] == '0')) {
+            radix = 8;
+            i++;
+        }
+        long v = parseLong(radix, i, gLength);
+        return neg ? -v : v;
+    }
+
+    private long parseLong( int Radix, int Start, int End ) {
+        int i = Start;
+        boolean neg = false;
+        if((i < End) && (Radix == 10) && ((gBuffer[gOffset + i] == '-') || (gBuffer[gOffset + i] == '+'))) {
+            neg = (gBuffer[gOffset + i] == '-');
+            i++;
+        }
+        if(i >= End) {
+            throw new NumberFormatException("Not a number \"" + toString() + "\"");
+        }
+        long v = 0;
+        for(; i<End; i++) {
+            int d = Character.digit((char)(gBuffer[gOffset + i] & 0xff), Radix);
+            if(d < 0) {
+                throw new NumberFormatException("Not a number \"" + toString() + "\"");
+            }
+            v = (v * Radix) + d;
+        }
+        return neg ? -v : v;
+    }
+
+    /**
+     * Number of fields in a separated list, trailing empty fields are not
+     * counted, like String.split does
+     */
+    public int count( char Separator ) {
+        if(gLength == 0) {
+            return 1;
+        }
+        int end = gLength;
+        while((end > 0) && (gBuffer[gOffset + end - 1] == Separator)) {
+            end--;
+        }
+        if(end == 0) {
+            return 0;
+        }
+        int fields = 1;
+        for(int i=0; i<end; i++) {
+            if(gBuffer[gOffset + i] == Separator) {
+                fields++;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Point a view at one field of a separated list
+     * @param Index Field index
+     * @param Separator Field separator
+     * @param Into View to point at the field
+     * @return Into, empty if there is no such field
+     */
+    public X4smAttributeView field( int Index, char Separator, X4smAttributeView Into ) {
+        int n = 0;
+        int start = 0;
+        for(int i=0; i<=gLength; i++) {
+            if((i == gLength) || (gBuffer[gOffset + i] == Separator)) {
+                if(n == Index) {
+                    return Into.set(gBuffer, gOffset + start, i - start);
+                }
+                n++;
+                start = i + 1;
+            }
+        }
+        return Into.set(gBuffer, gOffset + gLength, 0);
+    }
+
+    /**
+     * Materialise the text, decoding UTF-8 and XML character references
+     */
+    @Override
+    public String toString() {
+        if(gLength == 0) {
+            return "";
+        }
+        String s = new String(gBuffer, gOffset, gLength, StandardCharsets.UTF_8);
+        if(s.indexOf('&') < 0) {
+            return s;
+        }
+        return unescape(s);
+    }
+
+    private static String unescape( String Text ) {
+        StringBuilder sb = new StringBuilder(Text.length());
+        int i = 0;
+        while(i < Text.length()) {
+            char c = Text.charAt(i);
+            int semi = (c == '&') ? Text.indexOf(';', i) : -1;
+            if(semi < 0) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            String ref = Text.substring(i + 1, semi);
+            if(ref.equals("amp")) {
+                sb.append('&');
+            }
+            else if(ref.equals("lt")) {
+                sb.append('<');
+            }
+            else if(ref.equals("gt")) {
+                sb.append('>');
+            }
+            else if(ref.equals("quot")) {
+                sb.append('"');
+            }
+            else if(ref.equals("apos")) {
+                sb.append('\'');
+            }
+            else if(ref.startsWith("#") && (codePoint(ref) >= 0)) {
+                sb.appendCodePoint(codePoint(ref));
+            }
+            else {
+                // unknown or malformed references are kept as they are
+                sb.append(Text, i, semi + 1);
+            }
+            i = semi + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decode a numeric character reference
+     * @param Ref Reference without the ampersand and semicolon, for example #x41
+     * @return Code point, -1 if the reference is not a valid character
+     */
+    private static int codePoint( String Ref ) {
+        boolean hex = Ref.startsWith("#x") || Ref.startsWith("#X");
+        int start = hex ? 2 : 1;
+        int radix = hex ? 16 : 10;
+        if(start >= Ref.length()) {
+            return -1;
+        }
+        int cp = 0;
+        for(int i=start; i<Ref.length(); i++) {
+            int d = Character.digit(Ref.charAt(i), radix);
+            if(d < 0) {
+                return -1;
+            }
+            cp = (cp * radix) + d;
+            if(!Character.isValidCodePoint(cp)) {
+                return -1;
+            }
+        }
+        return cp;
+    }
+
+}
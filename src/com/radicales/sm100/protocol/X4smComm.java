@@ -16,11 +16,18 @@
  */
 package com.radicales.sm100.protocol;
 
+import com.radicales.cal.CalBufferPool;
 import com.radicales.cal.CalDriver;
 import com.radicales.cal.CalDriverEvent;
 import com.radicales.cal.CalDriverException;
+import com.radicales.cal.CalDriverFactory;
+import com.radicales.cal.CalFrameHandler;
+import com.radicales.cal.CalFrameRing;
 import com.radicales.cal.net.TCPClient;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Calendar;
@@ -36,31 +43,165 @@ import java.util.Calendar;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Optional recycling of received messages.
+ * <b>1.2 19/10/2026</b><br>
+ * Optional receive pipeline with separate parse workers.
+ * <b>1.3 19/10/2026</b><br>
+ * Messages are stamped when they are written.
+ * <b>1.4 19/10/2026</b><br>
+ * Optional journal of all frames sent and received.
  */
 public class X4smComm implements CalDriverEvent, Runnable {
 
+    private static final int FRAME_SIZE = 4096;
+    private static final int RING_SIZE = 16384;
+
     private String gName;
     private String gIpAddress;
     private int gPort;
-    private TCPClient gDriver;
+    private CalDriver gDriver;
+    private CalDriverFactory gFactory;
     private Thread gThread;
     private boolean gRunning;
     private boolean gDecode;
-    private byte[] gBuffer;
     private List<X4smEvent> gEventListeners;
+    private volatile X4smMessageRecycler gRecycler;
+    private X4smPipeline gPipeline;
+    private volatile X4smPipeline.Worker gWorker;
+    private volatile CalFrameRing gRing;
+    private volatile X4smJournal gJournal;
+    // only the thread parsing for this connection counts
+    private volatile long gParsed;
+    private final CalFrameHandler gDispatcher = new CalFrameHandler() {
+        @Override
+        public void frameReceived( byte[] Buffer, int Offset, int Length ) {
+            ParsePacket(Buffer, Offset, Length);
+        }
+    };
 
     public X4smComm( String IpAddress, int Port ) {
+        this(IpAddress, Port, new TCPClient(IpAddress, Port), null);
+    }
+
+    /**
+     * Constructor of a communication object over an existing driver,
+     * for example a gateway channel.
+     *
+     * @param Driver Driver the device is reached through
+     */
+    public X4smComm( CalDriver Driver ) {
+        this(null, 0, Driver, null);
+    }
+
+    /**
+     * Constructor of a communication object over any transport.
+     * A new driver is created by the factory every time communication starts.
+     *
+     * @param Address Address of the device, passed to the factory
+     * @param Port Port of the device, passed to the factory
+     * @param Factory Factory creating the driver
+     */
+    public X4smComm( String Address, int Port, CalDriverFactory Factory ) {
+        this(Address, Port, null, Factory);
+    }
+
+    private X4smComm( String Address, int Port, CalDriver Driver, CalDriverFactory Factory ) {
         gName = "X4smComm";
-        gBuffer = new byte[1001];
-        gIpAddress = IpAddress;
+        gIpAddress = Address;
         gPort = Port;
-        gDriver = new TCPClient(IpAddress, Port);
-        gEventListeners = new ArrayList();
+        gDriver = Driver;
+        gFactory = Factory;
+        gEventListeners = new ArrayList<>();
     }
 
     public void setIpAddress( String Value ) {
         gIpAddress = Value;
-        gDriver.setIpAddress(Value);
+        if(gDriver instanceof TCPClient) {
+            ((TCPClient)gDriver).setIpAddress(Value);
+        }
+    }
+
+    /**
+     * Enable recycling of received messages.
+     * The connection then reuses one instance of the frame and of the high
+     * rate status messages, and skips the per packet trace. Messages and
+     * arrays passed to listeners are only valid during the event call, see
+     * X4smMessageRecycler. Without recycling every received packet is
+     * copied into a message of its own that listeners may keep, so only
+     * the recycling receive path is free of allocations.
+     *
+     * @param Value True to recycle messages
+     */
+    public void setRecycling( boolean Value ) {
+        gRecycler = Value ? new X4smMessageRecycler() : null;
+    }
+
+    public boolean isRecycling() {
+        return gRecycler != null;
+    }
+
+    /**
+     * Hand parsing and event dispatch to a receive pipeline.
+     * The connection thread then only splits frames and publishes them,
+     * listeners are called on a worker thread of the pipeline. A running
+     * connection is stopped first.
+     *
+     * @param Pipeline Pipeline to attach to, null to parse on the connection thread
+     * @param RingSize Bytes of frames that can wait for the worker
+     */
+    public synchronized void setPipeline( X4smPipeline Pipeline, int RingSize ) {
+        Stop();
+        if(gPipeline != null) {
+            gPipeline.detach(this);
+        }
+        gPipeline = Pipeline;
+        gWorker = null;
+        gRing = null;
+        if(Pipeline != null) {
+            gRing = new CalFrameRing(RingSize);
+            gWorker = Pipeline.attach(this);
+        }
+    }
+
+    public void setPipeline( X4smPipeline Pipeline ) {
+        setPipeline(Pipeline, RING_SIZE);
+    }
+
+    /**
+     * Number of frames dropped because the pipeline fell behind
+     */
+    public long getDroppedFrames() {
+        CalFrameRing r = gRing;
+        return (r == null) ? 0 : r.getDropped() + r.getOversize();
+    }
+
+    /**
+     * Record all frames sent and received in a journal
+     * @param Journal Journal of this connection, null to stop recording
+     */
+    public void setJournal( X4smJournal Journal ) {
+        gJournal = Journal;
+    }
+
+    public X4smJournal getJournal() {
+        return gJournal;
+    }
+
+    public CalDriver getDriver() {
+        return gDriver;
+    }
+
+    /**
+     * Replace the driver the device is reached through.
+     * A running connection is stopped first.
+     *
+     * @param Driver New driver
+     */
+    public synchronized void setDriver( CalDriver Driver ) {
+        Stop();
+        gDriver = Driver;
+        gFactory = null;
     }
 
     public boolean Start() {
@@ -68,6 +209,17 @@ public class X4smComm implements CalDriverEvent, Runnable {
           return false;
        }
 
+        if(gFactory != null) {
+            try {
+                gDriver = gFactory.createDriver(gIpAddress, gPort);
+            } catch (CalDriverException ex) {
+                return false;
+            }
+        }
+        if(gDriver == null) {
+            return false;
+        }
+
         try {
             gDriver.Open();
             gDriver.Start();
@@ -204,80 +356,231 @@ public class X4smComm implements CalDriverEvent, Runnable {
 
     @Override
     public void DriverEventRead(byte[] Buffer, int Length) {
-        throw new UnsupportedOperationException("Not supported yet.");
     }
 
     @Override
     public void DriverEventWrite(byte[] Buffer, int Lenght) {
-        throw new UnsupportedOperationException("Not supported yet.");
     }
 
     @Override
     public void DriverEventRun() {
-        throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * Driver received data, it is picked up by the blocking read
+     */
     @Override
     public void DriverEventData() {
-        throw new UnsupportedOperationException("Not supported yet.");
     }
 
     @Override
     public void DriverEventNotify(int Id, int Value) {
-        throw new UnsupportedOperationException("Not supported yet.");
     }
 
     public synchronized void sendMessage( X4smMessage Message ) throws CalDriverException {
-        byte[] buf = Message.getData().getBytes();
-        this.gDriver.Write(buf);
+        long now = System.currentTimeMillis();
+        Message.stamp(now);
+        String data = Message.getData();
+        CalBufferPool pool = CalBufferPool.getDefault();
+        ByteBuffer buf = pool.acquire(data.length() * 3);
+        try {
+            int len = encode(data, buf);
+            X4smJournal journal = gJournal;
+            if(journal != null) {
+                journal.append(now, X4smJournal.DIRECTION_OUT, buf.array(), 0, len);
+            }
+            this.gDriver.Write(buf.array(), len);
+        } finally {
+            pool.release(buf);
+        }
     }
 
     /**
-     * Process incoming characters.
-     * Will look for # to start the packet and \r\n to end the packet.
-     * Packet will then be forwarded to the packet parser.
+     * Send several messages with a single driver write
+     * @param Messages Messages in the order they must be sent
+     * @throws CalDriverException
      */
-    private void Process( byte[] Buffer, int Length ) {
-        int i = 0;
-        byte[] b = new byte[Length];
-        System.arraycopy(Buffer, 0, b, 0, Length);
-        String st = new String(b);
-        String[] stp = st.split("\r\n");
-
-        for(String s : stp) {
-            System.out.println("X4SM PROCESS[" + s + "]");
-            X4smMessage rbd = new X4smMessage(s);
-            X4smMessage pm;
-            try {
-                pm = rbd.parseData();
-                if(pm != null) {
-                    pm.fireEvent(gEventListeners);
+    public synchronized void sendMessages( List<X4smMessage> Messages ) throws CalDriverException {
+        long now = System.currentTimeMillis();
+        int size = 0;
+        for(int i=0; i<Messages.size(); i++) {
+            size += Messages.get(i).getData().length() * 3;
+        }
+        CalBufferPool pool = CalBufferPool.getDefault();
+        ByteBuffer buf = pool.acquire(size);
+        try {
+            X4smJournal journal = gJournal;
+            for(int i=0; i<Messages.size(); i++) {
+                Messages.get(i).stamp(now);
+                int start = buf.position();
+                encode(Messages.get(i).getData(), buf);
+                if(journal != null) {
+                    journal.append(now, X4smJournal.DIRECTION_OUT, buf.array(), start, buf.position() - start);
                 }
-            } catch (X4smException ex) {
-                System.out.println("Message parse error: " + ex.getMessage());
             }
+            this.gDriver.Write(buf.array(), buf.position());
+        } finally {
+            pool.release(buf);
+        }
+    }
+
+    /**
+     * Encode a message into a send buffer.
+     * Messages are plain ASCII XML and are copied byte by byte, only text
+     * outside ASCII goes through the UTF-8 encoder. The buffer must hold
+     * three bytes per character.
+     *
+     * @param Data Message text
+     * @param Buffer Buffer to append to
+     * @return Number of bytes appended
+     */
+    private static int encode( String Data, ByteBuffer Buffer ) {
+        int start = Buffer.position();
+        int n = Data.length();
+        for(int i=0; i<n; i++) {
+            char c = Data.charAt(i);
+            if(c >= 0x80) {
+                Buffer.position(start);
+                Buffer.put(Data.getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            Buffer.put((byte)c);
+        }
+        return Buffer.position() - start;
+    }
+
+    /**
+     * Process incoming characters.
+     * Received data is collected in the frame buffer, every line ending in
+     * \r\n is a packet. Data ending in the closing > of an element is a
+     * packet as well, for devices that do not terminate their last message.
+     * Packets are then forwarded to the packet parser.
+     */
+    private void Process( ByteBuffer Frame, byte[] Buffer, int Length ) {
+        if(Frame.remaining() < Length) {
+            System.out.println("X4SM frame overflow, " + Frame.position() + " bytes dropped");
+            Frame.clear();
+        }
+        Frame.put(Buffer, 0, Length);
+
+        byte[] b = Frame.array();
+        int end = Frame.position();
+        int start = 0;
+        for(int i=start; i<end; i++) {
+            if((b[i] == '\n') && (i > start) && (b[i - 1] == '\r')) {
+                ProcessPacket(b, start, i - 1 - start);
+                start = i + 1;
+            }
+        }
+        if((start < end) && (b[end - 1] == '>')) {
+            ProcessPacket(b, start, end - start);
+            start = end;
+        }
+
+        System.arraycopy(b, start, b, 0, end - start);
+        Frame.position(end - start);
+    }
+
+    private void ProcessPacket( byte[] Buffer, int Offset, int Length ) {
+        if(Length <= 0) {
+            return;
+        }
+        X4smJournal journal = gJournal;
+        if(journal != null) {
+            journal.append(X4smJournal.DIRECTION_IN, Buffer, Offset, Length);
+        }
+        CalFrameRing ring = gRing;
+        if(ring != null) {
+            if(ring.offer(Buffer, Offset, Length)) {
+                gWorker.wake();
+            }
+            else {
+                System.out.println(gName + ": Pipeline full, frame dropped");
+            }
+            return;
+        }
+        ParsePacket(Buffer, Offset, Length);
+    }
+
+    /**
+     * Take frames from the pipeline ring, called by the pipeline worker
+     * @param Max Largest number of frames to take
+     * @return Number of frames parsed
+     */
+    int drainFrames( int Max ) {
+        CalFrameRing ring = gRing;
+        return (ring == null) ? 0 : ring.drain(gDispatcher, Max);
+    }
+
+    boolean hasFrames() {
+        CalFrameRing ring = gRing;
+        return (ring != null) && !ring.isEmpty();
+    }
+
+    private void ParsePacket( byte[] Buffer, int Offset, int Length ) {
+        X4smMessageRecycler recycler = gRecycler;
+        X4smMessage rbd;
+        if(recycler != null) {
+            // parsed in place, valid until the frame buffer moves on
+            rbd = recycler.getFrame(Buffer, Offset, Length);
+        }
+        else {
+            // the frame buffer is reused, the message gets its own copy of the line
+            rbd = new X4smMessage(Arrays.copyOfRange(Buffer, Offset, Offset + Length), 0, Length);
+            System.out.println("X4SM PROCESS[" + rbd.getData() + "]");
+        }
+        X4smMessage pm;
+        try {
+            pm = rbd.parseData(recycler);
+            if(pm != null) {
+                pm.fireEvent(gEventListeners);
+            }
+        } catch (X4smException ex) {
+            System.out.println("Message parse error: " + ex.getMessage());
         }
+        gParsed++;
+    }
+
+    /**
+     * Number of received packets parsed and dispatched to the listeners
+     */
+    public long getParsedFrames() {
+        return gParsed;
     }
 
     @Override
     public void run() {
-        byte[] buffer = new byte[1000];
+        CalBufferPool pool = CalBufferPool.getDefault();
+        ByteBuffer rx = pool.acquire(1024);
+        ByteBuffer frame = pool.acquire(FRAME_SIZE);
         int len;
 
         System.out.println(gName + "::Process - Starting");
 
-        while(this.gRunning) {
-            try {
-                len = this.gDriver.Read(buffer);
-                if(len > 0) {
-                    this.Process(buffer, len);
+        try {
+            while(this.gRunning) {
+                try {
+                    len = this.gDriver.Read(rx.array(), rx.capacity());
+                    if(len > 0) {
+                        this.Process(frame, rx.array(), len);
+                        continue;
+                    }
+                    if(len < 0) {
+                        // the driver stays down until the connection is stopped
+                        System.out.println(gName + "::Process - End of stream");
+                        break;
+                    }
+                } catch (CalDriverException ex) {
+                }
+                // only back off when the driver returned without data
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
                 }
-            } catch (CalDriverException ex) {
-            }
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException ex) {
             }
+        } finally {
+            pool.release(rx);
+            pool.release(frame);
         }
 
         System.out.println(gName + "::Process - Stopping");
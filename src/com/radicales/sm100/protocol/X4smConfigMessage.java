@@ -29,46 +29,67 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
  */
 public class X4smConfigMessage extends X4smMessage {
 
-    private List<X4smAttribute> gAttributes;
+    private int gFilenameIndex;
     private String gFilename;
     private int gZones;
     private int gPrograms;
 
     public X4smConfigMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_CONFIG);
-        gAttributes = Attributes;
-        gFilename = "Uknown.csv";
+        this(X4smTokenizer.fromAttributes("Config", Attributes));
+    }
+
+    public X4smConfigMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_CONFIG, Tokens);
+        gFilenameIndex = -1;
+        gFilename = null;
         gZones = -1;
         gPrograms = -1;
     }
 
     public void parse() throws X4smException  {
+        decode();
+    }
 
-        for(X4smAttribute attr : gAttributes) {
-            if(attr.Name.matches("filename")) {
-                gFilename = attr.Value;
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = new X4smAttributeView();
+
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
+            if(tokens.getName(a, v).is("filename")) {
+                gFilenameIndex = a;
             }
-            else if(attr.Name.matches("zones")) {
-                gZones = Integer.parseInt(attr.Value);
+            else if(v.is("zones")) {
+                gZones = tokens.getValue(a, v).parseInt();
             }
-            else if(attr.Name.matches("programs")) {
-                gPrograms = Integer.parseInt(attr.Value);
+            else if(v.is("programs")) {
+                gPrograms = tokens.getValue(a, v).parseInt();
             }
         }
     }
 
     public String getFilename() {
+        ensureDecoded();
+        if(gFilename == null) {
+            gFilename = getString(gFilenameIndex, "Uknown.csv");
+        }
         return gFilename;
     }
 
     public int getPrograms() {
+        ensureDecoded();
         return gPrograms;
     }
 
     public int getZones() {
+        ensureDecoded();
         return gZones;
     }
 
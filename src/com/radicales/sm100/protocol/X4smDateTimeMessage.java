@@ -31,61 +31,67 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
  */
 public class X4smDateTimeMessage extends X4smMessage {
 
-    private List<X4smAttribute> gAttributes;
     private Calendar gCalendar;
     private Date gDateTime;
 
     public X4smDateTimeMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_DATETIME);
-        gAttributes = Attributes;
+        this(X4smTokenizer.fromAttributes("DateTime", Attributes));
+    }
+
+    public X4smDateTimeMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_DATETIME, Tokens);
         gDateTime = new Date();
         gCalendar = Calendar.getInstance();
     }
 
     public Date getDateTime() {
+        ensureDecoded();
         return gDateTime;
     }
 
     public Calendar getCalender() {
+        ensureDecoded();
         return gCalendar;
     }
 
-    private void parseTime( String Time ) {
-        int s1 = Time.indexOf(":");
-        int s2 = Time.indexOf(":", s1 + 1);
-        String h = Time.substring(0, s1);
-        String m = Time.substring(s1 + 1, s2);
-        String s = Time.substring(s2 + 1);
-        gCalendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(h));
-        gCalendar.set(Calendar.MINUTE, Integer.parseInt(m));
-        gCalendar.set(Calendar.SECOND, Integer.parseInt(s));
+    private void parseTime( X4smAttributeView Time ) {
+        X4smAttributeView f = new X4smAttributeView();
+        gCalendar.set(Calendar.HOUR_OF_DAY, Time.field(0, ':', f).parseInt());
+        gCalendar.set(Calendar.MINUTE, Time.field(1, ':', f).parseInt());
+        gCalendar.set(Calendar.SECOND, Time.field(2, ':', f).parseInt());
     }
 
-    private void parseDate( String Date ) {
-        int s1 = Date.indexOf("/");
-        int s2 = Date.indexOf("/", s1 + 1);
-        int s3 = Date.indexOf("/", s2 + 1);
-        String d = Date.substring(0, s1);
-        String wd = Date.substring(s1 + 1, s2);
-        String m = Date.substring(s2 + 1, s3);
-        String y = Date.substring(s3 + 1);
-        gCalendar.set(Calendar.DAY_OF_MONTH, Integer.parseInt(d));
-        gCalendar.set(Calendar.MONTH, Integer.parseInt(m));
-        gCalendar.set(Calendar.YEAR, Integer.parseInt(y));
+    private void parseDate( X4smAttributeView Date ) {
+        // day/weekday/month/year
+        X4smAttributeView f = new X4smAttributeView();
+        gCalendar.set(Calendar.DAY_OF_MONTH, Date.field(0, '/', f).parseInt());
+        gCalendar.set(Calendar.MONTH, Date.field(2, '/', f).parseInt());
+        gCalendar.set(Calendar.YEAR, Date.field(3, '/', f).parseInt());
     }
 
     public void parse() throws X4smException  {
+        decode();
+    }
+
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = new X4smAttributeView();
 
-        for(X4smAttribute attr : gAttributes) {
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
 
-            if(attr.Name.matches("date")) {
-                parseDate(attr.Value);
+            if(tokens.getName(a, v).is("date")) {
+                parseDate(tokens.getValue(a, v));
             }
-            else if(attr.Name.matches("time")) {
-                parseTime(attr.Value);
+            else if(v.is("time")) {
+                parseTime(tokens.getValue(a, v));
             }
         }
 
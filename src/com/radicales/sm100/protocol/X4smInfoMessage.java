@@ -29,55 +29,110 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
  */
 public class X4smInfoMessage extends X4smMessage {
 
-    private List<X4smAttribute> gAttributes;
+    private int gNameIndex;
+    private int gFamilyIndex;
+    private int gRevisionIndex;
     private String gName;
     private String gFamily;
     private String gRevision;
     private int gChannels;
 
     public X4smInfoMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_INFO);
-        gAttributes = Attributes;
+        this(X4smTokenizer.fromAttributes("DeviceInfo", Attributes));
+    }
+
+    public X4smInfoMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_INFO, Tokens);
+        gNameIndex = -1;
+        gFamilyIndex = -1;
+        gRevisionIndex = -1;
     }
 
     public void parse() throws X4smException  {
+        decode();
+    }
+
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = new X4smAttributeView();
 
-        for(X4smAttribute attr : gAttributes) {
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
 
-            if(attr.Name.matches("name")) {
-                gName = attr.Value;
+            if(tokens.getName(a, v).is("name")) {
+                gNameIndex = a;
             }
-            else if(attr.Name.matches("family")) {
-                gFamily = attr.Value;
+            else if(v.is("family")) {
+                gFamilyIndex = a;
             }
-            else if(attr.Name.matches("revision")) {
-                gRevision = attr.Value;
+            else if(v.is("revision")) {
+                gRevisionIndex = a;
             }
-            else if(attr.Name.matches("channels")) {
-                gChannels = Integer.parseInt(attr.Value);
+            else if(v.is("channels")) {
+                gChannels = tokens.getValue(a, v).parseInt();
             }
         }
     }
 
     public String getName() {
+        ensureDecoded();
+        if(gName == null) {
+            gName = getString(gNameIndex, null);
+        }
         return gName;
     }
 
     public int getChannels() {
+        ensureDecoded();
         return gChannels;
     }
 
     public String getFamily() {
+        ensureDecoded();
+        if(gFamily == null) {
+            gFamily = getString(gFamilyIndex, null);
+        }
         return gFamily;
     }
 
     public String getRevision() {
+        ensureDecoded();
+        if(gRevision == null) {
+            gRevision = getString(gRevisionIndex, null);
+        }
         return gRevision;
     }
 
+    /**
+     * Decode a single DeviceInfo line
+     * @param Line Message text without the line terminator
+     * @return Information message, null if the line is not a valid DeviceInfo message
+     */
+    public static X4smInfoMessage decode( String Line ) {
+        String s = Line.trim();
+        if(!s.startsWith("<DeviceInfo")) {
+            return null;
+        }
+        try {
+            X4smMessage m = new X4smMessage(s).parseData();
+            if(m != null) {
+                m.decode();
+            }
+            if((m instanceof X4smInfoMessage) && (((X4smInfoMessage)m).getName() != null)) {
+                return (X4smInfoMessage)m;
+            }
+        } catch (X4smException ex) {
+        }
+        return null;
+    }
+
 
 
 }
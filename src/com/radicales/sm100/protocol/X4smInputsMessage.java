@@ -29,33 +29,68 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
+ * <b>1.3 19/10/2026</b><br>
+ * Instances can be recycled for the next frame.
  */
 public class X4smInputsMessage extends X4smMessage {
 
-    private final List<X4smAttribute> gAttributes;
     private boolean[] gStatus;
+    private boolean gRecycled;
+    private boolean[] gStatusCache;
+    private final X4smAttributeView gView = new X4smAttributeView();
+    private final X4smAttributeView gField = new X4smAttributeView();
 
     public X4smInputsMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_INPUTS);
-        gAttributes = Attributes;
+        this(X4smTokenizer.fromAttributes("Inputs", Attributes));
+    }
+
+    public X4smInputsMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_INPUTS, Tokens);
+
+    }
 
+    @Override
+    protected void recycle( X4smTokenizer Tokens ) {
+        super.recycle(Tokens);
+        gRecycled = true;
+        gStatus = null;
     }
 
     public void parse() throws X4smException  {
+        decode();
+    }
+
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = gView;
+        X4smAttributeView f = gField;
 
-        for(X4smAttribute attr : gAttributes) {
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
 
-            if(attr.Name.matches("status")) {
-                String[] sa = attr.Value.split(",");
-                gStatus = new boolean[sa.length];
-                for(int i=0; i<sa.length; i++) {
-                    gStatus[i] = sa[i].matches("on");
+            if(tokens.getName(a, v).is("status")) {
+                tokens.getValue(a, v);
+                int n = v.count(',');
+                if(gRecycled && (gStatusCache != null) && (gStatusCache.length == n)) {
+                    gStatus = gStatusCache;
+                }
+                else {
+                    gStatus = new boolean[n];
+                    gStatusCache = gRecycled ? gStatus : null;
+                }
+                for(int i=0; i<gStatus.length; i++) {
+                    gStatus[i] = v.field(i, ',', f).is("on");
                 }
             }
         }
     }
 
     public boolean[] getStatus() {
+        ensureDecoded();
         return gStatus;
     }
 
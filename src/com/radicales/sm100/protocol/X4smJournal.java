@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * XML For Smart Mist Traffic Journal
+ * Records every frame of a connection in append only segment files, with
+ * the time it was sent or received and its direction. A segment is a
+ * memory mapped file of fixed size, appending a frame copies it into the
+ * mapping and never waits on the disk.
+ * <p>
+ * Segment files are named after the time of their first frame. A record
+ * is the frame length (int), the time in milliseconds (long), the
+ * direction (byte) and the frame bytes, a length of 0 ends the segment.
+ * Every INDEX_STEP bytes the time and offset of a record is kept, when a
+ * segment is full or too old the index is written next to it and the
+ * segment is compressed with gzip on a background thread. Segments left
+ * open by a crash get their index rebuilt from the records when sealed.
+ * <p>
+ * Closed segments are written to disk on a background thread. Optionally
+ * the next segment is created and mapped ahead of time on another, a
+ * segment change then only swaps the mapping and renames the prepared
+ * file. That doubles the mapped size of every journal and one thread
+ * prepares for all of them, so it is meant for a few busy connections.
+ * <p>
+ * A journal belongs to one connection, use a directory per device.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class X4smJournal {
+
+    public static final int DIRECTION_IN = 0;
+    public static final int DIRECTION_OUT = 1;
+    public static final int DIRECTION_TELEMETRY = 2;
+
+    static final int MAGIC = 0x58344a31;
+    static final int HEADER_SIZE = 4;
+    static final int RECORD_HEADER = 13;
+    static final int INDEX_STEP = 65536;
+    static final String SEGMENT = ".x4j";
+    static final String COMPRESSED = ".x4j.gz";
+    static final String INDEX = ".idx";
+    private static final String SPARE = ".spare";
+    private static final int PAGE_SIZE = 4096;
+
+    private static final ExecutorService gCompressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread( Runnable Task ) {
+            Thread t = new Thread(Task, "X4smJournal::Compress");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static final ExecutorService gPreparer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread( Runnable Task ) {
+            Thread t = new Thread(Task, "X4smJournal::Prepare");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final File gDirectory;
+    private int gSegmentSize;
+    private long gMaxAge;
+    private int gMaxSegments;
+    private boolean gCompress;
+
+    private File gFile;
+    private MappedByteBuffer gMap;
+    private long gSegmentStart;
+    private long gLastStart;
+    private int gNextIndex;
+    private long[] gIndexTimes = new long[64];
+    private int[] gIndexOffsets = new int[64];
+    private int gIndexCount;
+    private long gDropped;
+    private boolean gClosed;
+    private File gSpareFile;
+    private MappedByteBuffer gSpareMap;
+    private boolean gSparePending;
+    private boolean gPrepare;
+
+    /**
+     * Constructor of a journal
+     * @param Directory Directory of the segment files, created if needed
+     * @throws IOException
+     */
+    public X4smJournal( File Directory ) throws IOException {
+        if(!Directory.isDirectory() && !Directory.mkdirs()) {
+            throw new IOException("Can not create journal directory " + Directory);
+        }
+        gDirectory = Directory;
+        gSegmentSize = 1024 * 1024;
+        gMaxAge = 0;
+        gMaxSegments = 0;
+        gCompress = true;
+
+        // segments left open by an earlier run
+        for(File f : listSegments(Directory)) {
+            if(f.getName().endsWith(SEGMENT)) {
+                seal(f);
+            }
+        }
+        new File(Directory, "next" + SPARE).delete();
+    }
+
+    public File getDirectory() {
+        return gDirectory;
+    }
+
+    /**
+     * Set the size of new segment files
+     * @param Value Size in bytes
+     */
+    public synchronized void setSegmentSize( int Value ) {
+        gSegmentSize = Math.max(Value, 4096);
+    }
+
+    /**
+     * Set if the next segment is prepared ahead of time
+     * @param Value True to map and fault in the next segment in the background
+     */
+    public synchronized void setPrepare( boolean Value ) {
+        gPrepare = Value;
+        if(Value) {
+            prepareSpare();
+        }
+        else if(gSpareMap != null) {
+            discardSpare();
+        }
+    }
+
+    /**
+     * Set the time after which a segment is closed even if not full
+     * @param Value Age in milliseconds, 0 to only close full segments
+     */
+    public synchronized void setMaxAge( long Value ) {
+        gMaxAge = Value;
+    }
+
+    /**
+     * Set the number of segments kept, the oldest are deleted
+     * @param Value Number of segments, 0 to keep all
+     */
+    public synchronized void setMaxSegments( int Value ) {
+        gMaxSegments = Value;
+    }
+
+    /**
+     * Set if closed segments are compressed
+     */
+    public synchronized void setCompress( boolean Value ) {
+        gCompress = Value;
+    }
+
+    /**
+     * Number of frames not recorded, too large or lost to a file error
+     */
+    public synchronized long getDropped() {
+        return gDropped;
+    }
+
+    /**
+     * Record a frame
+     * @param Direction DIRECTION_IN, DIRECTION_OUT or DIRECTION_TELEMETRY
+     * @param Buffer Frame data
+     * @param Offset Start of the frame
+     * @param Length Length of the frame
+     * @return True if the frame was recorded
+     */
+    public boolean append( int Direction, byte[] Buffer, int Offset, int Length ) {
+        return append(System.currentTimeMillis(), Direction, Buffer, Offset, Length);
+    }
+
+    /**
+     * Record a received message with its raw frame
+     * @return True if the frame was recorded
+     */
+    public boolean append( int Direction, X4smMessage Message ) {
+        byte[] b = Message.getBuffer();
+        if(b == null) {
+            b = Message.getData().getBytes(StandardCharsets.UTF_8);
+            return append(Direction, b, 0, b.length);
+        }
+        return append(Direction, b, Message.getOffset(), Message.getLength());
+    }
+
+    /**
+     * Record a frame at a given time
+     * @return True if the frame was recorded
+     */
+    public synchronized boolean append( long Time, int Direction, byte[] Buffer, int Offset, int Length ) {
+        if(gClosed || (Length <= 0)) {
+            return false;
+        }
+        int size = RECORD_HEADER + Length;
+        if(size + 4 > gSegmentSize - HEADER_SIZE) {
+            gDropped++;
+            return false;
+        }
+
+        try {
+            if((gMap != null) && ((gMap.remaining() < size + 4) ||
+                    ((gMaxAge > 0) && (Time - gSegmentStart >= gMaxAge)))) {
+                rotate();
+            }
+            if(gMap == null) {
+                open(Time);
+            }
+        } catch (IOException ex) {
+            System.out.println("X4smJournal: " + ex.getMessage());
+            gDropped++;
+            return false;
+        }
+
+        int pos = gMap.position();
+        if(pos >= gNextIndex) {
+            addIndex(Time, pos);
+            gNextIndex = pos + INDEX_STEP;
+        }
+        gMap.putInt(Length);
+        gMap.putLong(Time);
+        gMap.put((byte)Direction);
+        gMap.put(Buffer, Offset, Length);
+        return true;
+    }
+
+    /**
+     * Write the mapped segment to disk
+     */
+    public synchronized void flush() {
+        if(gMap != null) {
+            gMap.force();
+        }
+    }
+
+    /**
+     * Close the current segment, no more frames are recorded
+     */
+    public synchronized void close() {
+        if(gClosed) {
+            return;
+        }
+        rotate();
+        gClosed = true;
+        if(gSpareMap != null) {
+            discardSpare();
+        }
+    }
+
+    private void discardSpare() {
+        final File f = gSpareFile;
+        gSpareFile = null;
+        gSpareMap = null;
+        gPreparer.execute(new Runnable() {
+            @Override
+            public void run() {
+                f.delete();
+            }
+        });
+    }
+
+    private void open( long Time ) throws IOException {
+        // segment names must be unique and ordered
+        long start = Math.max(Time, gLastStart + 1);
+        File f = new File(gDirectory, String.format("%019d", start) + SEGMENT);
+        MappedByteBuffer m = null;
+        if(gSpareMap != null) {
+            // the prepared segment only needs its name
+            if((gSpareMap.capacity() == gSegmentSize) && gSpareFile.renameTo(f)) {
+                m = gSpareMap;
+            }
+            else {
+                gSpareFile.delete();
+            }
+            gSpareFile = null;
+            gSpareMap = null;
+        }
+        if(m == null) {
+            m = map(f, gSegmentSize);
+        }
+        gFile = f;
+        gMap = m;
+        prepareSpare();
+        gMap.putInt(MAGIC);
+        gSegmentStart = start;
+        gLastStart = start;
+        gNextIndex = 0;
+        gIndexCount = 0;
+    }
+
+    /**
+     * Close the current segment, writing it to disk, its index, compression
+     * and trimming are done by the background thread
+     */
+    private void rotate() {
+        if(gMap == null) {
+            return;
+        }
+        if(gMap.remaining() >= 4) {
+            gMap.putInt(0);
+        }
+
+        final MappedByteBuffer map = gMap;
+        final File f = gFile;
+        final long[] times = Arrays.copyOf(gIndexTimes, gIndexCount);
+        final int[] offsets = Arrays.copyOf(gIndexOffsets, gIndexCount);
+        final boolean compress = gCompress;
+        final int keep = gMaxSegments;
+        final File dir = gDirectory;
+        gMap = null;
+        gFile = null;
+
+        gCompressor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(!f.exists()) {
+                    // already trimmed while waiting behind older segments
+                    return;
+                }
+                try {
+                    map.force();
+                    writeIndex(new File(dir, baseName(f) + INDEX), times, offsets);
+                    if(compress) {
+                        compress(f);
+                    }
+                } catch (IOException ex) {
+                    System.out.println("X4smJournal: Closing " + f.getName() + " failed (" + ex.getMessage() + ")");
+                }
+                trim(dir, keep);
+            }
+        });
+    }
+
+    /**
+     * Have the background thread create and map the next segment
+     */
+    private void prepareSpare() {
+        if(!gPrepare || gSparePending || (gSpareMap != null) || gClosed) {
+            return;
+        }
+        gSparePending = true;
+        final File f = new File(gDirectory, "next" + SPARE);
+        final int size = gSegmentSize;
+        // not queued behind the compression of closed segments
+        gPreparer.execute(new Runnable() {
+            @Override
+            public void run() {
+                MappedByteBuffer m = null;
+                try {
+                    m = map(f, size);
+                    // fault the pages in now instead of on the first appends
+                    for(int i=0; i<size; i+=PAGE_SIZE) {
+                        m.put(i, (byte)0);
+                    }
+                } catch (IOException ex) {
+                    System.out.println("X4smJournal: Preparing segment failed (" + ex.getMessage() + ")");
+                }
+                spareReady(f, m);
+            }
+        });
+    }
+
+    private synchronized void spareReady( File Spare, MappedByteBuffer Map ) {
+        gSparePending = false;
+        if(gClosed || !gPrepare || (Map == null)) {
+            Spare.delete();
+            return;
+        }
+        gSpareFile = Spare;
+        gSpareMap = Map;
+    }
+
+    private static MappedByteBuffer map( File Segment, int Size ) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(Segment, "rw")) {
+            raf.setLength(Size);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Size);
+        }
+    }
+
+    private void addIndex( long Time, int Offset ) {
+        if(gIndexCount == gIndexTimes.length) {
+            gIndexTimes = Arrays.copyOf(gIndexTimes, gIndexCount * 2);
+            gIndexOffsets = Arrays.copyOf(gIndexOffsets, gIndexCount * 2);
+        }
+        gIndexTimes[gIndexCount] = Time;
+        gIndexOffsets[gIndexCount] = Offset;
+        gIndexCount++;
+    }
+
+    /**
+     * Delete the oldest segments past the number kept
+     */
+    private static void trim( File Directory, int Keep ) {
+        if(Keep <= 0) {
+            return;
+        }
+        File[] segments = listSegments(Directory);
+        for(int i=0; i<segments.length - Keep; i++) {
+            new File(Directory, baseName(segments[i]) + INDEX).delete();
+            segments[i].delete();
+        }
+    }
+
+    /**
+     * Index and compress a segment left open in the background
+     */
+    private static void seal( final File Segment ) {
+        gCompressor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File index = new File(Segment.getParentFile(), baseName(Segment) + INDEX);
+                    if(!index.exists()) {
+                        rebuildIndex(Segment, index);
+                    }
+                    compress(Segment);
+                } catch (IOException ex) {
+                    System.out.println("X4smJournal: Compression of " + Segment.getName() + " failed (" + ex.getMessage() + ")");
+                }
+            }
+        });
+    }
+
+    private static void compress( File Segment ) throws IOException {
+        if(!Segment.exists()) {
+            return;
+        }
+        File gz = new File(Segment.getParentFile(), baseName(Segment) + COMPRESSED);
+        File tmp = new File(Segment.getParentFile(), gz.getName() + ".tmp");
+        byte[] b = new byte[65536];
+
+        try (InputStream in = new FileInputStream(Segment);
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), b.length)) {
+            // only the used part, the record length 0 ends the data
+            long used = usedLength(Segment);
+            while(used > 0) {
+                int n = in.read(b, 0, (int)Math.min(b.length, used));
+                if(n < 0) {
+                    break;
+                }
+                out.write(b, 0, n);
+                used -= n;
+            }
+        }
+        if(!tmp.renameTo(gz)) {
+            tmp.delete();
+            throw new IOException("Can not rename " + tmp.getName());
+        }
+        Segment.delete();
+    }
+
+    /**
+     * Length of the recorded data of an uncompressed segment
+     */
+    static long usedLength( File Segment ) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(Segment, "r")) {
+            long len = raf.length();
+            long pos = HEADER_SIZE;
+            while(pos + RECORD_HEADER <= len) {
+                raf.seek(pos);
+                int n = raf.readInt();
+                if((n <= 0) || (pos + RECORD_HEADER + n > len)) {
+                    break;
+                }
+                pos += RECORD_HEADER + n;
+            }
+            return Math.min(pos + 4, len);
+        }
+    }
+
+    /**
+     * Write the index of a segment from its records, every INDEX_STEP bytes
+     * like append does
+     */
+    private static void rebuildIndex( File Segment, File Index ) throws IOException {
+        long[] times = new long[64];
+        int[] offsets = new int[64];
+        int count = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(Segment, "r")) {
+            long len = raf.length();
+            long pos = HEADER_SIZE;
+            long next = 0;
+            while(pos + RECORD_HEADER <= len) {
+                raf.seek(pos);
+                int n = raf.readInt();
+                if((n <= 0) || (pos + RECORD_HEADER + n > len)) {
+                    break;
+                }
+                if(pos >= next) {
+                    if(count == times.length) {
+                        times = Arrays.copyOf(times, count * 2);
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    times[count] = raf.readLong();
+                    offsets[count] = (int)pos;
+                    count++;
+                    next = pos + INDEX_STEP;
+                }
+                pos += RECORD_HEADER + n;
+            }
+        }
+        writeIndex(Index, Arrays.copyOf(times, count), Arrays.copyOf(offsets, count));
+    }
+
+    private static void writeIndex( File Index, long[] Times, int[] Offsets ) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(Index)))) {
+            for(int i=0; i<Times.length; i++) {
+                out.writeLong(Times[i]);
+                out.writeInt(Offsets[i]);
+            }
+        }
+    }
+
+    /**
+     * Segment files of a directory in time order
+     */
+    static File[] listSegments( File Directory ) {
+        File[] files = Directory.listFiles();
+        if(files == null) {
+            return new File[0];
+        }
+        int n = 0;
+        for(File f : files) {
+            String name = f.getName();
+            if(name.endsWith(SEGMENT) || name.endsWith(COMPRESSED)) {
+                // a segment being compressed exists twice, keep the plain one
+                if(name.endsWith(COMPRESSED) && new File(Directory, baseName(f) + SEGMENT).exists()) {
+                    continue;
+                }
+                files[n++] = f;
+            }
+        }
+        files = Arrays.copyOf(files, n);
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Name of a segment without its extension
+     */
+    static String baseName( File Segment ) {
+        String name = Segment.getName();
+        int i = name.indexOf('.');
+        return (i < 0) ? name : name.substring(0, i);
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * XML For Smart Mist Traffic Journal Reader
+ * Reads the frames of a journal directory in the order they were
+ * recorded, over all segments, compressed or not. A read can start at a
+ * time, the index of the segment is used to skip most of the frames
+ * before it.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class X4smJournalReader implements AutoCloseable {
+
+    private final File gDirectory;
+    private File[] gSegments;
+    private int gSegment;
+    private DataInputStream gIn;
+    private long gTime;
+    private int gDirection;
+    private byte[] gData = new byte[1024];
+    private int gLength;
+    private boolean gPending;
+
+    /**
+     * Constructor of a reader, positioned at the first frame
+     * @param Directory Journal directory
+     */
+    public X4smJournalReader( File Directory ) {
+        gDirectory = Directory;
+        gSegments = X4smJournal.listSegments(Directory);
+        gSegment = -1;
+    }
+
+    /**
+     * Position the reader at the first frame recorded at or after a time
+     * @param Time Time in milliseconds
+     * @throws IOException
+     */
+    public void seek( long Time ) throws IOException {
+        closeSegment();
+        gSegments = X4smJournal.listSegments(gDirectory);
+
+        // last segment started at or before the time
+        int s = 0;
+        for(int i=0; i<gSegments.length; i++) {
+            if(Long.parseLong(X4smJournal.baseName(gSegments[i])) <= Time) {
+                s = i;
+            }
+        }
+        if(gSegments.length == 0) {
+            gSegment = 0;
+            return;
+        }
+
+        openSegment(s, findOffset(gSegments[s], Time));
+        while(next()) {
+            if(gTime >= Time) {
+                // keep the frame for the next call
+                gPending = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move to the next frame
+     * @return False at the end of the journal
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if(gPending) {
+            gPending = false;
+            return true;
+        }
+
+        while(true) {
+            if(gIn == null) {
+                if(gSegment + 1 >= gSegments.length) {
+                    return false;
+                }
+                openSegment(gSegment + 1, X4smJournal.HEADER_SIZE);
+            }
+            if(readRecord()) {
+                return true;
+            }
+            closeSegment();
+        }
+    }
+
+    /**
+     * Time the current frame was recorded, in milliseconds
+     */
+    public long getTime() {
+        return gTime;
+    }
+
+    /**
+     * Direction of the current frame
+     * @return X4smJournal.DIRECTION_IN, DIRECTION_OUT or DIRECTION_TELEMETRY
+     */
+    public int getDirection() {
+        return gDirection;
+    }
+
+    /**
+     * Data of the current frame, reused by the next call to next
+     */
+    public byte[] getData() {
+        return gData;
+    }
+
+    public int getLength() {
+        return gLength;
+    }
+
+    /**
+     * Current frame as a received message
+     * @return Message with its own copy of the frame
+     */
+    public X4smMessage getMessage() {
+        byte[] b = new byte[gLength];
+        System.arraycopy(gData, 0, b, 0, gLength);
+        return new X4smMessage(b, 0, gLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+        gSegment = gSegments.length;
+    }
+
+    private boolean readRecord() throws IOException {
+        try {
+            int len = gIn.readInt();
+            if(len <= 0) {
+                return false;
+            }
+            gTime = gIn.readLong();
+            gDirection = gIn.readByte();
+            if(len > gData.length) {
+                gData = new byte[Math.max(len, gData.length * 2)];
+            }
+            gIn.readFully(gData, 0, len);
+            gLength = len;
+            return true;
+        } catch (EOFException ex) {
+            // a segment cut short by a crash
+            return false;
+        }
+    }
+
+    private void openSegment( int Index, long Offset ) throws IOException {
+        closeSegment();
+        gSegment = Index;
+        File f = gSegments[Index];
+        InputStream in = new FileInputStream(f);
+        try {
+            if(f.getName().endsWith(X4smJournal.COMPRESSED)) {
+                in = new GZIPInputStream(in, 65536);
+            }
+            gIn = new DataInputStream(new BufferedInputStream(in, 65536));
+            if(gIn.readInt() != X4smJournal.MAGIC) {
+                throw new IOException("Not a journal segment " + f.getName());
+            }
+            long skip = Offset - X4smJournal.HEADER_SIZE;
+            while(skip > 0) {
+                long n = gIn.skip(skip);
+                if(n <= 0) {
+                    break;
+                }
+                skip -= n;
+            }
+        } catch (IOException ex) {
+            in.close();
+            gIn = null;
+            throw ex;
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if(gIn != null) {
+            gIn.close();
+            gIn = null;
+        }
+    }
+
+    /**
+     * Offset of the last indexed frame recorded before a time
+     */
+    private long findOffset( File Segment, long Time ) throws IOException {
+        File index = new File(gDirectory, X4smJournal.baseName(Segment) + X4smJournal.INDEX);
+        long offset = X4smJournal.HEADER_SIZE;
+        if(!index.exists()) {
+            return offset;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+            while(true) {
+                long t = in.readLong();
+                int o = in.readInt();
+                if(t >= Time) {
+                    break;
+                }
+                offset = o;
+            }
+        } catch (EOFException ex) {
+            // end of the index
+        }
+        return offset;
+    }
+
+}
@@ -16,21 +16,9 @@
  */
 package com.radicales.sm100.protocol;
 
-import com.sun.org.apache.xerces.internal.parsers.DOMParser;
-import java.io.IOException;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 /**
  * XML For Smart Mist Message Base Class
@@ -43,6 +31,16 @@ import org.xml.sax.SAXException;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Frames are tokenized in place instead of through a DOM document.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded on first use.
+ * <b>1.3 19/10/2026</b><br>
+ * Messages can be recycled, see X4smMessageRecycler.
+ * <b>1.4 19/10/2026</b><br>
+ * Zone status goes to X4smZonesStatusEvent listeners as the message.
+ * <b>1.5 19/10/2026</b><br>
+ * Messages are stamped with the time they are sent.
  */
 public class X4smMessage {
 
@@ -83,6 +81,12 @@ public class X4smMessage {
     private String gData;
     private int gType;
     private List<X4smAttribute> gAttributes = new ArrayList<>();
+    private byte[] gBuffer;
+    private int gOffset;
+    private int gLength;
+    private X4smTokenizer gTokens;
+    private boolean gDecoded;
+    private volatile long gSentTime;
 
     public X4smMessage() {
         gData = "<Empty />";
@@ -94,122 +98,302 @@ public class X4smMessage {
         gType = MSG_TYPE_NOTSET;
     }
 
+    /**
+     * Constructor of a received frame.
+     * The frame is not copied, the buffer must not change while the
+     * message or any message parsed from it is in use.
+     *
+     * @param Buffer Frame data
+     * @param Offset Start of the frame
+     * @param Length Length of the frame without line terminator
+     */
+    public X4smMessage( byte[] Buffer, int Offset, int Length ) {
+        gData = null;
+        gBuffer = Buffer;
+        gOffset = Offset;
+        gLength = Length;
+        gType = MSG_TYPE_NOTSET;
+    }
+
     public X4smMessage( int Type ) {
         gType = Type;
         gData = "<Empty />";
     }
 
+    protected X4smMessage( int Type, X4smTokenizer Tokens ) {
+        gType = Type;
+        gData = "<Empty />";
+        gTokens = Tokens;
+    }
+
+    /**
+     * Point a recycled message at a new frame
+     */
+    void reset( byte[] Buffer, int Offset, int Length ) {
+        gData = null;
+        gBuffer = Buffer;
+        gOffset = Offset;
+        gLength = Length;
+        gType = MSG_TYPE_NOTSET;
+        gTokens = null;
+        gDecoded = false;
+        gAttributes.clear();
+    }
+
+    /**
+     * Raw frame of a received message
+     * @return Frame buffer, null if the message was not received
+     */
+    byte[] getBuffer() {
+        return gBuffer;
+    }
+
+    int getOffset() {
+        return gOffset;
+    }
+
+    int getLength() {
+        return gLength;
+    }
+
+    /**
+     * Reuse a typed message for new tokens.
+     * Typed messages that are recycled override this to clear their state,
+     * they may keep arrays and text that still match the new frame.
+     */
+    protected void recycle( X4smTokenizer Tokens ) {
+        gTokens = Tokens;
+        gDecoded = false;
+        gAttributes.clear();
+    }
+
     public void setData( String Data ) {
         gData = Data;
+        gBuffer = null;
     }
 
     public String getData() {
+        if(gData == null) {
+            gData = new String(gBuffer, gOffset, gLength, StandardCharsets.UTF_8);
+        }
         return gData;
     }
 
+    public int getType() {
+        return gType;
+    }
+
+    /**
+     * Called by the connection just before the message is written
+     * @param Time Local time in milliseconds
+     */
+    public void stamp( long Time ) {
+        gSentTime = Time;
+    }
+
+    /**
+     * Local time the message was written
+     * @return Time in milliseconds, 0 if the message was not sent
+     */
+    public long getSentTime() {
+        return gSentTime;
+    }
+
     public List getAttributes() {
+        ensureDecoded();
+        if(gAttributes.isEmpty() && (gTokens != null) && gTokens.isTokenized()) {
+            gAttributes.addAll(gTokens.toAttributes());
+        }
         return gAttributes;
     }
 
+    protected X4smTokenizer getTokens() {
+        return gTokens;
+    }
+
+    /**
+     * Decode the attributes of the message.
+     * parseData() only identifies the element, the attributes are tokenized
+     * and decoded by the first getter that needs them. Call this to decode
+     * up front and see decoding errors.
+     *
+     * @throws X4smException If the attributes are malformed
+     */
+    public void decode() throws X4smException {
+        if(gDecoded || (gTokens == null)) {
+            return;
+        }
+        gDecoded = true;
+        try {
+            gTokens.tokenize();
+            decodeAttributes();
+        } catch (NumberFormatException ex) {
+            throw new X4smException("Invalid value " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Decode the tokenized attributes, typed messages override this
+     * @throws X4smException
+     */
+    protected void decodeAttributes() throws X4smException {
+    }
+
+    /**
+     * Decode on behalf of a getter, a malformed message keeps its defaults
+     */
+    protected void ensureDecoded() {
+        if(gDecoded || (gTokens == null)) {
+            return;
+        }
+        try {
+            decode();
+        } catch (X4smException ex) {
+            System.out.println("XML Error: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Materialise an attribute value
+     * @param Index Attribute index, -1 if the attribute was not present
+     * @param Default Value returned for a missing attribute
+     */
+    protected String getString( int Index, String Default ) {
+        if(Index < 0) {
+            return Default;
+        }
+        return gTokens.getValue(Index, new X4smAttributeView()).toString();
+    }
+
+    /**
+     * Materialise one field of a separated attribute value
+     * @param Index Attribute index, -1 if the attribute was not present
+     * @param Field Field index
+     * @param Separator Field separator
+     * @param Default Value returned for a missing attribute
+     */
+    protected String getString( int Index, int Field, char Separator, String Default ) {
+        if(Index < 0) {
+            return Default;
+        }
+        X4smAttributeView v = gTokens.getValue(Index, new X4smAttributeView());
+        return v.field(Field, Separator, new X4smAttributeView()).toString();
+    }
+
+    /**
+     * Materialise a separated attribute value, like String.split does
+     * @param Index Attribute index, -1 if the attribute was not present
+     * @param Separator Field separator
+     * @return Fields, null for a missing attribute
+     */
+    protected String[] getStrings( int Index, char Separator ) {
+        if(Index < 0) {
+            return null;
+        }
+        X4smAttributeView v = gTokens.getValue(Index, new X4smAttributeView());
+        X4smAttributeView f = new X4smAttributeView();
+        String[] sa = new String[v.count(Separator)];
+        for(int i=0; i<sa.length; i++) {
+            sa[i] = v.field(i, Separator, f).toString();
+        }
+        return sa;
+    }
+
     public X4smMessage parseData() throws X4smException {
+        return parseData(null);
+    }
+
+    /**
+     * Parse the message
+     * @param Recycler Instances to reuse, null to create new ones
+     * @return Typed message, null if the message has no typed form
+     * @throws X4smException If the frame is not an XML element
+     */
+    public X4smMessage parseData( X4smMessageRecycler Recycler ) throws X4smException {
 
         X4smMessage msg = null;
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-	DocumentBuilder dBuilder;
-        Document doc = null;
+        X4smTokenizer tokens = (Recycler != null) ? Recycler.getTokenizer() : new X4smTokenizer();
         try {
-            dBuilder = dbFactory.newDocumentBuilder();
-            InputSource is = new InputSource();
-            is.setCharacterStream(new StringReader(gData));
-            doc = dBuilder.parse(is);
-        } catch (IOException | ParserConfigurationException | SAXException ex) {
+            if(gBuffer != null) {
+                tokens.reset(gBuffer, gOffset, gLength);
+            }
+            else {
+                byte[] b = gData.getBytes(StandardCharsets.UTF_8);
+                tokens.reset(b, 0, b.length);
+            }
+        } catch (X4smException ex) {
             System.out.println("XML Error");
-            throw new X4smException("XML Error");
+            throw ex;
         }
 
-        doc.getDocumentElement().normalize();
-        Node node = doc.getFirstChild();
-        String cmd = node.getNodeName();
-        NamedNodeMap attr = node.getAttributes();
+        gTokens = tokens;
+        gDecoded = false;
         gAttributes.clear();
-        for(int i=0; i<attr.getLength(); i++) {
-            Node n = attr.item(i);
-            X4smAttribute a = new X4smAttribute(n.getNodeName(), n.getNodeValue());
-            gAttributes.add(a);
-        }
+        X4smAttributeView cmd = tokens.getElement((Recycler != null) ? Recycler.getView() : new X4smAttributeView());
 
         gType = MSG_TYPE_UNKNOWN;
 
         // decode command
-        if(cmd.matches("Ack")) {
+        if(cmd.is("Ack")) {
             gType = MSG_TYPE_ACK;
             msg = this;
         }
-        else if(cmd.matches("Ready")) {
+        else if(cmd.is("Ready")) {
             gType = MSG_TYPE_READY;
             msg = this;
         }
-        else if(cmd.matches("Error")) {
+        else if(cmd.is("Error")) {
             gType = MSG_TYPE_ERROR;
         }
-        else if(cmd.matches("EOT")) {
+        else if(cmd.is("EOT")) {
             gType = MSG_TYPE_EOT;
         }
-        else if(cmd.matches("Firmware")) {
+        else if(cmd.is("Firmware")) {
             gType = MSG_TYPE_FIRMWARE;
         }
-        else if(cmd.matches("DateTime")) {
+        else if(cmd.is("DateTime")) {
             gType = MSG_TYPE_DATETIME;
-            X4smDateTimeMessage m = new X4smDateTimeMessage(gAttributes);
-            m.parse();
+            X4smDateTimeMessage m = new X4smDateTimeMessage(tokens);
             msg = m;
         }
-        else if(cmd.matches("Programs")) {
+        else if(cmd.is("Programs")) {
             gType = MSG_TYPE_PROGRAMS;
-            X4smProgramsMessage m = new X4smProgramsMessage(gAttributes);
-            m.parse();
+            X4smProgramsMessage m = new X4smProgramsMessage(tokens);
             msg = m;
         }
-        else if(cmd.matches("Config")) {
+        else if(cmd.is("Config")) {
             gType = MSG_TYPE_CONFIG;
-            X4smConfigMessage m = new X4smConfigMessage(gAttributes);
-            m.parse();
+            X4smConfigMessage m = new X4smConfigMessage(tokens);
             msg = m;
         }
-        else if(cmd.matches("Program")) {
+        else if(cmd.is("Program")) {
             gType = MSG_TYPE_PROGRAM;
-            X4smProgramMessage m = new X4smProgramMessage(gAttributes);
-            m.parse();
+            X4smProgramMessage m = new X4smProgramMessage(tokens);
             msg = m;
         }
-        else if(cmd.matches("Zones")) {
+        else if(cmd.is("Zones")) {
             gType = MSG_TYPE_ZONES;
-            X4smZonesMessage m = new X4smZonesMessage(gAttributes);
-            m.parse();
+            X4smZonesMessage m = (Recycler != null) ? Recycler.getZones(tokens) : new X4smZonesMessage(tokens);
             msg = m;
         }
-        else if(cmd.matches("Zone")) {
+        else if(cmd.is("Zone")) {
             gType = MSG_TYPE_ZONE;
-            X4smZoneMessage m = new X4smZoneMessage(gAttributes);
-            m.parse();
+            X4smZoneMessage m = new X4smZoneMessage(tokens);
             msg = m;
         }
-        else if(cmd.matches("DeviceInfo")) {
+        else if(cmd.is("DeviceInfo")) {
             gType = MSG_TYPE_INFO;
-            X4smInfoMessage m = new X4smInfoMessage(gAttributes);
-            m.parse();
+            X4smInfoMessage m = new X4smInfoMessage(tokens);
             msg = m;
         }
-        else if(cmd.matches("Inputs")) {
+        else if(cmd.is("Inputs")) {
             gType = MSG_TYPE_INPUTS;
-            X4smInputsMessage m = new X4smInputsMessage(gAttributes);
-            m.parse();
+            X4smInputsMessage m = (Recycler != null) ? Recycler.getInputs(tokens) : new X4smInputsMessage(tokens);
             msg = m;
         }
-        else if(cmd.matches("ActiveProgram")) {
+        else if(cmd.is("ActiveProgram")) {
             gType = MSG_TYPE_ACTIVEPROGRAM;
-            X4smActiveProgramMessage m = new X4smActiveProgramMessage(gAttributes);
-            m.parse();
+            X4smActiveProgramMessage m = (Recycler != null) ? Recycler.getActiveProgram(tokens) : new X4smActiveProgramMessage(tokens);
             msg = m;
         }
         else {
@@ -261,6 +445,9 @@ public class X4smMessage {
                     if(msgzones.getMessageType() == X4smZonesMessage.ZONE_MSG_TYPE_NAMES) {
                         ev.eventZones(msgzones.getNames());
                     }
+                    else if(ev instanceof X4smZonesStatusEvent) {
+                        ((X4smZonesStatusEvent)ev).eventZonesStatus(msgzones);
+                    }
                     else {
                         System.out.println("Zone status update");
                         ev.eventZonesStatus(msgzones.getNames(), msgzones.getStatus());
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.protocol;
+
+/**
+ * XML For Smart Mist Message Recycler
+ * Keeps one reusable instance of the frame message, the tokenizer and the
+ * high rate status messages (Zones, ActiveProgram and Inputs) of a single
+ * connection, so steady status polling does not allocate.
+ * <p>
+ * Ownership: a recycled message, the arrays it returns and the frame it
+ * points into are only valid until the next frame of the same connection
+ * is parsed. Listeners must copy arrays they want to keep, Strings are
+ * immutable and may be kept. A recycler must only be used by one thread.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class X4smMessageRecycler {
+
+    private final X4smMessage gFrame = new X4smMessage();
+    private final X4smTokenizer gTokens = new X4smTokenizer();
+    private final X4smAttributeView gView = new X4smAttributeView();
+    private X4smZonesMessage gZones;
+    private X4smActiveProgramMessage gActiveProgram;
+    private X4smInputsMessage gInputs;
+
+    /**
+     * Reusable message for a received frame
+     * @param Buffer Frame data, must not change while the message is used
+     * @param Offset Start of the frame
+     * @param Length Length of the frame without line terminator
+     * @return Frame message, parse it with parseData(this)
+     */
+    public X4smMessage getFrame( byte[] Buffer, int Offset, int Length ) {
+        gFrame.reset(Buffer, Offset, Length);
+        return gFrame;
+    }
+
+    X4smTokenizer getTokenizer() {
+        return gTokens;
+    }
+
+    X4smAttributeView getView() {
+        return gView;
+    }
+
+    X4smZonesMessage getZones( X4smTokenizer Tokens ) {
+        if(gZones == null) {
+            gZones = new X4smZonesMessage(Tokens);
+        }
+        gZones.recycle(Tokens);
+        return gZones;
+    }
+
+    X4smActiveProgramMessage getActiveProgram( X4smTokenizer Tokens ) {
+        if(gActiveProgram == null) {
+            gActiveProgram = new X4smActiveProgramMessage(Tokens);
+        }
+        gActiveProgram.recycle(Tokens);
+        return gActiveProgram;
+    }
+
+    X4smInputsMessage getInputs( X4smTokenizer Tokens ) {
+        if(gInputs == null) {
+            gInputs = new X4smInputsMessage(Tokens);
+        }
+        gInputs.recycle(Tokens);
+        return gInputs;
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.protocol;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * XML For Smart Mist Receive Pipeline
+ * Moves parsing and event dispatch off the connection threads. A connection
+ * attached to the pipeline only splits received data into frames and
+ * publishes them in its frame ring. Parse workers take the frames in
+ * batches, parse them and call the listeners. Every connection is served
+ * by one worker, so its frames stay in order and its ring keeps a single
+ * consumer. Listeners of attached connections are called on worker threads.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class X4smPipeline {
+
+    private static final int DEFAULT_BATCH = 32;
+    // also bounds the delay of a wake up that races with parking
+    private static final long IDLE_PARK = 10000000L;
+
+    private final Worker[] gWorkers;
+    private int gBatch;
+    private int gNext;
+    private volatile boolean gRunning;
+
+    /**
+     * Constructor of a pipeline
+     * @param Workers Number of parse workers
+     */
+    public X4smPipeline( int Workers ) {
+        gWorkers = new Worker[Math.max(1, Workers)];
+        for(int i=0; i<gWorkers.length; i++) {
+            gWorkers[i] = new Worker(i);
+        }
+        gBatch = DEFAULT_BATCH;
+    }
+
+    /**
+     * Set the number of frames a worker takes from a connection at a time
+     * @param Value Frames per batch
+     */
+    public void setBatch( int Value ) {
+        gBatch = Math.max(1, Value);
+    }
+
+    public int getWorkers() {
+        return gWorkers.length;
+    }
+
+    public synchronized void start() {
+        if(gRunning) {
+            return;
+        }
+        gRunning = true;
+        for(Worker w : gWorkers) {
+            w.start();
+        }
+    }
+
+    public synchronized void stop() {
+        if(!gRunning) {
+            return;
+        }
+        gRunning = false;
+        for(Worker w : gWorkers) {
+            w.stop();
+        }
+    }
+
+    /**
+     * Attach a connection to the worker with the fewest connections
+     * @return Worker serving the connection
+     */
+    synchronized Worker attach( X4smComm Comm ) {
+        Worker best = gWorkers[gNext];
+        for(Worker w : gWorkers) {
+            if(w.gComms.size() < best.gComms.size()) {
+                best = w;
+            }
+        }
+        gNext = (gNext + 1) % gWorkers.length;
+        best.gComms.add(Comm);
+        return best;
+    }
+
+    synchronized void detach( X4smComm Comm ) {
+        for(Worker w : gWorkers) {
+            w.gComms.remove(Comm);
+        }
+    }
+
+    /**
+     * Parse worker
+     */
+    class Worker implements Runnable {
+
+        private final int gIndex;
+        private final List<X4smComm> gComms = new CopyOnWriteArrayList<>();
+        private Thread gThread;
+        private volatile boolean gIdle;
+
+        Worker( int Index ) {
+            gIndex = Index;
+        }
+
+        /**
+         * Wake the worker after a frame was published
+         */
+        void wake() {
+            if(gIdle) {
+                Thread t = gThread;
+                if(t != null) {
+                    LockSupport.unpark(t);
+                }
+            }
+        }
+
+        private void start() {
+            gThread = new Thread(this);
+            gThread.setName("X4smPipeline::Worker" + gIndex);
+            gThread.setDaemon(true);
+            gThread.start();
+        }
+
+        private void stop() {
+            gThread.interrupt();
+            try {
+                gThread.join(2000);
+            } catch (InterruptedException ex) {
+            }
+            gThread = null;
+        }
+
+        @Override
+        public void run() {
+            System.out.println("X4smPipeline: Worker " + gIndex + " starting");
+            while(gRunning) {
+                int n = 0;
+                for(X4smComm c : gComms) {
+                    try {
+                        n += c.drainFrames(gBatch);
+                    } catch (RuntimeException ex) {
+                        // keep serving the other connections of this worker
+                        System.out.println("X4smPipeline: Worker " + gIndex + " drain failed (" + ex + ")");
+                    }
+                }
+                if(n == 0) {
+                    gIdle = true;
+                    // a frame published before the flag was set is seen here
+                    boolean pending = false;
+                    for(X4smComm c : gComms) {
+                        pending |= c.hasFrames();
+                    }
+                    if(!pending) {
+                        LockSupport.parkNanos(this, IDLE_PARK);
+                    }
+                    gIdle = false;
+                }
+            }
+            System.out.println("X4smPipeline: Worker " + gIndex + " stopping");
+        }
+
+    }
+
+}
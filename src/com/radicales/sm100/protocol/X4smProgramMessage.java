@@ -29,10 +29,14 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
  */
 public class X4smProgramMessage extends X4smMessage {
 
-    private List<X4smAttribute> gAttributes;
+    private int gNameIndex;
     private String gName;
     private long gControlWord;
     private int[] gWaterBudget = new int[12];
@@ -48,65 +52,86 @@ public class X4smProgramMessage extends X4smMessage {
      *
      */
     public X4smProgramMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_PROGRAM);
-        gAttributes = Attributes;
+        this(X4smTokenizer.fromAttributes("Program", Attributes));
+    }
+
+    public X4smProgramMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_PROGRAM, Tokens);
+        gNameIndex = -1;
         gStartTimes = new X4smStartTime[0];
         gSequences = new X4smSequence[0];
     }
 
     public void parse() throws X4smException  {
+        decode();
+    }
 
-        for(X4smAttribute attr : gAttributes) {
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = new X4smAttributeView();
+        X4smAttributeView f = new X4smAttributeView();
+        X4smAttributeView p = new X4smAttributeView();
 
-            if(attr.Name.matches("name")) {
-                gName = attr.Value;
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
+
+            if(tokens.getName(a, v).is("name")) {
+                gNameIndex = a;
             }
-            else if(attr.Name.matches("controlword")) {
-                gControlWord = Long.decode(attr.Value);
+            else if(v.is("controlword")) {
+                gControlWord = tokens.getValue(a, v).decodeLong();
             }
-            else if(attr.Name.matches("starttimes")) {
-                String[] st = attr.Value.split(",");
-                gStartTimes = new X4smStartTime[st.length];
-                for(int i=0; i<st.length; i++) {
-                    gStartTimes[i] = new X4smStartTime(0,0);
-                    gStartTimes[i].parseTime(st[i]);
+            else if(v.is("starttimes")) {
+                tokens.getValue(a, v);
+                gStartTimes = new X4smStartTime[v.count(',')];
+                for(int i=0; i<gStartTimes.length; i++) {
+                    v.field(i, ',', f);
+                    gStartTimes[i] = new X4smStartTime(f.field(0, ':', p).parseInt(), f.field(1, ':', p).parseInt());
                 }
             }
-            else if(attr.Name.matches("waterbudget")) {
-                String[] ss = attr.Value.split(",");
-
-                for(int i=0; (i<ss.length) && (i<12); i++) {
-                    gWaterBudget[i] = Integer.parseInt(ss[i]);
+            else if(v.is("waterbudget")) {
+                tokens.getValue(a, v);
+                int n = v.count(',');
+                for(int i=0; (i<n) && (i<12); i++) {
+                    gWaterBudget[i] = v.field(i, ',', f).parseInt();
                 }
             }
-            else if(attr.Name.matches("sequence")) {
-                String[] ss = attr.Value.split(",");
-                gSequences = new X4smSequence[ss.length];
-                for(int i=0; i<ss.length; i++) {
-                    gSequences[i] = new X4smSequence(0,0);
-                    gSequences[i].parseSequence(ss[i]);
+            else if(v.is("sequence")) {
+                tokens.getValue(a, v);
+                gSequences = new X4smSequence[v.count(',')];
+                for(int i=0; i<gSequences.length; i++) {
+                    v.field(i, ',', f);
+                    gSequences[i] = new X4smSequence(f.field(0, ':', p).parseInt(), f.field(1, ':', p).parseInt());
                 }
             }
         }
     }
 
     public String getName() {
+        ensureDecoded();
+        if(gName == null) {
+            gName = getString(gNameIndex, null);
+        }
         return gName;
     }
 
     public long getControlWord() {
+        ensureDecoded();
         return gControlWord;
     }
 
     public int[] getWaterBudget() {
+        ensureDecoded();
         return gWaterBudget;
     }
 
     public X4smStartTime[] getStartTimes() {
+        ensureDecoded();
         return gStartTimes;
     }
 
     public X4smSequence[] getSequences() {
+        ensureDecoded();
         return gSequences;
     }
 
@@ -29,23 +29,38 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
  */
 public class X4smProgramsMessage extends X4smMessage {
 
-    private List<X4smAttribute> gAttributes;
+    private int gNamesIndex;
     private String[] gNames;
 
     public X4smProgramsMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_PROGRAMS);
-        gAttributes = Attributes;
+        this(X4smTokenizer.fromAttributes("Programs", Attributes));
+    }
+
+    public X4smProgramsMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_PROGRAMS, Tokens);
+        gNamesIndex = -1;
     }
 
     public void parse() throws X4smException  {
+        decode();
+    }
 
-        for(X4smAttribute attr : gAttributes) {
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = new X4smAttributeView();
 
-            if(attr.Name.matches("names")) {
-                gNames = attr.Value.split(",");
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
+
+            if(tokens.getName(a, v).is("names")) {
+                gNamesIndex = a;
             }
 
         }
@@ -53,6 +68,10 @@ public class X4smProgramsMessage extends X4smMessage {
     }
 
     public String[] getNames() {
+        ensureDecoded();
+        if(gNames == null) {
+            gNames = getStrings(gNamesIndex, ',');
+        }
         return gNames;
     }
 
@@ -16,6 +16,8 @@
  */
 package com.radicales.sm100.protocol;
 
+import java.util.Calendar;
+
 /**
  * XML For Smart Mist Set Date/Time Message
  *
@@ -27,6 +29,8 @@ package com.radicales.sm100.protocol;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Time taken when the message is sent.
  */
 public class X4smSetDateTimeMessage extends X4smMessage {
 
@@ -37,6 +41,8 @@ public class X4smSetDateTimeMessage extends X4smMessage {
     private int gHour;
     private int gMinute;
     private int gSeconds;
+    private boolean gOnSend;
+    private long gLatency;
 
     public X4smSetDateTimeMessage( int Day, int WeekDay, int Month, int Year, int Hour, int Minute, int Seconds ) {
         super(X4smMessage.MSG_TYPE_SET_ZONE);
@@ -50,6 +56,40 @@ public class X4smSetDateTimeMessage extends X4smMessage {
        encode();
     }
 
+    /**
+     * Constructor of a message carrying the local time at the moment it is
+     * sent, plus the time it takes to reach the device
+     * @param Latency Expected one way delay in milliseconds
+     */
+    public X4smSetDateTimeMessage( long Latency ) {
+        super(X4smMessage.MSG_TYPE_SET_ZONE);
+        gOnSend = true;
+        gLatency = Latency;
+        setTime(System.currentTimeMillis() + Latency);
+    }
+
+    @Override
+    public void stamp( long Time ) {
+        super.stamp(Time);
+        if(gOnSend) {
+            setTime(Time + gLatency);
+        }
+    }
+
+    private void setTime( long Time ) {
+        // the device keeps whole seconds, round to the nearest one
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(((Time + 500) / 1000) * 1000);
+        gDay = cal.get(Calendar.DAY_OF_MONTH);
+        gWDay = cal.get(Calendar.DAY_OF_WEEK) - 1;
+        gMonth = cal.get(Calendar.MONTH);
+        gYear = cal.get(Calendar.YEAR);
+        gHour = cal.get(Calendar.HOUR_OF_DAY);
+        gMinute = cal.get(Calendar.MINUTE);
+        gSeconds = cal.get(Calendar.SECOND);
+        encode();
+    }
+
     private void encode() {
         String msg = "<SetDateTime date=\"";
         msg = msg + Integer.toString(gDay) + "/" + Integer.toString(gWDay) + "/" + Integer.toString(gMonth) + "/" + Integer.toString(gYear) + "\" ";
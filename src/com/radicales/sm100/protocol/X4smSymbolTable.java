@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * XML For Smart Mist Symbol Table
+ * Maps names, such as the zone names of a device, to slot numbers by
+ * comparing the raw bytes of a frame. The layout of a separated name list
+ * is cached, a list that repeats unchanged is resolved with one compare.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class X4smSymbolTable {
+
+    private byte[][] gNames = new byte[16][];
+    private int[] gSlots = new int[16];
+    private int gCount;
+    private int[] gIndex = new int[32];
+    private byte[] gLayoutKey;
+    private int gLayoutKeyLength = -1;
+    private int[] gLayout;
+    private final X4smAttributeView gField = new X4smAttributeView();
+
+    /**
+     * Remove all names
+     */
+    public void clear() {
+        gCount = 0;
+        Arrays.fill(gIndex, 0);
+        gLayoutKeyLength = -1;
+    }
+
+    public int size() {
+        return gCount;
+    }
+
+    /**
+     * Add a name, a name that is already present keeps its first slot
+     * @param Name Name
+     * @param Slot Slot number of the name
+     */
+    public void add( String Name, int Slot ) {
+        byte[] b = Name.getBytes(StandardCharsets.UTF_8);
+        if(find(b, 0, b.length) >= 0) {
+            return;
+        }
+        if(gCount == gNames.length) {
+            gNames = Arrays.copyOf(gNames, gCount * 2);
+            gSlots = Arrays.copyOf(gSlots, gCount * 2);
+        }
+        gNames[gCount] = b;
+        gSlots[gCount] = Slot;
+        gCount++;
+        if(gCount * 2 > gIndex.length) {
+            gIndex = new int[gIndex.length * 2];
+            for(int i=0; i<gCount; i++) {
+                insert(i);
+            }
+        }
+        else {
+            insert(gCount - 1);
+        }
+        gLayoutKeyLength = -1;
+    }
+
+    /**
+     * Look up a name
+     * @param Name Name as received
+     * @return Slot number, -1 if the name is unknown
+     */
+    public int lookup( X4smAttributeView Name ) {
+        int n = find(Name);
+        return (n < 0) ? -1 : gSlots[n];
+    }
+
+    /**
+     * Resolve a separated name list to slot numbers.
+     * The result is cached and returned again while the list is unchanged,
+     * it must not be modified.
+     *
+     * @param Names Name list as received
+     * @param Separator Name separator
+     * @return Slot number for every position in the list, -1 for unknown names
+     */
+    public int[] getLayout( X4smAttributeView Names, char Separator ) {
+        if(Names.contentEquals(gLayoutKey, gLayoutKeyLength)) {
+            return gLayout;
+        }
+        int[] layout = new int[Names.count(Separator)];
+        for(int i=0; i<layout.length; i++) {
+            layout[i] = lookup(Names.field(i, Separator, gField));
+            if((layout[i] < 0) && hasReference(gField)) {
+                // names sent with character references only match decoded
+                byte[] b = gField.toString().getBytes(StandardCharsets.UTF_8);
+                int n = find(b, 0, b.length);
+                layout[i] = (n < 0) ? -1 : gSlots[n];
+            }
+        }
+        gLayoutKey = Names.copyTo(gLayoutKey);
+        gLayoutKeyLength = Names.length();
+        gLayout = layout;
+        return layout;
+    }
+
+    private static boolean hasReference( X4smAttributeView Name ) {
+        for(int i=0; i<Name.length(); i++) {
+            if(Name.charAt(i) == '&') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void insert( int Entry ) {
+        byte[] b = gNames[Entry];
+        int mask = gIndex.length - 1;
+        int p = X4smAttributeView.hash(b, 0, b.length) & mask;
+        while(gIndex[p] != 0) {
+            p = (p + 1) & mask;
+        }
+        gIndex[p] = Entry + 1;
+    }
+
+    private int find( byte[] Buffer, int Offset, int Length ) {
+        return find(new X4smAttributeView(Buffer, Offset, Length));
+    }
+
+    private int find( X4smAttributeView Name ) {
+        int mask = gIndex.length - 1;
+        int p = Name.hash() & mask;
+        while(gIndex[p] != 0) {
+            int e = gIndex[p] - 1;
+            if(Name.contentEquals(gNames[e], gNames[e].length)) {
+                return e;
+            }
+            p = (p + 1) & mask;
+        }
+        return -1;
+    }
+
+}
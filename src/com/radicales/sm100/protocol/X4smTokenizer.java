@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2012-2015 Radical Electronic Systems, South Africa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.radicales.sm100.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * XML For Smart Mist Tokenizer
+ * Splits a single element frame such as &lt;Zones names="a,b" /&gt; into
+ * byte ranges for the element name and every attribute name and value.
+ * Nothing is copied, the ranges are read through attribute views.
+ * The element name is read first, the attributes only when they are needed.
+ *
+ * @author
+ * Jan Zwiegers,
+ * <a href="mailto:jan@radicalsystems.co.za">jan@radicalsystems.co.za</a>,
+ * <a href="http://www.radicalsystems.co.za">www.radicalsystems.co.za</a>
+ *
+ * @version
+ * <b>1.0 19/10/2026</b><br>
+ * Original release.
+ */
+public class X4smTokenizer {
+
+    private byte[] gBuffer;
+    private int gElementOffset;
+    private int gElementLength;
+    private int gEnd;
+    private int gPosition;
+    private boolean gTokenized;
+    private int[] gRanges;
+    private int gCount;
+
+    public X4smTokenizer() {
+        gRanges = new int[32];
+        gCount = 0;
+    }
+
+    /**
+     * Start tokenizing a frame, only the element name is read.
+     * The attributes are tokenized by tokenize(), continuing from the end
+     * of the element name.
+     *
+     * @param Buffer Frame data, must not change while the tokens are used
+     * @param Offset Start of the frame
+     * @param Length Length of the frame
+     * @throws X4smException If the frame does not start with an element
+     */
+    public void reset( byte[] Buffer, int Offset, int Length ) throws X4smException {
+        int end = Offset + Length;
+        int i = skipSpace(Buffer, Offset, end);
+
+        gBuffer = Buffer;
+        gEnd = end;
+        gCount = 0;
+        gTokenized = false;
+        if((i >= end) || (Buffer[i] != '<')) {
+            throw new X4smException("XML Error");
+        }
+        i++;
+        gElementOffset = i;
+        i = skipName(Buffer, i, end);
+        gElementLength = i - gElementOffset;
+        if(gElementLength == 0) {
+            throw new X4smException("XML Error");
+        }
+        gPosition = i;
+    }
+
+    /**
+     * Tokenize the attributes, does nothing if they are already tokenized
+     * @throws X4smException If the attributes are malformed
+     */
+    public void tokenize() throws X4smException {
+        if(gTokenized) {
+            return;
+        }
+        byte[] b = gBuffer;
+        int end = gEnd;
+        int i = gPosition;
+
+        gCount = 0;
+        while(true) {
+            int s = skipSpace(b, i, end);
+            if(s >= end) {
+                throw new X4smException("XML Error");
+            }
+            if(b[s] == '/') {
+                if((s + 1 >= end) || (b[s + 1] != '>')) {
+                    throw new X4smException("XML Error");
+                }
+                break;
+            }
+            if(b[s] == '>') {
+                break;
+            }
+            if(s == i) {
+                // attributes must be separated by white space
+                throw new X4smException("XML Error");
+            }
+            int name = s;
+            i = skipName(b, s, end);
+            int nameLength = i - name;
+            i = skipSpace(b, i, end);
+            if((nameLength == 0) || (i >= end) || (b[i] != '=')) {
+                throw new X4smException("XML Error");
+            }
+            i = skipSpace(b, i + 1, end);
+            if((i >= end) || ((b[i] != '"') && (b[i] != '\''))) {
+                throw new X4smException("XML Error");
+            }
+            byte quote = b[i++];
+            int value = i;
+            while((i < end) && (b[i] != quote)) {
+                if(b[i] == '<') {
+                    throw new X4smException("XML Error");
+                }
+                i++;
+            }
+            if(i >= end) {
+                throw new X4smException("XML Error");
+            }
+            add(name, nameLength, value, i - value);
+            i++;
+        }
+        gTokenized = true;
+    }
+
+    public boolean isTokenized() {
+        return gTokenized;
+    }
+
+    /**
+     * Number of attributes, valid after tokenize()
+     */
+    public int getAttributeCount() {
+        return gCount;
+    }
+
+    public X4smAttributeView getElement( X4smAttributeView Into ) {
+        return Into.set(gBuffer, gElementOffset, gElementLength);
+    }
+
+    public X4smAttributeView getName( int Index, X4smAttributeView Into ) {
+        return Into.set(gBuffer, gRanges[Index * 4], gRanges[(Index * 4) + 1]);
+    }
+
+    public X4smAttributeView getValue( int Index, X4smAttributeView Into ) {
+        return Into.set(gBuffer, gRanges[(Index * 4) + 2], gRanges[(Index * 4) + 3]);
+    }
+
+    /**
+     * Find an attribute by name
+     * @param Name Attribute name
+     * @param Into View to point at the value
+     * @return Index of the attribute, -1 if it is not present
+     */
+    public int find( String Name, X4smAttributeView Into ) {
+        for(int i=0; i<gCount; i++) {
+            if(getName(i, Into).is(Name)) {
+                getValue(i, Into);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Materialise all attributes
+     * @return Attribute list
+     */
+    public List<X4smAttribute> toAttributes() {
+        List<X4smAttribute> list = new ArrayList<>(gCount);
+        X4smAttributeView v = new X4smAttributeView();
+        for(int i=0; i<gCount; i++) {
+            list.add(new X4smAttribute(getName(i, v).toString(), getValue(i, v).toString()));
+        }
+        return list;
+    }
+
+    /**
+     * Tokenize an element built from an attribute list
+     * @param Element Element name
+     * @param Attributes Attributes of the element
+     * @return Tokens of the element
+     */
+    public static X4smTokenizer fromAttributes( String Element, List<X4smAttribute> Attributes ) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('<').append(Element);
+        for(X4smAttribute a : Attributes) {
+            sb.append(' ').append(a.Name).append("=\"");
+            escape(sb, a.Value);
+            sb.append('"');
+        }
+        sb.append(" />");
+
+        byte[] b = sb.toString().getBytes(StandardCharsets.UTF_8);
+        X4smTokenizer t = new X4smTokenizer();
+        try {
+            t.reset(b, 0, b.length);
+            t.tokenize();
+        } catch (X4smException ex) {
+            throw new IllegalArgumentException("Invalid attribute name");
+        }
+        return t;
+    }
+
+    private static void escape( StringBuilder Into, String Value ) {
+        for(int i=0; i<Value.length(); i++) {
+            char c = Value.charAt(i);
+            switch(c) {
+                case '&':
+                    Into.append("&amp;");
+                    break;
+                case '<':
+                    Into.append("&lt;");
+                    break;
+                case '"':
+                    Into.append("&quot;");
+                    break;
+                default:
+                    Into.append(c);
+                    break;
+            }
+        }
+    }
+
+    private void add( int Name, int NameLength, int Value, int ValueLength ) {
+        if((gCount + 1) * 4 > gRanges.length) {
+            int[] r = new int[gRanges.length * 2];
+            System.arraycopy(gRanges, 0, r, 0, gRanges.length);
+            gRanges = r;
+        }
+        int p = gCount * 4;
+        gRanges[p] = Name;
+        gRanges[p + 1] = NameLength;
+        gRanges[p + 2] = Value;
+        gRanges[p + 3] = ValueLength;
+        gCount++;
+    }
+
+    private static int skipSpace( byte[] Buffer, int Index, int End ) {
+        while((Index < End) && ((Buffer[Index] == ' ') || (Buffer[Index] == '\t') || (Buffer[Index] == '\r') || (Buffer[Index] == '\n'))) {
+            Index++;
+        }
+        return Index;
+    }
+
+    private static int skipName( byte[] Buffer, int Index, int End ) {
+        while(Index < End) {
+            byte c = Buffer[Index];
+            if(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9'))
+                    || (c == '_') || (c == '-') || (c == '.') || (c == ':')) {
+                Index++;
+            }
+            else {
+                break;
+            }
+        }
+        return Index;
+    }
+
+}
@@ -29,10 +29,14 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
  */
 public class X4smZoneMessage extends X4smMessage {
 
-    private List<X4smAttribute> gAttributes;
+    private int gNameIndex;
     private String gName;
     private long gControlWord;
     private int gInitValue;
@@ -40,49 +44,68 @@ public class X4smZoneMessage extends X4smMessage {
     private int gOffDelay;
 
     public X4smZoneMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_ZONE);
-        gAttributes = Attributes;
+        this(X4smTokenizer.fromAttributes("Zone", Attributes));
+    }
+
+    public X4smZoneMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_ZONE, Tokens);
+        gNameIndex = -1;
     }
 
     public void parse() throws X4smException  {
+        decode();
+    }
 
-        for(X4smAttribute attr : gAttributes) {
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = new X4smAttributeView();
 
-            if(attr.Name.matches("name")) {
-                gName = attr.Value;
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
+
+            if(tokens.getName(a, v).is("name")) {
+                gNameIndex = a;
             }
-            else if(attr.Name.matches("wontrolword")) {
-                gControlWord = Long.decode(attr.Value);
+            else if(v.is("wontrolword")) {
+                gControlWord = tokens.getValue(a, v).decodeLong();
             }
-            else if(attr.Name.matches("initvalue")) {
-                gInitValue = Integer.parseInt(attr.Value);
+            else if(v.is("initvalue")) {
+                gInitValue = tokens.getValue(a, v).parseInt();
             }
-            else if(attr.Name.matches("channel")) {
-                gChannel = Integer.parseInt(attr.Value);
+            else if(v.is("channel")) {
+                gChannel = tokens.getValue(a, v).parseInt();
             }
-            else if(attr.Name.matches("offdelay")) {
-                gOffDelay = Integer.parseInt(attr.Value);
+            else if(v.is("offdelay")) {
+                gOffDelay = tokens.getValue(a, v).parseInt();
             }
         }
     }
 
     public String getName() {
+        ensureDecoded();
+        if(gName == null) {
+            gName = getString(gNameIndex, null);
+        }
         return gName;
     }
 
     public long getControlWord() {
+        ensureDecoded();
         return gControlWord;
     }
 
     public int getChannel() {
+        ensureDecoded();
         return gChannel;
     }
 
     public int getInitValue() {
+        ensureDecoded();
         return gInitValue;
     }
 
     public int getOffDelay() {
+        ensureDecoded();
         return gOffDelay;
     }
 
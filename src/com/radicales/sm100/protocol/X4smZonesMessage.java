@@ -29,39 +29,84 @@ import java.util.List;
  * @version
  * <b>1.0 01/11/2014</b><br>
  * Original release.
+ * <b>1.1 19/10/2026</b><br>
+ * Attributes are decoded in place, text is materialised by the getters.
+ * <b>1.2 19/10/2026</b><br>
+ * Attributes are decoded by the first getter instead of when parsed.
+ * <b>1.3 19/10/2026</b><br>
+ * Instances can be recycled for the next frame.
+ * <b>1.4 19/10/2026</b><br>
+ * Raw access to the name list.
  */
 public class X4smZonesMessage extends X4smMessage {
 
     public static final int ZONE_MSG_TYPE_NAMES = 0;
     public static final int ZONE_MSG_TYPE_STATUS = 1;
-    private final List<X4smAttribute> gAttributes;
     private int gType;
+    private int gNamesIndex;
     private String[] gNames;
     private boolean[] gStatus;
+    private boolean gRecycled;
+    private boolean[] gStatusCache;
+    private String[] gNamesCache;
+    private byte[] gNamesKey;
+    private int gNamesKeyLength = -1;
+    private final X4smAttributeView gView = new X4smAttributeView();
+    private final X4smAttributeView gField = new X4smAttributeView();
 
     public X4smZonesMessage( List<X4smAttribute> Attributes ) {
-        super(MSG_TYPE_ZONES);
-        gAttributes = Attributes;
+        this(X4smTokenizer.fromAttributes("Zones", Attributes));
+    }
+
+    public X4smZonesMessage( X4smTokenizer Tokens ) {
+        super(MSG_TYPE_ZONES, Tokens);
+        gNamesIndex = -1;
         gNames = null;
         gStatus = null;
         gType = ZONE_MSG_TYPE_NAMES;
     }
 
-    public void parse() throws X4smException  {
-
-        for(X4smAttribute attr : gAttributes) {
+    @Override
+    protected void recycle( X4smTokenizer Tokens ) {
+        super.recycle(Tokens);
+        gRecycled = true;
+        gNamesIndex = -1;
+        gNames = null;
+        gStatus = null;
+        gType = ZONE_MSG_TYPE_NAMES;
+    }
 
-            if(attr.Name.matches("names")) {
-                gNames = attr.Value.split(",");
-            }
+    public void parse() throws X4smException  {
+        decode();
+    }
 
-            if(attr.Name.matches("status")) {
-                String[] sa = attr.Value.split(",");
-                gStatus = new boolean[sa.length];
-                for(int i=0; i<sa.length; i++) {
+    @Override
+    protected void decodeAttributes() throws X4smException  {
+        X4smTokenizer tokens = getTokens();
+        X4smAttributeView v = gView;
+        X4smAttributeView f = gField;
 
-                    gStatus[i] = sa[i].matches("on");
+        for(int a=0; a<tokens.getAttributeCount(); a++) {
 
+            if(tokens.getName(a, v).is("names")) {
+                gNamesIndex = a;
+                // a recycled message keeps the names while they do not change
+                if(gRecycled && tokens.getValue(a, v).contentEquals(gNamesKey, gNamesKeyLength)) {
+                    gNames = gNamesCache;
+                }
+            }
+            else if(v.is("status")) {
+                tokens.getValue(a, v);
+                int n = v.count(',');
+                if(gRecycled && (gStatusCache != null) && (gStatusCache.length == n)) {
+                    gStatus = gStatusCache;
+                }
+                else {
+                    gStatus = new boolean[n];
+                    gStatusCache = gRecycled ? gStatus : null;
+                }
+                for(int i=0; i<gStatus.length; i++) {
+                    gStatus[i] = v.field(i, ',', f).is("on");
                 }
                 gType = ZONE_MSG_TYPE_STATUS;
             }
@@ -71,14 +116,39 @@ public class X4smZonesMessage extends X4smMessage {
     }
 
     public String[] getNames() {
+        ensureDecoded();
+        if((gNames == null) && (gNamesIndex >= 0)) {
+            gNames = getStrings(gNamesIndex, ',');
+            if(gRecycled) {
+                X4smAttributeView v = getTokens().getValue(gNamesIndex, gView);
+                gNamesKey = v.copyTo(gNamesKey);
+                gNamesKeyLength = v.length();
+                gNamesCache = gNames;
+            }
+        }
         return gNames;
     }
 
+    /**
+     * Point a view at the name list as received, without splitting it
+     * @param Into View to point at the list
+     * @return Into, null if the message has no name list
+     */
+    public X4smAttributeView getNames( X4smAttributeView Into ) {
+        ensureDecoded();
+        if(gNamesIndex < 0) {
+            return null;
+        }
+        return getTokens().getValue(gNamesIndex, Into);
+    }
+
     public boolean[] getStatus() {
+        ensureDecoded();
         return gStatus;
     }
 
     public int getMessageType() {
+        ensureDecoded();
         return gType;
     }
 